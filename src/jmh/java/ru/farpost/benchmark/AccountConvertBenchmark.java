@@ -0,0 +1,67 @@
+package ru.farpost.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.farpost.dto.AccountDTO;
+import ru.farpost.dto.OperationDTO;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк {@code AccountService.convertToDTO} в зависимости от размера истории аккаунта.
+ * Для сравнения измеряется преобразование всей истории операций (прежнее поведение).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountConvertBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int historySize;
+
+    private BenchmarkServices services;
+    private Account account;
+    private List<Operation> history;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        services = new BenchmarkServices(1);
+        account = services.repositories.seedAccount(historySize);
+        history = services.repositories.operationRepository()
+                .findByAccountIdAndDateBetween(account.getId(), java.time.LocalDateTime.MIN, java.time.LocalDateTime.MAX);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        services.shutdown();
+    }
+
+    @Benchmark
+    public AccountDTO summary() {
+        return services.accountService.convertToDTO(account);
+    }
+
+    @Benchmark
+    public AccountDTO fullHistory() {
+        List<OperationDTO> operations = history.stream()
+                .map(operation -> new OperationDTO(
+                        operation.getId(),
+                        MoneyUtils.toDecimal(operation.getAmount()),
+                        operation.getType(),
+                        operation.getDescription(),
+                        operation.getDate(),
+                        operation.getAccount().getId(),
+                        MoneyUtils.toDecimal(operation.getAccountBalance()),
+                        operation.getLinkedOperationId()))
+                .toList();
+        return new AccountDTO(account.getId(), account.getUsername(), MoneyUtils.toDecimal(account.getBalance()),
+                account.getCreatedAt(), operations, null);
+    }
+
+}
@@ -0,0 +1,43 @@
+package ru.farpost.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк арифметики баланса: {@link BigDecimal} (текущая реализация) и long в минимальных единицах
+ * с проверкой переполнения.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceArithmeticBenchmark {
+
+    private BigDecimal decimalBalance = new BigDecimal("1000000.00");
+    private final BigDecimal decimalAmount = new BigDecimal("12.34");
+    private long minorBalance = 100_000_000L;
+    private final long minorAmount = 1234L;
+
+    @Benchmark
+    public BigDecimal bigDecimalDepositWithdraw() {
+        decimalBalance = decimalBalance.add(decimalAmount);
+        if (decimalBalance.compareTo(decimalAmount) >= 0) {
+            decimalBalance = decimalBalance.subtract(decimalAmount);
+        }
+        return decimalBalance;
+    }
+
+    @Benchmark
+    public long longDepositWithdraw() {
+        minorBalance = Math.addExact(minorBalance, minorAmount);
+        if (minorBalance >= minorAmount) {
+            minorBalance = Math.subtractExact(minorBalance, minorAmount);
+        }
+        return minorBalance;
+    }
+
+}
@@ -0,0 +1,41 @@
+package ru.farpost.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Точка входа для запуска бенчмарков для каждого количества потоков из свойства jmh.threads.
+ * Результаты сохраняются в target/jmh-result-t{потоки}.json.
+ * <p>
+ * Свойства: jmh.include (регулярное выражение бенчмарков), jmh.threads (например "1,4,8"),
+ * jmh.db.url (включает бенчмарк на локальной БД).
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+
+        String include = System.getProperty("jmh.include", ".*");
+        String databaseUrl = System.getProperty("jmh.db.url", "");
+
+        for (String threads : System.getProperty("jmh.threads", "1").split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include("ru\\.farpost\\.benchmark\\." + include)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-result-t" + threads.trim() + ".json");
+            if (databaseUrl.isBlank()) {
+                options.exclude(DatabaseOperationServiceBenchmark.class.getSimpleName());
+            } else {
+                options.jvmArgsAppend("-Djmh.db.url=" + databaseUrl,
+                        "-Djmh.db.username=" + System.getProperty("jmh.db.username", "username"),
+                        "-Djmh.db.password=" + System.getProperty("jmh.db.password", "password"));
+            }
+            new Runner(options.build()).run();
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+package ru.farpost.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.admission.OperationAdmission;
+import ru.farpost.archive.OperationArchive;
+import ru.farpost.cache.AccountCache;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ReadRouting;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.datasource.ShardRouting;
+import ru.farpost.engine.OperationEngine;
+import ru.farpost.metrics.OperationMetrics;
+import ru.farpost.service.AccountService;
+import ru.farpost.service.BalanceSnapshotService;
+import ru.farpost.service.HotAccountService;
+import ru.farpost.service.IdempotencyService;
+import ru.farpost.service.OperationService;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Сборка сервисов приложения поверх {@link InMemoryRepositories} без контекста Spring и БД.
+ * Транзакции не выполняют никаких действий, события не доставляются слушателям.
+ */
+public class BenchmarkServices {
+
+    public final InMemoryRepositories repositories = new InMemoryRepositories();
+    public final OperationEngine operationEngine;
+    public final AccountService accountService;
+    public final OperationService operationService;
+
+    public BenchmarkServices(int lanes) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new NoOpTransactionManager());
+
+        OperationArchive operationArchive = new OperationArchive(new JdbcTemplate());
+        // шардирование выключено: все аккаунты на шарде 0
+        ShardMap shardMap = new ShardMap(new ShardRouting(), Optional.empty(), List.of(), Duration.ofSeconds(1), 1000);
+        BalanceSnapshotService balanceSnapshotService = new BalanceSnapshotService(repositories.balanceSnapshotRepository(),
+                repositories.accountRepository(), new JdbcTemplate(), operationArchive, shardMap, false, 1000);
+        AccountCache accountCache = new AccountCache(100_000, Duration.ofSeconds(60), meterRegistry);
+        ReadRouting readRouting = new ReadRouting(false, Duration.ofSeconds(10), 0);
+        // горячие аккаунты выключены (как в режиме журнала операций): пополнения изменяют баланс аккаунта
+        HotAccountService hotAccountService = new HotAccountService(new JdbcTemplate(), transactionTemplate,
+                repositories.accountRepository(), event -> { }, readRouting, shardMap, true, 0);
+        this.operationEngine = new OperationEngine(lanes, 1024, meterRegistry);
+        this.accountService = new AccountService(repositories.accountRepository(), balanceSnapshotService,
+                repositories.operationRepository(), accountCache, event -> { }, readRouting, hotAccountService, shardMap,
+                transactionTemplate, Optional.empty(), 10, 100);
+        this.operationService = new OperationService(accountService, repositories.operationRepository(),
+                operationEngine, transactionTemplate, event -> { }, new OperationMetrics(meterRegistry),
+                new IdempotencyService(new JdbcTemplate(), meterRegistry, shardMap, 100_000, Duration.ofMinutes(10), Duration.ofHours(24)),
+                Optional.empty(), readRouting,
+                new OperationAdmission(false, 1, 0, 0, 0, 0, Duration.ZERO, 0, meterRegistry), hotAccountService,
+                operationArchive, shardMap, 10_000, 500, 1000);
+        verifyRepositories();
+    }
+
+    /**
+     * Метод для проверки при сборке сервисов, что хранилище в памяти реализует методы репозиториев, вызываемые
+     * на измеряемых путях: иначе бенчмарк завершился бы ошибкой уже во время измерений.
+     */
+    private void verifyRepositories() {
+        Long accountId = repositories.seedAccount(1).getId();
+        try {
+            operationService.processOperation(accountId, BigDecimal.TEN, OperationTypes.DEPOSIT);
+            operationService.processOperation(accountId, BigDecimal.ONE, OperationTypes.WITHDRAW);
+            accountService.findAccountInfo(accountId, null);
+            accountService.findBalanceAtDate(accountId, LocalDateTime.now());
+        } catch (UnsupportedOperationException e) {
+            throw new IllegalStateException("Хранилище в памяти не поддерживает путь сервисов, измеряемый бенчмарками: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    public void shutdown() throws InterruptedException {
+        operationEngine.shutdown();
+    }
+
+    /**
+     * Менеджер транзакций, не выполняющий никаких действий.
+     */
+    private static class NoOpTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package ru.farpost.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.farpost.AccountBalanceApiApplication;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.dto.OperationDTO;
+import ru.farpost.service.AccountService;
+import ru.farpost.service.OperationService;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк {@code OperationService.processOperation} на локальной БД PostgreSQL.
+ * Запускается только при указании адреса БД (-Djmh.db.url=jdbc:postgresql://localhost:5432/postgres),
+ * учетные данные задаются свойствами jmh.db.username и jmh.db.password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class DatabaseOperationServiceBenchmark {
+
+    @Param({"100"})
+    public int accounts;
+
+    private ConfigurableApplicationContext context;
+    private OperationService operationService;
+    private long[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = SpringApplication.run(AccountBalanceApiApplication.class,
+                "--spring.main.web-application-type=none",
+                "--spring.datasource.url=" + System.getProperty("jmh.db.url"),
+                "--spring.datasource.username=" + System.getProperty("jmh.db.username", "username"),
+                "--spring.datasource.password=" + System.getProperty("jmh.db.password", "password"));
+        operationService = context.getBean(OperationService.class);
+        AccountService accountService = context.getBean(AccountService.class);
+        accountIds = new long[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = accountService.createAccount("benchmark-" + i).getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public OperationDTO depositRandomAccount() {
+        long accountId = accountIds[ThreadLocalRandom.current().nextInt(accountIds.length)];
+        return operationService.processOperation(accountId, BigDecimal.TEN, OperationTypes.DEPOSIT);
+    }
+
+}
@@ -0,0 +1,40 @@
+package ru.farpost.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.farpost.components.OperationTypes;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк построения описания операции: {@code String.format} (прежняя реализация при записи операции),
+ * конкатенация и построение описания при чтении по сумме в минимальных единицах (текущая реализация).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescriptionBenchmark {
+
+    private final OperationTypes type = OperationTypes.DEPOSIT;
+    private final BigDecimal amount = new BigDecimal("12345.67");
+    private final long minorAmount = 1234567L;
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format("%s на сумму: %s", type.getDescription(), amount);
+    }
+
+    @Benchmark
+    public String concatenation() {
+        return type.getDescription() + " на сумму: " + amount;
+    }
+
+    @Benchmark
+    public String describe() {
+        return type.describe(minorAmount);
+    }
+
+}
@@ -0,0 +1,194 @@
+package ru.farpost.benchmark;
+
+import org.springframework.data.domain.Limit;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+import ru.farpost.repository.AccountRepository;
+import ru.farpost.repository.BalanceSnapshotRepository;
+import ru.farpost.repository.OperationRepository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хранилище в памяти, предоставляющее реализации репозиториев для бенчмарков без БД.
+ * Реализованы только методы, которые вызываются сервисами на измеряемых путях (их вызов проверяется при сборке
+ * сервисов {@link BenchmarkServices}), остальные методы выбрасывают {@link UnsupportedOperationException}.
+ */
+public class InMemoryRepositories {
+
+    private final Map<Long, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<Long, List<Operation>> operations = new ConcurrentHashMap<>();
+    private final AtomicLong accountIds = new AtomicLong();
+    private final AtomicLong operationIds = new AtomicLong();
+
+    public AccountRepository accountRepository() {
+        return proxy(AccountRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "save" -> saveAccount((Account) args[0]);
+            case "findById" -> Optional.ofNullable(accounts.get((Long) args[0]));
+            case "findAllById", "findAllByIdForUpdate" -> {
+                List<Account> found = new ArrayList<>();
+                for (Object id : (Iterable<?>) args[0]) {
+                    Account account = accounts.get((Long) id);
+                    if (account != null) {
+                        found.add(account);
+                    }
+                }
+                yield found;
+            }
+            case "depositBalance" -> changeBalance((Long) args[0], (long) args[1], Long.MIN_VALUE, (long) args[2]);
+            case "withdrawBalance" -> changeBalance((Long) args[0], -(long) args[1], (long) args[1], Long.MAX_VALUE);
+            case "existsById" -> accounts.containsKey((Long) args[0]);
+            case "getReferenceById" -> accounts.get((Long) args[0]);
+            case "findBalanceAtDate" -> lastBalance((Long) args[0], LocalDateTime.MIN, (LocalDateTime) args[1]);
+            case "findBalanceWithinPeriod" ->
+                    lastBalance((Long) args[0], (LocalDateTime) args[1], (LocalDateTime) args[2]);
+            case "findBalanceBefore" ->
+                    lastBalance((Long) args[0], (LocalDateTime) args[1], ((LocalDateTime) args[2]).minusNanos(1));
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    public OperationRepository operationRepository() {
+        return proxy(OperationRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "save" -> saveOperation((Operation) args[0]);
+            case "findById" -> operations.values().stream()
+                    .flatMap(history -> {
+                        synchronized (history) {
+                            return List.copyOf(history).stream();
+                        }
+                    })
+                    .filter(operation -> operation.getId().equals(args[0]))
+                    .findFirst();
+            case "saveAll" -> {
+                List<Operation> saved = new ArrayList<>();
+                for (Object operation : (Iterable<?>) args[0]) {
+                    saved.add(saveOperation((Operation) operation));
+                }
+                yield saved;
+            }
+            case "findByAccountIdOrderByDateDescIdDesc" -> {
+                List<Operation> history = history((Long) args[0]);
+                int limit = ((Limit) args[1]).max();
+                synchronized (history) {
+                    List<Operation> last = new ArrayList<>(history.subList(Math.max(0, history.size() - limit), history.size()));
+                    Collections.reverse(last);
+                    yield last;
+                }
+            }
+            case "findByAccountIdAndDateBetween" -> {
+                List<Operation> history = history((Long) args[0]);
+                synchronized (history) {
+                    yield history.stream()
+                            .filter(operation -> !operation.getDate().isBefore((LocalDateTime) args[1])
+                                    && !operation.getDate().isAfter((LocalDateTime) args[2]))
+                            .sorted(Comparator.comparing(Operation::getDate).thenComparing(Operation::getId))
+                            .toList();
+                }
+            }
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    public BalanceSnapshotRepository balanceSnapshotRepository() {
+        // контрольных точек нет: баланс на дату определяется по операциям
+        return proxy(BalanceSnapshotRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "findClosingBalanceBefore" -> null;
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    /**
+     * Метод для создания аккаунта с историей из указанного количества пополнений.
+     * @param historySize Количество операций в истории аккаунта.
+     * @return Созданный аккаунт.
+     */
+    public Account seedAccount(int historySize) {
+        Account account = saveAccount(new Account("benchmark"));
+        LocalDateTime date = LocalDateTime.now().minusSeconds(historySize);
+        for (int i = 0; i < historySize; i++) {
+            account.setBalance(account.getBalance() + 100);
+            Operation operation = new Operation(100, account.getBalance(), OperationTypes.DEPOSIT);
+            operation.setAccount(account);
+            operation.setDate(date.plusSeconds(i));
+            saveOperation(operation);
+        }
+        return account;
+    }
+
+    private Account saveAccount(Account account) {
+        if (account.getId() == null) {
+            account.setId(accountIds.incrementAndGet());
+        }
+        accounts.put(account.getId(), account);
+        return account;
+    }
+
+    private Long changeBalance(Long accountId, long delta, long minBalance, long maxBalance) {
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            return null;
+        }
+        synchronized (account) {
+            if (account.getBalance() < minBalance || account.getBalance() > maxBalance) {
+                return null;
+            }
+            account.setBalance(account.getBalance() + delta);
+            return account.getBalance();
+        }
+    }
+
+    private Operation saveOperation(Operation operation) {
+        if (operation.getId() == null) {
+            operation.setId(operationIds.incrementAndGet());
+            List<Operation> history = history(operation.getAccount().getId());
+            synchronized (history) {
+                history.add(operation);
+            }
+        }
+        return operation;
+    }
+
+    private List<Operation> history(Long accountId) {
+        return operations.computeIfAbsent(accountId, id -> new ArrayList<>());
+    }
+
+    private Long lastBalance(Long accountId, LocalDateTime from, LocalDateTime to) {
+        List<Operation> history = history(accountId);
+        synchronized (history) {
+            for (int i = history.size() - 1; i >= 0; i--) {
+                Operation operation = history.get(i);
+                if (!operation.getDate().isAfter(to) && !operation.getDate().isBefore(from)) {
+                    return operation.getAccountBalance();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Object objectMethod(Object proxy, String name, Object[] args) {
+        return switch (name) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> "InMemoryRepository";
+            default -> throw new UnsupportedOperationException(
+                    "Метод репозитория " + name + " не реализован в InMemoryRepositories");
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+}
@@ -0,0 +1,60 @@
+package ru.farpost.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.dto.OperationDTO;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк {@code OperationService.processOperation} поверх репозиториев в памяти:
+ * стоимость полосы движка, транзакционного шаблона, арифметики баланса и создания операции.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationServiceBenchmark {
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"0", "10000"})
+    public int historySize;
+
+    @Param({"0"})
+    public int lanes;
+
+    private BenchmarkServices services;
+    private long[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        services = new BenchmarkServices(lanes);
+        accountIds = new long[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = services.repositories.seedAccount(i == 0 ? historySize : 0).getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        services.shutdown();
+    }
+
+    @Benchmark
+    public OperationDTO depositRandomAccount() {
+        long accountId = accountIds[ThreadLocalRandom.current().nextInt(accountIds.length)];
+        return services.operationService.processOperation(accountId, BigDecimal.TEN, OperationTypes.DEPOSIT);
+    }
+
+    @Benchmark
+    public OperationDTO depositHotAccount() {
+        return services.operationService.processOperation(accountIds[0], BigDecimal.TEN, OperationTypes.DEPOSIT);
+    }
+
+}
@@ -0,0 +1,86 @@
+package ru.farpost.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Класс для измерения количества одновременных запросов: отправленных всеми нагрузками и еще не получивших ответ.
+ * Нагрузка подается с постоянной интенсивностью, поэтому количество запросов в обработке - результат прогона:
+ * по закону Литтла оно равно интенсивности, умноженной на задержку, и растет при перегрузке сервиса.
+ * <p>
+ * Максимум учитывается при каждой отправке запроса периода измерения, среднее и процентили - по выборкам
+ * с шагом {@link #SAMPLE_INTERVAL_NANOS}.
+ */
+public class InFlightRequests {
+
+    /**
+     * Шаг выборки количества запросов в обработке (в наносекундах).
+     */
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Количество отправленных запросов, ответ на которые еще не получен.
+     */
+    private final AtomicInteger current = new AtomicInteger();
+
+    /**
+     * Максимальное количество запросов в обработке за период измерения.
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Гистограмма выборок количества запросов в обработке за период измерения.
+     */
+    private final Histogram samples = new Histogram(3);
+
+    /**
+     * Метод для учета отправки запроса.
+     * @param measured Запрос периода измерения (false - прогрев).
+     */
+    public void started(boolean measured) {
+        int inFlight = current.incrementAndGet();
+        if (measured)
+            max.accumulate(inFlight);
+    }
+
+    /**
+     * Метод для учета получения ответа или ошибки отправки запроса.
+     */
+    public void finished() {
+        current.decrementAndGet();
+    }
+
+    /**
+     * Метод для выборки количества запросов в обработке от начала до окончания измерения.
+     * @param measureFrom Момент начала измерения ({@link System#nanoTime()}).
+     * @param end Момент окончания измерения ({@link System#nanoTime()}).
+     */
+    public void sample(long measureFrom, long end) {
+        for (long next = measureFrom; next < end; next += SAMPLE_INTERVAL_NANOS) {
+            long delay = next - System.nanoTime();
+            if (delay > 0)
+                LockSupport.parkNanos(delay);
+            samples.recordValue(current.get());
+        }
+    }
+
+    /**
+     * Метод для формирования результатов: среднее, p50, p99 и максимум количества запросов в обработке.
+     * @return Результаты в постоянном порядке полей.
+     */
+    public Map<String, Object> summarize() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mean", Math.round(samples.getMean() * 10) / 10.0);
+        result.put("p50", samples.getValueAtPercentile(50));
+        result.put("p99", samples.getValueAtPercentile(99));
+        result.put("max", max.get());
+        return result;
+    }
+
+}
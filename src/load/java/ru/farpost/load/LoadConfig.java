@@ -0,0 +1,72 @@
+package ru.farpost.load;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Duration;
+
+/**
+ * Параметры нагрузочного прогона, задаваемые системными свойствами load.* (см. docs/load-testing.md).
+ * @param baseUrl Адрес уже запущенного приложения (пусто - приложение запускается в процессе прогона).
+ * @param databaseUrl Адрес локальной БД (пусто - запускается встроенный PostgreSQL).
+ * @param databaseUsername Пользователь локальной БД.
+ * @param databasePassword Пароль пользователя локальной БД.
+ * @param accounts Количество создаваемых аккаунтов (N).
+ * @param operations Количество операций, создаваемых на каждый аккаунт (M).
+ * @param hotAccounts Количество "горячих" аккаунтов, на которые идут пополнения и списания.
+ * @param burstSize Количество одновременно отправляемых операций в одной пачке.
+ * @param writeRate Операций пополнения и списания в секунду.
+ * @param balanceByDateRate Запросов баланса на дату в секунду.
+ * @param periodRate Запросов операций за период в секунду.
+ * @param infoRate Запросов информации об аккаунте в секунду.
+ * @param warmup Длительность прогрева (результаты не учитываются).
+ * @param duration Длительность измерения.
+ * @param output Файл JSON с результатами.
+ * @param baseline Файл JSON с результатами предыдущего прогона для сравнения (пусто - без сравнения).
+ */
+public record LoadConfig(String baseUrl,
+                         String databaseUrl,
+                         String databaseUsername,
+                         @JsonIgnore String databasePassword,
+                         int accounts,
+                         int operations,
+                         int hotAccounts,
+                         int burstSize,
+                         double writeRate,
+                         double balanceByDateRate,
+                         double periodRate,
+                         double infoRate,
+                         Duration warmup,
+                         Duration duration,
+                         String output,
+                         String baseline) {
+
+    /**
+     * Метод для чтения параметров из системных свойств.
+     * @return Объект {@link LoadConfig}.
+     */
+    public static LoadConfig fromSystemProperties() {
+        return new LoadConfig(
+                System.getProperty("load.base-url", ""),
+                System.getProperty("load.db.url", ""),
+                System.getProperty("load.db.username", "username"),
+                System.getProperty("load.db.password", "password"),
+                Integer.getInteger("load.accounts", 1000),
+                Integer.getInteger("load.operations", 100),
+                Integer.getInteger("load.hot-accounts", 10),
+                Integer.getInteger("load.burst-size", 20),
+                rate("load.rate.write", 500),
+                rate("load.rate.balance-by-date", 200),
+                rate("load.rate.get-by-period", 50),
+                rate("load.rate.info", 200),
+                Duration.parse(System.getProperty("load.warmup", "PT15S")),
+                Duration.parse(System.getProperty("load.duration", "PT60S")),
+                System.getProperty("load.output", "target/load-result.json"),
+                System.getProperty("load.baseline", ""));
+    }
+
+    private static double rate(String property, double defaultRate) {
+        String value = System.getProperty(property, "");
+        return value.isBlank() ? defaultRate : Double.parseDouble(value);
+    }
+
+}
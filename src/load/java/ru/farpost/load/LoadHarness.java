@@ -0,0 +1,252 @@
+package ru.farpost.load;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.farpost.AccountBalanceApiApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Точка входа нагрузочного прогона.
+ * <p>
+ * Запускает приложение в процессе прогона на локальной БД (load.db.url) или встроенном PostgreSQL
+ * (либо использует уже запущенное приложение по load.base-url), создает N аккаунтов с M операциями через API
+ * (импорт аккаунтов и пакетные операции), затем одновременно подает нагрузки с заданной интенсивностью:
+ * пачки пополнений и списаний по "горячим" аккаунтам, баланс на дату, операции за период и информация
+ * об аккаунте. Результаты по эндпоинтам и количество запросов в обработке выводятся таблицей и сохраняются
+ * в JSON (load.output).
+ * <p>
+ * Системные свойства app.* передаются запускаемому приложению (например, -Dapp.ledger.enabled=true). Прогон
+ * выполняется в отдельной JVM, поэтому при запуске через Maven свойства приложения передаются строкой
+ * load.jvm.args: -Dload.jvm.args="-Dapp.ledger.enabled=true".
+ */
+public class LoadHarness {
+
+    /**
+     * Максимальное количество операций в одном пакетном запросе при заполнении (app.batch.max-size по умолчанию).
+     */
+    private static final int SEED_BATCH_SIZE = 10_000;
+
+    /**
+     * Начальный баланс аккаунтов, достаточный для списаний во время прогона.
+     */
+    private static final String OPENING_BALANCE = "1000000.00";
+
+    private final LoadConfig config;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    /**
+     * Запросы в обработке, общие для всех нагрузок прогона.
+     */
+    private final InFlightRequests inFlight = new InFlightRequests();
+
+    private String baseUrl;
+
+    public LoadHarness(LoadConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness(LoadConfig.fromSystemProperties()).run();
+    }
+
+    /**
+     * Метод для выполнения прогона: запуск окружения, заполнение данных, нагрузка и сохранение результатов.
+     */
+    public void run() throws Exception {
+
+        EmbeddedPostgres embeddedPostgres = null;
+        ConfigurableApplicationContext context = null;
+        try {
+            if (config.baseUrl().isBlank()) {
+                String databaseUrl = config.databaseUrl();
+                String username = config.databaseUsername();
+                String password = config.databasePassword();
+                if (databaseUrl.isBlank()) {
+                    embeddedPostgres = EmbeddedPostgres.builder().start();
+                    databaseUrl = embeddedPostgres.getJdbcUrl("postgres", "postgres");
+                    username = "postgres";
+                    password = "postgres";
+                    log("Запущен встроенный PostgreSQL: " + databaseUrl);
+                }
+                context = startApplication(databaseUrl, username, password);
+                baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            } else {
+                baseUrl = config.baseUrl();
+            }
+
+            LocalDateTime seededFrom = LocalDateTime.now();
+            long[] accountIds = seed();
+            LocalDateTime seededTo = LocalDateTime.now();
+
+            List<Workload> workloads = workloads(accountIds, seededFrom, seededTo);
+            Duration elapsed = runWorkloads(workloads);
+
+            LoadReport report = new LoadReport();
+            Map<String, Map<String, Object>> endpoints = report.summarize(workloads, elapsed);
+            Map<String, Object> concurrency = inFlight.summarize();
+            report.write(new File(config.output()), config, concurrency, endpoints);
+            report.print(concurrency, endpoints, config.baseline().isBlank() ? null : new File(config.baseline()));
+            log("Результаты сохранены в " + config.output());
+        } finally {
+            if (context != null)
+                context.close();
+            if (embeddedPostgres != null)
+                embeddedPostgres.close();
+        }
+
+    }
+
+    private ConfigurableApplicationContext startApplication(String databaseUrl, String username, String password) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=" + databaseUrl,
+                "--spring.datasource.username=" + username,
+                "--spring.datasource.password=" + password));
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("app."))
+                .forEach(name -> args.add("--" + name + "=" + System.getProperty(name)));
+        return SpringApplication.run(AccountBalanceApiApplication.class, args.toArray(String[]::new));
+    }
+
+    /**
+     * Метод для создания N аккаунтов (импорт CSV) и M операций на каждый аккаунт (пакетные операции).
+     * @return Идентификаторы созданных аккаунтов.
+     */
+    private long[] seed() throws IOException, InterruptedException {
+
+        long startedAt = System.nanoTime();
+        StringBuilder csv = new StringBuilder("username,balance\n");
+        for (int i = 0; i < config.accounts(); i++) {
+            csv.append("load-").append(i).append(',').append(OPENING_BALANCE).append('\n');
+        }
+        String imported = send(HttpRequest.newBuilder(uri("/api/accounts/import"))
+                .header("Content-Type", "text/csv")
+                .POST(HttpRequest.BodyPublishers.ofString(csv.toString()))
+                .build());
+        long[] accountIds = imported.lines()
+                .skip(1)
+                .mapToLong(line -> Long.parseLong(line.split(",")[1]))
+                .toArray();
+
+        long total = (long) accountIds.length * config.operations();
+        StringBuilder batch = new StringBuilder();
+        int batchSize = 0;
+        for (long i = 0; i < total; i++) {
+            long accountId = accountIds[(int) (i % accountIds.length)];
+            batch.append(batchSize == 0 ? "[" : ",")
+                    .append("{\"accountId\":").append(accountId)
+                    .append(",\"amount\":").append(ThreadLocalRandom.current().nextInt(1, 1000))
+                    .append(",\"type\":\"").append(i % 2 == 0 ? "DEPOSIT" : "WITHDRAW").append("\"}");
+            if (++batchSize == SEED_BATCH_SIZE || i == total - 1) {
+                send(HttpRequest.newBuilder(uri("/api/operations/batch"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(batch.append(']').toString()))
+                        .build());
+                batch.setLength(0);
+                batchSize = 0;
+            }
+        }
+        log(String.format("Создано аккаунтов: %d, операций: %d, за %d с",
+                accountIds.length, total, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt)));
+        return accountIds;
+
+    }
+
+    private List<Workload> workloads(long[] accountIds, LocalDateTime seededFrom, LocalDateTime seededTo) {
+
+        long[] hotAccounts = Arrays.copyOf(accountIds, Math.min(config.hotAccounts(), accountIds.length));
+        long seededSeconds = Math.max(1, ChronoUnit.SECONDS.between(seededFrom, seededTo));
+        String periodFrom = seededFrom.minusMinutes(1).toString();
+
+        return List.of(
+                new Workload("deposit-withdraw", config.writeRate(), config.burstSize(), () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long accountId = hotAccounts[random.nextInt(hotAccounts.length)];
+                    String type = random.nextBoolean() ? "DEPOSIT" : "WITHDRAW";
+                    return HttpRequest.newBuilder(uri("/api/operations/" + accountId +
+                                    "/make-operation?amount=" + random.nextInt(1, 100) + "&type=" + type))
+                            .POST(HttpRequest.BodyPublishers.noBody())
+                            .build();
+                }),
+                new Workload("balance-by-date", config.balanceByDateRate(), 1, () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    LocalDateTime date = seededFrom.plusSeconds(random.nextLong(seededSeconds + 1));
+                    return get("/api/accounts/" + randomAccount(accountIds) + "/balance-by-date?date=" + date);
+                }),
+                new Workload("get-by-period", config.periodRate(), 1, () ->
+                        get("/api/operations/" + randomAccount(accountIds) + "/get-by-period?from=" + periodFrom +
+                                "&to=" + LocalDateTime.now().plusMinutes(1))),
+                new Workload("info", config.infoRate(), 1, () ->
+                        get("/api/accounts/" + randomAccount(accountIds) + "/info"))
+        );
+
+    }
+
+    /**
+     * Метод для подачи нагрузок и ожидания ответов на все отправленные запросы. Во время измерения
+     * отдельный поток делает выборки количества запросов в обработке.
+     * @param workloads Нагрузки прогона.
+     * @return Время от начала измерения до получения последнего ответа.
+     */
+    private Duration runWorkloads(List<Workload> workloads) throws InterruptedException {
+        log(String.format("Нагрузка: прогрев %d с, измерение %d с",
+                config.warmup().toSeconds(), config.duration().toSeconds()));
+        long measureFrom = System.nanoTime() + config.warmup().toNanos();
+        long end = measureFrom + config.duration().toNanos();
+        try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+             ExecutorService schedulers = Executors.newFixedThreadPool(workloads.size() + 1)) {
+            workloads.forEach(workload -> schedulers.execute(
+                    () -> workload.run(client, requests, inFlight, measureFrom, end)));
+            schedulers.execute(() -> inFlight.sample(measureFrom, end));
+            schedulers.shutdown();
+            schedulers.awaitTermination(1, TimeUnit.DAYS);
+        }
+        return Duration.ofNanos(System.nanoTime() - measureFrom);
+    }
+
+    private String send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400 || response.body().startsWith("{\"code\":"))
+            throw new IllegalStateException("Запрос " + request.uri() + " завершился ошибкой: " + response.body());
+        return response.body();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(uri(path)).GET().build();
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private static long randomAccount(long[] accountIds) {
+        return accountIds[ThreadLocalRandom.current().nextInt(accountIds.length)];
+    }
+
+    private static void log(String message) {
+        System.out.println("[load] " + message);
+    }
+
+}
@@ -0,0 +1,125 @@
+package ru.farpost.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс для формирования результатов прогона: пропускная способность и процентили задержки по эндпоинтам.
+ * Результаты сохраняются в JSON с постоянным порядком полей, поэтому файлы разных сборок можно сравнивать
+ * обычным diff или через параметр load.baseline.
+ */
+public class LoadReport {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * Метод для формирования результатов по эндпоинтам.
+     * Пропускная способность - количество успешных ответов на запросы периода измерения, деленное на время
+     * от начала измерения до получения последнего ответа (при перегрузке оно больше длительности измерения).
+     * @param workloads Нагрузки прогона.
+     * @param elapsed Время от начала измерения до получения последнего ответа.
+     * @return Результаты по названию эндпоинта.
+     */
+    public Map<String, Map<String, Object>> summarize(List<Workload> workloads, Duration elapsed) {
+        Map<String, Map<String, Object>> endpoints = new LinkedHashMap<>();
+        for (Workload workload : workloads) {
+            Histogram latencies = workload.getLatencies();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("targetRate", workload.getRate());
+            result.put("requests", latencies.getTotalCount());
+            Map<String, Long> errors = workload.getErrors();
+            long errorCount = errors.values().stream().mapToLong(Long::longValue).sum();
+            result.put("errors", errorCount);
+            result.put("errorsByType", errors);
+            result.put("throughput", round((latencies.getTotalCount() - errorCount) / (elapsed.toMillis() / 1000.0)));
+            result.put("p50Ms", millis(latencies.getValueAtPercentile(50)));
+            result.put("p99Ms", millis(latencies.getValueAtPercentile(99)));
+            result.put("p999Ms", millis(latencies.getValueAtPercentile(99.9)));
+            result.put("maxMs", millis(latencies.getMaxValue()));
+            endpoints.put(workload.getName(), result);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Метод для сохранения результатов в JSON.
+     * @param file Файл результатов.
+     * @param config Параметры прогона.
+     * @param concurrency Количество запросов в обработке ({@link InFlightRequests#summarize()}).
+     * @param endpoints Результаты по эндпоинтам.
+     */
+    public void write(File file, LoadConfig config, Map<String, Object> concurrency,
+                      Map<String, Map<String, Object>> endpoints) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("inFlight", concurrency);
+        report.put("endpoints", endpoints);
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        objectMapper.writeValue(file, report);
+    }
+
+    /**
+     * Метод для вывода таблицы результатов и изменений относительно предыдущего прогона.
+     * @param concurrency Количество запросов в обработке ({@link InFlightRequests#summarize()}).
+     * @param endpoints Результаты по эндпоинтам.
+     * @param baseline Файл результатов предыдущего прогона (null - без сравнения).
+     */
+    public void print(Map<String, Object> concurrency, Map<String, Map<String, Object>> endpoints, File baseline)
+            throws IOException {
+        JsonNode previousReport = baseline != null ? objectMapper.readTree(baseline) : null;
+        JsonNode previous = previousReport != null ? previousReport.path("endpoints") : null;
+        System.out.printf("in-flight requests: mean %s, p50 %s, p99 %s, max %s%n", concurrency.get("mean"),
+                concurrency.get("p50"), concurrency.get("p99"), concurrency.get("max"));
+        if (previousReport != null && previousReport.has("inFlight")) {
+            JsonNode before = previousReport.get("inFlight");
+            System.out.printf("  vs baseline: mean %s, p99 %s, max %s%n", change(before, concurrency, "mean"),
+                    change(before, concurrency, "p99"), change(before, concurrency, "max"));
+        }
+        System.out.printf("%-18s %10s %8s %10s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        endpoints.forEach((name, result) -> {
+            System.out.printf("%-18s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", name,
+                    result.get("requests"), result.get("errors"), result.get("throughput"),
+                    result.get("p50Ms"), result.get("p99Ms"), result.get("p999Ms"), result.get("maxMs"));
+            if (previous != null && previous.has(name)) {
+                JsonNode before = previous.get(name);
+                System.out.printf("%-18s %10s %8s %10s %9s %9s %9s %9s%n", "  vs baseline", "", "",
+                        change(before, result, "throughput"), change(before, result, "p50Ms"),
+                        change(before, result, "p99Ms"), change(before, result, "p999Ms"),
+                        change(before, result, "maxMs"));
+            }
+        });
+    }
+
+    private static String change(JsonNode before, Map<String, Object> after, String field) {
+        double previous = before.path(field).asDouble();
+        double current = ((Number) after.get(field)).doubleValue();
+        if (previous == 0)
+            return "-";
+        return String.format("%+.1f%%", (current - previous) * 100 / previous);
+    }
+
+    private static double millis(long micros) {
+        return round(micros / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+}
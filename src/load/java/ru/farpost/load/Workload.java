@@ -0,0 +1,130 @@
+package ru.farpost.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Класс нагрузки на один эндпоинт с постоянной интенсивностью (открытая модель).
+ * <p>
+ * Запросы отправляются по расписанию пачками по burstSize запросов независимо от времени ответа предыдущих,
+ * а задержка отсчитывается от запланированного момента отправки. Поэтому замедление сервиса увеличивает
+ * задержку, а не уменьшает количество запросов (нет "coordinated omission").
+ */
+public class Workload {
+
+    /**
+     * Максимальная учитываемая задержка (в микросекундах).
+     */
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final String name;
+
+    private final double rate;
+
+    private final int burstSize;
+
+    private final Supplier<HttpRequest> requests;
+
+    /**
+     * Гистограмма задержек запросов периода измерения (в микросекундах).
+     */
+    private final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+
+    /**
+     * Количество ошибок по виду: HTTP-статус (http-503), код ошибки в теле ответа (code-404) или класс исключения.
+     */
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор для создания нагрузки.
+     * @param name Название эндпоинта в результатах.
+     * @param rate Запросов в секунду.
+     * @param burstSize Количество запросов, отправляемых одновременно.
+     * @param requests Генератор запросов.
+     */
+    public Workload(String name, double rate, int burstSize, Supplier<HttpRequest> requests) {
+        this.name = name;
+        this.rate = rate;
+        this.burstSize = Math.max(1, burstSize);
+        this.requests = requests;
+    }
+
+    /**
+     * Метод для отправки запросов по расписанию до окончания прогона.
+     * @param client HTTP-клиент.
+     * @param executor Исполнитель запросов (виртуальные потоки).
+     * @param inFlight Счетчик запросов в обработке, общий для всех нагрузок прогона.
+     * @param measureFrom Момент начала измерения ({@link System#nanoTime()}), более ранние запросы - прогрев.
+     * @param end Момент окончания прогона ({@link System#nanoTime()}).
+     */
+    public void run(HttpClient client, ExecutorService executor, InFlightRequests inFlight, long measureFrom,
+                    long end) {
+        if (rate <= 0)
+            return;
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) * burstSize / rate);
+        for (long intended = System.nanoTime(); intended < end; intended += interval) {
+            long delay = intended - System.nanoTime();
+            if (delay > 0)
+                LockSupport.parkNanos(delay);
+            long scheduledAt = intended;
+            for (int i = 0; i < burstSize; i++) {
+                HttpRequest request = requests.get();
+                executor.execute(() -> send(client, request, inFlight, scheduledAt, scheduledAt >= measureFrom));
+            }
+        }
+    }
+
+    private void send(HttpClient client, HttpRequest request, InFlightRequests inFlight, long scheduledAt,
+                      boolean measured) {
+        String error = null;
+        inFlight.started(measured);
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() >= 400)
+                error = "http-" + response.statusCode();
+            else if (response.body().startsWith("{\"code\":"))
+                error = "code-" + response.body().substring(8, response.body().indexOf(',')).trim();
+        } catch (Exception e) {
+            error = e.getClass().getSimpleName();
+        } finally {
+            inFlight.finished();
+        }
+        if (!measured)
+            return;
+        latencies.recordValue(Math.min(MAX_LATENCY_MICROS,
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledAt)));
+        if (error != null)
+            errors.computeIfAbsent(error, key -> new LongAdder()).increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public Histogram getLatencies() {
+        return latencies;
+    }
+
+    public Map<String, Long> getErrors() {
+        Map<String, Long> result = new TreeMap<>();
+        errors.forEach((error, count) -> result.put(error, count.sum()));
+        return result;
+    }
+
+}
@@ -2,8 +2,10 @@ package ru.farpost;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class AccountBalanceApiApplication {
 
     public static void main(String[] args) {
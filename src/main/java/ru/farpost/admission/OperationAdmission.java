@@ -0,0 +1,297 @@
+package ru.farpost.admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Класс (компонент) для ограничения интенсивности операций перед их выполнением (admission control).
+ * <p>
+ * Операция проходит два ограничителя: аккаунта (app.admission.account-rate в секунду, пачка до
+ * app.admission.account-burst) и общий (app.admission.global-rate, app.admission.global-burst). Ограничитель
+ * аккаунта хранится по идентификатору аккаунта (не больше app.admission.max-accounts аккаунтов) и удаляется, когда
+ * по аккаунту нет операций дольше времени восстановления полной пачки: такой ограничитель не отличается
+ * от нового, поэтому удаление не увеличивает лимит аккаунта. Операция, превысившая лимит не более чем
+ * на app.admission.max-wait, ожидает своей очереди (одновременно ожидают не более app.admission.queue-capacity
+ * операций), остальные сразу отклоняются ответом 429 с заголовком Retry-After. Поэтому один клиент,
+ * перегружающий аккаунт, не занимает соединения с БД, нужные операциям других аккаунтов.
+ */
+@Component
+public class OperationAdmission {
+
+    /**
+     * Ограничители аккаунтов по идентификатору аккаунта (null - без ограничения).
+     */
+    private final Cache<Long, RateBuckets> accountBuckets;
+
+    /**
+     * Операций в секунду на аккаунт.
+     */
+    private final double accountRate;
+
+    /**
+     * Операций аккаунта, допускаемых пачкой без ожидания.
+     */
+    private final int accountBurst;
+
+    /**
+     * Общий ограничитель (null - без ограничения).
+     */
+    private final RateBuckets globalBucket;
+
+    /**
+     * Максимальное время ожидания операции, превысившей лимит (в наносекундах).
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * Максимальное количество одновременно ожидающих операций.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Количество операций, ожидающих своей очереди.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Счетчик операций, отклоненных ограничителем аккаунта.
+     */
+    private final Counter accountRejected;
+
+    /**
+     * Счетчик операций, отклоненных общим ограничителем.
+     */
+    private final Counter globalRejected;
+
+    /**
+     * Счетчик операций, отклоненных из-за заполненной очереди ожидания.
+     */
+    private final Counter queueRejected;
+
+    /**
+     * Счетчик операций, ожидавших своей очереди в ограничителе аккаунта.
+     */
+    private final Counter accountQueued;
+
+    /**
+     * Счетчик операций, ожидавших своей очереди в общем ограничителе.
+     */
+    private final Counter globalQueued;
+
+    /**
+     * Конструктор для создания ограничителей и регистрации их метрик с использованием "@Autowired".
+     * @param enabled Включено ли ограничение интенсивности.
+     * @param maxAccounts Максимальное количество аккаунтов, ограничители которых хранятся в памяти.
+     * @param accountRate Операций в секунду на аккаунт (0 - без ограничения).
+     * @param accountBurst Операций аккаунта, допускаемых пачкой без ожидания.
+     * @param globalRate Операций в секунду на все аккаунты (0 - без ограничения).
+     * @param globalBurst Операций, допускаемых пачкой без ожидания.
+     * @param maxWait Максимальное время ожидания операции, превысившей лимит.
+     * @param queueCapacity Максимальное количество одновременно ожидающих операций.
+     * @param meterRegistry Реестр метрик.
+     */
+    @Autowired
+    public OperationAdmission(@Value("${app.admission.enabled:true}") boolean enabled,
+                              @Value("${app.admission.max-accounts:100000}") long maxAccounts,
+                              @Value("${app.admission.account-rate:100}") double accountRate,
+                              @Value("${app.admission.account-burst:200}") int accountBurst,
+                              @Value("${app.admission.global-rate:5000}") double globalRate,
+                              @Value("${app.admission.global-burst:10000}") int globalBurst,
+                              @Value("${app.admission.max-wait:50ms}") Duration maxWait,
+                              @Value("${app.admission.queue-capacity:1000}") int queueCapacity,
+                              MeterRegistry meterRegistry) {
+        this.accountBuckets = enabled && accountRate > 0
+                ? Caffeine.newBuilder()
+                        .maximumSize(maxAccounts)
+                        .expireAfterAccess(Duration.ofNanos(RateBuckets.refillNanos(accountRate, accountBurst)))
+                        .build()
+                : null;
+        this.accountRate = accountRate;
+        this.accountBurst = accountBurst;
+        this.globalBucket = enabled && globalRate > 0 ? new RateBuckets(1, globalRate, globalBurst) : null;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.queueCapacity = queueCapacity;
+        this.accountRejected = rejectedCounter("account", meterRegistry);
+        this.globalRejected = rejectedCounter("global", meterRegistry);
+        this.queueRejected = rejectedCounter("queue", meterRegistry);
+        this.accountQueued = queuedCounter("account", meterRegistry);
+        this.globalQueued = queuedCounter("global", meterRegistry);
+        Gauge.builder("operations.admission.waiting", waiting, AtomicInteger::get)
+                .description("Количество операций, ожидающих своей очереди")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Метод для допуска операции аккаунта: возвращает управление сразу или после ожидания своей очереди.
+     * Операции горячего аккаунта распределяются по нескольким полосам ограничителя аккаунта,
+     * поэтому его лимит растет с количеством полос баланса.
+     * @param accountId Идентификатор аккаунта.
+     * @param spread Количество полос ограничителя, по которым распределяются операции аккаунта
+     *               (количество полос баланса горячего аккаунта, для остальных аккаунтов - 0 или 1).
+     * @throws ErrorResponse С кодом 429, если лимит превышен больше, чем на допустимое время ожидания,
+     * или очередь ожидания заполнена.
+     */
+    public void admit(Long accountId, int spread) {
+        admit(new Long[] {accountId}, new int[] {spread});
+    }
+
+    /**
+     * Метод для допуска перевода: место резервируется в ограничителях обоих аккаунтов и один раз в общем
+     * ограничителе. Если один из ограничителей отклоняет перевод, уже сделанные резервирования отменяются,
+     * поэтому отклоненный перевод не расходует лимит другого аккаунта.
+     * @param fromAccountId Идентификатор аккаунта отправителя.
+     * @param fromSpread Количество полос ограничителя аккаунта отправителя.
+     * @param toAccountId Идентификатор аккаунта получателя.
+     * @param toSpread Количество полос ограничителя аккаунта получателя.
+     * @throws ErrorResponse С кодом 429, если лимит превышен больше, чем на допустимое время ожидания,
+     * или очередь ожидания заполнена.
+     */
+    public void admitTransfer(Long fromAccountId, int fromSpread, Long toAccountId, int toSpread) {
+        admit(new Long[] {fromAccountId, toAccountId}, new int[] {fromSpread, toSpread});
+    }
+
+    /**
+     * Метод для допуска операции нескольких аккаунтов: резервирует место в ограничителе каждого аккаунта
+     * и в общем ограничителе, затем ожидает самого позднего из резервирований.
+     * @param accountIds Идентификаторы аккаунтов.
+     * @param spreads Количество полос ограничителя каждого аккаунта.
+     */
+    private void admit(Long[] accountIds, int[] spreads) {
+
+        if (accountBuckets == null && globalBucket == null)
+            return;
+
+        RateBuckets[] buckets = new RateBuckets[accountIds.length];
+        RateBuckets.Reservation[] accounts = new RateBuckets.Reservation[accountIds.length];
+        long accountWait = 0;
+        if (accountBuckets != null) {
+            for (int i = 0; i < accountIds.length; i++) {
+                buckets[i] = accountBuckets(accountIds[i], spreads[i]);
+                int stripe = spreads[i] > 1 ? ThreadLocalRandom.current().nextInt(spreads[i]) : 0;
+                accounts[i] = buckets[i].reserve(stripe, maxWaitNanos);
+                if (!accounts[i].admitted()) {
+                    cancel(buckets, accounts, null);
+                    accountRejected.increment();
+                    throw tooManyRequests(accounts[i].waitNanos());
+                }
+                accountWait = Math.max(accountWait, accounts[i].waitNanos());
+            }
+        }
+        RateBuckets.Reservation global = null;
+        if (globalBucket != null) {
+            global = globalBucket.reserve(0, maxWaitNanos);
+            if (!global.admitted()) {
+                cancel(buckets, accounts, null);
+                globalRejected.increment();
+                throw tooManyRequests(global.waitNanos());
+            }
+        }
+
+        long globalWait = global != null ? global.waitNanos() : 0;
+        long wait = Math.max(accountWait, globalWait);
+        if (wait == 0)
+            return;
+
+        if (waiting.incrementAndGet() > queueCapacity) {
+            waiting.decrementAndGet();
+            cancel(buckets, accounts, global);
+            queueRejected.increment();
+            throw tooManyRequests(wait);
+        }
+        (accountWait >= globalWait ? accountQueued : globalQueued).increment();
+        try {
+            long deadline = System.nanoTime() + wait;
+            for (long remaining = wait; remaining > 0 && !Thread.currentThread().isInterrupted();
+                 remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * Метод для получения ограничителя аккаунта с заданным количеством полос
+     * (при изменении количества полос баланса аккаунта ограничитель создается заново).
+     * @param accountId Идентификатор аккаунта.
+     * @param spread Количество полос ограничителя.
+     * @return Объект {@link RateBuckets}.
+     */
+    private RateBuckets accountBuckets(Long accountId, int spread) {
+        int stripes = Math.max(1, spread);
+        RateBuckets buckets = accountBuckets.get(accountId, id -> new RateBuckets(stripes, accountRate, accountBurst));
+        if (buckets.stripes() == stripes)
+            return buckets;
+        return accountBuckets.asMap().compute(accountId, (id, current) -> current != null && current.stripes() == stripes
+                ? current
+                : new RateBuckets(stripes, accountRate, accountBurst));
+    }
+
+    /**
+     * Метод для отмены резервирований отклоненной операции (место возвращается ограничителям).
+     * @param buckets Ограничители аккаунтов операции.
+     * @param accounts Резервирования в ограничителях аккаунтов (null - резервирования нет).
+     * @param global Резервирование в общем ограничителе (null - резервирования нет).
+     */
+    private void cancel(RateBuckets[] buckets, RateBuckets.Reservation[] accounts, RateBuckets.Reservation global) {
+        for (int i = 0; i < accounts.length; i++) {
+            if (accounts[i] != null)
+                buckets[i].cancel(accounts[i]);
+        }
+        if (global != null)
+            globalBucket.cancel(global);
+    }
+
+    /**
+     * Метод для создания ответа 429 с заголовком Retry-After.
+     * @param waitNanos Время до освобождения места в ограничителе (в наносекундах).
+     * @return Объект {@link ErrorResponse}.
+     */
+    private static ErrorResponse tooManyRequests(long waitNanos) {
+        return new ErrorResponse(HttpStatus.TOO_MANY_REQUESTS, ExceptionsMessage.TOO_MANY_REQUESTS,
+                Duration.ofSeconds(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L))));
+    }
+
+    /**
+     * Метод для регистрации счетчика отклоненных операций ограничителя.
+     * @param bucket Ограничитель (account, global, queue).
+     * @param meterRegistry Реестр метрик.
+     * @return Объект {@link Counter}.
+     */
+    private static Counter rejectedCounter(String bucket, MeterRegistry meterRegistry) {
+        return Counter.builder("operations.admission.rejected")
+                .description("Количество операций, отклоненных ограничителем интенсивности")
+                .tag("bucket", bucket)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Метод для регистрации счетчика операций, ожидавших своей очереди в ограничителе.
+     * @param bucket Ограничитель (account, global).
+     * @param meterRegistry Реестр метрик.
+     * @return Объект {@link Counter}.
+     */
+    private static Counter queuedCounter(String bucket, MeterRegistry meterRegistry) {
+        return Counter.builder("operations.admission.queued")
+                .description("Количество операций, ожидавших своей очереди в ограничителе интенсивности")
+                .tag("bucket", bucket)
+                .register(meterRegistry);
+    }
+
+}
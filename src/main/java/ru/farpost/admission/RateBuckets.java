@@ -0,0 +1,117 @@
+package ru.farpost.admission;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Класс ограничителей интенсивности (token bucket), разбитых на полосы (stripes).
+ * <p>
+ * Состояние ограничителя - одно число: теоретическое время прибытия следующего запроса (алгоритм GCRA,
+ * эквивалентный token bucket). Запрос резервирует место изменением этого числа через compareAndSet, поэтому
+ * ограничители работают без блокировок. Полосы одного ограничителя размещены в отдельных кэш-линиях, чтобы
+ * запросы к разным полосам не конкурировали за одну линию (false sharing); ограничитель из одной полосы
+ * занимает одно число.
+ */
+class RateBuckets {
+
+    /**
+     * Расстояние между полосами в массиве (8 чисел long - 64 байта, размер кэш-линии).
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * Теоретическое время прибытия следующего запроса по полосам (наносекунды от {@link #origin}).
+     */
+    private final AtomicLongArray arrivals;
+
+    private final int stripes;
+
+    /**
+     * Интервал между запросами при постоянной интенсивности (наносекунды).
+     */
+    private final long interval;
+
+    /**
+     * Допустимое опережение расписания (наносекунды): запросы пачки до burst штук проходят без ожидания.
+     */
+    private final long tolerance;
+
+    private final long origin = System.nanoTime();
+
+    /**
+     * Конструктор для создания ограничителей.
+     * @param stripes Количество полос.
+     * @param rate Запросов в секунду на полосу.
+     * @param burst Количество запросов, допускаемых пачкой без ожидания.
+     */
+    RateBuckets(int stripes, double rate, int burst) {
+        this.stripes = Math.max(1, stripes);
+        this.arrivals = new AtomicLongArray(this.stripes == 1 ? 1 : this.stripes * PADDING);
+        this.interval = (long) (1_000_000_000L / rate);
+        this.tolerance = interval * Math.max(0, burst - 1);
+    }
+
+    /**
+     * Метод для получения количества полос.
+     * @return Количество полос.
+     */
+    int stripes() {
+        return stripes;
+    }
+
+    /**
+     * Метод для получения времени, за которое полоса без запросов возвращается в начальное состояние
+     * (допускает полную пачку запросов).
+     * @param rate Запросов в секунду на полосу.
+     * @param burst Количество запросов, допускаемых пачкой без ожидания.
+     * @return Время в наносекундах.
+     */
+    static long refillNanos(double rate, int burst) {
+        return (long) (1_000_000_000L / rate) * Math.max(1, burst);
+    }
+
+    /**
+     * Метод для резервирования места для запроса в полосе.
+     * @param stripe Номер полосы.
+     * @param maxWaitNanos Максимальное время ожидания запроса.
+     * @return Резервирование; если ожидание больше maxWaitNanos, место не резервируется.
+     */
+    Reservation reserve(int stripe, long maxWaitNanos) {
+        int index = index(stripe);
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long arrival = arrivals.get(index);
+            long start = Math.max(arrival, now);
+            long wait = start - tolerance - now;
+            if (wait > maxWaitNanos)
+                return new Reservation(stripe, false, wait, arrival, arrival);
+            long next = start + interval;
+            if (arrivals.compareAndSet(index, arrival, next))
+                return new Reservation(stripe, true, Math.max(0, wait), arrival, next);
+        }
+    }
+
+    /**
+     * Метод для отмены резервирования (если после него в полосе не было других резервирований).
+     * @param reservation Резервирование.
+     */
+    void cancel(Reservation reservation) {
+        if (reservation.admitted())
+            arrivals.compareAndSet(index(reservation.stripe()), reservation.next(), reservation.previous());
+    }
+
+    private int index(int stripe) {
+        return stripes == 1 ? 0 : stripe * PADDING;
+    }
+
+    /**
+     * Результат резервирования.
+     * @param stripe Номер полосы.
+     * @param admitted Место зарезервировано.
+     * @param waitNanos Время, через которое запрос может быть выполнен.
+     * @param previous Время прибытия до резервирования.
+     * @param next Время прибытия после резервирования.
+     */
+    record Reservation(int stripe, boolean admitted, long waitNanos, long previous, long next) {
+    }
+
+}
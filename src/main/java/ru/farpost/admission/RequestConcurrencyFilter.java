@@ -0,0 +1,119 @@
+package ru.farpost.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фильтр, ограничивающий количество одновременно обрабатываемых запросов API (app.admission.max-in-flight-requests,
+ * 0 - без ограничения). Запрос сверх лимита ожидает освобождения места не дольше app.admission.in-flight-wait,
+ * затем получает 503 с заголовком Retry-After и не обращается к БД.
+ * <p>
+ * С платформенными потоками число запросов в обработке ограничивает пул потоков Tomcat. В профиле virtual
+ * на каждый запрос создается виртуальный поток, и без фильтра все запросы сразу ожидают соединения в очереди
+ * пула Hikari: при перегрузке очередь растет до таймаута ожидания соединения. Фильтр держит в обработке
+ * немногим больше запросов, чем соединений в пуле, поэтому ожидание соединения остается коротким, а лишние
+ * запросы быстро отклоняются. Асинхронная часть запросов (выгрузки, потоки событий) места не занимает.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RequestConcurrencyFilter extends OncePerRequestFilter {
+
+    /**
+     * Время, через которое можно повторить отклоненный запрос.
+     */
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+
+    /**
+     * Места для запросов в обработке (null - количество запросов не ограничено).
+     */
+    private final Semaphore permits;
+
+    /**
+     * Максимальное время ожидания места (в наносекундах).
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * Обработчик исключений приложения: отказ возвращается тем же JSON, что и ошибки контроллеров.
+     */
+    private final HandlerExceptionResolver exceptionResolver;
+
+    /**
+     * Счетчик запросов, отклоненных из-за превышения количества запросов в обработке.
+     */
+    private final Counter rejected;
+
+    /**
+     * Конструктор для создания фильтра и регистрации его метрик с использованием "@Autowired".
+     * @param exceptionResolver Ссылка на объект {@link HandlerExceptionResolver}.
+     * @param meterRegistry Реестр метрик.
+     * @param maxInFlight Максимальное количество запросов в обработке (0 - без ограничения).
+     * @param maxWait Максимальное время ожидания места.
+     */
+    @Autowired
+    public RequestConcurrencyFilter(@Qualifier("handlerExceptionResolver") HandlerExceptionResolver exceptionResolver,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${app.admission.max-in-flight-requests:0}") int maxInFlight,
+                                    @Value("${app.admission.in-flight-wait:1s}") Duration maxWait) {
+        this.permits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.exceptionResolver = exceptionResolver;
+        this.rejected = Counter.builder("http.admission.rejected")
+                .description("Количество запросов, отклоненных из-за превышения количества запросов в обработке")
+                .register(meterRegistry);
+        if (permits != null) {
+            Gauge.builder("http.admission.in-flight", permits, semaphore -> maxInFlight - semaphore.availablePermits())
+                    .description("Количество запросов API в обработке")
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return permits == null || !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejected.increment();
+            exceptionResolver.resolveException(request, response, null, new ErrorResponse(
+                    HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.SERVICE_OVERLOADED, RETRY_AFTER));
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+}
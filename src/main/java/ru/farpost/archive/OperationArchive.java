@@ -0,0 +1,249 @@
+package ru.farpost.archive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Класс (компонент) для хранения архива операций (таблица operations_archive) - холодного уровня истории операций.
+ * <p>
+ * Архив состоит из порций: каждая порция - сжатые по колонкам операции одного аккаунта ({@link OperationArchiveCodec})
+ * с диапазоном дат и идентификаторов операций. Операции аккаунта переносятся в архив по возрастанию (date, id),
+ * поэтому любая операция архива аккаунта раньше любой его операции в таблице operations.
+ */
+@Component
+public class OperationArchive {
+
+    /**
+     * Запрос добавления порции архива.
+     */
+    private static final String INSERT_CHUNK =
+            "INSERT INTO operations_archive (account_id, first_date, first_id, last_date, last_id, " +
+            "operations_count, closing_balance, data) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Запрос порций архива аккаунта, пересекающихся с периодом [С, По], по возрастанию даты.
+     */
+    private static final String SELECT_CHUNKS =
+            "SELECT data FROM operations_archive " +
+            "WHERE account_id = ? AND first_date <= ? AND last_date >= ? " +
+            "ORDER BY first_date, first_id";
+
+    /**
+     * Запрос порций архива всех аккаунтов, пересекающихся с периодом [С, По], по аккаунтам и возрастанию даты.
+     */
+    private static final String SELECT_ALL_CHUNKS =
+            "SELECT account_id, data FROM operations_archive " +
+            "WHERE first_date <= ? AND last_date >= ? " +
+            "ORDER BY account_id, first_date, first_id";
+
+    /**
+     * Запрос порции архива аккаунта, содержащей операции после позиции (date, id) страницы: последней порции,
+     * начатой не позже позиции (поиск по первичному ключу).
+     */
+    private static final String SELECT_CURSOR_CHUNK =
+            "SELECT first_date, first_id, data FROM operations_archive " +
+            "WHERE account_id = ? AND (first_date, first_id) <= (?, ?) AND (last_date, last_id) > (?, ?) " +
+            "ORDER BY first_date DESC, first_id DESC LIMIT 1";
+
+    /**
+     * Запрос следующих порций архива аккаунта после порции с началом (first_date, first_id), начатых не позже даты.
+     */
+    private static final String SELECT_NEXT_CHUNKS =
+            "SELECT first_date, first_id, data FROM operations_archive " +
+            "WHERE account_id = ? AND (first_date, first_id) > (?, ?) AND first_date <= ? " +
+            "ORDER BY first_date, first_id LIMIT ?";
+
+    /**
+     * Количество порций, читаемых одним запросом при постраничном обходе архива.
+     */
+    private static final int PAGE_CHUNKS = 4;
+
+    /**
+     * Количество порций, получаемых из БД за одно обращение курсора при обходе архива всех аккаунтов.
+     */
+    private static final int CHUNK_FETCH_SIZE = 16;
+
+    /**
+     * Запрос последней порции архива аккаунта, начатой не позже указанной даты.
+     */
+    private static final String SELECT_LAST_CHUNK =
+            "SELECT data FROM operations_archive " +
+            "WHERE account_id = ? AND first_date <= ? " +
+            "ORDER BY first_date DESC, first_id DESC LIMIT 1";
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link JdbcTemplate} с фиксированным размером выборки курсора.
+     */
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    /**
+     * Конструктор для создания объекта {@link JdbcTemplate} с использованием "@Autowired".
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     */
+    @Autowired
+    public OperationArchive(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(CHUNK_FETCH_SIZE);
+    }
+
+    /**
+     * Метод для добавления порции архива (в транзакции удаления этих операций из таблицы operations).
+     * @param accountId Идентификатор аккаунта.
+     * @param operations Операции аккаунта в порядке (date, id), все - с балансом после операции.
+     */
+    public void append(Long accountId, List<Operation> operations) {
+        Operation first = operations.getFirst();
+        Operation last = operations.getLast();
+        jdbcTemplate.update(INSERT_CHUNK,
+                accountId,
+                Timestamp.valueOf(first.getDate()),
+                first.getId(),
+                Timestamp.valueOf(last.getDate()),
+                last.getId(),
+                operations.size(),
+                last.getAccountBalance(),
+                OperationArchiveCodec.encode(operations));
+    }
+
+    /**
+     * Метод для получения архивных операций аккаунта за период.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @return Список операций в порядке (date, id).
+     */
+    public List<Operation> findOperations(Long accountId, LocalDateTime from, LocalDateTime to) {
+        List<Operation> operations = new ArrayList<>();
+        forEachOperation(accountId, from, to, operations::add);
+        return operations;
+    }
+
+    /**
+     * Метод для получения страницы архивных операций аккаунта после позиции (date, id) (keyset-пагинация).
+     * Чтение начинается с порции, содержащей позицию, порции читаются и декодируются по порядку только до тех пор,
+     * пока не набрано limit операций, поэтому стоимость страницы не зависит от её положения в истории.
+     * @param accountId Идентификатор аккаунта.
+     * @param afterDate Дата операции, после которой начинается страница.
+     * @param afterId Идентификатор операции, после которой начинается страница.
+     * @param to Дата конца периода (По).
+     * @param limit Максимальное количество операций.
+     * @return Список операций в порядке (date, id).
+     */
+    public List<Operation> findPageAfter(Long accountId, LocalDateTime afterDate, long afterId,
+                                         LocalDateTime to, int limit) {
+
+        Account account = reference(accountId);
+        List<Operation> operations = new ArrayList<>(limit);
+        Timestamp after = Timestamp.valueOf(afterDate);
+        // Начало (first_date, first_id) последней прочитанной порции и количество порций, прочитанных запросом
+        Object[] position = {after, afterId};
+        int[] chunks = {0};
+
+        RowCallbackHandler collect = resultSet -> {
+            chunks[0]++;
+            position[0] = resultSet.getTimestamp(1);
+            position[1] = resultSet.getLong(2);
+            if (operations.size() == limit)
+                return;
+            for (Operation operation : OperationArchiveCodec.decode(resultSet.getBytes(3), account)) {
+                if (operations.size() == limit || operation.getDate().isAfter(to))
+                    break;
+                if (operation.getDate().isAfter(afterDate)
+                        || operation.getDate().isEqual(afterDate) && operation.getId() > afterId)
+                    operations.add(operation);
+            }
+        };
+        jdbcTemplate.query(SELECT_CURSOR_CHUNK, collect, accountId, after, afterId, after, afterId);
+        while (operations.size() < limit) {
+            chunks[0] = 0;
+            jdbcTemplate.query(SELECT_NEXT_CHUNKS, collect,
+                    accountId, position[0], position[1], Timestamp.valueOf(to), PAGE_CHUNKS);
+            if (chunks[0] < PAGE_CHUNKS)
+                break;
+        }
+        return operations;
+
+    }
+
+    /**
+     * Метод для обхода архивных операций аккаунта за период (порции декодируются по одной).
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @param consumer Обработчик операций, вызываемый в порядке (date, id).
+     */
+    public void forEachOperation(Long accountId, LocalDateTime from, LocalDateTime to, Consumer<Operation> consumer) {
+
+        Account account = reference(accountId);
+        jdbcTemplate.query(SELECT_CHUNKS, resultSet -> {
+            for (Operation operation : OperationArchiveCodec.decode(resultSet.getBytes(1), account)) {
+                if (!operation.getDate().isBefore(from) && !operation.getDate().isAfter(to))
+                    consumer.accept(operation);
+            }
+        }, accountId, Timestamp.valueOf(to), Timestamp.valueOf(from));
+
+    }
+
+    /**
+     * Метод для обхода архивных операций всех аккаунтов за период (порции декодируются по одной,
+     * курсор читает их небольшими группами - только внутри транзакции).
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @param consumer Обработчик операций, вызываемый по аккаунтам и в порядке (date, id) внутри аккаунта.
+     */
+    public void forEachOperation(LocalDateTime from, LocalDateTime to, Consumer<Operation> consumer) {
+
+        streamingJdbcTemplate.query(SELECT_ALL_CHUNKS, resultSet -> {
+            Account account = reference(resultSet.getLong(1));
+            for (Operation operation : OperationArchiveCodec.decode(resultSet.getBytes(2), account)) {
+                if (!operation.getDate().isBefore(from) && !operation.getDate().isAfter(to))
+                    consumer.accept(operation);
+            }
+        }, Timestamp.valueOf(to), Timestamp.valueOf(from));
+
+    }
+
+    /**
+     * Метод для получения последней архивной операции аккаунта не позже указанной даты.
+     * @param accountId Идентификатор аккаунта.
+     * @param date Дата, не позже которой ищется операция.
+     * @return Объект {@link Operation} или null, если таких операций в архиве нет.
+     */
+    public Operation findLastOperation(Long accountId, LocalDateTime date) {
+
+        List<byte[]> chunks = jdbcTemplate.queryForList(SELECT_LAST_CHUNK, byte[].class, accountId, Timestamp.valueOf(date));
+        if (chunks.isEmpty())
+            return null;
+        Operation found = null;
+        for (Operation operation : OperationArchiveCodec.decode(chunks.getFirst(), reference(accountId))) {
+            if (operation.getDate().isAfter(date))
+                break;
+            found = operation;
+        }
+        return found;
+
+    }
+
+    private static Account reference(Long accountId) {
+        Account account = new Account();
+        account.setId(accountId);
+        return account;
+    }
+
+}
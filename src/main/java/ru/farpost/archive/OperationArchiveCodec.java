@@ -0,0 +1,198 @@
+package ru.farpost.archive;
+
+import ru.farpost.components.OperationTypes;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Формат порции архива операций одного аккаунта: операции записываются по колонкам (идентификаторы, даты, типы,
+ * суммы, балансы, связанные операции), числа - разностями с предыдущим значением колонки в zigzag varint,
+ * результат сжимается gzip. Операции порции идут в порядке (date, id), поэтому разности малы и однотипны.
+ */
+final class OperationArchiveCodec {
+
+    /**
+     * Версия формата порции.
+     */
+    private static final int VERSION = 1;
+
+    private OperationArchiveCodec() {
+    }
+
+    /**
+     * Метод для кодирования операций аккаунта в порцию архива.
+     * @param operations Операции в порядке (date, id), все - с балансом после операции.
+     * @return Сжатая порция.
+     */
+    static byte[] encode(List<Operation> operations) {
+
+        Buffer buffer = new Buffer(operations.size() * 16);
+        buffer.writeVarLong(VERSION);
+        buffer.writeVarLong(operations.size());
+
+        long previous = 0;
+        for (Operation operation : operations) {
+            buffer.writeSigned(operation.getId() - previous);
+            previous = operation.getId();
+        }
+        previous = 0;
+        for (Operation operation : operations) {
+            long micros = toMicros(operation.getDate());
+            buffer.writeSigned(micros - previous);
+            previous = micros;
+        }
+        for (Operation operation : operations) {
+            buffer.writeVarLong(operation.getType().getCode());
+        }
+        for (Operation operation : operations) {
+            buffer.writeSigned(operation.getAmount());
+        }
+        previous = 0;
+        for (Operation operation : operations) {
+            buffer.writeSigned(operation.getAccountBalance() - previous);
+            previous = operation.getAccountBalance();
+        }
+        for (Operation operation : operations) {
+            Long linked = operation.getLinkedOperationId();
+            buffer.writeVarLong(linked == null ? 0 : 1);
+            if (linked != null)
+                buffer.writeSigned(linked - operation.getId());
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(buffer.size / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(buffer.bytes, 0, buffer.size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+
+    }
+
+    /**
+     * Метод для декодирования порции архива.
+     * @param data Сжатая порция.
+     * @param account Аккаунт операций порции.
+     * @return Операции в порядке (date, id).
+     */
+    static List<Operation> decode(byte[] data, Account account) {
+
+        Buffer buffer;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            buffer = new Buffer(in.readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer.readVarLong() != VERSION)
+            throw new IllegalStateException("Неподдерживаемая версия порции архива операций");
+        int count = (int) buffer.readVarLong();
+
+        long[] ids = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            ids[i] = previous += buffer.readSigned();
+        }
+        long[] dates = new long[count];
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            dates[i] = previous += buffer.readSigned();
+        }
+        short[] types = new short[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = (short) buffer.readVarLong();
+        }
+        long[] amounts = new long[count];
+        for (int i = 0; i < count; i++) {
+            amounts[i] = buffer.readSigned();
+        }
+        long[] balances = new long[count];
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            balances[i] = previous += buffer.readSigned();
+        }
+
+        List<Operation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Operation operation = new Operation(amounts[i], balances[i], OperationTypes.fromCode(types[i]));
+            operation.setId(ids[i]);
+            operation.setDate(fromMicros(dates[i]));
+            operation.setAccount(account);
+            if (buffer.readVarLong() != 0)
+                operation.setLinkedOperationId(ids[i] + buffer.readSigned());
+            operations.add(operation);
+        }
+        return operations;
+
+    }
+
+    private static long toMicros(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + date.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    /**
+     * Буфер для записи и чтения чисел в формате varint.
+     */
+    private static final class Buffer {
+
+        private byte[] bytes;
+        private int size;
+        private int position;
+
+        private Buffer(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        private Buffer(byte[] bytes) {
+            this.bytes = bytes;
+            this.size = bytes.length;
+        }
+
+        private void writeSigned(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) {
+            if (size + 10 > bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private long readSigned() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+
+    }
+
+}
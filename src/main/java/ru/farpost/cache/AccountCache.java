@@ -0,0 +1,127 @@
+package ru.farpost.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.farpost.dto.AccountDTO;
+import ru.farpost.event.OperationsConsolidatedEvent;
+import ru.farpost.event.OperationsRecordedEvent;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Класс (кэш) для хранения информации об аккаунтах в памяти приложения.
+ * Кэш ограничен по размеру (вытеснение W-TinyLFU) и времени жизни записей, а записи аккаунта
+ * удаляются после фиксации каждой транзакции, изменившей аккаунт.
+ * <p>
+ * Загрузка выполняется в потоке читателя вне блокировок кэша. Удаление записи во время загрузки
+ * не дает сохранить в кэше устаревшее значение: загруженный результат получает только читатель,
+ * начавший загрузку до изменения.
+ */
+@Component
+public class AccountCache {
+
+    /**
+     * Кэш аккаунтов по идентификатору.
+     */
+    private final AsyncCache<Long, AccountDTO> cache;
+
+    /**
+     * Конструктор для создания кэша и регистрации его метрик (попадания, промахи, вытеснения).
+     * @param maxSize Максимальное количество аккаунтов в кэше.
+     * @param ttl Время жизни записи кэша.
+     * @param meterRegistry Реестр метрик.
+     */
+    @Autowired
+    public AccountCache(@Value("${app.cache.accounts.max-size:100000}") long maxSize,
+                        @Value("${app.cache.accounts.ttl:60s}") Duration ttl,
+                        MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "accounts");
+    }
+
+    /**
+     * Метод для получения аккаунта из кэша или его загрузки при отсутствии в кэше.
+     * @param id Идентификатор аккаунта.
+     * @param loader Функция загрузки аккаунта из БД.
+     * @return Объект {@link AccountDTO}.
+     */
+    public AccountDTO get(Long id, Function<Long, AccountDTO> loader) {
+
+        CompletableFuture<AccountDTO> created = new CompletableFuture<>();
+        CompletableFuture<AccountDTO> future = cache.get(id, (key, executor) -> created);
+        if (future == created) {
+            try {
+                created.complete(loader.apply(id));
+            } catch (RuntimeException e) {
+                created.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+
+    }
+
+    /**
+     * Метод для удаления аккаунта из кэша после фиксации текущей транзакции
+     * (или сразу, если транзакции нет).
+     * @param id Идентификатор аккаунта.
+     */
+    public void invalidateAfterCommit(Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.synchronous().invalidate(id);
+                }
+            });
+        } else {
+            cache.synchronous().invalidate(id);
+        }
+    }
+
+    /**
+     * Метод для удаления из кэша аккаунтов, по которым были сохранены операции.
+     * Удаление выполняется после фиксации транзакции записи операций.
+     * @param event Событие {@link OperationsRecordedEvent}.
+     */
+    @EventListener
+    public void onOperationsRecorded(OperationsRecordedEvent event) {
+        event.operations().stream()
+                .map(operation -> operation.getAccount().getId())
+                .distinct()
+                .forEach(this::invalidateAfterCommit);
+    }
+
+    /**
+     * Метод для удаления из кэша горячего аккаунта после консолидации его полос баланса
+     * (в последних операциях аккаунта проставляется баланс после операции).
+     * @param event Событие {@link OperationsConsolidatedEvent}.
+     */
+    @EventListener
+    public void onOperationsConsolidated(OperationsConsolidatedEvent event) {
+        invalidateAfterCommit(event.operations().getFirst().getAccount().getId());
+    }
+
+}
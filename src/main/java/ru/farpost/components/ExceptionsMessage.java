@@ -12,7 +12,33 @@ public enum ExceptionsMessage {
     ACCOUNT_NOT_FOUND("Аккаунт не найден!"),
     INSUFFICIENT_FUNDS("Недостаточно средств для снятия!"),
     UNSUPPORTED_TYPE_CLASS("Неподдерживаемый тип класса!"),
-    UNSUPPORTED_TYPE_OPERATION("Неподдерживаемый тип операции!");
+    UNSUPPORTED_TYPE_OPERATION("Неподдерживаемый тип операции!"),
+    INVALID_AMOUNT("Сумма операции должна быть больше нуля и содержать не более двух знаков после запятой!"),
+    BALANCE_OVERFLOW("Превышен максимальный баланс счета!"),
+    OPERATION_QUEUE_OVERFLOW("Очередь операций аккаунта переполнена, повторите запрос позже!"),
+    OPERATION_INTERRUPTED("Выполнение операции было прервано!"),
+    BATCH_TOO_LARGE("Превышено максимальное количество операций в пакете!"),
+    BATCH_CHUNK_FAILED("Не удалось сохранить порцию операций пакета!"),
+    INVALID_CURSOR("Некорректный курсор страницы!"),
+    INVALID_PERIOD("Дата начала периода не может быть позже даты конца!"),
+    INVALID_PAGE_LIMIT("Некорректный размер страницы!"),
+    LEDGER_UNAVAILABLE("Журнал операций недоступен, повторите запрос позже!"),
+    INVALID_TRANSFER("Перевод на тот же аккаунт невозможен!"),
+    TRANSFER_UNAVAILABLE("Переводы недоступны в режиме журнала операций!"),
+    INVALID_IDEMPOTENCY_KEY("Некорректный ключ идемпотентности!"),
+    IDEMPOTENCY_KEY_REUSED("Ключ идемпотентности уже использован для другой операции!"),
+    IDEMPOTENCY_OPERATION_GONE("Операция по ключу идемпотентности уже выполнена, но больше недоступна!"),
+    INVALID_IMPORT("Некорректные данные импорта аккаунтов!"),
+    TOO_MANY_SUBSCRIBERS("Превышено количество подписчиков потока баланса, повторите запрос позже!"),
+    TOO_MANY_REQUESTS("Превышена допустимая интенсивность операций, повторите запрос позже!"),
+    INVALID_HOT_STRIPES("Некорректное количество полос баланса горячего аккаунта!"),
+    HOT_ACCOUNTS_UNAVAILABLE("Горячие аккаунты недоступны в режиме журнала операций!"),
+    CROSS_SHARD_TRANSFER("Перевод между аккаунтами разных шардов невозможен!"),
+    SHARDS_UNAVAILABLE("Шардирование аккаунтов выключено!"),
+    INVALID_SHARD("Некорректный номер шарда!"),
+    ACCOUNT_MOVE_CONFLICT("Аккаунт не может быть перенесен сейчас, повторите запрос позже!"),
+    DATABASE_UNAVAILABLE("Нет свободного соединения с базой данных, повторите запрос позже!"),
+    SERVICE_OVERLOADED("Сервис перегружен, повторите запрос позже!");
 
     private final String message;
 
@@ -0,0 +1,22 @@
+package ru.farpost.components;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Класс для преобразования {@link OperationTypes} в постоянный числовой код столбца type и обратно.
+ */
+@Converter(autoApply = true)
+public class OperationTypeConverter implements AttributeConverter<OperationTypes, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(OperationTypes type) {
+        return type == null ? null : type.getCode();
+    }
+
+    @Override
+    public OperationTypes convertToEntityAttribute(Short code) {
+        return code == null ? null : OperationTypes.fromCode(code);
+    }
+
+}
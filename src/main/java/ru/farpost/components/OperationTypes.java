@@ -1,20 +1,58 @@
 package ru.farpost.components;
 
 import lombok.Getter;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
 
 /**
  * Перечисление содержащее типы операций которые осуществляются на аккаунте.
+ * В БД тип хранится постоянным числовым кодом {@link #getCode()} (не порядковым номером константы),
+ * поэтому порядок констант можно менять, а коды - нельзя.
  */
 @Getter
 public enum OperationTypes {
 
-    DEPOSIT("Пополнение счета"),
-    WITHDRAW("Снятие средств с счета");
+    DEPOSIT(1, "Пополнение счета"),
+    WITHDRAW(2, "Снятие средств с счета"),
+    TRANSFER(3, "Перевод средств");
+
+    private final short code;
 
     private final String description;
 
-    OperationTypes(String description) {
+    OperationTypes(int code, String description) {
+        this.code = (short) code;
         this.description = description;
     }
 
+    /**
+     * Метод для получения типа операции по коду, хранящемуся в БД.
+     * @param code Код типа операции.
+     * @return Тип операции.
+     */
+    public static OperationTypes fromCode(int code) {
+        for (OperationTypes type : values()) {
+            if (type.code == code)
+                return type;
+        }
+        throw new IllegalArgumentException("Неизвестный код типа операции: " + code);
+    }
+
+    /**
+     * Метод для получения изменения баланса операцией данного типа (списание - отрицательное).
+     * @param amount Сумма операции в минимальных единицах (копейках).
+     * @return Изменение баланса в минимальных единицах.
+     */
+    public long signedAmount(long amount) {
+        return this == WITHDRAW ? -amount : amount;
+    }
+
+    /**
+     * Метод для получения описания операции данного типа (описание не хранится в БД).
+     * @param amount Сумма операции в минимальных единицах (копейках), для списания по переводу - отрицательная.
+     * @return Описание операции.
+     */
+    public String describe(long amount) {
+        return description + " на сумму: " + MoneyUtils.toDecimal(amount).toPlainString();
+    }
+
 }
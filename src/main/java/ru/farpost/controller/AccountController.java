@@ -1,13 +1,22 @@
 package ru.farpost.controller;
 
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.farpost.dto.AccountDTO;
+import ru.farpost.dto.StatementDTO;
 import ru.farpost.model.Account;
+import ru.farpost.service.AccountImportService;
 import ru.farpost.service.AccountService;
+import ru.farpost.service.AccountShardMoveService;
+import ru.farpost.stream.BalanceStreamHub;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.LinkedHashMap;
@@ -26,12 +35,37 @@ public class AccountController {
     private final AccountService accountService;
 
     /**
-     * Конструктор для создания объекта {@link AccountService}.
+     * Объект класса {@link AccountImportService}
+     */
+    private final AccountImportService accountImportService;
+
+    /**
+     * Объект класса {@link BalanceStreamHub}
+     */
+    private final BalanceStreamHub balanceStreamHub;
+
+    /**
+     * Объект класса {@link AccountShardMoveService}
+     */
+    private final AccountShardMoveService accountShardMoveService;
+
+    /**
+     * Конструктор для создания объектов {@link AccountService}, {@link AccountImportService}, {@link BalanceStreamHub}
+     * и {@link AccountShardMoveService}.
      * @param accountService Ссылка на объект {@link AccountService}.
+     * @param accountImportService Ссылка на объект {@link AccountImportService}.
+     * @param balanceStreamHub Ссылка на объект {@link BalanceStreamHub}.
+     * @param accountShardMoveService Ссылка на объект {@link AccountShardMoveService}.
      */
     @Autowired
-    public AccountController(AccountService accountService) {
+    public AccountController(AccountService accountService,
+                             AccountImportService accountImportService,
+                             BalanceStreamHub balanceStreamHub,
+                             AccountShardMoveService accountShardMoveService) {
         this.accountService = accountService;
+        this.accountImportService = accountImportService;
+        this.balanceStreamHub = balanceStreamHub;
+        this.accountShardMoveService = accountShardMoveService;
     }
 
     /**
@@ -44,14 +78,31 @@ public class AccountController {
         return ResponseEntity.ok(accountService.createAccount(newAccount.getUsername()));
     }
 
+    /**
+     * Метод для обработки запроса на массовый импорт аккаунтов из CSV (колонки username,balance с заголовком).
+     * @param body Тело запроса с CSV.
+     * @param response HTTP-ответ, в который пишется CSV с колонками line,account_id,username.
+     */
+    @RequestMapping(value = "/import", method = RequestMethod.POST, consumes = "text/csv")
+    public void importAccounts(InputStream body, HttpServletResponse response) throws IOException {
+        accountImportService.importAccounts(body, () -> {
+            response.setContentType("text/csv");
+            return response.getOutputStream();
+        });
+    }
+
     /**
      * Метод для обработки запроса на получение информации об аккаунте.
+     * Вместе с аккаунтом возвращаются только последние операции, полная история - через API операций.
      * @param accountId Идентификатор аккаунта.
+     * @param lastOperations Количество последних операций в ответе (необязательный параметр).
      * @return JSON объект с информацией об аккаунте.
      */
     @RequestMapping(value = "/{accountId}/info", method = RequestMethod.GET)
-    public ResponseEntity<AccountDTO> getAccountInfo(@PathVariable("accountId") Long accountId) {
-        return ResponseEntity.ok(accountService.findAccountById(accountId, AccountDTO.class));
+    public ResponseEntity<AccountDTO> getAccountInfo(@PathVariable("accountId") Long accountId,
+                                                     @RequestParam(value = "lastOperations", required = false)
+                                                     Integer lastOperations) {
+        return ResponseEntity.ok(accountService.findAccountInfo(accountId, lastOperations));
     }
 
     /**
@@ -66,14 +117,63 @@ public class AccountController {
         return ResponseEntity.ok(accountService.updateAccount(accountId, updatedAccount.getUsername()));
     }
 
+    /**
+     * Метод для обработки запроса на изменение количества полос баланса горячего аккаунта.
+     * Пополнения горячего аккаунта распределяются по полосам и выполняются параллельно.
+     * @param accountId Идентификатор аккаунта.
+     * @param stripes Количество полос баланса (0 - аккаунт перестает быть горячим).
+     * @return JSON объект с информацией об измененном аккаунте.
+     */
+    @RequestMapping(value = "/{accountId}/hot", method = RequestMethod.PUT)
+    public ResponseEntity<AccountDTO> updateHotStripes(@PathVariable("accountId") Long accountId,
+                                                       @RequestParam("stripes") int stripes) {
+        return ResponseEntity.ok(accountService.updateHotStripes(accountId, stripes));
+    }
+
+    /**
+     * Метод для обработки запроса на получение шарда, на котором хранится аккаунт.
+     * @param accountId Идентификатор аккаунта.
+     * @return JSON объект с идентификатором аккаунта и номером шарда.
+     */
+    @RequestMapping(value = "/{accountId}/shard", method = RequestMethod.GET)
+    public Map<String, Object> getShard(@PathVariable("accountId") Long accountId) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("accountId", accountId);
+        response.put("shard", accountShardMoveService.findShard(accountId));
+        return response;
+    }
+
+    /**
+     * Метод для обработки запроса на перенос аккаунта на другой шард. Аккаунт продолжает принимать операции
+     * во время копирования истории и недоступен только на время досылки последних операций.
+     * @param accountId Идентификатор аккаунта.
+     * @param shard Номер целевого шарда.
+     * @return JSON объект с идентификатором аккаунта, номером шарда до переноса и номером шарда после переноса.
+     */
+    @RequestMapping(value = "/{accountId}/shard", method = RequestMethod.PUT)
+    public Map<String, Object> moveAccount(@PathVariable("accountId") Long accountId,
+                                           @RequestParam("shard") int shard) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("accountId", accountId);
+        response.put("previousShard", accountShardMoveService.moveAccount(accountId, shard));
+        response.put("shard", shard);
+        return response;
+    }
+
     /**
      * Метод для обработки запроса на удаление аккаунта (при удалении аккаунта удаляются связанные с ним операции).
      * @param accountId Идентификатор аккаунта.
+     * @param async Удалить историю операций в фоне (необязательный параметр): аккаунт сразу становится
+     *              недоступным, а операции удаляются порциями.
      * @return JSON ответ с сообщением об успешном удалении аккаунта.
      */
     @RequestMapping(value = "/{accountId}/delete", method = RequestMethod.DELETE)
-    public ResponseEntity<Map<String, String>> deleteAccount(@PathVariable("accountId") Long accountId) {
-        accountService.deleteAccountById(accountId);
+    public ResponseEntity<Map<String, String>> deleteAccount(@PathVariable("accountId") Long accountId,
+                                                             @RequestParam(value = "async", defaultValue = "false")
+                                                             boolean async) {
+        accountService.deleteAccountById(accountId, async);
+        if (async)
+            return ResponseEntity.accepted().body(Map.of("deleteStatus", "Аккаунт удален, история операций удаляется в фоне!"));
         var response = Map.of("deleteStatus", "Аккаунт успешно удален!");
         return ResponseEntity.ok(response);
     }
@@ -85,10 +185,28 @@ public class AccountController {
      */
     @RequestMapping(value = "/{accountId}/balance", method = RequestMethod.GET)
     public ResponseEntity<Map<String, BigDecimal>> getCurrentBalance(@PathVariable("accountId") Long accountId) {
-        var response = Map.of("currentBalance", accountService.findAccountById(accountId, Account.class).getBalance());
+        var response = Map.of("currentBalance", accountService.findCurrentBalance(accountId));
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Метод для обработки запроса на подписку на изменения баланса аккаунта (Server-Sent Events).
+     * Поток начинается с текущего баланса (событие balance), затем после фиксации каждой операции
+     * отправляется операция с балансом после нее (событие operation).
+     * @param accountId Идентификатор аккаунта.
+     * @param lastEventIdHeader Идентификатор последней полученной операции (заголовок, передается EventSource
+     *                          при переподключении).
+     * @param lastEventId Идентификатор последней полученной операции (необязательный параметр).
+     * @return Поток событий изменения баланса.
+     */
+    @RequestMapping(value = "/{accountId}/balance-stream", method = RequestMethod.GET,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBalance(@PathVariable("accountId") Long accountId,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventIdHeader,
+                                    @RequestParam(value = "lastEventId", required = false) Long lastEventId) {
+        return balanceStreamHub.subscribe(accountId, lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+    }
+
     /**
      * Метод для обработки запроса на получение баланса аккаунта на переданную дату.
      * @param accountId Идентификатор аккаунта.
@@ -104,4 +222,19 @@ public class AccountController {
         return response;
     }
 
+    /**
+     * Метод для обработки запроса на получение выписки по аккаунту за период.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @return JSON объект с балансом на начало и конец периода, итогами зачислений и списаний,
+     * минимальным и максимальным балансом за период.
+     */
+    @RequestMapping(value = "/{accountId}/statement", method = RequestMethod.GET)
+    public ResponseEntity<StatementDTO> getStatement(@PathVariable("accountId") Long accountId,
+                                                     @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                     @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return ResponseEntity.ok(accountService.getStatement(accountId, from, to));
+    }
+
 }
\ No newline at end of file
@@ -2,16 +2,26 @@ package ru.farpost.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.farpost.components.OperationTypes;
+import ru.farpost.dto.BatchOperationRequestDTO;
+import ru.farpost.dto.BatchOperationResultDTO;
 import ru.farpost.dto.OperationDTO;
-import ru.farpost.service.AccountService;
+import ru.farpost.dto.OperationPageDTO;
+import ru.farpost.dto.TransferDTO;
 import ru.farpost.service.OperationService;
+import ru.farpost.service.OperationStreamService;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -30,12 +40,19 @@ public class OperationController {
     private final OperationService operationService;
 
     /**
-     * Конструктор для создания объекта {@link OperationService}.
+     * Объект класса {@link OperationStreamService}
+     */
+    private final OperationStreamService operationStreamService;
+
+    /**
+     * Конструктор для создания объектов {@link OperationService} и {@link OperationStreamService}.
      * @param operationService Ссылка на объект {@link OperationService}.
+     * @param operationStreamService Ссылка на объект {@link OperationStreamService}.
      */
     @Autowired
-    public OperationController(OperationService operationService) {
+    public OperationController(OperationService operationService, OperationStreamService operationStreamService) {
         this.operationService = operationService;
+        this.operationStreamService = operationStreamService;
     }
 
     /**
@@ -43,13 +60,41 @@ public class OperationController {
      * @param accountId Идентификатор аккаунта.
      * @param amount Сумма операции.
      * @param type Тип операции.
+     * @param idempotencyKey Ключ идемпотентности (заголовок Idempotency-Key, необязательный).
      * @return JSON объект содержащий информацию об операции.
      */
     @RequestMapping(value = "/{accountId}/make-operation", method = RequestMethod.POST)
     public ResponseEntity<OperationDTO> processOperation(@PathVariable("accountId") Long accountId,
                                                          @RequestParam("amount") BigDecimal amount,
-                                                         @RequestParam("type") OperationTypes type) {
-        return ResponseEntity.ok(operationService.processOperation(accountId, amount, type));
+                                                         @RequestParam("type") OperationTypes type,
+                                                         @RequestHeader(value = "Idempotency-Key", required = false)
+                                                         String idempotencyKey) {
+        return ResponseEntity.ok(operationService.processOperation(accountId, amount, type, idempotencyKey));
+    }
+
+    /**
+     * Метод для обработки запроса на перевод средств между аккаунтами.
+     * @param accountId Идентификатор аккаунта отправителя.
+     * @param toAccountId Идентификатор аккаунта получателя.
+     * @param amount Сумма перевода.
+     * @return JSON объект содержащий операции списания и зачисления.
+     */
+    @RequestMapping(value = "/{accountId}/transfer", method = RequestMethod.POST)
+    public ResponseEntity<TransferDTO> processTransfer(@PathVariable("accountId") Long accountId,
+                                                       @RequestParam("toAccountId") Long toAccountId,
+                                                       @RequestParam("amount") BigDecimal amount) {
+        return ResponseEntity.ok(operationService.processTransfer(accountId, toAccountId, amount));
+    }
+
+    /**
+     * Метод для обработки запроса на пакетное осуществление операций над несколькими аккаунтами.
+     * @param operations Список операций, преобразованный из JSON массива.
+     * @return JSON массив с результатом каждой операции пакета.
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.POST)
+    public ResponseEntity<List<BatchOperationResultDTO>> processBatch(
+            @RequestBody List<BatchOperationRequestDTO> operations) {
+        return ResponseEntity.ok(operationService.processBatch(operations));
     }
 
     /**
@@ -67,4 +112,61 @@ public class OperationController {
         return ResponseEntity.ok(operationService.getOperationsByAccountIdAndDateBetween(accountId, from, to));
     }
 
+    /**
+     * Метод для обработки запроса на получение страницы операций аккаунта за определенный период.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода для поиска операций (С).
+     * @param to Дата конца периода для поиска операций (По).
+     * @param limit Максимальное количество операций на странице.
+     * @param cursor Курсор следующей страницы из предыдущего ответа (для первой страницы не передается).
+     * @return JSON объект содержащий операции страницы и курсор следующей страницы.
+     */
+    @RequestMapping(value = "/{accountId}/get-by-period/page", method = RequestMethod.GET)
+    public ResponseEntity<OperationPageDTO> getOperationsPage(
+            @PathVariable("accountId") Long accountId,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return ResponseEntity.ok(operationService.getOperationsPage(accountId, from, to, limit, cursor));
+    }
+
+    /**
+     * Метод для обработки запроса на потоковую выгрузку операций аккаунта за определенный период.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода для поиска операций (С).
+     * @param to Дата конца периода для поиска операций (По).
+     * @return Поток операций в формате NDJSON (одна операция на строку).
+     */
+    @RequestMapping(value = "/{accountId}/get-by-period/stream", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> streamOperations(
+            @PathVariable("accountId") Long accountId,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        operationStreamService.checkAccountExists(accountId);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(out -> operationStreamService.streamOperations(accountId, from, to, out));
+    }
+
+    /**
+     * Метод для обработки запроса на выгрузку истории операций за период в CSV, сжатом gzip.
+     * @param accountId Идентификатор аккаунта (необязательный параметр, без него выгружаются операции всех аккаунтов).
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @return Файл operations.csv.gz с колонками id,account_id,type,amount,account_balance,date,linked_operation_id.
+     */
+    @RequestMapping(value = "/export", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> exportOperations(
+            @RequestParam(value = "accountId", required = false) Long accountId,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        operationStreamService.checkExportFilter(accountId, from, to);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename("operations.csv.gz").build().toString())
+                .body(out -> operationStreamService.exportOperations(accountId, from, to, out));
+    }
+
 }
@@ -0,0 +1,200 @@
+package ru.farpost.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.farpost.event.OperationsRecordedEvent;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Класс для выбора БД, на которой выполняются запросы на чтение (основная БД или реплика).
+ * <p>
+ * Методы сервисов только на чтение выполняются в области чтения {@link #onReplica(Long, Supplier)}: соединения,
+ * полученные в ней, {@link ReplicaRoutingDataSource} берет у реплики. Для аккаунта, измененного не ранее
+ * app.replicas.read-your-writes-window назад, запросы области идут в основную БД,
+ * поэтому клиент сразу после операции видит ее результат (read-your-writes), даже если реплика отстает.
+ * <p>
+ * Запись отмечается до фиксации транзакции и повторно после нее, поэтому окно отсчитывается от момента
+ * фиксации. Кэш аккаунтов загружает аккаунты только из основной БД ({@link #onPrimary(Supplier)}).
+ */
+@Component
+public class ReadRouting {
+
+    /**
+     * Текущая область чтения потока.
+     */
+    private final ThreadLocal<ReadScope> currentScope = new ThreadLocal<>();
+
+    /**
+     * Область чтения при выключенном чтении с реплик (запросы идут в основную БД, поток не отмечается).
+     */
+    private final ReadScope primaryScope = new ReadScope(null, false);
+
+    /**
+     * Аккаунты, измененные в течение окна read-your-writes (null - чтение с реплик выключено).
+     */
+    private final Cache<Long, Boolean> recentWrites;
+
+    /**
+     * Конструктор для создания объекта с использованием "@Autowired".
+     * @param enabled Включено ли чтение с реплик.
+     * @param readYourWritesWindow Время после изменения аккаунта, в течение которого он читается из основной БД.
+     * @param maxTrackedAccounts Максимальное количество отслеживаемых измененных аккаунтов.
+     */
+    @Autowired
+    public ReadRouting(@Value("${app.replicas.enabled:false}") boolean enabled,
+                       @Value("${app.replicas.read-your-writes-window:10s}") Duration readYourWritesWindow,
+                       @Value("${app.replicas.read-your-writes-max-accounts:1000000}") long maxTrackedAccounts) {
+        this.recentWrites = enabled
+                ? Caffeine.newBuilder().maximumSize(maxTrackedAccounts).expireAfterWrite(readYourWritesWindow).build()
+                : null;
+    }
+
+    /**
+     * Метод для открытия области чтения с реплики.
+     * Если чтение с реплик выключено или аккаунт недавно изменялся, запросы области идут в основную БД.
+     * @param accountId Идентификатор читаемого аккаунта (null - чтение не относится к одному аккаунту).
+     * @return Объект {@link ReadScope}, закрытие которого восстанавливает предыдущую область.
+     */
+    private ReadScope replicaScope(Long accountId) {
+        if (recentWrites == null)
+            return primaryScope;
+        boolean replica = accountId == null || recentWrites.getIfPresent(accountId) == null;
+        ReadScope scope = new ReadScope(currentScope.get(), replica);
+        currentScope.set(scope);
+        return scope;
+    }
+
+    /**
+     * Метод для открытия области чтения из основной БД внутри области чтения с реплики
+     * (загрузка кэша, который не должен сохранять отстающее состояние реплики).
+     * @return Объект {@link ReadScope}, закрытие которого восстанавливает предыдущую область.
+     */
+    private ReadScope primaryScope() {
+        if (recentWrites == null)
+            return primaryScope;
+        ReadScope scope = new ReadScope(currentScope.get(), false);
+        currentScope.set(scope);
+        return scope;
+    }
+
+    /**
+     * Метод для выполнения действия в области чтения с реплики (см. {@link #replicaScope(Long)}).
+     * @param accountId Идентификатор читаемого аккаунта (null - чтение не относится к одному аккаунту).
+     * @param action Действие.
+     * @return Результат действия.
+     */
+    public <T> T onReplica(Long accountId, Supplier<T> action) {
+        return inScope(replicaScope(accountId), action);
+    }
+
+    /**
+     * Метод для выполнения действия без результата в области чтения с реплики (см. {@link #replicaScope(Long)}).
+     * @param accountId Идентификатор читаемого аккаунта (null - чтение не относится к одному аккаунту).
+     * @param action Действие.
+     */
+    public void runOnReplica(Long accountId, Runnable action) {
+        inScope(replicaScope(accountId), () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Метод для выполнения действия в области чтения из основной БД (см. {@link #primaryScope()}).
+     * @param action Действие.
+     * @return Результат действия.
+     */
+    public <T> T onPrimary(Supplier<T> action) {
+        return inScope(primaryScope(), action);
+    }
+
+    private static <T> T inScope(ReadScope scope, Supplier<T> action) {
+        try {
+            return action.get();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Метод для получения текущей области чтения с реплики.
+     * @return Объект {@link ReadScope} или null, если запросы потока должны идти в основную БД.
+     */
+    ReadScope currentReplicaScope() {
+        ReadScope scope = currentScope.get();
+        return scope != null && scope.replica ? scope : null;
+    }
+
+    /**
+     * Метод для отметки изменения аккаунта: сразу и после фиксации текущей транзакции (если она есть).
+     * @param accountId Идентификатор аккаунта.
+     */
+    public void recordWrite(Long accountId) {
+        if (recentWrites == null)
+            return;
+        recentWrites.put(accountId, Boolean.TRUE);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recentWrites.put(accountId, Boolean.TRUE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Метод для отметки аккаунтов, по которым были сохранены операции.
+     * @param event Событие {@link OperationsRecordedEvent}.
+     */
+    @EventListener
+    public void onOperationsRecorded(OperationsRecordedEvent event) {
+        if (recentWrites == null)
+            return;
+        event.operations().stream()
+                .map(operation -> operation.getAccount().getId())
+                .distinct()
+                .forEach(this::recordWrite);
+    }
+
+    /**
+     * Область чтения потока. Все соединения области берутся у одной реплики (пока она доступна),
+     * поэтому запросы одного метода видят согласованное состояние.
+     */
+    public final class ReadScope implements AutoCloseable {
+
+        private final ReadScope previous;
+
+        private final boolean replica;
+
+        /**
+         * Индекс реплики, выбранной для области (-1 - еще не выбрана).
+         */
+        int replicaIndex = -1;
+
+        private ReadScope(ReadScope previous, boolean replica) {
+            this.previous = previous;
+            this.replica = replica;
+        }
+
+        @Override
+        public void close() {
+            if (this == primaryScope)
+                return;
+            if (previous == null)
+                currentScope.remove();
+            else
+                currentScope.set(previous);
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+package ru.farpost.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Конфигурация чтения с реплик (app.replicas.enabled=true).
+ * <p>
+ * Основная БД настраивается стандартными свойствами spring.datasource.*, реплики - списком адресов
+ * app.replicas.urls. Приложение (JPA, JdbcTemplate, Flyway) использует {@link ReplicaRoutingDataSource},
+ * который отдает соединения реплик только областям чтения {@link ReadRouting}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.replicas.enabled", havingValue = "true")
+public class ReplicaDataSourceConfiguration {
+
+    /**
+     * Метод для создания пула соединений основной БД.
+     * @param properties Свойства spring.datasource.*.
+     * @return Объект {@link HikariDataSource}.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * Метод для создания источника соединений с маршрутизацией чтения на реплики.
+     * Пулы реплик создаются без проверки соединения при запуске, поэтому приложение запускается
+     * и при недоступной реплике (чтение идет в основную БД до ее восстановления).
+     * @param primaryDataSource Пул соединений основной БД.
+     * @param properties Свойства spring.datasource.* (пользователь и пароль реплик по умолчанию).
+     * @param readRouting Ссылка на объект {@link ReadRouting}.
+     * @param meterRegistry Реестр метрик.
+     * @param urls Адреса JDBC реплик.
+     * @param username Пользователь реплик (по умолчанию - пользователь основной БД).
+     * @param password Пароль реплик (по умолчанию - пароль основной БД).
+     * @param poolSize Максимальный размер пула соединений каждой реплики.
+     * @param connectionTimeout Время ожидания соединения с репликой.
+     * @param maxLag Максимальное отставание доступной реплики.
+     * @return Объект {@link ReplicaRoutingDataSource}.
+     */
+    @Bean
+    @Primary
+    public ReplicaRoutingDataSource dataSource(HikariDataSource primaryDataSource,
+                                               DataSourceProperties properties,
+                                               ReadRouting readRouting,
+                                               MeterRegistry meterRegistry,
+                                               @Value("${app.replicas.urls:}") List<String> urls,
+                                               @Value("${app.replicas.username:}") String username,
+                                               @Value("${app.replicas.password:}") String password,
+                                               @Value("${app.replicas.pool-size:10}") int poolSize,
+                                               @Value("${app.replicas.connection-timeout:500ms}") Duration connectionTimeout,
+                                               @Value("${app.replicas.max-lag:5s}") Duration maxLag) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : urls) {
+            if (url.isBlank())
+                continue;
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + replicas.size());
+            replica.setJdbcUrl(url.trim());
+            replica.setUsername(username.isBlank() ? properties.determineUsername() : username);
+            replica.setPassword(password.isBlank() ? properties.determinePassword() : password);
+            replica.setMaximumPoolSize(poolSize);
+            replica.setConnectionTimeout(connectionTimeout.toMillis());
+            replica.setInitializationFailTimeout(-1);
+            replica.setReadOnly(true);
+            replica.setMetricRegistry(meterRegistry);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, readRouting, maxLag, meterRegistry);
+    }
+
+}
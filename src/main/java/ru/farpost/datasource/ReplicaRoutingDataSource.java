@@ -0,0 +1,204 @@
+package ru.farpost.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Источник соединений, направляющий запросы областей чтения {@link ReadRouting} на реплики, а остальные
+ * запросы (все записи, транзакции изменения данных, миграции) - в основную БД.
+ * <p>
+ * Реплика для области чтения выбирается по кругу среди доступных. Реплика считается недоступной, если
+ * не удалось получить соединение или ее отставание превышает app.replicas.max-lag; состояние реплик
+ * проверяется каждые app.replicas.health-check-interval. Если доступных реплик нет, чтение идет
+ * в основную БД.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    /**
+     * Запрос отставания реплики (в секундах). Реплика, применившая весь полученный журнал, не отстает;
+     * основная БД (не в режиме восстановления) используется как реплика без отставания.
+     */
+    private static final String SELECT_LAG =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    /**
+     * Основная БД.
+     */
+    private final DataSource primary;
+
+    /**
+     * Реплики.
+     */
+    private final List<Replica> replicas;
+
+    /**
+     * Объект класса {@link ReadRouting}
+     */
+    private final ReadRouting readRouting;
+
+    /**
+     * Максимальное отставание доступной реплики (в секундах).
+     */
+    private final double maxLagSeconds;
+
+    /**
+     * Счетчик для выбора реплики по кругу.
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Количество соединений областей чтения, полученных у основной БД (нет доступных реплик).
+     */
+    private final Counter primaryReads;
+
+    /**
+     * Конструктор для создания источника соединений и регистрации его метрик.
+     * @param primary Основная БД.
+     * @param replicas Пулы соединений реплик.
+     * @param readRouting Ссылка на объект {@link ReadRouting}.
+     * @param maxLag Максимальное отставание доступной реплики.
+     * @param meterRegistry Реестр метрик.
+     */
+    public ReplicaRoutingDataSource(DataSource primary,
+                                    List<HikariDataSource> replicas,
+                                    ReadRouting readRouting,
+                                    Duration maxLag,
+                                    MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(dataSource -> new Replica(dataSource, meterRegistry)).toList();
+        this.readRouting = readRouting;
+        this.maxLagSeconds = maxLag.toMillis() / 1000.0;
+        this.primaryReads = readsCounter("primary", meterRegistry);
+        Gauge.builder("datasource.replicas.available", this.replicas,
+                        list -> list.stream().filter(replica -> replica.available).count())
+                .description("Количество доступных реплик")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        ReadRouting.ReadScope scope = readRouting.currentReplicaScope();
+        if (scope != null) {
+            Connection connection = replicaConnection(scope);
+            if (connection != null)
+                return connection;
+            primaryReads.increment();
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Метод для получения соединения с репликой области чтения (или следующей доступной реплики по кругу).
+     * @param scope Область чтения.
+     * @return Соединение с репликой или null, если доступных реплик нет.
+     */
+    private Connection replicaConnection(ReadRouting.ReadScope scope) {
+        int size = replicas.size();
+        if (size == 0)
+            return null;
+        int start = scope.replicaIndex >= 0 ? scope.replicaIndex : Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            Replica replica = replicas.get(index);
+            if (!replica.available)
+                continue;
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.reads.increment();
+                scope.replicaIndex = index;
+                return connection;
+            } catch (SQLException e) {
+                replica.markUnavailable(e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Метод для периодической проверки доступности и отставания реплик.
+     */
+    @Scheduled(fixedDelayString = "${app.replicas.health-check-interval:2s}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT_LAG)) {
+                resultSet.next();
+                double lag = resultSet.getDouble(1);
+                if (lag > maxLagSeconds)
+                    replica.markUnavailable(String.format("отставание %.1f с", lag));
+                else
+                    replica.markAvailable();
+            } catch (SQLException e) {
+                replica.markUnavailable(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    private static Counter readsCounter(String target, MeterRegistry meterRegistry) {
+        return Counter.builder("datasource.reads")
+                .description("Количество соединений областей чтения по БД")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Реплика и ее состояние.
+     */
+    private static final class Replica {
+
+        private final HikariDataSource dataSource;
+
+        private final Counter reads;
+
+        private volatile boolean available = true;
+
+        private Replica(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+            this.dataSource = dataSource;
+            this.reads = readsCounter(dataSource.getPoolName(), meterRegistry);
+        }
+
+        private void markAvailable() {
+            if (!available)
+                log.info("Реплика {} снова доступна", dataSource.getPoolName());
+            available = true;
+        }
+
+        private void markUnavailable(String reason) {
+            if (available)
+                log.warn("Реплика {} недоступна, чтение переключено: {}", dataSource.getPoolName(), reason);
+            available = false;
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+package ru.farpost.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayProperties;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Конфигурация шардирования аккаунтов (app.shards.enabled=true).
+ * <p>
+ * Шард 0 настраивается стандартными свойствами spring.datasource.* (его схему мигрирует Flyway приложения),
+ * остальные шарды - списком адресов app.shards.urls в порядке номеров шардов, начиная с 1. Схема остальных
+ * шардов мигрируется при создании пулов теми же миграциями с номером шарда в подстановке ${shard}.
+ * Приложение (JPA, JdbcTemplate) использует {@link ShardRoutingDataSource}, который отдает соединения шарда
+ * текущей области {@link ShardRouting}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.shards.enabled", havingValue = "true")
+public class ShardDataSourceConfiguration {
+
+    /**
+     * Метод для создания пула соединений шарда 0.
+     * @param properties Свойства spring.datasource.*.
+     * @return Объект {@link HikariDataSource}.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource shardZeroDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * Метод для создания источника соединений с маршрутизацией запросов по шардам и миграции схемы шардов,
+     * начиная с 1. Шарды должны быть доступны при запуске.
+     * @param shardZeroDataSource Пул соединений шарда 0.
+     * @param properties Свойства spring.datasource.* (пользователь и пароль шардов по умолчанию).
+     * @param flywayProperties Свойства spring.flyway.*.
+     * @param shardRouting Ссылка на объект {@link ShardRouting}.
+     * @param meterRegistry Реестр метрик.
+     * @param urls Адреса JDBC шардов, начиная с 1.
+     * @param username Пользователь шардов (по умолчанию - пользователь шарда 0).
+     * @param password Пароль шардов (по умолчанию - пароль шарда 0).
+     * @param poolSize Максимальный размер пула соединений каждого шарда, начиная с 1.
+     * @param replicasEnabled Включено ли чтение с реплик (несовместимо с шардированием).
+     * @param ledgerEnabled Включен ли режим журнала операций (несовместим с шардированием).
+     * @return Объект {@link ShardRoutingDataSource}.
+     */
+    @Bean
+    @Primary
+    public ShardRoutingDataSource shardRoutingDataSource(HikariDataSource shardZeroDataSource,
+                                                         DataSourceProperties properties,
+                                                         FlywayProperties flywayProperties,
+                                                         ShardRouting shardRouting,
+                                                         MeterRegistry meterRegistry,
+                                                         @Value("${app.shards.urls:}") List<String> urls,
+                                                         @Value("${app.shards.username:}") String username,
+                                                         @Value("${app.shards.password:}") String password,
+                                                         @Value("${app.shards.pool-size:10}") int poolSize,
+                                                         @Value("${app.replicas.enabled:false}") boolean replicasEnabled,
+                                                         @Value("${app.ledger.enabled:false}") boolean ledgerEnabled) {
+        if (replicasEnabled || ledgerEnabled)
+            throw new IllegalStateException(
+                    "Шардирование аккаунтов несовместимо с чтением с реплик и режимом журнала операций");
+
+        List<HikariDataSource> shards = new ArrayList<>();
+        shards.add(shardZeroDataSource);
+        for (String url : urls) {
+            if (url.isBlank())
+                continue;
+            HikariDataSource shard = new HikariDataSource();
+            shard.setPoolName("shard-" + shards.size());
+            shard.setJdbcUrl(url.trim());
+            shard.setUsername(username.isBlank() ? properties.determineUsername() : username);
+            shard.setPassword(password.isBlank() ? properties.determinePassword() : password);
+            shard.setMaximumPoolSize(poolSize);
+            shard.setMetricRegistry(meterRegistry);
+            shards.add(shard);
+        }
+        if (shards.size() > ShardMap.MAX_SHARDS)
+            throw new IllegalStateException("Количество шардов не может превышать " + ShardMap.MAX_SHARDS);
+
+        for (int index = 1; index < shards.size(); index++) {
+            migrate(shards.get(index), index, flywayProperties);
+        }
+        return new ShardRoutingDataSource(shards, shardRouting);
+    }
+
+    /**
+     * Метод для миграции схемы шарда миграциями приложения.
+     * @param shard Пул соединений шарда.
+     * @param index Номер шарда.
+     * @param flywayProperties Свойства spring.flyway.*.
+     */
+    private static void migrate(HikariDataSource shard, int index, FlywayProperties flywayProperties) {
+        Map<String, String> placeholders = new HashMap<>(flywayProperties.getPlaceholders());
+        placeholders.put("shard", String.valueOf(index));
+        Flyway.configure()
+                .dataSource(shard)
+                .locations(flywayProperties.getLocations().toArray(String[]::new))
+                .baselineOnMigrate(flywayProperties.isBaselineOnMigrate())
+                .baselineVersion(flywayProperties.getBaselineVersion())
+                .placeholders(placeholders)
+                .load()
+                .migrate();
+    }
+
+}
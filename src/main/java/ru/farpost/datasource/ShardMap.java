@@ -0,0 +1,282 @@
+package ru.farpost.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Класс (карта шардов) для определения шарда, на котором хранится аккаунт.
+ * <p>
+ * Шарды назначаются диапазонами идентификаторов: последовательности шарда N выдают идентификаторы
+ * из диапазона [N * 2^48, (N + 1) * 2^48), поэтому домашний шард аккаунта - старшие биты его идентификатора,
+ * а аккаунт, перенесенный на другой шард, записывается в справочник account_relocations своего домашнего шарда.
+ * Расположение, прочитанное из справочника при промахе кэша, кэшируется на app.shards.location-cache-ttl.
+ * Кэш не нужно сбрасывать по времени: аккаунт, не найденный на шарде из кэша, ищется по справочнику заново
+ * ({@link #inShard(Long, Supplier)}).
+ * <p>
+ * Операции аккаунта хранятся на его шарде, поэтому все запросы одного аккаунта выполняются на одном шарде.
+ * При выключенном шардировании все аккаунты находятся на шарде 0, а области шардов ничего не изменяют.
+ */
+@Component
+public class ShardMap {
+
+    /**
+     * Максимальное количество шардов: идентификаторы аккаунтов и операций остаются меньше 2^53
+     * и точно представляются числами JSON.
+     */
+    public static final int MAX_SHARDS = 32;
+
+    /**
+     * Количество младших битов идентификатора, не относящихся к номеру домашнего шарда.
+     */
+    public static final int SHARD_SHIFT = 48;
+
+    private static final String SELECT_RELOCATION = "SELECT shard FROM account_relocations WHERE account_id = ?";
+
+    /**
+     * Объект класса {@link ShardRouting}
+     */
+    private final ShardRouting shardRouting;
+
+    /**
+     * Источник соединений шардов (null - шардирование выключено).
+     */
+    private final ShardRoutingDataSource dataSource;
+
+    /**
+     * Запросы к справочникам перенесенных аккаунтов шардов (индекс - номер шарда).
+     */
+    private final List<JdbcTemplate> directories = new ArrayList<>();
+
+    /**
+     * Расположение аккаунтов, прочитанное из справочников.
+     */
+    private final Cache<Long, Integer> locations;
+
+    /**
+     * Шарды, на которых создаются новые аккаунты.
+     */
+    private final int[] newAccountShards;
+
+    /**
+     * Счетчик для выбора шарда нового аккаунта по кругу.
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Конструктор для создания карты шардов с использованием "@Autowired".
+     * @param shardRouting Ссылка на объект {@link ShardRouting}.
+     * @param dataSource Источник соединений шардов (если шардирование включено).
+     * @param newAccountShards Шарды, на которых создаются новые аккаунты (пусто - все шарды).
+     * @param locationCacheTtl Время кэширования расположения аккаунта.
+     * @param locationCacheMaxSize Максимальное количество кэшируемых расположений аккаунтов.
+     */
+    @Autowired
+    public ShardMap(ShardRouting shardRouting,
+                    Optional<ShardRoutingDataSource> dataSource,
+                    @Value("${app.shards.new-account-shards:}") List<Integer> newAccountShards,
+                    @Value("${app.shards.location-cache-ttl:10m}") Duration locationCacheTtl,
+                    @Value("${app.shards.location-cache-max-size:1000000}") long locationCacheMaxSize) {
+        this.shardRouting = shardRouting;
+        this.dataSource = dataSource.orElse(null);
+        int count = this.dataSource != null ? this.dataSource.size() : 1;
+        for (int shard = 0; this.dataSource != null && shard < count; shard++) {
+            directories.add(new JdbcTemplate(this.dataSource.shard(shard)));
+        }
+        this.locations = Caffeine.newBuilder()
+                .maximumSize(locationCacheMaxSize)
+                .expireAfterWrite(locationCacheTtl)
+                .build();
+        this.newAccountShards = newAccountShards.isEmpty()
+                ? IntStream.range(0, count).toArray()
+                : newAccountShards.stream().mapToInt(Integer::intValue).toArray();
+        for (int shard : this.newAccountShards) {
+            if (shard < 0 || shard >= count)
+                throw new IllegalStateException("Шард новых аккаунтов " + shard + " не настроен");
+        }
+    }
+
+    /**
+     * Метод для проверки, включено ли шардирование.
+     * @return true, если шардирование включено.
+     */
+    public boolean isEnabled() {
+        return dataSource != null;
+    }
+
+    /**
+     * Метод для получения количества шардов.
+     * @return Количество шардов (1 - шардирование выключено).
+     */
+    public int count() {
+        return dataSource != null ? dataSource.size() : 1;
+    }
+
+    /**
+     * Метод для определения домашнего шарда аккаунта - шарда, последовательность которого выдала его идентификатор.
+     * @param accountId Идентификатор аккаунта.
+     * @return Номер домашнего шарда.
+     */
+    public static int homeShard(long accountId) {
+        return (int) (accountId >>> SHARD_SHIFT);
+    }
+
+    /**
+     * Метод для определения шарда, на котором хранится аккаунт.
+     * @param accountId Идентификатор аккаунта.
+     * @return Номер шарда.
+     */
+    public int shardOf(Long accountId) {
+        if (dataSource == null)
+            return 0;
+        int home = accountId != null ? homeShard(accountId) : -1;
+        if (home < 0 || home >= dataSource.size())
+            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+        return locations.get(accountId, key -> {
+            List<Integer> shard = directories.get(home).queryForList(SELECT_RELOCATION, Integer.class, key);
+            return shard.isEmpty() ? home : shard.getFirst();
+        });
+    }
+
+    /**
+     * Метод для открытия области шарда аккаунта до начала транзакции (область закрывает вызывающий метод;
+     * для действий без проверяемых исключений - {@link #inShard(Long, Supplier)}).
+     * @param accountId Идентификатор аккаунта.
+     * @return Объект {@link ShardRouting.ShardScope}.
+     */
+    public ShardRouting.ShardScope scope(Long accountId) {
+        if (dataSource == null)
+            return shardRouting.noScope();
+        return shardRouting.shardScope(shardOf(accountId));
+    }
+
+    /**
+     * Метод для выполнения действия в области шарда аккаунта.
+     * Если аккаунт не найден, потому что расположение в кэше устарело (аккаунт перенесен на другой шард, в том
+     * числе другим экземпляром приложения), расположение перечитывается из справочника и действие повторяется
+     * на новом шарде. Вложенное действие (выполняемое в уже открытой области шарда) не повторяется: его повторяет
+     * внешнее действие, иначе оно продолжило бы работу на прежнем шарде.
+     * @param accountId Идентификатор аккаунта.
+     * @param action Действие.
+     * @return Результат действия.
+     */
+    public <T> T inShard(Long accountId, Supplier<T> action) {
+        if (dataSource == null)
+            return action.get();
+        int shard = shardOf(accountId);
+        try {
+            return onShard(shard, action);
+        } catch (ErrorResponse e) {
+            if (e.getCode() != HttpStatus.NOT_FOUND.value() || shardRouting.inScope())
+                throw e;
+            invalidate(accountId);
+            if (shardOf(accountId) == shard)
+                throw e;
+        }
+        return onShard(shardOf(accountId), action);
+    }
+
+    /**
+     * Метод для выполнения действия без результата в области шарда аккаунта (см. {@link #inShard(Long, Supplier)}).
+     * @param accountId Идентификатор аккаунта.
+     * @param action Действие.
+     */
+    public void runInShard(Long accountId, Runnable action) {
+        inShard(accountId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Метод для открытия области шарда по номеру.
+     * @param shard Номер шарда.
+     * @return Объект {@link ShardRouting.ShardScope}.
+     */
+    private ShardRouting.ShardScope shardScope(int shard) {
+        if (dataSource == null)
+            return shardRouting.noScope();
+        return shardRouting.shardScope(shard);
+    }
+
+    /**
+     * Метод для выполнения действия в области шарда по номеру (до начала транзакции).
+     * @param shard Номер шарда.
+     * @param action Действие.
+     * @return Результат действия.
+     */
+    public <T> T onShard(int shard, Supplier<T> action) {
+        ShardRouting.ShardScope scope = shardScope(shard);
+        try {
+            return action.get();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Метод для выполнения действия без результата в области шарда по номеру (см. {@link #onShard(int, Supplier)}).
+     * @param shard Номер шарда.
+     * @param action Действие.
+     */
+    public void runOnShard(int shard, Runnable action) {
+        onShard(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Метод для выбора шарда нового аккаунта (по кругу среди app.shards.new-account-shards).
+     * @return Номер шарда.
+     */
+    public int nextShardForNewAccount() {
+        return newAccountShards[Math.floorMod(next.getAndIncrement(), newAccountShards.length)];
+    }
+
+    /**
+     * Метод для выполнения действия в области каждого шарда по очереди (фоновые задачи обслуживания).
+     * @param action Действие.
+     */
+    public void forEachShard(Runnable action) {
+        for (int shard = 0; shard < count(); shard++) {
+            runOnShard(shard, action);
+        }
+    }
+
+    /**
+     * Метод для получения пула соединений шарда, не связанного с транзакциями Spring
+     * (для запросов к нескольким шардам в одном методе).
+     * @param shard Номер шарда.
+     * @return Пул соединений шарда.
+     */
+    public DataSource dataSource(int shard) {
+        if (dataSource == null)
+            throw new IllegalStateException("Шардирование аккаунтов выключено");
+        return dataSource.shard(shard);
+    }
+
+    /**
+     * Метод для сброса кэшированного расположения аккаунта (после переноса аккаунта на другой шард).
+     * @param accountId Идентификатор аккаунта.
+     */
+    public void invalidate(Long accountId) {
+        locations.invalidate(accountId);
+    }
+
+}
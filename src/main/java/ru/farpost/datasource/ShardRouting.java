@@ -0,0 +1,89 @@
+package ru.farpost.datasource;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Класс для выбора шарда, на котором выполняются запросы потока.
+ * <p>
+ * Методы сервисов, работающие с одним аккаунтом, выполняются в области шарда аккаунта
+ * ({@link ShardMap#inShard(Long, java.util.function.Supplier)}):
+ * соединения, полученные в ней, {@link ShardRoutingDataSource} берет у пула этого шарда. Транзакция использует
+ * соединение, полученное при ее начале, поэтому область открывается до начала транзакции. Вне областей
+ * запросы идут на шард 0 (миграции, проверка схемы, запросы без шардирования).
+ */
+@Component
+public class ShardRouting {
+
+    /**
+     * Текущая область шарда потока.
+     */
+    private final ThreadLocal<ShardScope> currentScope = new ThreadLocal<>();
+
+    /**
+     * Область, не изменяющая шард потока (шардирование выключено).
+     */
+    private final ShardScope currentShardScope = new ShardScope(null, 0);
+
+    /**
+     * Метод для открытия области шарда (область закрывает вызывающий метод).
+     * @param shard Номер шарда.
+     * @return Объект {@link ShardScope}, закрытие которого восстанавливает предыдущую область.
+     */
+    public ShardScope shardScope(int shard) {
+        ShardScope scope = new ShardScope(currentScope.get(), shard);
+        currentScope.set(scope);
+        return scope;
+    }
+
+    /**
+     * Метод для получения области, не изменяющей шард потока.
+     * @return Объект {@link ShardScope}, закрытие которого ничего не делает.
+     */
+    ShardScope noScope() {
+        return currentShardScope;
+    }
+
+    /**
+     * Метод для получения номера шарда текущей области потока.
+     * @return Номер шарда (0 - вне областей).
+     */
+    public int currentShard() {
+        ShardScope scope = currentScope.get();
+        return scope != null ? scope.shard : 0;
+    }
+
+    /**
+     * Метод для проверки, выполняется ли поток в области шарда.
+     * @return true, если в потоке открыта область шарда.
+     */
+    boolean inScope() {
+        return currentScope.get() != null;
+    }
+
+    /**
+     * Область шарда потока.
+     */
+    public final class ShardScope implements AutoCloseable {
+
+        private final ShardScope previous;
+
+        private final int shard;
+
+        private ShardScope(ShardScope previous, int shard) {
+            this.previous = previous;
+            this.shard = shard;
+        }
+
+        @Override
+        public void close() {
+            if (this == currentShardScope)
+                return;
+            if (previous == null)
+                currentScope.remove();
+            else
+                currentScope.set(previous);
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+package ru.farpost.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Источник соединений, направляющий запросы в БД шарда текущей области {@link ShardRouting}
+ * (вне областей - в БД шарда 0).
+ */
+public class ShardRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    /**
+     * Пулы соединений шардов (индекс - номер шарда).
+     */
+    private final List<HikariDataSource> shards;
+
+    /**
+     * Объект класса {@link ShardRouting}
+     */
+    private final ShardRouting shardRouting;
+
+    /**
+     * Конструктор для создания источника соединений.
+     * @param shards Пулы соединений шардов (индекс - номер шарда).
+     * @param shardRouting Ссылка на объект {@link ShardRouting}.
+     */
+    public ShardRoutingDataSource(List<HikariDataSource> shards, ShardRouting shardRouting) {
+        this.shards = List.copyOf(shards);
+        this.shardRouting = shardRouting;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return shard(shardRouting.currentShard()).getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return shard(shardRouting.currentShard()).getConnection(username, password);
+    }
+
+    /**
+     * Метод для получения пула соединений шарда (соединения пула не связаны с транзакциями Spring).
+     * @param shard Номер шарда.
+     * @return Пул соединений шарда.
+     */
+    public DataSource shard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * Метод для получения количества шардов.
+     * @return Количество шардов.
+     */
+    public int size() {
+        return shards.size();
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(HikariDataSource::close);
+    }
+
+}
@@ -1,5 +1,6 @@
 package ru.farpost.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.persistence.Column;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
@@ -28,5 +29,11 @@ public class AccountDTO {
     private BigDecimal balance;
     private LocalDateTime createdAt;
     private List<OperationDTO> operationsList;
+
+    /**
+     * Количество полос баланса горячего аккаунта (null - аккаунт не горячий).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer hotStripes;
     // endregion
 }
@@ -0,0 +1,24 @@
+package ru.farpost.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+/**
+ * Класс для передачи события потока изменений баланса аккаунта (Server-Sent Events).
+ * Событие operation содержит операцию и баланс после нее, событие balance - только текущий баланс.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class BalanceEventDTO {
+    // region FIELDS
+    private Long accountId;
+    private BigDecimal balance;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private OperationDTO operation;
+    // endregion
+}
@@ -0,0 +1,24 @@
+package ru.farpost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ru.farpost.components.OperationTypes;
+
+import java.math.BigDecimal;
+
+/**
+ * Класс для передачи данных об одной операции пакетного запроса.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchOperationRequestDTO {
+    // region FIELDS
+    private Long accountId;
+    private BigDecimal amount;
+    private OperationTypes type;
+    // endregion
+}
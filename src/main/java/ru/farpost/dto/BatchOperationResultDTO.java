@@ -0,0 +1,41 @@
+package ru.farpost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+/**
+ * Класс для передачи результата одной операции пакетного запроса в JSON-ответе.
+ * Содержит либо осуществленную операцию, либо описание ошибки.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class BatchOperationResultDTO {
+    // region FIELDS
+    private int index;
+    private OperationDTO operation;
+    private ExceptionDTO error;
+    // endregion
+
+    /**
+     * Метод для создания результата успешно осуществленной операции.
+     * @param index Порядковый номер операции в пакете.
+     * @param operation Объект {@link OperationDTO}.
+     * @return Объект {@link BatchOperationResultDTO}.
+     */
+    public static BatchOperationResultDTO succeeded(int index, OperationDTO operation) {
+        return new BatchOperationResultDTO(index, operation, null);
+    }
+
+    /**
+     * Метод для создания результата отклоненной операции.
+     * @param index Порядковый номер операции в пакете.
+     * @param e Исключение, по причине которого операция была отклонена.
+     * @return Объект {@link BatchOperationResultDTO}.
+     */
+    public static BatchOperationResultDTO failed(int index, ErrorResponse e) {
+        return new BatchOperationResultDTO(index, null, new ExceptionDTO(e.getCode(), e.getMessage()));
+    }
+}
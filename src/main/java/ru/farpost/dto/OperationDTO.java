@@ -1,5 +1,6 @@
 package ru.farpost.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
@@ -24,5 +25,7 @@ public class OperationDTO {
     private LocalDateTime date;
     private Long accountId;
     private BigDecimal accountBalance;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long linkedOperationId;
     // endregion
 }
@@ -0,0 +1,21 @@
+package ru.farpost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Класс для передачи страницы операций в JSON-ответе.
+ * Поле nextCursor содержит курсор следующей страницы или null, если страница последняя.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class OperationPageDTO {
+    // region FIELDS
+    private List<OperationDTO> items;
+    private String nextCursor;
+    // endregion
+}
@@ -0,0 +1,31 @@
+package ru.farpost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Класс для передачи выписки по аккаунту за период в JSON-ответе.
+ * Зачисления включают пополнения и входящие переводы, списания - снятия и исходящие переводы.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class StatementDTO {
+    // region FIELDS
+    private Long accountId;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private BigDecimal openingBalance;
+    private BigDecimal closingBalance;
+    private BigDecimal depositsTotal;
+    private long depositsCount;
+    private BigDecimal withdrawalsTotal;
+    private long withdrawalsCount;
+    private BigDecimal minBalance;
+    private BigDecimal maxBalance;
+    // endregion
+}
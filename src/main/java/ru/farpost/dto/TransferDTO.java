@@ -0,0 +1,19 @@
+package ru.farpost.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Класс для передачи результата перевода между аккаунтами в JSON-ответе.
+ * Содержит пару связанных операций: списание со счета отправителя и зачисление на счет получателя.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class TransferDTO {
+    // region FIELDS
+    private OperationDTO debit;
+    private OperationDTO credit;
+    // endregion
+}
@@ -0,0 +1,112 @@
+package ru.farpost.engine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Класс (движок) для последовательного выполнения операций над аккаунтами.
+ * Аккаунты распределяются по фиксированному набору полос {@link OperationLane} по идентификатору,
+ * поэтому операции одного аккаунта выполняются строго по очереди без блокировок,
+ * а операции разных аккаунтов выполняются параллельно.
+ */
+@Component
+public class OperationEngine {
+
+    /**
+     * Массив полос движка.
+     */
+    private final OperationLane[] lanes;
+
+    /**
+     * Конструктор для создания полос движка.
+     * @param laneCount Количество полос (по умолчанию - количество доступных процессоров).
+     * @param queueCapacity Максимальное количество операций в очереди одной полосы.
+     * @param meterRegistry Реестр метрик.
+     */
+    @Autowired
+    public OperationEngine(@Value("${app.engine.lanes:0}") int laneCount,
+                           @Value("${app.engine.queue-capacity:1024}") int queueCapacity,
+                           MeterRegistry meterRegistry) {
+        int count = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        this.lanes = new OperationLane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new OperationLane(i, queueCapacity, meterRegistry);
+        }
+    }
+
+    /**
+     * Метод для выполнения задачи в полосе аккаунта с ожиданием результата.
+     * @param accountId Идентификатор аккаунта.
+     * @param task Задача.
+     * @return Результат выполнения задачи.
+     */
+    public <T> T execute(Long accountId, Callable<T> task) {
+        return await(submit(laneOf(accountId), task));
+    }
+
+    /**
+     * Метод для постановки задачи в очередь полосы без ожидания результата.
+     * @param lane Номер полосы (см. {@link #laneOf(Long)}).
+     * @param task Задача.
+     * @return Объект {@link Future} с результатом выполнения задачи.
+     */
+    public <T> Future<T> submit(int lane, Callable<T> task) {
+        try {
+            return lanes[lane].submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.OPERATION_QUEUE_OVERFLOW);
+        }
+    }
+
+    /**
+     * Метод для ожидания результата задачи, поставленной в очередь полосы.
+     * @param future Объект {@link Future} задачи.
+     * @return Результат выполнения задачи.
+     */
+    public <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.OPERATION_INTERRUPTED);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Метод для определения номера полосы, за которой закреплен аккаунт.
+     * @param accountId Идентификатор аккаунта.
+     * @return Номер полосы.
+     */
+    public int laneOf(Long accountId) {
+        long hash = accountId * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(hash ^ (hash >>> 32), (long) lanes.length);
+    }
+
+    /**
+     * Метод для остановки движка после выполнения уже принятых операций.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (OperationLane lane : lanes) {
+            lane.shutdown(30, TimeUnit.SECONDS);
+        }
+    }
+
+}
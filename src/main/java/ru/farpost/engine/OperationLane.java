@@ -0,0 +1,104 @@
+package ru.farpost.engine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Класс, описывающий одну полосу (lane) движка операций {@link OperationEngine}.
+ * Полоса обслуживается единственным потоком-писателем и имеет ограниченную очередь задач,
+ * поэтому все операции закрепленных за ней аккаунтов выполняются строго последовательно.
+ */
+class OperationLane {
+
+    /**
+     * Однопоточный исполнитель полосы.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Время ожидания задачи в очереди полосы.
+     */
+    private final Timer waitTimer;
+
+    /**
+     * Время выполнения задачи потоком полосы.
+     */
+    private final Timer executionTimer;
+
+    /**
+     * Конструктор для создания полосы и регистрации её метрик.
+     * @param index Порядковый номер полосы.
+     * @param queueCapacity Максимальное количество задач в очереди.
+     * @param meterRegistry Реестр метрик.
+     */
+    OperationLane(int index, int queueCapacity, MeterRegistry meterRegistry) {
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "operation-lane-" + index);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        String lane = String.valueOf(index);
+        Gauge.builder("operations.engine.queue.depth", queue, BlockingQueue::size)
+                .description("Количество операций, ожидающих выполнения в полосе")
+                .tag("lane", lane)
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("operations.engine.wait")
+                .description("Время ожидания операции в очереди полосы")
+                .tag("lane", lane)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.executionTimer = Timer.builder("operations.engine.execution")
+                .description("Время выполнения операции потоком полосы")
+                .tag("lane", lane)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Метод для постановки задачи в очередь полосы.
+     * @param task Задача.
+     * @return Объект {@link Future} с результатом выполнения задачи.
+     * @throws java.util.concurrent.RejectedExecutionException Если очередь полосы заполнена.
+     */
+    <T> Future<T> submit(Callable<T> task) {
+        long enqueuedAt = System.nanoTime();
+        FutureTask<T> futureTask = new FutureTask<>(() -> {
+            long startedAt = System.nanoTime();
+            waitTimer.record(startedAt - enqueuedAt, TimeUnit.NANOSECONDS);
+            try {
+                return task.call();
+            } finally {
+                executionTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        });
+        executor.execute(futureTask);
+        return futureTask;
+    }
+
+    /**
+     * Метод для остановки полосы с ожиданием выполнения уже принятых задач.
+     * @param timeout Максимальное время ожидания.
+     * @param unit Единица измерения времени ожидания.
+     * @throws InterruptedException Если ожидание было прервано.
+     */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, unit)) {
+            executor.shutdownNow();
+        }
+    }
+
+}
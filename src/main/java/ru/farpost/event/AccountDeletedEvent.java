@@ -0,0 +1,8 @@
+package ru.farpost.event;
+
+/**
+ * Событие, публикуемое внутри транзакции удаления аккаунта.
+ * @param accountId Идентификатор удаленного аккаунта.
+ */
+public record AccountDeletedEvent(Long accountId) {
+}
@@ -0,0 +1,13 @@
+package ru.farpost.event;
+
+import ru.farpost.model.Operation;
+
+import java.util.List;
+
+/**
+ * Событие, публикуемое внутри транзакции консолидации полос баланса горячего аккаунта.
+ * Операции события - ранее сохраненные пополнения, которым при консолидации проставлен баланс после операции.
+ * @param operations Консолидированные операции в порядке их осуществления.
+ */
+public record OperationsConsolidatedEvent(List<Operation> operations) {
+}
@@ -0,0 +1,13 @@
+package ru.farpost.event;
+
+import ru.farpost.model.Operation;
+
+import java.util.List;
+
+/**
+ * Событие, публикуемое внутри транзакции после сохранения операций (одиночной или пакета).
+ * Слушатели, выполняемые синхронно, работают в той же транзакции, что и запись операций.
+ * @param operations Сохраненные операции в порядке их осуществления.
+ */
+public record OperationsRecordedEvent(List<Operation> operations) {
+}
@@ -0,0 +1,182 @@
+package ru.farpost.ledger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Класс для работы с файлами журнала операций.
+ * Журнал состоит из сегментов (файлов), имя сегмента - номер его первой записи. Запись в журнал выполняется
+ * только дописыванием в последний сегмент, полностью примененные сегменты удаляются.
+ */
+class LedgerLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerLog.class);
+
+    /**
+     * Расширение файлов сегментов.
+     */
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Каталог журнала.
+     */
+    private final Path directory;
+
+    /**
+     * Размер сегмента, после достижения которого запись продолжается в новом сегменте.
+     */
+    private final long segmentSize;
+
+    /**
+     * Сегменты журнала по номеру первой записи.
+     */
+    private final NavigableMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * Канал последнего сегмента, в который выполняется запись.
+     */
+    private FileChannel channel;
+
+    /**
+     * Конструктор для создания журнала в указанном каталоге.
+     * @param directory Каталог журнала.
+     * @param segmentSize Размер сегмента в байтах.
+     */
+    LedgerLog(Path directory, long segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .forEach(file -> segments.put(firstLsn(file), file));
+        }
+    }
+
+    /**
+     * Метод для чтения всех записей журнала с номером больше указанного.
+     * Неполная запись в конце последнего сегмента (обрыв записи при сбое) отбрасывается,
+     * повреждение записи в середине журнала считается ошибкой.
+     * @param afterLsn Номер последней уже примененной записи.
+     * @param batchSize Максимальное количество записей, передаваемых обработчику за один вызов.
+     * @param consumer Обработчик порции записей.
+     * @return Номер последней записи журнала (не меньше afterLsn).
+     */
+    long replay(long afterLsn, int batchSize, Consumer<List<LedgerRecord>> consumer) throws IOException {
+
+        long lastLsn = afterLsn;
+        List<LedgerRecord> batch = new ArrayList<>(batchSize);
+        for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+            try (FileChannel file = FileChannel.open(segment.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                LedgerRecord record;
+                while ((record = LedgerRecord.decode(buffer)) != null) {
+                    lastLsn = Math.max(lastLsn, record.lsn());
+                    if (record.lsn() > afterLsn) {
+                        batch.add(record);
+                        if (batch.size() == batchSize) {
+                            consumer.accept(List.copyOf(batch));
+                            batch.clear();
+                        }
+                    }
+                }
+                if (buffer.hasRemaining()) {
+                    if (!segment.getKey().equals(segments.lastKey()))
+                        throw new IOException("Поврежден сегмент журнала операций: " + segment.getValue());
+                    log.warn("Отброшена неполная запись в конце журнала операций {} (позиция {})",
+                            segment.getValue(), buffer.position());
+                    file.truncate(buffer.position());
+                }
+            }
+        }
+        if (!batch.isEmpty())
+            consumer.accept(List.copyOf(batch));
+        return lastLsn;
+
+    }
+
+    /**
+     * Метод для удаления всех (примененных) сегментов и начала записи в новый сегмент.
+     * @param nextLsn Номер следующей записи журнала.
+     */
+    void reset(long nextLsn) throws IOException {
+        for (Path segment : segments.values()) {
+            Files.delete(segment);
+        }
+        segments.clear();
+        openSegment(nextLsn);
+    }
+
+    /**
+     * Метод для дописывания записей в журнал (без сброса на диск).
+     * @param firstLsn Номер первой записи.
+     * @param records Закодированные записи.
+     */
+    void append(long firstLsn, ByteBuffer[] records) throws IOException {
+        if (channel.size() >= segmentSize) {
+            channel.close();
+            openSegment(firstLsn);
+        }
+        while (records[records.length - 1].hasRemaining()) {
+            channel.write(records);
+        }
+    }
+
+    /**
+     * Метод для сброса записанных данных журнала на диск.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Метод для удаления сегментов, все записи которых уже применены.
+     * @param appliedLsn Номер последней примененной записи.
+     */
+    void release(long appliedLsn) {
+        Long first = segments.firstKey();
+        Long next;
+        while ((next = segments.higherKey(first)) != null && next - 1 <= appliedLsn) {
+            try {
+                Files.deleteIfExists(segments.remove(first));
+            } catch (IOException e) {
+                log.warn("Не удалось удалить сегмент журнала операций", e);
+            }
+            first = next;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    private void openSegment(long firstLsn) throws IOException {
+        Path segment = directory.resolve(String.format("%020d%s", firstLsn, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try (FileChannel parent = FileChannel.open(directory, StandardOpenOption.READ)) {
+            parent.force(true);
+        }
+        segments.put(firstLsn, segment);
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+}
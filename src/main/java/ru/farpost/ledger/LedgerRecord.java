@@ -0,0 +1,109 @@
+package ru.farpost.ledger;
+
+import ru.farpost.components.OperationTypes;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.CRC32C;
+
+/**
+ * Запись журнала операций: номер записи (LSN) и принятая операция.
+ * <p>
+ * Формат записи в файле: длина данных (int), контрольная сумма CRC32C данных (int), данные.
+ * Данные: LSN, идентификатор операции, идентификатор аккаунта, код типа, дата, сумма и баланс после операции
+ * (в минимальных единицах), длина и байты (UTF-8) ключа идемпотентности (длина 0 - ключа нет).
+ * @param lsn Номер записи журнала.
+ * @param operation Операция.
+ * @param idempotencyKey Ключ идемпотентности операции (может быть null).
+ */
+record LedgerRecord(long lsn, Operation operation, String idempotencyKey) {
+
+    /**
+     * Размер заголовка записи (длина и контрольная сумма).
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Размер данных записи без ключа идемпотентности.
+     */
+    private static final int FIXED_PAYLOAD_SIZE =
+            3 * Long.BYTES + Short.BYTES + Long.BYTES + Integer.BYTES + 2 * Long.BYTES + Short.BYTES;
+
+    /**
+     * Метод для кодирования записи в формат файла журнала.
+     * @return Буфер с заголовком и данными записи.
+     */
+    ByteBuffer encode() {
+
+        LocalDateTime date = operation.getDate();
+        byte[] key = idempotencyKey == null ? new byte[0] : idempotencyKey.getBytes(StandardCharsets.UTF_8);
+        int payloadSize = FIXED_PAYLOAD_SIZE + key.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize)
+                .position(HEADER_SIZE)
+                .putLong(lsn)
+                .putLong(operation.getId())
+                .putLong(operation.getAccount().getId())
+                .putShort(operation.getType().getCode())
+                .putLong(date.toEpochSecond(ZoneOffset.UTC))
+                .putInt(date.getNano())
+                .putLong(operation.getAmount())
+                .putLong(operation.getAccountBalance())
+                .putShort((short) key.length)
+                .put(key);
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_SIZE, payloadSize);
+        return buffer.putInt(0, payloadSize)
+                .putInt(4, (int) crc.getValue())
+                .flip();
+
+    }
+
+    /**
+     * Метод для чтения записи из буфера, установленного на начало записи.
+     * При успешном чтении позиция буфера смещается на конец записи.
+     * @param buffer Буфер файла журнала.
+     * @return Запись или null, если в буфере неполная или поврежденная запись.
+     */
+    static LedgerRecord decode(ByteBuffer buffer) {
+
+        if (buffer.remaining() < HEADER_SIZE)
+            return null;
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        int checksum = buffer.getInt(start + 4);
+        if (length <= 0 || length > buffer.remaining() - HEADER_SIZE)
+            return null;
+
+        ByteBuffer payload = buffer.slice(start + HEADER_SIZE, length);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum)
+            return null;
+
+        long lsn = payload.getLong();
+        long operationId = payload.getLong();
+        Account account = new Account();
+        account.setId(payload.getLong());
+        OperationTypes type = OperationTypes.fromCode(payload.getShort());
+        LocalDateTime date = LocalDateTime.ofEpochSecond(payload.getLong(), payload.getInt(), ZoneOffset.UTC);
+        long amount = payload.getLong();
+        long accountBalance = payload.getLong();
+        byte[] key = new byte[payload.getShort()];
+        payload.get(key);
+
+        Operation operation = new Operation(amount, accountBalance, type);
+        operation.setId(operationId);
+        operation.setDate(date);
+        operation.setAccount(account);
+
+        buffer.position(start + HEADER_SIZE + length);
+        return new LedgerRecord(lsn, operation, key.length == 0 ? null : new String(key, StandardCharsets.UTF_8));
+
+    }
+
+}
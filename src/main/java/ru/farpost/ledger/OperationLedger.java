@@ -0,0 +1,605 @@
+package ru.farpost.ledger;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.event.AccountDeletedEvent;
+import ru.farpost.event.OperationsRecordedEvent;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Класс (журнал) для приема операций через локальный журнал упреждающей записи (write-ahead log).
+ * Включается настройкой app.ledger.enabled.
+ * <p>
+ * Принятая операция дописывается в журнал, записи сбрасываются на диск группами (group commit) - по истечении
+ * интервала app.ledger.flush-interval или при накоплении app.ledger.flush-max-entries записей, и клиент
+ * получает ответ только после сброса записи на диск. Фоновый поток применяет записи к таблицам operations
+ * и accounts порциями, сохраняя номер последней примененной записи в той же транзакции, поэтому после сбоя
+ * при запуске повторно применяются только непримененные записи.
+ * <p>
+ * Баланс аккаунта при приеме операций ведется в памяти (проекция), методы {@link #findAccount(Long)}
+ * и {@link #append(Operation)} должны вызываться в полосе аккаунта движка {@link ru.farpost.engine.OperationEngine}.
+ * Предполагается, что балансы аккаунтов изменяет только один экземпляр приложения.
+ */
+@Component
+@ConditionalOnProperty(name = "app.ledger.enabled", havingValue = "true")
+public class OperationLedger implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(OperationLedger.class);
+
+    /**
+     * Количество идентификаторов, выдаваемых одним вызовом последовательности operations_seq
+     * (совпадает с allocationSize генератора идентификаторов {@link Operation}).
+     */
+    private static final int OPERATION_ID_ALLOCATION_SIZE = 50;
+
+    /**
+     * Запрос добавления операции с заранее выданным идентификатором.
+     */
+    private static final String INSERT_OPERATION =
+            "INSERT INTO operations (id, account_id, amount, type, date, account_balance) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Запрос сохранения ключа идемпотентности операции.
+     */
+    private static final String INSERT_IDEMPOTENCY_KEY =
+            "INSERT INTO idempotency_keys (key, operation_id, created_at) VALUES (?, ?, ?) ON CONFLICT (key) DO NOTHING";
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link NamedParameterJdbcTemplate}
+     */
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link ApplicationEventPublisher}
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Каталог файлов журнала.
+     */
+    private final Path directory;
+
+    /**
+     * Размер сегмента журнала.
+     */
+    private final DataSize segmentSize;
+
+    /**
+     * Максимальное время ожидания записей для группового сброса на диск.
+     */
+    private final long flushIntervalNanos;
+
+    /**
+     * Максимальное количество записей в одном групповом сбросе на диск.
+     */
+    private final int flushMaxEntries;
+
+    /**
+     * Максимальное количество записей, применяемых в одной транзакции.
+     */
+    private final int applyBatchSize;
+
+    /**
+     * Очередь операций, ожидающих записи в журнал.
+     */
+    private final BlockingQueue<PendingOperation> writeQueue;
+
+    /**
+     * Очередь записей, сброшенных на диск и ожидающих применения к БД.
+     */
+    private final BlockingQueue<LedgerRecord> applyQueue;
+
+    /**
+     * Проекции аккаунтов (баланс с учетом всех принятых операций) по идентификатору.
+     */
+    private final Map<Long, Account> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Принятые, но еще не примененные к БД операции по ключу идемпотентности.
+     */
+    private final Map<String, CompletableFuture<Operation>> pendingKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Время записи и сброса на диск группы записей.
+     */
+    private final Timer flushTimer;
+
+    /**
+     * Количество записей в одном групповом сбросе на диск.
+     */
+    private final DistributionSummary flushEntries;
+
+    /**
+     * Файлы журнала.
+     */
+    private LedgerLog ledgerLog;
+
+    /**
+     * Номер последней записи журнала (используется только потоком записи).
+     */
+    private long lastLsn;
+
+    /**
+     * Следующий и последний идентификаторы операций из выданного последовательностью диапазона.
+     */
+    private long nextOperationId = 1;
+    private long maxOperationId = 0;
+
+    /**
+     * Ошибка записи журнала на диск, после которой прием операций прекращается.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Признак приема операций.
+     */
+    private volatile boolean running;
+
+    /**
+     * Потоки записи журнала и применения записей к БД.
+     */
+    private Thread writer;
+    private Thread applier;
+
+    /**
+     * Конструктор для создания журнала операций.
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param transactionTemplate Ссылка на объект {@link TransactionTemplate}.
+     * @param eventPublisher Ссылка на объект {@link ApplicationEventPublisher}.
+     * @param meterRegistry Реестр метрик.
+     * @param directory Каталог файлов журнала.
+     * @param segmentSize Размер сегмента журнала.
+     * @param flushInterval Максимальное время ожидания записей для группового сброса на диск.
+     * @param flushMaxEntries Максимальное количество записей в одном групповом сбросе на диск.
+     * @param applyBatchSize Максимальное количество записей, применяемых в одной транзакции.
+     * @param queueCapacity Максимальное количество операций, ожидающих записи в журнал или применения к БД.
+     */
+    @Autowired
+    public OperationLedger(JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           ApplicationEventPublisher eventPublisher,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.ledger.directory:ledger}") Path directory,
+                           @Value("${app.ledger.segment-size:64MB}") DataSize segmentSize,
+                           @Value("${app.ledger.flush-interval:2ms}") Duration flushInterval,
+                           @Value("${app.ledger.flush-max-entries:512}") int flushMaxEntries,
+                           @Value("${app.ledger.apply-batch-size:1000}") int applyBatchSize,
+                           @Value("${app.ledger.queue-capacity:65536}") int queueCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.flushMaxEntries = flushMaxEntries;
+        this.applyBatchSize = applyBatchSize;
+        this.writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.applyQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.flushTimer = Timer.builder("operations.ledger.flush")
+                .description("Время записи и сброса на диск группы записей журнала")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.flushEntries = DistributionSummary.builder("operations.ledger.flush.entries")
+                .description("Количество записей журнала в одном сбросе на диск")
+                .register(meterRegistry);
+        Gauge.builder("operations.ledger.apply.backlog", applyQueue, BlockingQueue::size)
+                .description("Количество записей журнала, ожидающих применения к БД")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Метод для получения проекции аккаунта с балансом, учитывающим все принятые операции.
+     * @param accountId Идентификатор аккаунта.
+     * @return Объект {@link Account} (не связанный с контекстом персистентности).
+     */
+    public Account findAccount(Long accountId) {
+        checkAvailable();
+        return accounts.computeIfAbsent(accountId, id -> {
+            List<Long> balance = jdbcTemplate.queryForList(
+                    "SELECT balance FROM accounts WHERE id = ? AND deleted_at IS NULL", Long.class, id);
+            if (balance.isEmpty())
+                throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+            Account account = new Account();
+            account.setId(id);
+            account.setBalance(balance.getFirst());
+            return account;
+        });
+    }
+
+    /**
+     * Метод для получения баланса аккаунта с учетом всех принятых операций, в том числе еще не примененных к БД.
+     * @param accountId Идентификатор аккаунта.
+     * @return Баланс проекции аккаунта или null, если аккаунт не принимал операций с запуска приложения
+     * (баланс в БД актуален) или журнал остановлен.
+     */
+    public Long findBalance(Long accountId) {
+        Account account = accounts.get(accountId);
+        return account != null && running && failure == null ? account.getBalance() : null;
+    }
+
+    /**
+     * Метод для приема операции: операции выдается идентификатор, и она ставится в очередь записи в журнал.
+     * Баланс проекции аккаунта операции изменяется на баланс после операции только после постановки в очередь,
+     * поэтому отклоненная операция проекцию не изменяет.
+     * @param operation Операция.
+     * @return Объект {@link CompletableFuture}, завершаемый после сброса записи операции на диск.
+     */
+    public CompletableFuture<Operation> append(Operation operation) {
+        checkAvailable();
+        CompletableFuture<Operation> durable = new CompletableFuture<>();
+        enqueue(operation, null, durable);
+        return durable;
+    }
+
+    /**
+     * Метод для приема операции с ключом идемпотентности. Ключ закрепляется за операцией до её применения к БД,
+     * поэтому повторный запрос с тем же ключом получает ранее принятую операцию, а не создает новую.
+     * @param idempotencyKey Ключ идемпотентности.
+     * @param storedOperation Функция поиска операции, уже примененной к БД по этому ключу (null - такой нет).
+     * @param newOperation Функция создания новой операции (без изменения баланса проекции аккаунта).
+     * @return Объект {@link CompletableFuture} с новой или ранее принятой по этому ключу операцией.
+     */
+    public CompletableFuture<Operation> append(String idempotencyKey,
+                                               Supplier<Operation> storedOperation,
+                                               Supplier<Operation> newOperation) {
+        checkAvailable();
+        CompletableFuture<Operation> durable = new CompletableFuture<>();
+        CompletableFuture<Operation> accepted = pendingKeys.putIfAbsent(idempotencyKey, durable);
+        if (accepted != null)
+            return accepted;
+        try {
+            Operation stored = storedOperation.get();
+            if (stored != null) {
+                pendingKeys.remove(idempotencyKey, durable);
+                return CompletableFuture.completedFuture(stored);
+            }
+            enqueue(newOperation.get(), idempotencyKey, durable);
+            return durable;
+        } catch (RuntimeException e) {
+            pendingKeys.remove(idempotencyKey, durable);
+            throw e;
+        }
+    }
+
+    private void enqueue(Operation operation, String idempotencyKey, CompletableFuture<Operation> durable) {
+        operation.setId(nextOperationId());
+        if (!writeQueue.offer(new PendingOperation(operation, idempotencyKey, durable)))
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.OPERATION_QUEUE_OVERFLOW);
+        if (failure != null || !writer.isAlive()) {
+            failPending(new IllegalStateException("Журнал операций остановлен"));
+            return;
+        }
+        operation.getAccount().setBalance(operation.getAccountBalance());
+    }
+
+    /**
+     * Метод для ожидания сброса записи операции на диск.
+     * @param future Объект {@link Future}, полученный от {@link #append(Operation)}.
+     * @return Операция.
+     */
+    public <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.OPERATION_INTERRUPTED);
+        } catch (ExecutionException e) {
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.LEDGER_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Метод для удаления проекции аккаунта после фиксации транзакции удаления аккаунта.
+     * @param event Событие {@link AccountDeletedEvent}.
+     */
+    @TransactionalEventListener
+    public void onAccountDeleted(AccountDeletedEvent event) {
+        accounts.remove(event.accountId());
+    }
+
+    /**
+     * Метод для применения непримененных записей журнала и запуска потоков записи и применения.
+     * Выполняется до запуска веб-сервера.
+     */
+    @Override
+    public void start() {
+        try {
+            ledgerLog = new LedgerLog(directory, segmentSize.toBytes());
+            Long appliedLsn = jdbcTemplate.queryForObject(
+                    "SELECT applied_lsn FROM ledger_checkpoint WHERE id = 1", Long.class);
+            long[] replayed = {0};
+            lastLsn = ledgerLog.replay(appliedLsn, applyBatchSize, records -> {
+                apply(records);
+                replayed[0] += records.size();
+            });
+            ledgerLog.reset(lastLsn + 1);
+            log.info("Журнал операций открыт в {}, применено записей при запуске: {}", directory, replayed[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        running = true;
+        applier = startThread("operation-ledger-applier", this::applyLoop);
+        writer = startThread("operation-ledger-writer", this::writeLoop);
+    }
+
+    /**
+     * Метод для прекращения приема операций с записью и применением уже принятых операций.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            writer.join();
+            failPending(new IllegalStateException("Журнал операций остановлен"));
+            applier.join();
+            ledgerLog.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть журнал операций", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Журнал запускается раньше (и останавливается позже) веб-сервера.
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * Метод потока записи: сбор группы записей, запись в журнал и сброс на диск,
+     * после чего ожидающие клиенты получают ответ, а записи передаются на применение к БД.
+     */
+    private void writeLoop() {
+
+        List<PendingOperation> group = new ArrayList<>(flushMaxEntries);
+        while (running || !writeQueue.isEmpty()) {
+            try {
+                PendingOperation first = writeQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                group.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (group.size() < flushMaxEntries) {
+                    PendingOperation next = writeQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    group.add(next);
+                    writeQueue.drainTo(group, flushMaxEntries - group.size());
+                }
+                flush(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Ошибка записи журнала операций, прием операций остановлен", e);
+                failure = e;
+                group.forEach(pending -> pending.durable().completeExceptionally(e));
+                failPending(e);
+                return;
+            } finally {
+                group.clear();
+            }
+        }
+
+    }
+
+    private void flush(List<PendingOperation> group) throws IOException, InterruptedException {
+
+        long startedAt = System.nanoTime();
+        long firstLsn = lastLsn + 1;
+        LedgerRecord[] records = new LedgerRecord[group.size()];
+        ByteBuffer[] buffers = new ByteBuffer[group.size()];
+        for (int i = 0; i < group.size(); i++) {
+            records[i] = new LedgerRecord(firstLsn + i, group.get(i).operation(), group.get(i).idempotencyKey());
+            buffers[i] = records[i].encode();
+        }
+        ledgerLog.append(firstLsn, buffers);
+        ledgerLog.force();
+        lastLsn += group.size();
+        flushTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        flushEntries.record(group.size());
+
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).durable().complete(records[i].operation());
+            // Если поток применения остановлен, запись будет применена при следующем запуске.
+            while (!applyQueue.offer(records[i], 100, TimeUnit.MILLISECONDS)) {
+                if (!applier.isAlive())
+                    return;
+            }
+        }
+
+    }
+
+    /**
+     * Метод потока применения: применение сброшенных на диск записей к БД порциями.
+     * При ошибке применение порции повторяется, пока приложение не будет остановлено
+     * (непримененные записи будут применены при следующем запуске).
+     */
+    private void applyLoop() {
+
+        List<LedgerRecord> batch = new ArrayList<>(applyBatchSize);
+        while (running || writer.isAlive() || !applyQueue.isEmpty()) {
+            try {
+                LedgerRecord first = applyQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                applyQueue.drainTo(batch, applyBatchSize - 1);
+                while (true) {
+                    try {
+                        apply(batch);
+                        ledgerLog.release(batch.getLast().lsn());
+                        break;
+                    } catch (RuntimeException e) {
+                        if (!running)
+                            return;
+                        log.error("Ошибка применения журнала операций к БД, повтор через 1 с", e);
+                        TimeUnit.SECONDS.sleep(1);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+
+    }
+
+    /**
+     * Метод для применения записей журнала к таблицам operations, accounts и idempotency_keys в одной транзакции
+     * вместе с обновлением контрольной точки журнала. Записи удаленных аккаунтов пропускаются.
+     * @param records Записи журнала в порядке номеров.
+     */
+    private void apply(List<LedgerRecord> records) {
+        transactionTemplate.executeWithoutResult(status -> {
+
+            Set<Long> accountIds = records.stream()
+                    .map(record -> record.operation().getAccount().getId())
+                    .collect(Collectors.toSet());
+            Set<Long> existing = Set.copyOf(namedJdbcTemplate.queryForList(
+                    "SELECT id FROM accounts WHERE id IN (:ids) AND deleted_at IS NULL ORDER BY id FOR UPDATE",
+                    Map.of("ids", accountIds), Long.class));
+
+            List<LedgerRecord> applied = records.stream()
+                    .filter(record -> existing.contains(record.operation().getAccount().getId()))
+                    .toList();
+            List<Operation> operations = applied.stream().map(LedgerRecord::operation).toList();
+            Map<Long, Long> balances = new TreeMap<>();
+            operations.forEach(operation -> balances.put(operation.getAccount().getId(), operation.getAccountBalance()));
+
+            jdbcTemplate.batchUpdate(INSERT_OPERATION, operations.stream()
+                    .map(operation -> new Object[]{
+                            operation.getId(),
+                            operation.getAccount().getId(),
+                            operation.getAmount(),
+                            operation.getType().getCode(),
+                            Timestamp.valueOf(operation.getDate()),
+                            operation.getAccountBalance()
+                    })
+                    .toList());
+            jdbcTemplate.batchUpdate("UPDATE accounts SET balance = ? WHERE id = ?", balances.entrySet().stream()
+                    .map(balance -> new Object[]{balance.getValue(), balance.getKey()})
+                    .toList());
+            jdbcTemplate.batchUpdate(INSERT_IDEMPOTENCY_KEY, applied.stream()
+                    .filter(record -> record.idempotencyKey() != null)
+                    .map(record -> new Object[]{
+                            record.idempotencyKey(),
+                            record.operation().getId(),
+                            Timestamp.valueOf(record.operation().getDate())
+                    })
+                    .toList());
+            jdbcTemplate.update("UPDATE ledger_checkpoint SET applied_lsn = ? WHERE id = 1", records.getLast().lsn());
+
+            if (!operations.isEmpty())
+                eventPublisher.publishEvent(new OperationsRecordedEvent(operations));
+
+        });
+        records.stream()
+                .map(LedgerRecord::idempotencyKey)
+                .filter(Objects::nonNull)
+                .forEach(pendingKeys::remove);
+    }
+
+    private void failPending(Throwable cause) {
+        PendingOperation pending;
+        while ((pending = writeQueue.poll()) != null) {
+            pending.durable().completeExceptionally(cause);
+        }
+    }
+
+    private synchronized long nextOperationId() {
+        if (nextOperationId > maxOperationId) {
+            Long value = jdbcTemplate.queryForObject("SELECT nextval('operations_seq')", Long.class);
+            nextOperationId = value - OPERATION_ID_ALLOCATION_SIZE + 1;
+            maxOperationId = value;
+        }
+        return nextOperationId++;
+    }
+
+    private void checkAvailable() {
+        if (!running || failure != null)
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.LEDGER_UNAVAILABLE);
+    }
+
+    private static Thread startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Операция, ожидающая записи в журнал.
+     * @param operation Операция.
+     * @param idempotencyKey Ключ идемпотентности операции (может быть null).
+     * @param durable Объект {@link CompletableFuture}, завершаемый после сброса записи на диск.
+     */
+    private record PendingOperation(Operation operation, String idempotencyKey, CompletableFuture<Operation> durable) {
+    }
+
+}
@@ -0,0 +1,88 @@
+package ru.farpost.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.event.OperationsRecordedEvent;
+import ru.farpost.model.Operation;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Класс (компонент) для учета метрик операций: количества выполненных пополнений и списаний
+ * и количества отклоненных операций по причине отказа.
+ * <p>
+ * Выполненные операции учитываются только после фиксации транзакции, поэтому откаченные
+ * операции не попадают в счетчики.
+ */
+@Component
+public class OperationMetrics {
+
+    /**
+     * Причины отказа, по которым учитываются отклоненные операции.
+     */
+    private static final Set<ExceptionsMessage> REJECTION_REASONS = EnumSet.of(
+            ExceptionsMessage.INSUFFICIENT_FUNDS,
+            ExceptionsMessage.BALANCE_OVERFLOW,
+            ExceptionsMessage.TOO_MANY_REQUESTS);
+
+    /**
+     * Счетчики выполненных операций по типу операции.
+     */
+    private final Map<OperationTypes, Counter> recorded = new EnumMap<>(OperationTypes.class);
+
+    /**
+     * Счетчики отклоненных операций по причине отказа.
+     */
+    private final Map<ExceptionsMessage, Counter> rejected = new EnumMap<>(ExceptionsMessage.class);
+
+    /**
+     * Конструктор для регистрации счетчиков операций.
+     * @param meterRegistry Реестр метрик.
+     */
+    @Autowired
+    public OperationMetrics(MeterRegistry meterRegistry) {
+        for (OperationTypes type : OperationTypes.values()) {
+            recorded.put(type, Counter.builder("operations.recorded")
+                    .description("Количество выполненных операций")
+                    .tag("type", type.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+        for (ExceptionsMessage reason : REJECTION_REASONS) {
+            rejected.put(reason, Counter.builder("operations.rejected")
+                    .description("Количество отклоненных операций")
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Метод для учета операций после фиксации транзакции, в которой они были сохранены.
+     * @param event Событие {@link OperationsRecordedEvent}.
+     */
+    @TransactionalEventListener
+    public void onOperationsRecorded(OperationsRecordedEvent event) {
+        for (Operation operation : event.operations()) {
+            recorded.get(operation.getType()).increment();
+        }
+    }
+
+    /**
+     * Метод для учета отклоненной операции.
+     * @param reason Причина отказа (из {@link #REJECTION_REASONS}, остальные причины не учитываются).
+     */
+    public void rejected(ExceptionsMessage reason) {
+        Counter counter = rejected.get(reason);
+        if (counter != null)
+            counter.increment();
+    }
+
+}
@@ -1,16 +1,23 @@
 package ru.farpost.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.SQLRestriction;
+import ru.farpost.utils.moneyUtils.MinorUnitsSerializer;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 
 /**
  * Класс для объявления сущности {@link Account} и создания таблицы в БД.
+ * Аккаунты, помеченные удаленными (deleted_at), не загружаются запросами к сущности.
  */
 @Entity
+@DynamicUpdate
+@SQLRestriction("deleted_at IS NULL")
 @Getter
 @Setter
 @NoArgsConstructor
@@ -19,7 +26,7 @@ public class Account {
 
     // region CONSTRUCTORS
     public Account(String username) {
-        this.balance = BigDecimal.ZERO;
+        this.balance = 0L;
         this.username = username;
         this.createdAt = LocalDateTime.now();
     }
@@ -27,19 +34,42 @@ public class Account {
 
     // region FIELDS
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "accounts_seq")
+    @SequenceGenerator(name = "accounts_seq", sequenceName = "accounts_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "username", length = 100, nullable = false)
     private String username;
 
+    /**
+     * Баланс в минимальных единицах (копейках).
+     */
     @Column(name = "balance", nullable = false)
-    private BigDecimal balance;
+    @JsonSerialize(using = MinorUnitsSerializer.class)
+    private Long balance;
 
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
 
-    @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.REMOVE, mappedBy = "account")
+    /**
+     * Момент пометки аккаунта удаленным (null - аккаунт не удален).
+     */
+    @JsonIgnore
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+
+    /**
+     * Количество полос баланса горячего аккаунта (0 - аккаунт не горячий, пополнения изменяют balance).
+     */
+    @JsonIgnore
+    @Column(name = "hot_stripes", nullable = false)
+    private int hotStripes;
+
+    /**
+     * Операции аккаунта (удаляются вместе с аккаунтом запросами {@link ru.farpost.service.AccountService},
+     * без загрузки в контекст персистентности).
+     */
+    @OneToMany(fetch = FetchType.LAZY, mappedBy = "account")
     private List<Operation> operationsList;
     // endregion
 
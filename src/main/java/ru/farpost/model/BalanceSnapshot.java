@@ -0,0 +1,86 @@
+package ru.farpost.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Класс для объявления сущности {@link BalanceSnapshot} - баланса аккаунта на конец дня (контрольная точка).
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "balance_snapshots")
+public class BalanceSnapshot {
+
+    // region FIELDS
+    @EmbeddedId
+    private Key id;
+
+    /**
+     * Баланс на конец дня в минимальных единицах (копейках).
+     */
+    @Column(name = "closing_balance", nullable = false)
+    private Long closingBalance;
+
+    @Column(name = "last_operation_id", nullable = false)
+    private Long lastOperationId;
+
+    @Column(name = "last_operation_date", nullable = false)
+    private LocalDateTime lastOperationDate;
+
+    /**
+     * Сумма зачислений за день (пополнения и входящие переводы) в минимальных единицах.
+     */
+    @Column(name = "deposits_total", nullable = false)
+    private Long depositsTotal;
+
+    @Column(name = "deposits_count", nullable = false)
+    private Integer depositsCount;
+
+    /**
+     * Сумма списаний за день (снятия и исходящие переводы) в минимальных единицах.
+     */
+    @Column(name = "withdrawals_total", nullable = false)
+    private Long withdrawalsTotal;
+
+    @Column(name = "withdrawals_count", nullable = false)
+    private Integer withdrawalsCount;
+
+    /**
+     * Минимальный баланс после операций дня в минимальных единицах.
+     */
+    @Column(name = "min_balance", nullable = false)
+    private Long minBalance;
+
+    /**
+     * Максимальный баланс после операций дня в минимальных единицах.
+     */
+    @Column(name = "max_balance", nullable = false)
+    private Long maxBalance;
+    // endregion
+
+    /**
+     * Составной ключ контрольной точки: аккаунт и день.
+     */
+    @Embeddable
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        @Column(name = "account_id", nullable = false)
+        private Long accountId;
+
+        @Column(name = "day", nullable = false)
+        private LocalDate day;
+
+    }
+
+}
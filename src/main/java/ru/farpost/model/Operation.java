@@ -1,56 +1,83 @@
 package ru.farpost.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
+import ru.farpost.components.OperationTypeConverter;
 import ru.farpost.components.OperationTypes;
+import ru.farpost.utils.moneyUtils.MinorUnitsSerializer;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 /**
  * Класс для объявления сущности {@link Operation} и создания таблицы в БД.
  */
 @Entity
+@DynamicUpdate
 @Getter
 @Setter
 @NoArgsConstructor
-@Table(name = "operations")
+@Table(name = "operations", indexes = {
+        @Index(name = "idx_operations_account_date", columnList = "account_id, date")
+})
 public class Operation {
 
     // region CONSTRUCTORS
-    public Operation(BigDecimal amount, BigDecimal accountBalance, OperationTypes type, String description) {
+    public Operation(long amount, Long accountBalance, OperationTypes type) {
         this.amount = amount;
         this.accountBalance = accountBalance;
         this.type = type;
-        this.description = description;
     }
     // endregion
 
     // region FIELDS
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "operations_seq")
+    @SequenceGenerator(name = "operations_seq", sequenceName = "operations_seq", allocationSize = 50)
     private Long id;
 
+    /**
+     * Сумма операции в минимальных единицах (копейках).
+     */
     @Column(name = "amount", nullable = false)
-    private BigDecimal amount;
+    @JsonSerialize(using = MinorUnitsSerializer.class)
+    private Long amount;
 
-    @Column(name = "type", length = 8, nullable = false)
+    @Column(name = "type", nullable = false)
+    @Convert(converter = OperationTypeConverter.class)
     private OperationTypes type;
 
-    @Column(name = "description", nullable = false)
-    private String description;
-
     @Column(name = "date", nullable = false)
     private LocalDateTime date = LocalDateTime.now();
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "account_id", referencedColumnName = "id")
     @JsonIgnoreProperties({"operationsList"})
     private Account account;
 
-    @Column(name = "account_balance", nullable = false)
-    private BigDecimal accountBalance;
+    /**
+     * Баланс аккаунта после операции в минимальных единицах (копейках).
+     * Для пополнения горячего аккаунта - null до консолидации полос баланса.
+     */
+    @Column(name = "account_balance")
+    @JsonSerialize(using = MinorUnitsSerializer.class)
+    private Long accountBalance;
+
+    /**
+     * Идентификатор второй операции пары для перевода (TRANSFER), для остальных операций - null.
+     */
+    @Column(name = "linked_operation_id")
+    private Long linkedOperationId;
     // endregion
 
+    /**
+     * Метод для получения описания операции (описание не хранится в БД и строится по типу и сумме).
+     * @return Описание операции.
+     */
+    public String getDescription() {
+        return type.describe(amount);
+    }
+
 }
@@ -1,13 +1,19 @@
 package ru.farpost.repository;
 
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import ru.farpost.model.Account;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Класс (репозиторий) предоставляющий методы взаимодействия с БД для сервиса {@link ru.farpost.service.AccountService}.
@@ -15,18 +21,148 @@ import java.time.LocalDateTime;
 @Repository
 public interface AccountRepository extends JpaRepository<Account, Long> {
 
+    /**
+     * Метод для добавления аккаунта с идентификатором из последовательности accounts_seq текущего шарда
+     * (генератор идентификаторов Hibernate выдает блоки идентификаторов без учета шарда).
+     * @param username Имя пользователя.
+     * @param createdAt Момент создания.
+     * @return Идентификатор созданного аккаунта.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "INSERT INTO accounts (id, username, balance, created_at, hot_stripes) " +
+            "VALUES (nextval('accounts_seq'), :username, 0, :createdAt, 0) RETURNING id", nativeQuery = true)
+    Long insertAccount(@Param("username") String username,
+                       @Param("createdAt") LocalDateTime createdAt);
+
+    /**
+     * Метод для пополнения баланса аккаунта одним запросом (без предварительного чтения аккаунта).
+     * Баланс горячего аккаунта этим запросом не изменяется (см. {@link ru.farpost.service.HotAccountService}).
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма пополнения в минимальных единицах.
+     * @param maxBalance Максимальный баланс до пополнения, при котором баланс не переполняется.
+     * @return Баланс аккаунта после пополнения или null, если аккаунт не найден, горячий или баланс переполняется.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "UPDATE accounts SET balance = balance + :amount " +
+            "WHERE id = :accountId AND deleted_at IS NULL AND hot_stripes = 0 AND balance <= :maxBalance " +
+            "RETURNING balance", nativeQuery = true)
+    Long depositBalance(@Param("accountId") Long accountId,
+                        @Param("amount") long amount,
+                        @Param("maxBalance") long maxBalance);
+
+    /**
+     * Метод для списания с баланса аккаунта одним запросом с проверкой достаточности средств.
+     * С горячего аккаунта списание выполняется только после консолидации его полос баланса в текущей транзакции.
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма списания в минимальных единицах.
+     * @param consolidated Признак консолидации полос баланса аккаунта в текущей транзакции.
+     * @return Баланс аккаунта после списания или null, если аккаунт не найден, горячий (без консолидации)
+     * или средств недостаточно.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "UPDATE accounts SET balance = balance - :amount " +
+            "WHERE id = :accountId AND deleted_at IS NULL AND (hot_stripes = 0 OR :consolidated) " +
+            "AND balance >= :amount " +
+            "RETURNING balance", nativeQuery = true)
+    Long withdrawBalance(@Param("accountId") Long accountId,
+                         @Param("amount") long amount,
+                         @Param("consolidated") boolean consolidated);
+
+    /**
+     * Метод для получения аккаунтов с блокировкой строк до конца транзакции.
+     * Строки блокируются в порядке возрастания идентификатора, поэтому транзакции,
+     * блокирующие пересекающиеся наборы аккаунтов, не попадают во взаимную блокировку.
+     * @param ids Идентификаторы аккаунтов.
+     * @return Список найденных аккаунтов в порядке возрастания идентификатора.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.id IN :ids ORDER BY a.id")
+    List<Account> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
+
     /**
      * Метод для получения баланса за указанную дату.
      * @param accountId Идентификатор аккаунта.
      * @param date Переданная дата.
-     * @return Баланс аккаунта за переданную дату.
+     * @return Баланс аккаунта за переданную дату (в минимальных единицах).
      */
     @Query("SELECT t.accountBalance FROM Operation t " +
             "WHERE t.account.id = :accountId " +
+            "AND t.accountBalance IS NOT NULL " +
             "AND t.date <= :transactionDate " +
-            "ORDER BY t.date " +
+            "ORDER BY t.date DESC, t.id " +
             "DESC LIMIT 1")
-    BigDecimal findBalanceAtDate(@Param("accountId") Long accountId,
-                                 @Param("transactionDate") LocalDateTime date);
+    Long findBalanceAtDate(@Param("accountId") Long accountId,
+                           @Param("transactionDate") LocalDateTime date);
+
+    /**
+     * Метод для получения баланса по последней операции аккаунта внутри указанного периода.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @return Баланс аккаунта (в минимальных единицах) после последней операции периода
+     * или null, если операций в периоде нет.
+     */
+    @Query("SELECT t.accountBalance FROM Operation t " +
+            "WHERE t.account.id = :accountId " +
+            "AND t.accountBalance IS NOT NULL " +
+            "AND t.date >= :from " +
+            "AND t.date <= :to " +
+            "ORDER BY t.date DESC, t.id " +
+            "DESC LIMIT 1")
+    Long findBalanceWithinPeriod(@Param("accountId") Long accountId,
+                                 @Param("from") LocalDateTime from,
+                                 @Param("to") LocalDateTime to);
+
+    /**
+     * Метод для получения баланса по последней операции аккаунта, совершенной строго до указанного момента,
+     * но не раньше начала периода.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода (С).
+     * @param before Момент, до которого (не включительно) ищется операция.
+     * @return Баланс аккаунта (в минимальных единицах) или null, если операций нет.
+     */
+    @Query("SELECT t.accountBalance FROM Operation t " +
+            "WHERE t.account.id = :accountId " +
+            "AND t.accountBalance IS NOT NULL " +
+            "AND t.date >= :from " +
+            "AND t.date < :before " +
+            "ORDER BY t.date DESC, t.id " +
+            "DESC LIMIT 1")
+    Long findBalanceBefore(@Param("accountId") Long accountId,
+                           @Param("from") LocalDateTime from,
+                           @Param("before") LocalDateTime before);
+
+    /**
+     * Метод для пометки аккаунта удаленным. Строка аккаунта блокируется до конца транзакции,
+     * поэтому операции, начатые после пометки, аккаунт уже не находят.
+     * @param accountId Идентификатор аккаунта.
+     * @param deletedAt Момент удаления.
+     * @return Количество помеченных аккаунтов (0 - аккаунт не найден или уже удален).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying
+    @Query(value = "UPDATE accounts SET deleted_at = :deletedAt WHERE id = :accountId AND deleted_at IS NULL",
+            nativeQuery = true)
+    int markDeleted(@Param("accountId") Long accountId,
+                    @Param("deletedAt") LocalDateTime deletedAt);
+
+    /**
+     * Метод для получения аккаунтов, помеченных удаленными, в порядке времени удаления.
+     * @param limit Максимальное количество аккаунтов.
+     * @return Список идентификаторов аккаунтов.
+     */
+    @Query(value = "SELECT id FROM accounts WHERE deleted_at IS NOT NULL ORDER BY deleted_at LIMIT :limit",
+            nativeQuery = true)
+    List<Long> findDeletedAccountIds(@Param("limit") int limit);
+
+    /**
+     * Метод для удаления строки аккаунта одним запросом (операции аккаунта должны быть удалены ранее).
+     * @param accountId Идентификатор аккаунта.
+     * @return Количество удаленных аккаунтов.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying
+    @Query(value = "DELETE FROM accounts WHERE id = :accountId", nativeQuery = true)
+    int deleteAccountRow(@Param("accountId") Long accountId);
 
 }
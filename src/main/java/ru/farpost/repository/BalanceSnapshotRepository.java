@@ -0,0 +1,40 @@
+package ru.farpost.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.farpost.model.BalanceSnapshot;
+
+import java.time.LocalDate;
+
+/**
+ * Класс (репозиторий) предоставляющий методы взаимодействия с БД для сервиса {@link ru.farpost.service.BalanceSnapshotService}.
+ */
+@Repository
+public interface BalanceSnapshotRepository extends JpaRepository<BalanceSnapshot, BalanceSnapshot.Key> {
+
+    /**
+     * Метод для получения баланса аккаунта на конец последнего дня с операциями до указанного дня.
+     * @param accountId Идентификатор аккаунта.
+     * @param day День, до которого (не включительно) ищется контрольная точка.
+     * @return Баланс аккаунта (в минимальных единицах) или null, если контрольной точки нет.
+     */
+    @Query("SELECT s.closingBalance FROM BalanceSnapshot s " +
+            "WHERE s.id.accountId = :accountId " +
+            "AND s.id.day < :day " +
+            "ORDER BY s.id.day " +
+            "DESC LIMIT 1")
+    Long findClosingBalanceBefore(@Param("accountId") Long accountId,
+                                  @Param("day") LocalDate day);
+
+    /**
+     * Метод для удаления всех контрольных точек аккаунта.
+     * @param accountId Идентификатор аккаунта.
+     */
+    @Modifying
+    @Query("DELETE FROM BalanceSnapshot s WHERE s.id.accountId = :accountId")
+    void deleteByAccountId(@Param("accountId") Long accountId);
+
+}
@@ -1,7 +1,12 @@
 package ru.farpost.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.farpost.model.Operation;
 
 import java.time.LocalDateTime;
@@ -24,4 +29,87 @@ public interface OperationRepository extends JpaRepository<Operation, Long> {
                                                   LocalDateTime from,
                                                   LocalDateTime to);
 
-}
\ No newline at end of file
+    /**
+     * Метод для получения страницы операций аккаунта за указанный период по ключу (date, id).
+     * Возвращаются операции, следующие строго после переданной пары (date, id), в порядке возрастания.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода для поиска операций (С).
+     * @param to Дата конца периода для поиска операций (По).
+     * @param afterDate Дата последней операции предыдущей страницы.
+     * @param afterId Идентификатор последней операции предыдущей страницы.
+     * @param limit Максимальное количество операций на странице.
+     * @return Список операций аккаунта.
+     */
+    @Query("SELECT t FROM Operation t " +
+            "WHERE t.account.id = :accountId " +
+            "AND t.date >= :from " +
+            "AND t.date <= :to " +
+            "AND (t.date > :afterDate OR (t.date = :afterDate AND t.id > :afterId)) " +
+            "ORDER BY t.date, t.id")
+    List<Operation> findPageAfter(@Param("accountId") Long accountId,
+                                  @Param("from") LocalDateTime from,
+                                  @Param("to") LocalDateTime to,
+                                  @Param("afterDate") LocalDateTime afterDate,
+                                  @Param("afterId") Long afterId,
+                                  Limit limit);
+
+    /**
+     * Метод для получения последних операций аккаунта (от новых к старым).
+     * @param accountId Идентификатор аккаунта.
+     * @param limit Максимальное количество операций.
+     * @return Список операций аккаунта.
+     */
+    List<Operation> findByAccountIdOrderByDateDescIdDesc(Long accountId, Limit limit);
+
+    /**
+     * Метод для получения последних операций аккаунта с определенным балансом после операции
+     * (без неконсолидированных пополнений горячего аккаунта).
+     * @param accountId Идентификатор аккаунта.
+     * @param limit Максимальное количество операций.
+     * @return Список операций аккаунта (от новых к старым).
+     */
+    List<Operation> findByAccountIdAndAccountBalanceNotNullOrderByDateDescIdDesc(Long accountId, Limit limit);
+
+    /**
+     * Метод для получения операций аккаунта, выполненных после указанной операции (в порядке выполнения).
+     * Операции упорядочены парой (date, id) (идентификаторы пополнений горячего аккаунта и операций аккаунта,
+     * перенесенного на другой шард, не возрастают вместе с датой), поиск ограничен датой указанной операции,
+     * поэтому не просматривает более раннюю историю аккаунта.
+     * Неконсолидированные пополнения горячего аккаунта не возвращаются.
+     * @param accountId Идентификатор аккаунта.
+     * @param afterId Идентификатор последней полученной операции.
+     * @param limit Максимальное количество операций.
+     * @return Список операций аккаунта (пустой, если операция не найдена).
+     */
+    @Query(value = "SELECT o.* FROM operations o " +
+            "JOIN (SELECT id, date FROM operations WHERE id = :afterId AND account_id = :accountId) a " +
+            "ON o.date >= a.date AND (o.date, o.id) > (a.date, a.id) " +
+            "WHERE o.account_id = :accountId AND o.account_balance IS NOT NULL " +
+            "ORDER BY o.date, o.id LIMIT :limit", nativeQuery = true)
+    List<Operation> findAfterOperation(@Param("accountId") Long accountId,
+                                       @Param("afterId") Long afterId,
+                                       @Param("limit") int limit);
+
+    /**
+     * Метод для удаления всех операций аккаунта одним запросом (без загрузки операций).
+     * @param accountId Идентификатор аккаунта.
+     * @return Количество удаленных операций.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM operations WHERE account_id = :accountId", nativeQuery = true)
+    int deleteAllByAccountId(@Param("accountId") Long accountId);
+
+    /**
+     * Метод для удаления порции операций аккаунта в отдельной транзакции.
+     * @param accountId Идентификатор аккаунта.
+     * @param limit Максимальное количество удаляемых операций.
+     * @return Количество удаленных операций.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM operations WHERE account_id = :accountId AND (id, date) IN " +
+            "(SELECT id, date FROM operations WHERE account_id = :accountId LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByAccountId(@Param("accountId") Long accountId,
+                               @Param("limit") int limit);
+
+}
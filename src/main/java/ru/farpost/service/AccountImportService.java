@@ -0,0 +1,233 @@
+package ru.farpost.service;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Класс (сервис) для массового импорта аккаунтов с начальными балансами из CSV по протоколу COPY.
+ * <p>
+ * Тело запроса передается в PostgreSQL потоком (COPY ... FROM STDIN) во временную таблицу, после чего аккаунты,
+ * операции пополнения на начальный баланс и контрольные точки баланса создаются несколькими запросами
+ * INSERT ... SELECT. Потребление памяти приложения не зависит от количества строк.
+ * <p>
+ * При включенном шардировании все аккаунты одного импорта создаются на очередном шарде
+ * ({@link ShardMap#nextShardForNewAccount()}) с идентификаторами из последовательностей этого шарда.
+ */
+@Service
+public class AccountImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountImportService.class);
+
+    /**
+     * Количество идентификаторов, выдаваемых одним вызовом последовательностей accounts_seq и operations_seq
+     * (совпадает с allocationSize генераторов идентификаторов аккаунтов и операций).
+     */
+    private static final int ID_ALLOCATION_SIZE = 50;
+
+    /**
+     * Временная таблица импорта (удаляется при завершении транзакции).
+     */
+    private static final String CREATE_IMPORT_TABLE =
+            "CREATE TEMP TABLE account_import (" +
+            "line BIGINT GENERATED ALWAYS AS IDENTITY, username TEXT, balance NUMERIC, " +
+            "account_id BIGINT, operation_id BIGINT) ON COMMIT DROP";
+
+    /**
+     * Загрузка CSV (username,balance) с заголовком во временную таблицу.
+     */
+    private static final String COPY_IMPORT =
+            "COPY account_import (username, balance) FROM STDIN WITH (FORMAT csv, HEADER true)";
+
+    /**
+     * Запрос номера первой некорректной строки импорта (null - все строки корректны).
+     */
+    private static final String SELECT_INVALID_LINE =
+            "SELECT MIN(line) FROM account_import " +
+            "WHERE username IS NULL OR length(trim(username)) = 0 OR length(username) > 100 " +
+            "OR balance IS NULL OR balance < 0 OR balance <> round(balance, 2) " +
+            "OR balance * 100 > " + Long.MAX_VALUE;
+
+    /**
+     * Запрос выдачи идентификаторов аккаунтов и операций. Один вызов nextval выдает блок из
+     * {@link #ID_ALLOCATION_SIZE} идентификаторов, как и генераторам Hibernate, поэтому идентификаторы
+     * не пересекаются с выданными приложению.
+     */
+    private static final String ASSIGN_IDS =
+            "WITH account_blocks AS MATERIALIZED (" +
+            "SELECT block, nextval('accounts_seq') AS hi FROM generate_series(0, ?) block), " +
+            "operation_blocks AS MATERIALIZED (" +
+            "SELECT block, nextval('operations_seq') AS hi FROM generate_series(0, ?) block) " +
+            "UPDATE account_import i SET " +
+            "account_id = a.hi - " + ID_ALLOCATION_SIZE + " + 1 + (i.line - 1) % " + ID_ALLOCATION_SIZE + ", " +
+            "operation_id = o.hi - " + ID_ALLOCATION_SIZE + " + 1 + (i.line - 1) % " + ID_ALLOCATION_SIZE + " " +
+            "FROM account_blocks a, operation_blocks o " +
+            "WHERE a.block = (i.line - 1) / " + ID_ALLOCATION_SIZE + " AND o.block = a.block";
+
+    /**
+     * Запрос добавления аккаунтов с выданными идентификаторами и начальным балансом в копейках.
+     */
+    private static final String INSERT_ACCOUNTS =
+            "INSERT INTO accounts (id, username, balance, created_at) " +
+            "SELECT account_id, username, (balance * 100)::BIGINT, ? FROM account_import";
+
+    /**
+     * Операции пополнения на начальный баланс (для аккаунтов с нулевым балансом операции не создаются).
+     */
+    private static final String INSERT_OPENING_OPERATIONS =
+            "INSERT INTO operations (id, account_id, amount, type, date, account_balance) " +
+            "SELECT operation_id, account_id, (balance * 100)::BIGINT, ?, ?, (balance * 100)::BIGINT " +
+            "FROM account_import WHERE balance > 0";
+
+    /**
+     * Контрольные точки баланса на день импорта по операциям пополнения на начальный баланс.
+     */
+    private static final String INSERT_OPENING_SNAPSHOTS =
+            "INSERT INTO balance_snapshots (account_id, day, closing_balance, last_operation_id, last_operation_date, " +
+            "deposits_total, deposits_count, withdrawals_total, withdrawals_count, min_balance, max_balance) " +
+            "SELECT account_id, ?::date, (balance * 100)::BIGINT, operation_id, ?, " +
+            "(balance * 100)::BIGINT, 1, 0, 0, (balance * 100)::BIGINT, (balance * 100)::BIGINT " +
+            "FROM account_import WHERE balance > 0";
+
+    /**
+     * Выгрузка соответствия строк импорта созданным аккаунтам.
+     */
+    private static final String COPY_RESULT =
+            "COPY (SELECT line, account_id, username FROM account_import ORDER BY line) " +
+            "TO STDOUT WITH (FORMAT csv, HEADER true)";
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Конструктор для создания объектов сервиса с использованием "@Autowired".
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param transactionTemplate Ссылка на объект {@link TransactionTemplate}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     */
+    @Autowired
+    public AccountImportService(JdbcTemplate jdbcTemplate,
+                                TransactionTemplate transactionTemplate,
+                                ShardMap shardMap) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.shardMap = shardMap;
+    }
+
+    /**
+     * Метод для импорта аккаунтов из CSV с заголовком и колонками username,balance.
+     * Для аккаунта с ненулевым балансом создается операция пополнения на начальный баланс,
+     * поэтому баланс на дату и выписки по импортированным аккаунтам согласованы с историей операций.
+     * Импорт выполняется в одной транзакции: при ошибке в любой строке не создается ни один аккаунт.
+     * @param in Поток CSV с аккаунтами.
+     * @param out Поток, в который пишется CSV с колонками line,account_id,username (номер строки импорта
+     *            без учета заголовка и идентификатор созданного аккаунта). Поток открывается только
+     *            после успешного импорта всех строк, поэтому при ошибке можно вернуть обычный ответ с ошибкой.
+     * @return Количество импортированных аккаунтов.
+     */
+    public long importAccounts(InputStream in, ResultOutput out) {
+        return shardMap.onShard(shardMap.nextShardForNewAccount(), () ->
+                transactionTemplate.execute(status -> importInTransaction(in, out)));
+    }
+
+    /**
+     * Метод для импорта аккаунтов в транзакции вызывающего метода (см. {@link #importAccounts}).
+     * @param in Поток CSV с аккаунтами.
+     * @param out Поток для записи результата импорта.
+     * @return Количество импортированных аккаунтов.
+     */
+    private long importInTransaction(InputStream in, ResultOutput out) {
+
+        jdbcTemplate.execute(CREATE_IMPORT_TABLE);
+        long rows;
+        try {
+            rows = copy(connection -> connection.getCopyAPI().copyIn(COPY_IMPORT, in));
+        } catch (DataAccessException e) {
+            log.warn("Не удалось загрузить CSV импорта аккаунтов: {}", e.getMostSpecificCause().getMessage());
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_IMPORT);
+        }
+
+        Long invalidLine = jdbcTemplate.queryForObject(SELECT_INVALID_LINE, Long.class);
+        if (invalidLine != null) {
+            log.warn("Некорректная строка импорта аккаунтов: {}", invalidLine);
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_IMPORT);
+        }
+
+        if (rows > 0) {
+            long lastBlock = (rows - 1) / ID_ALLOCATION_SIZE;
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.update(ASSIGN_IDS, lastBlock, lastBlock);
+            jdbcTemplate.update(INSERT_ACCOUNTS, now);
+            jdbcTemplate.update(INSERT_OPENING_OPERATIONS, OperationTypes.DEPOSIT.getCode(), now);
+            jdbcTemplate.update(INSERT_OPENING_SNAPSHOTS, now, now);
+        }
+
+        copy(connection -> connection.getCopyAPI().copyOut(COPY_RESULT, out.open()));
+        log.info("Импортировано аккаунтов: {}", rows);
+        return rows;
+
+    }
+
+    /**
+     * Метод для выполнения команды COPY на соединении текущей транзакции.
+     * @param command Команда COPY.
+     * @return Количество обработанных строк.
+     */
+    private long copy(CopyCommand command) {
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return command.execute(connection.unwrap(PGConnection.class));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Поток для записи результата импорта, открываемый после успешного импорта.
+     */
+    @FunctionalInterface
+    public interface ResultOutput {
+        OutputStream open() throws IOException;
+    }
+
+    /**
+     * Команда COPY, выполняемая на соединении PostgreSQL.
+     */
+    @FunctionalInterface
+    private interface CopyCommand {
+        long execute(PGConnection connection) throws SQLException, IOException;
+    }
+
+}
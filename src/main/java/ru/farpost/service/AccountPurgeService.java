@@ -0,0 +1,130 @@
+package ru.farpost.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.repository.AccountRepository;
+import ru.farpost.repository.OperationRepository;
+
+/**
+ * Класс (сервис) для фонового удаления аккаунтов, помеченных удаленными
+ * ({@link AccountService#deleteAccountById(Long, boolean)} с фоновым удалением).
+ * <p>
+ * Операции аккаунта удаляются порциями по app.accounts.purge-chunk-size строк, каждая порция - отдельная
+ * короткая транзакция, поэтому удаление длинной истории не занимает соединение надолго и не блокирует
+ * другие запросы. После удаления всех операций удаляются контрольные точки и строка аккаунта.
+ * Пометка хранится в БД, поэтому прерванное удаление продолжается после перезапуска приложения.
+ * Аккаунты удаляются на каждом шарде, в том числе исходные копии аккаунтов, перенесенных на другой шард.
+ */
+@Service
+public class AccountPurgeService {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountPurgeService.class);
+
+    /**
+     * Максимальное количество аккаунтов, удаляемых за один запуск.
+     */
+    private static final int ACCOUNTS_PER_RUN = 100;
+
+    /**
+     * Объект класса {@link AccountRepository}
+     */
+    private final AccountRepository accountRepository;
+
+    /**
+     * Объект класса {@link OperationRepository}
+     */
+    private final OperationRepository operationRepository;
+
+    /**
+     * Объект класса {@link BalanceSnapshotService}
+     */
+    private final BalanceSnapshotService balanceSnapshotService;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Количество операций, удаляемых одной транзакцией.
+     */
+    private final int chunkSize;
+
+    /**
+     * Конструктор для создания объектов сервиса с использованием "@Autowired".
+     * @param accountRepository Ссылка на объект {@link AccountRepository}.
+     * @param operationRepository Ссылка на объект {@link OperationRepository}.
+     * @param balanceSnapshotService Ссылка на объект {@link BalanceSnapshotService}.
+     * @param transactionManager Менеджер транзакций.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param chunkSize Количество операций, удаляемых одной транзакцией.
+     */
+    @Autowired
+    public AccountPurgeService(AccountRepository accountRepository,
+                               OperationRepository operationRepository,
+                               BalanceSnapshotService balanceSnapshotService,
+                               PlatformTransactionManager transactionManager,
+                               ShardMap shardMap,
+                               @Value("${app.accounts.purge-chunk-size:10000}") int chunkSize) {
+        this.accountRepository = accountRepository;
+        this.operationRepository = operationRepository;
+        this.balanceSnapshotService = balanceSnapshotService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shardMap = shardMap;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Метод для периодического удаления аккаунтов, помеченных удаленными (на каждом шарде).
+     */
+    @Scheduled(fixedDelayString = "${app.accounts.purge-interval:5s}")
+    public void purgeDeleted() {
+        shardMap.forEachShard(() -> {
+            for (Long accountId : accountRepository.findDeletedAccountIds(ACCOUNTS_PER_RUN)) {
+                try {
+                    purge(accountId);
+                } catch (DataAccessException e) {
+                    log.warn("Не удалось удалить аккаунт {}: {}", accountId, e.getMostSpecificCause().getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Метод для удаления операций, контрольных точек и строки аккаунта, помеченного удаленным
+     * (в области шарда, на котором хранится удаляемая строка аккаунта).
+     * @param accountId Идентификатор аккаунта.
+     */
+    public void purge(Long accountId) {
+
+        long startedAt = System.nanoTime();
+        long operations = 0;
+        int deleted;
+        do {
+            deleted = operationRepository.deleteChunkByAccountId(accountId, chunkSize);
+            operations += deleted;
+        } while (deleted == chunkSize);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            balanceSnapshotService.deleteSnapshots(accountId);
+            accountRepository.deleteAccountRow(accountId);
+        });
+        log.info("Удален аккаунт {}: операций {}, за {} мс",
+                accountId, operations, (System.nanoTime() - startedAt) / 1_000_000);
+
+    }
+
+}
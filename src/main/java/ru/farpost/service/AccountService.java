@@ -1,18 +1,35 @@
 package ru.farpost.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.cache.AccountCache;
+import ru.farpost.datasource.ReadRouting;
+import ru.farpost.datasource.ShardMap;
 import ru.farpost.dto.AccountDTO;
 import ru.farpost.dto.OperationDTO;
+import ru.farpost.dto.StatementDTO;
+import ru.farpost.event.AccountDeletedEvent;
+import ru.farpost.ledger.OperationLedger;
 import ru.farpost.model.Account;
-import ru.farpost.model.Operation;
 import ru.farpost.repository.AccountRepository;
+import ru.farpost.repository.OperationRepository;
 import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
 import ru.farpost.components.ExceptionsMessage;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -27,53 +44,198 @@ public class AccountService {
     private final AccountRepository accountRepository;
 
     /**
-     * Конструктор для создания объекта {@link AccountRepository} с использованием "@Autowired".
+     * Объект класса {@link BalanceSnapshotService}
+     */
+    private final BalanceSnapshotService balanceSnapshotService;
+
+    /**
+     * Объект класса {@link OperationRepository}
+     */
+    private final OperationRepository operationRepository;
+
+    /**
+     * Объект класса {@link AccountCache}
+     */
+    private final AccountCache accountCache;
+
+    /**
+     * Объект класса {@link ApplicationEventPublisher}
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Объект класса {@link ReadRouting}
+     */
+    private final ReadRouting readRouting;
+
+    /**
+     * Объект класса {@link HotAccountService}
+     */
+    private final HotAccountService hotAccountService;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link OperationLedger} (null, если режим журнала операций выключен)
+     */
+    private final OperationLedger operationLedger;
+
+    /**
+     * Количество последних операций в информации об аккаунте по умолчанию.
+     */
+    private final int defaultLastOperations;
+
+    /**
+     * Максимальное количество последних операций в информации об аккаунте.
+     */
+    private final int maxLastOperations;
+
+    /**
+     * Конструктор для создания объектов {@link AccountRepository}, {@link BalanceSnapshotService},
+     * {@link OperationRepository}, {@link AccountCache}, {@link ApplicationEventPublisher}, {@link ReadRouting},
+     * {@link HotAccountService}, {@link ShardMap}, {@link TransactionTemplate} и {@link OperationLedger}
+     * с использованием "@Autowired".
      *
      * @param accountRepository Ссылка на объект {@link AccountRepository}.
+     * @param balanceSnapshotService Ссылка на объект {@link BalanceSnapshotService}.
+     * @param operationRepository Ссылка на объект {@link OperationRepository}.
+     * @param accountCache Ссылка на объект {@link AccountCache}.
+     * @param eventPublisher Ссылка на объект {@link ApplicationEventPublisher}.
+     * @param readRouting Ссылка на объект {@link ReadRouting}.
+     * @param hotAccountService Ссылка на объект {@link HotAccountService}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param transactionTemplate Ссылка на объект {@link TransactionTemplate}.
+     * @param operationLedger Ссылка на объект {@link OperationLedger} (если включен режим журнала операций).
+     * @param defaultLastOperations Количество последних операций в информации об аккаунте по умолчанию.
+     * @param maxLastOperations Максимальное количество последних операций в информации об аккаунте.
      */
     @Autowired
-    public AccountService(AccountRepository accountRepository) {
+    public AccountService(AccountRepository accountRepository,
+                          BalanceSnapshotService balanceSnapshotService,
+                          OperationRepository operationRepository,
+                          AccountCache accountCache,
+                          ApplicationEventPublisher eventPublisher,
+                          ReadRouting readRouting,
+                          HotAccountService hotAccountService,
+                          ShardMap shardMap,
+                          TransactionTemplate transactionTemplate,
+                          Optional<OperationLedger> operationLedger,
+                          @Value("${app.account-info.last-operations:10}") int defaultLastOperations,
+                          @Value("${app.account-info.max-last-operations:100}") int maxLastOperations) {
         this.accountRepository = accountRepository;
+        this.balanceSnapshotService = balanceSnapshotService;
+        this.operationRepository = operationRepository;
+        this.accountCache = accountCache;
+        this.eventPublisher = eventPublisher;
+        this.readRouting = readRouting;
+        this.hotAccountService = hotAccountService;
+        this.shardMap = shardMap;
+        this.transactionTemplate = transactionTemplate;
+        this.operationLedger = operationLedger.orElse(null);
+        this.defaultLastOperations = defaultLastOperations;
+        this.maxLastOperations = maxLastOperations;
     }
 
     /**
      * Метод для преобразования объекта {@link Account} в {@link AccountDTO} для осуществления JSON ответов.
+     * В ответ попадают только последние операции аккаунта (количество задается настройкой app.account-info.last-operations),
+     * полная история доступна через постраничный API операций.
      *
      * @param account ссылка на объект Account.
      * @return Объект {@link AccountDTO}.
      */
     public AccountDTO convertToDTO(Account account) {
+        return convertToDTO(account, defaultLastOperations);
+    }
 
-        return new AccountDTO(
-                account.getId(),
-                account.getUsername(),
-                account.getBalance(),
-                account.getCreatedAt(),
-                account.getOperationsList()
+    /**
+     * Метод для преобразования объекта {@link Account} в {@link AccountDTO} с указанным количеством последних операций.
+     * Операции выбираются одним запросом по индексу (account_id, date), история аккаунта целиком не загружается.
+     * Баланс горячего аккаунта включает неконсолидированные пополнения его полос баланса.
+     *
+     * @param account        ссылка на объект Account.
+     * @param lastOperations Количество последних операций (от новых к старым).
+     * @return Объект {@link AccountDTO}.
+     */
+    public AccountDTO convertToDTO(Account account, int lastOperations) {
+
+        List<OperationDTO> operations = lastOperations <= 0
+                ? List.of()
+                : operationRepository.findByAccountIdOrderByDateDescIdDesc(account.getId(), Limit.of(lastOperations))
                         .stream()
                         .map(operation -> (
                                 new OperationDTO(
                                         operation.getId(),
-                                        operation.getAmount(),
+                                        MoneyUtils.toDecimal(operation.getAmount()),
                                         operation.getType(),
                                         operation.getDescription(),
                                         operation.getDate(),
-                                        operation.getAccount().getId(),
-                                        operation.getAccountBalance()
+                                        account.getId(),
+                                        MoneyUtils.toDecimal(operation.getAccountBalance()),
+                                        operation.getLinkedOperationId()
                                 )
-                        )).collect(Collectors.toList())
+                        )).collect(Collectors.toList());
+
+        Long balance = account.getHotStripes() > 0 ? hotAccountService.currentBalance(account.getId()) : null;
+        return new AccountDTO(
+                account.getId(),
+                account.getUsername(),
+                MoneyUtils.toDecimal(balance != null ? balance : account.getBalance()),
+                account.getCreatedAt(),
+                operations,
+                account.getHotStripes() > 0 ? account.getHotStripes() : null
         );
 
     }
 
+    /**
+     * Метод для получения информации об аккаунте с указанным количеством последних операций
+     * (с количеством операций по умолчанию - через кэш, иначе аккаунт читается с реплики, см. {@link ReadRouting}).
+     *
+     * @param id             Идентификатор аккаунта в БД.
+     * @param lastOperations Количество последних операций (не более app.account-info.max-last-operations).
+     * @return Объект {@link AccountDTO}.
+     */
+    public AccountDTO findAccountInfo(Long id, Integer lastOperations) {
+
+        int count = lastOperations == null ? defaultLastOperations : lastOperations;
+        if (count < 0 || count > maxLastOperations)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_PAGE_LIMIT);
+
+        if (count == defaultLastOperations)
+            return findAccountById(id, AccountDTO.class);
+        return shardMap.inShard(id, () -> readRouting.onReplica(id, () ->
+                convertToDTO(findAccountById(id, Account.class), count)));
+
+    }
+
     /**
      * Метод для создания аккаунта и сохранения его в БД.
+     * При включенном шардировании аккаунт создается на очередном шарде ({@link ShardMap#nextShardForNewAccount()})
+     * с идентификатором из последовательности этого шарда, поэтому идентификатор определяет домашний шард аккаунта.
      *
      * @param username Имя пользователя.
      * @return Созданный и сохраненный объект {@link Account}.
      */
     public Account createAccount(String username) {
-        return accountRepository.save(new Account(username));
+        if (!shardMap.isEnabled()) {
+            Account account = accountRepository.save(new Account(username));
+            readRouting.recordWrite(account.getId());
+            return account;
+        }
+        Account account = new Account(username);
+        account.setId(shardMap.onShard(shardMap.nextShardForNewAccount(), () -> transactionTemplate.execute(status ->
+                accountRepository.insertAccount(account.getUsername(), account.getCreatedAt()))));
+        readRouting.recordWrite(account.getId());
+        return account;
     }
 
     /**
@@ -85,21 +247,33 @@ public class AccountService {
      */
     public AccountDTO updateAccount(Long id, String newUsername) {
 
-        Account account = accountRepository.findById(id).orElseThrow(() ->
-                new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
+        return shardMap.inShard(id, () -> {
+            Account account = accountRepository.findById(id).orElseThrow(() ->
+                    new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
 
-        account.setUsername(newUsername);
-        account = accountRepository.save(account);
-        return convertToDTO(account);
+            account.setUsername(newUsername);
+            account = accountRepository.save(account);
+            accountCache.invalidateAfterCommit(account.getId());
+            readRouting.recordWrite(account.getId());
+            return convertToDTO(account);
+        });
     }
 
     /**
-     * Метод для обновления баланса аккаунта.
+     * Метод для изменения количества полос баланса аккаунта (0 - аккаунт перестает быть горячим).
+     * Неконсолидированные пополнения аккаунта предварительно консолидируются.
      *
-     * @param account Объект {@link Account}.
+     * @param id      Идентификатор аккаунта в БД.
+     * @param stripes Количество полос баланса.
+     * @return Объект {@link AccountDTO}.
      */
-    public void updateAccountBalance(Account account) {
-        accountRepository.save(account);
+    public AccountDTO updateHotStripes(Long id, int stripes) {
+        return shardMap.inShard(id, () -> transactionTemplate.execute(status -> {
+            hotAccountService.changeStripes(id, stripes);
+            accountCache.invalidateAfterCommit(id);
+            readRouting.recordWrite(id);
+            return convertToDTO(findAccountById(id, Account.class));
+        }));
     }
 
     /**
@@ -110,32 +284,148 @@ public class AccountService {
      */
     public <T> T findAccountById(Long id, Class<T> clazz) {
 
-        Account account = accountRepository.findById(id).orElseThrow(() ->
-                new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
+        return shardMap.inShard(id, () -> {
+            if (clazz == AccountDTO.class) {
+                return clazz.cast(findCachedAccount(id));
+            } else if (clazz == Account.class) {
+                return clazz.cast(accountRepository.findById(id).orElseThrow(() ->
+                        new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND)));
+            } else {
+                throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.UNSUPPORTED_TYPE_CLASS);
+            }
+        });
 
-        if (clazz == AccountDTO.class) {
-            return clazz.cast(convertToDTO(account));
-        } else if (clazz == Account.class) {
-            return clazz.cast(account);
-        } else {
-            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.UNSUPPORTED_TYPE_CLASS);
-        }
+    }
+
+    /**
+     * Метод для получения информации об аккаунте через кэш {@link AccountCache}.
+     * Кэш загружается только из основной БД: значение, прочитанное с отстающей реплики, оставалось бы в кэше
+     * до истечения времени жизни записи. В режиме журнала операций баланс берется из проекции аккаунта
+     * {@link OperationLedger}: баланс в БД отстает от принятых операций на время применения журнала.
+     *
+     * @param id Идентификатор аккаунта в БД.
+     * @return Объект {@link AccountDTO}.
+     */
+    private AccountDTO findCachedAccount(Long id) {
+        AccountDTO account = accountCache.get(id, key ->
+                readRouting.onPrimary(() -> convertToDTO(findAccountById(key, Account.class))));
+        Long balance = operationLedger != null ? operationLedger.findBalance(id) : null;
+        if (balance == null)
+            return account;
+        return new AccountDTO(account.getId(), account.getUsername(), MoneyUtils.toDecimal(balance),
+                account.getCreatedAt(), account.getOperationsList(), account.getHotStripes());
+    }
+
+    /**
+     * Метод для получения текущего баланса аккаунта (через кэш {@link AccountCache}, при промахе - из основной БД;
+     * в режиме журнала операций - из проекции аккаунта {@link OperationLedger}).
+     *
+     * @param id Идентификатор аккаунта в БД.
+     * @return Текущий баланс аккаунта.
+     */
+    public BigDecimal findCurrentBalance(Long id) {
+        return findAccountById(id, AccountDTO.class).getBalance();
+    }
+
+    /**
+     * Метод для получения нескольких аккаунтов с блокировкой строк до конца текущей транзакции.
+     * Все изменения баланса выполняются под этой блокировкой, поэтому операции над аккаунтом
+     * из разных потоков (полосы движка, переводы) не теряют обновлений.
+     *
+     * @param ids Идентификаторы аккаунтов в БД.
+     * @return Найденные объекты {@link Account}, сгруппированные по идентификатору (в порядке возрастания).
+     */
+    public Map<Long, Account> lockAccountsByIds(Collection<Long> ids) {
+        return accountRepository.findAllByIdForUpdate(ids)
+                .stream()
+                .collect(Collectors.toMap(Account::getId, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * Метод для пополнения баланса аккаунта одним запросом к БД в рамках текущей транзакции
+     * (строка аккаунта блокируется до конца транзакции).
+     *
+     * @param id     Идентификатор аккаунта в БД.
+     * @param amount Сумма пополнения в минимальных единицах.
+     * @return Баланс после пополнения или null, если аккаунт не найден, горячий или баланс переполняется.
+     */
+    public Long depositBalance(Long id, long amount) {
+        return accountRepository.depositBalance(id, amount, Long.MAX_VALUE - amount);
+    }
+
+    /**
+     * Метод для списания с баланса аккаунта одним запросом к БД в рамках текущей транзакции
+     * (строка аккаунта блокируется до конца транзакции).
+     *
+     * @param id     Идентификатор аккаунта в БД.
+     * @param amount Сумма списания в минимальных единицах.
+     * @return Баланс после списания или null, если аккаунт не найден, горячий или средств недостаточно.
+     */
+    public Long withdrawBalance(Long id, long amount) {
+        return accountRepository.withdrawBalance(id, amount, false);
+    }
+
+    /**
+     * Метод для списания с баланса горячего аккаунта, полосы баланса которого консолидированы
+     * в текущей транзакции (см. {@link HotAccountService#consolidate(Long)}).
+     *
+     * @param id     Идентификатор аккаунта в БД.
+     * @param amount Сумма списания в минимальных единицах.
+     * @return Баланс после списания или null, если аккаунт не найден или средств недостаточно.
+     */
+    public Long withdrawConsolidatedBalance(Long id, long amount) {
+        return accountRepository.withdrawBalance(id, amount, true);
+    }
+
+    /**
+     * Метод для проверки существования аккаунта.
+     *
+     * @param id Идентификатор аккаунта в БД.
+     * @return true, если аккаунт существует.
+     */
+    public boolean existsAccountById(Long id) {
+        return shardMap.inShard(id, () -> accountRepository.existsById(id));
+    }
 
+    /**
+     * Метод для получения ссылки на аккаунт без загрузки его из БД (для связи с создаваемой операцией).
+     *
+     * @param id Идентификатор аккаунта в БД.
+     * @return Объект {@link Account} (прокси, загружаемый при первом обращении к полям, кроме id).
+     */
+    public Account getAccountReference(Long id) {
+        return accountRepository.getReferenceById(id);
     }
 
     /**
      * Метод для удаления аккаунта из БД (при удалении аккаунта удаляются связанные с ним транзакции).
+     * Аккаунт сначала помечается удаленным: строка аккаунта блокируется, и операции, начатые после пометки,
+     * аккаунт не находят. Операции удаляются запросами без загрузки в контекст персистентности: сразу
+     * (в этой транзакции) или порциями в фоне {@link AccountPurgeService}.
      *
      * @param id Идентификатор аккаунта в БД.
+     * @param purgeAsync true - удалить операции и строку аккаунта в фоне, false - в этой транзакции.
      */
-    public void deleteAccountById(Long id) {
-        Account account = accountRepository.findById(id).orElseThrow(() ->
-                new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
-        accountRepository.delete(account);
+    public void deleteAccountById(Long id, boolean purgeAsync) {
+        shardMap.runInShard(id, () -> transactionTemplate.executeWithoutResult(status -> {
+            if (accountRepository.markDeleted(id, LocalDateTime.now()) == 0)
+                throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+            if (!purgeAsync) {
+                balanceSnapshotService.deleteSnapshots(id);
+                operationRepository.deleteAllByAccountId(id);
+                accountRepository.deleteAccountRow(id);
+            }
+            accountCache.invalidateAfterCommit(id);
+            readRouting.recordWrite(id);
+            eventPublisher.publishEvent(new AccountDeletedEvent(id));
+        }));
     }
 
     /**
      * Метод для получения баланса аккаунта по указанной дате.
+     * Баланс определяется по контрольным точкам {@link BalanceSnapshotService}, а для данных,
+     * по которым контрольные точки еще не заполнены, - по последней операции до указанной даты.
+     * Полосы баланса горячего аккаунта предварительно консолидируются.
      *
      * @param id   Идентификатор аккаунта в БД.
      * @param date Дата за которую нужно получить баланс аккаунта.
@@ -143,14 +433,44 @@ public class AccountService {
      */
     public BigDecimal findBalanceAtDate(Long id, LocalDateTime date) {
 
-        Account account = accountRepository.findById(id).orElseThrow(() ->
-                new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
+        return shardMap.inShard(id, () -> {
+            hotAccountService.consolidateIfHot(id);
+            return readRouting.onReplica(id, () -> {
+                Account account = accountRepository.findById(id).orElseThrow(() ->
+                        new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
 
-        BigDecimal balanceAtDate = accountRepository.findBalanceAtDate(account.getId(), date);
-        if (balanceAtDate == null) {
-            balanceAtDate = BigDecimal.ZERO;
-        }
-        return balanceAtDate;
+                Long balanceAtDate = balanceSnapshotService.findBalanceAtDate(account.getId(), date);
+                if (balanceAtDate == null) {
+                    balanceAtDate = accountRepository.findBalanceAtDate(account.getId(), date);
+                }
+                return MoneyUtils.toDecimal(balanceAtDate == null ? 0L : balanceAtDate);
+            });
+        });
+
+    }
+
+    /**
+     * Метод для получения выписки по аккаунту за период: баланс на начало и конец периода,
+     * суммы и количество зачислений и списаний, минимальный и максимальный баланс.
+     * Полосы баланса горячего аккаунта предварительно консолидируются.
+     *
+     * @param id   Идентификатор аккаунта в БД.
+     * @param from Дата начала периода (С).
+     * @param to   Дата конца периода (По).
+     * @return Объект {@link StatementDTO}.
+     */
+    public StatementDTO getStatement(Long id, LocalDateTime from, LocalDateTime to) {
+
+        if (from.isAfter(to))
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_PERIOD);
+        return shardMap.inShard(id, () -> {
+            hotAccountService.consolidateIfHot(id);
+            return readRouting.onReplica(id, () -> {
+                if (!accountRepository.existsById(id))
+                    throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+                return balanceSnapshotService.buildStatement(id, from, to);
+            });
+        });
 
     }
 
@@ -0,0 +1,665 @@
+package ru.farpost.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.cache.AccountCache;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.repository.AccountRepository;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Класс (сервис) для переноса аккаунта на другой шард без остановки приложения.
+ * <p>
+ * Перенос выполняется одной транзакцией на целевом шарде. Сначала операции аккаунта копируются порциями
+ * по app.shards.move-batch-size в порядке (date, id) без блокировок: аккаунт в это время продолжает
+ * принимать операции. Затем строка аккаунта на исходном шарде блокируется (полосы горячего аккаунта
+ * предварительно консолидируются), досылаются операции, сохраненные за время копирования (с запасом
+ * app.shards.move-rescan-window назад от последней скопированной операции, так как операции фиксируются
+ * не строго в порядке дат), и количество операций на шардах сверяется. Вместе с операциями переносятся
+ * архив операций, контрольные точки, полосы баланса и ключи идемпотентности.
+ * <p>
+ * После фиксации транзакции целевого шарда в справочник домашнего шарда записывается новое расположение
+ * аккаунта, а исходная строка помечается удаленной - ее удаляет {@link AccountPurgeService}. Переносы одного
+ * аккаунта не выполняются одновременно (рекомендательная блокировка на домашнем шарде). Аккаунт с операциями
+ * за месяцы, подлежащие переносу в архив, но еще не перенесенными, переносится после их архивирования.
+ * Копии аккаунтов, оставшиеся на двух шардах после сбоя переноса, находит периодическая проверка
+ * {@link #removeStaleCopies()}.
+ */
+@Service
+public class AccountShardMoveService {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountShardMoveService.class);
+
+    /**
+     * Начальная позиция копирования операций (раньше любой операции).
+     */
+    private static final LocalDateTime START = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private static final String TRY_LOCK_MOVE = "SELECT pg_try_advisory_lock(?)";
+
+    private static final String UNLOCK_MOVE = "SELECT pg_advisory_unlock(?)";
+
+    private static final String SELECT_ACCOUNT =
+            "SELECT username, balance, created_at, hot_stripes FROM accounts WHERE id = ? AND deleted_at IS NULL";
+
+    /**
+     * Запрос строки аккаунта с блокировкой до конца транзакции: операции и пополнения аккаунта ожидают
+     * завершения переноса, а после него аккаунт на исходном шарде уже не находят.
+     */
+    private static final String LOCK_ACCOUNT = SELECT_ACCOUNT + " FOR UPDATE";
+
+    private static final String SELECT_OPERATIONS_PERIOD =
+            "SELECT MIN(date) AS first_date, MAX(date) AS last_date FROM operations WHERE account_id = ?";
+
+    private static final String EXISTS_OPERATIONS_BEFORE =
+            "SELECT EXISTS (SELECT 1 FROM operations WHERE account_id = ? AND date < ?)";
+
+    private static final String OPERATION_COLUMNS =
+            "id, date, account_id, amount, type, account_balance, linked_operation_id";
+
+    private static final String SELECT_OPERATIONS_CHUNK =
+            "SELECT " + OPERATION_COLUMNS + " FROM operations " +
+            "WHERE account_id = ? AND (date, id) > (?, ?) ORDER BY date, id LIMIT ?";
+
+    private static final String SELECT_OPERATIONS_SINCE =
+            "SELECT " + OPERATION_COLUMNS + " FROM operations WHERE account_id = ? AND date >= ?";
+
+    private static final String SELECT_OPERATIONS_BY_ID =
+            "SELECT " + OPERATION_COLUMNS + " FROM operations WHERE account_id = ? AND id = ANY (?)";
+
+    /**
+     * Запрос вставки операции на целевой шард: повторно скопированная операция обновляет баланс после операции
+     * (проставленный консолидацией полос после первого копирования).
+     */
+    private static final String INSERT_OPERATION =
+            "INSERT INTO operations (" + OPERATION_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (id, date) DO UPDATE SET account_balance = EXCLUDED.account_balance";
+
+    private static final String SELECT_UNCONSOLIDATED_IDS =
+            "SELECT id FROM operations WHERE account_id = ? AND account_balance IS NULL";
+
+    private static final String COUNT_OPERATIONS = "SELECT COUNT(*) FROM operations WHERE account_id = ?";
+
+    private static final String SELECT_ARCHIVE =
+            "SELECT account_id, first_date, first_id, last_date, last_id, operations_count, closing_balance, data " +
+            "FROM operations_archive WHERE account_id = ?";
+
+    private static final String INSERT_ARCHIVE =
+            "INSERT INTO operations_archive (account_id, first_date, first_id, last_date, last_id, operations_count, " +
+            "closing_balance, data) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SNAPSHOT_COLUMNS =
+            "account_id, day, closing_balance, last_operation_id, last_operation_date, deposits_total, " +
+            "deposits_count, withdrawals_total, withdrawals_count, min_balance, max_balance";
+
+    private static final String SELECT_SNAPSHOTS =
+            "SELECT " + SNAPSHOT_COLUMNS + " FROM balance_snapshots WHERE account_id = ?";
+
+    private static final String INSERT_SNAPSHOT =
+            "INSERT INTO balance_snapshots (" + SNAPSHOT_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_IDEMPOTENCY_KEYS =
+            "SELECT k.key, k.operation_id, k.created_at FROM idempotency_keys k " +
+            "JOIN operations o ON o.id = k.operation_id WHERE o.account_id = ?";
+
+    private static final String INSERT_IDEMPOTENCY_KEY =
+            "INSERT INTO idempotency_keys (key, operation_id, created_at) VALUES (?, ?, ?) ON CONFLICT (key) DO NOTHING";
+
+    /**
+     * Запросы удаления данных аккаунта, оставшихся на целевом шарде от прерванного или прошлого переноса
+     * (архив и полосы удаляются каскадно со строкой аккаунта).
+     */
+    private static final List<String> DELETE_LEFTOVERS = List.of(
+            "DELETE FROM idempotency_keys k USING operations o WHERE o.id = k.operation_id AND o.account_id = ?",
+            "DELETE FROM operations WHERE account_id = ?",
+            "DELETE FROM balance_snapshots WHERE account_id = ?",
+            "DELETE FROM accounts WHERE id = ?");
+
+    private static final String INSERT_ACCOUNT =
+            "INSERT INTO accounts (id, username, balance, created_at, hot_stripes) VALUES (?, ?, ?, ?, 0)";
+
+    private static final String UPDATE_ACCOUNT =
+            "UPDATE accounts SET username = ?, balance = ?, hot_stripes = ? WHERE id = ?";
+
+    private static final String INSERT_STRIPES =
+            "INSERT INTO account_balance_stripes (account_id, stripe) SELECT ?, generate_series(0, ? - 1)";
+
+    private static final String DELETE_STRIPES = "DELETE FROM account_balance_stripes WHERE account_id = ?";
+
+    private static final String UPSERT_RELOCATION =
+            "INSERT INTO account_relocations (account_id, shard) VALUES (?, ?) " +
+            "ON CONFLICT (account_id) DO UPDATE SET shard = EXCLUDED.shard";
+
+    private static final String DELETE_RELOCATION = "DELETE FROM account_relocations WHERE account_id = ?";
+
+    /**
+     * Запрос неудаленных аккаунтов шарда, которые могут храниться на другом шарде: аккаунты с чужим домашним
+     * шардом (перенесенные на этот шард) и аккаунты этого шарда, перенесенные по справочнику на другой шард.
+     */
+    private static final String SELECT_MOVED_ACCOUNTS =
+            "SELECT id FROM accounts WHERE deleted_at IS NULL AND (id < ? OR id >= ?) " +
+            "UNION ALL " +
+            "SELECT r.account_id FROM account_relocations r JOIN accounts a ON a.id = r.account_id " +
+            "WHERE a.deleted_at IS NULL AND r.shard <> ?";
+
+    private static final String EXISTS_ACCOUNT =
+            "SELECT EXISTS (SELECT 1 FROM accounts WHERE id = ? AND deleted_at IS NULL)";
+
+    /**
+     * Запрос сводки операций аккаунта на шарде для сверки копий: количество операций (вместе с архивом)
+     * и дата и идентификатор последней операции.
+     */
+    private static final String SELECT_OPERATIONS_SUMMARY =
+            "SELECT c.operations_count, l.date, l.id FROM (SELECT " +
+            "(SELECT COUNT(*) FROM operations WHERE account_id = ?) + " +
+            "(SELECT COALESCE(SUM(operations_count), 0) FROM operations_archive WHERE account_id = ?) " +
+            "AS operations_count) c " +
+            "LEFT JOIN (SELECT date, id FROM (" +
+            "SELECT date, id FROM operations WHERE account_id = ? " +
+            "UNION ALL SELECT last_date, last_id FROM operations_archive WHERE account_id = ?) o " +
+            "ORDER BY date DESC, id DESC LIMIT 1) l ON true";
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link AccountRepository}
+     */
+    private final AccountRepository accountRepository;
+
+    /**
+     * Объект класса {@link AccountService}
+     */
+    private final AccountService accountService;
+
+    /**
+     * Объект класса {@link HotAccountService}
+     */
+    private final HotAccountService hotAccountService;
+
+    /**
+     * Объект класса {@link OperationPartitionService}
+     */
+    private final OperationPartitionService operationPartitionService;
+
+    /**
+     * Объект класса {@link OperationArchiveService}
+     */
+    private final OperationArchiveService operationArchiveService;
+
+    /**
+     * Объект класса {@link AccountCache}
+     */
+    private final AccountCache accountCache;
+
+    /**
+     * Количество операций, копируемых одним запросом.
+     */
+    private final int batchSize;
+
+    /**
+     * Запас назад от последней скопированной операции при досылке операций под блокировкой аккаунта.
+     */
+    private final Duration rescanWindow;
+
+    /**
+     * Конструктор для создания объектов сервиса с использованием "@Autowired".
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param transactionTemplate Ссылка на объект {@link TransactionTemplate}.
+     * @param accountRepository Ссылка на объект {@link AccountRepository}.
+     * @param accountService Ссылка на объект {@link AccountService}.
+     * @param hotAccountService Ссылка на объект {@link HotAccountService}.
+     * @param operationPartitionService Ссылка на объект {@link OperationPartitionService}.
+     * @param operationArchiveService Ссылка на объект {@link OperationArchiveService}.
+     * @param accountCache Ссылка на объект {@link AccountCache}.
+     * @param batchSize Количество операций, копируемых одним запросом.
+     * @param rescanWindow Запас назад от последней скопированной операции при досылке операций.
+     */
+    @Autowired
+    public AccountShardMoveService(ShardMap shardMap,
+                                   JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate,
+                                   AccountRepository accountRepository,
+                                   AccountService accountService,
+                                   HotAccountService hotAccountService,
+                                   OperationPartitionService operationPartitionService,
+                                   OperationArchiveService operationArchiveService,
+                                   AccountCache accountCache,
+                                   @Value("${app.shards.move-batch-size:10000}") int batchSize,
+                                   @Value("${app.shards.move-rescan-window:1m}") Duration rescanWindow) {
+        this.shardMap = shardMap;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.accountRepository = accountRepository;
+        this.accountService = accountService;
+        this.hotAccountService = hotAccountService;
+        this.operationPartitionService = operationPartitionService;
+        this.operationArchiveService = operationArchiveService;
+        this.accountCache = accountCache;
+        this.batchSize = batchSize;
+        this.rescanWindow = rescanWindow;
+    }
+
+    /**
+     * Метод для определения шарда, на котором хранится аккаунт.
+     * @param accountId Идентификатор аккаунта.
+     * @return Номер шарда.
+     */
+    public int findShard(Long accountId) {
+        if (!accountService.existsAccountById(accountId))
+            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+        return shardMap.shardOf(accountId);
+    }
+
+    /**
+     * Метод для переноса аккаунта на другой шард.
+     * @param accountId Идентификатор аккаунта.
+     * @param shard Номер целевого шарда.
+     * @return Номер шарда, на котором аккаунт хранился до переноса.
+     */
+    public int moveAccount(Long accountId, int shard) {
+
+        if (!shardMap.isEnabled())
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.SHARDS_UNAVAILABLE);
+        if (shard < 0 || shard >= shardMap.count())
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_SHARD);
+        shardMap.invalidate(accountId);
+        shardMap.shardOf(accountId);
+
+        int home = ShardMap.homeShard(accountId);
+        return withMoveLock(accountId, () -> {
+            shardMap.invalidate(accountId);
+            int source = shardMap.shardOf(accountId);
+            if (source != shard)
+                move(accountId, source, shard, home);
+            return source;
+        }).orElseThrow(() -> new ErrorResponse(HttpStatus.CONFLICT, ExceptionsMessage.ACCOUNT_MOVE_CONFLICT));
+
+    }
+
+    /**
+     * Метод для периодической проверки (первая - при запуске приложения) копий аккаунтов, оставшихся
+     * неудаленными на двух шардах: после сбоя переноса между фиксацией целевого шарда и пометкой удаленной
+     * строки на исходном шарде. Действительной считается копия на шарде из справочника домашнего шарда,
+     * остальные копии помечаются удаленными (их данные удаляет {@link AccountPurgeService}).
+     */
+    @Scheduled(fixedDelayString = "${app.shards.check-interval:1m}")
+    public void removeStaleCopies() {
+
+        if (!shardMap.isEnabled())
+            return;
+        for (int shard = 0; shard < shardMap.count(); shard++) {
+            int copyShard = shard;
+            long first = (long) shard << ShardMap.SHARD_SHIFT;
+            long next = (long) (shard + 1) << ShardMap.SHARD_SHIFT;
+            List<Long> accountIds = shardMap.onShard(shard, () ->
+                    jdbcTemplate.queryForList(SELECT_MOVED_ACCOUNTS, Long.class, first, next, copyShard));
+            for (Long accountId : accountIds) {
+                try {
+                    shardMap.invalidate(accountId);
+                    if (shardMap.shardOf(accountId) != copyShard)
+                        withMoveLock(accountId, () -> removeStaleCopy(accountId, copyShard));
+                } catch (DataAccessException | ErrorResponse e) {
+                    log.warn("Не удалось проверить копию аккаунта {} на шарде {}: {}",
+                            accountId, copyShard, e.getMessage());
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Метод для пометки удаленной копии аккаунта, которая по справочнику домашнего шарда хранится на другом шарде
+     * (под блокировкой переноса аккаунта: копия переносимого аккаунта на целевом шарде не удаляется).
+     * Копия не удаляется, если на шарде из справочника аккаунта нет или количество либо последняя операция
+     * копий различаются (в копию могли быть записаны операции, которых нет на шарде из справочника).
+     * @param accountId Идентификатор аккаунта.
+     * @param shard Номер шарда копии.
+     * @return true, если копия помечена удаленной.
+     */
+    private boolean removeStaleCopy(Long accountId, int shard) {
+
+        shardMap.invalidate(accountId);
+        int located = shardMap.shardOf(accountId);
+        if (located == shard)
+            return false;
+        if (!Boolean.TRUE.equals(new JdbcTemplate(shardMap.dataSource(located))
+                .queryForObject(EXISTS_ACCOUNT, Boolean.class, accountId))) {
+            log.error("Аккаунт {} по справочнику хранится на шарде {}, но найден только на шарде {}",
+                    accountId, located, shard);
+            return false;
+        }
+        OperationsSummary current = operationsSummary(new JdbcTemplate(shardMap.dataSource(located)), accountId);
+        OperationsSummary stale = operationsSummary(new JdbcTemplate(shardMap.dataSource(shard)), accountId);
+        if (!current.equals(stale)) {
+            log.error("Копия аккаунта {} на шарде {} не удалена: операции расходятся с шардом {} ({} и {})",
+                    accountId, shard, located, stale, current);
+            return false;
+        }
+        boolean removed = shardMap.onShard(shard, () -> Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            jdbcTemplate.update(DELETE_STRIPES, accountId);
+            accountCache.invalidateAfterCommit(accountId);
+            return accountRepository.markDeleted(accountId, LocalDateTime.now()) > 0;
+        })));
+        if (removed)
+            log.warn("Копия аккаунта {} на шарде {} помечена удаленной: аккаунт хранится на шарде {}",
+                    accountId, shard, located);
+        return removed;
+
+    }
+
+    /**
+     * Метод для получения сводки операций аккаунта на шарде.
+     * @param jdbc Объект {@link JdbcTemplate} шарда.
+     * @param accountId Идентификатор аккаунта.
+     * @return Сводка операций аккаунта.
+     */
+    private static OperationsSummary operationsSummary(JdbcTemplate jdbc, Long accountId) {
+        return jdbc.queryForObject(SELECT_OPERATIONS_SUMMARY, (resultSet, rowNum) -> new OperationsSummary(
+                        resultSet.getLong(1),
+                        resultSet.getObject(2, LocalDateTime.class),
+                        resultSet.getObject(3, Long.class)),
+                accountId, accountId, accountId, accountId);
+    }
+
+    /**
+     * Метод для выполнения действия под блокировкой переноса аккаунта (рекомендательная блокировка
+     * на домашнем шарде аккаунта).
+     * @param accountId Идентификатор аккаунта.
+     * @param action Действие.
+     * @return Результат действия или пустой {@link Optional}, если аккаунт уже переносится.
+     */
+    private <T> Optional<T> withMoveLock(Long accountId, Supplier<T> action) {
+        Connection lockConnection = connection(ShardMap.homeShard(accountId));
+        try {
+            JdbcTemplate lock = new JdbcTemplate(new SingleConnectionDataSource(lockConnection, true));
+            if (!Boolean.TRUE.equals(lock.queryForObject(TRY_LOCK_MOVE, Boolean.class, accountId)))
+                return Optional.empty();
+            try {
+                return Optional.of(action.get());
+            } finally {
+                lock.queryForObject(UNLOCK_MOVE, Boolean.class, accountId);
+            }
+        } finally {
+            close(lockConnection);
+        }
+    }
+
+    /**
+     * Метод для переноса аккаунта с исходного шарда на целевой (под блокировкой переноса аккаунта).
+     * @param accountId Идентификатор аккаунта.
+     * @param source Номер исходного шарда.
+     * @param target Номер целевого шарда.
+     * @param home Номер домашнего шарда аккаунта (шарда со справочником его расположения).
+     */
+    private void move(Long accountId, int source, int target, int home) {
+
+        long startedAt = System.nanoTime();
+        YearMonth horizon = operationArchiveService.archiveHorizon();
+        Map<String, Object> account = shardMap.onShard(source, () -> {
+            Map<String, Object> row = findAccount(SELECT_ACCOUNT, accountId);
+            checkArchived(accountId, horizon);
+            return row;
+        });
+        Map<String, Object> period = shardMap.onShard(source, () ->
+                jdbcTemplate.queryForMap(SELECT_OPERATIONS_PERIOD, accountId));
+        if (period.get("first_date") != null) {
+            shardMap.runOnShard(target, () -> operationPartitionService.createPartitions(
+                    YearMonth.from(((Timestamp) period.get("first_date")).toLocalDateTime()),
+                    YearMonth.from(((Timestamp) period.get("last_date")).toLocalDateTime())));
+        }
+
+        Connection connection = connection(target);
+        boolean[] committed = {false};
+        try {
+            setAutoCommit(connection, false);
+            JdbcTemplate targetJdbc = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            for (String delete : DELETE_LEFTOVERS) {
+                targetJdbc.update(delete, accountId);
+            }
+            targetJdbc.update(INSERT_ACCOUNT, accountId, account.get("username"), account.get("balance"),
+                    account.get("created_at"));
+
+            try {
+                long operations = shardMap.onShard(source, () -> {
+                    LocalDateTime copiedUntil = copyOperations(accountId, targetJdbc);
+                    return transactionTemplate.execute(status -> {
+                        long copied = finishCopy(accountId, targetJdbc, copiedUntil, horizon);
+                        if (home == target)
+                            targetJdbc.update(DELETE_RELOCATION, accountId);
+                        commit(connection);
+                        committed[0] = true;
+
+                        if (home == source)
+                            jdbcTemplate.update(UPSERT_RELOCATION, accountId, target);
+                        else if (home != target)
+                            new JdbcTemplate(shardMap.dataSource(home)).update(UPSERT_RELOCATION, accountId, target);
+                        jdbcTemplate.update(DELETE_STRIPES, accountId);
+                        accountRepository.markDeleted(accountId, LocalDateTime.now());
+                        return copied;
+                    });
+                });
+                log.info("Аккаунт {} перенесен с шарда {} на шард {}: операций {}, за {} мс",
+                        accountId, source, target, operations, (System.nanoTime() - startedAt) / 1_000_000);
+            } catch (RuntimeException e) {
+                if (committed[0])
+                    log.error("Аккаунт {} скопирован на шард {}, но перенос не завершен на шарде {}: " +
+                            "повторите перенос на шард {}", accountId, target, source, target, e);
+                throw e;
+            }
+        } finally {
+            if (!committed[0])
+                rollback(connection);
+            close(connection);
+            shardMap.invalidate(accountId);
+            accountCache.invalidateAfterCommit(accountId);
+        }
+
+    }
+
+    /**
+     * Метод для копирования операций аккаунта на целевой шард порциями без блокировок
+     * (в области исходного шарда вне транзакции).
+     * @param accountId Идентификатор аккаунта.
+     * @param targetJdbc Запросы к транзакции целевого шарда.
+     * @return Дата последней скопированной операции.
+     */
+    private LocalDateTime copyOperations(Long accountId, JdbcTemplate targetJdbc) {
+        LocalDateTime lastDate = START;
+        long lastId = 0;
+        List<Object[]> rows;
+        do {
+            rows = jdbcTemplate.query(SELECT_OPERATIONS_CHUNK, AccountShardMoveService::row,
+                    accountId, lastDate, lastId, batchSize);
+            if (rows.isEmpty())
+                break;
+            targetJdbc.batchUpdate(INSERT_OPERATION, rows);
+            Object[] last = rows.getLast();
+            lastId = ((Number) last[0]).longValue();
+            lastDate = ((Timestamp) last[1]).toLocalDateTime();
+        } while (rows.size() == batchSize);
+        return lastDate;
+    }
+
+    /**
+     * Метод для завершения копирования под блокировкой строки аккаунта на исходном шарде (в транзакции исходного
+     * шарда): досылка операций, сверка количества операций и копирование остальных данных аккаунта.
+     * @param accountId Идентификатор аккаунта.
+     * @param targetJdbc Запросы к транзакции целевого шарда.
+     * @param copiedUntil Дата последней операции, скопированной без блокировок.
+     * @param horizon Первый месяц, операции которого не переносятся в архив (null - архив выключен).
+     * @return Количество операций аккаунта.
+     */
+    private long finishCopy(Long accountId, JdbcTemplate targetJdbc, LocalDateTime copiedUntil, YearMonth horizon) {
+
+        hotAccountService.consolidate(accountId);
+        Map<String, Object> account = findAccount(LOCK_ACCOUNT, accountId);
+        checkArchived(accountId, horizon);
+
+        copyRows(targetJdbc, SELECT_OPERATIONS_SINCE, INSERT_OPERATION, accountId, copiedUntil.minus(rescanWindow));
+        List<Long> unconsolidated = targetJdbc.queryForList(SELECT_UNCONSOLIDATED_IDS, Long.class, accountId);
+        if (!unconsolidated.isEmpty())
+            copyRows(targetJdbc, SELECT_OPERATIONS_BY_ID, INSERT_OPERATION, accountId,
+                    unconsolidated.toArray(Long[]::new));
+
+        long operations = jdbcTemplate.queryForObject(COUNT_OPERATIONS, Long.class, accountId);
+        long copied = targetJdbc.queryForObject(COUNT_OPERATIONS, Long.class, accountId);
+        if (operations != copied) {
+            log.warn("Перенос аккаунта {} отменен: на исходном шарде операций {}, скопировано {}",
+                    accountId, operations, copied);
+            throw new ErrorResponse(HttpStatus.CONFLICT, ExceptionsMessage.ACCOUNT_MOVE_CONFLICT);
+        }
+
+        copyRows(targetJdbc, SELECT_ARCHIVE, INSERT_ARCHIVE, accountId);
+        copyRows(targetJdbc, SELECT_SNAPSHOTS, INSERT_SNAPSHOT, accountId);
+        copyRows(targetJdbc, SELECT_IDEMPOTENCY_KEYS, INSERT_IDEMPOTENCY_KEY, accountId);
+        int stripes = ((Number) account.get("hot_stripes")).intValue();
+        targetJdbc.update(UPDATE_ACCOUNT, account.get("username"), account.get("balance"), stripes, accountId);
+        if (stripes > 0)
+            targetJdbc.update(INSERT_STRIPES, accountId, stripes);
+        return operations;
+
+    }
+
+    /**
+     * Метод для копирования строк запроса к шарду текущей области в транзакцию целевого шарда
+     * порциями по app.shards.move-batch-size строк.
+     * @param targetJdbc Запросы к транзакции целевого шарда.
+     * @param query Запрос строк.
+     * @param insert Запрос вставки строки (параметры - колонки запроса строк по порядку).
+     * @param args Параметры запроса строк.
+     */
+    private void copyRows(JdbcTemplate targetJdbc, String query, String insert, Object... args) {
+        List<Object[]> rows = new ArrayList<>();
+        jdbcTemplate.query(query, resultSet -> {
+            rows.add(row(resultSet, rows.size()));
+            if (rows.size() == batchSize) {
+                targetJdbc.batchUpdate(insert, rows);
+                rows.clear();
+            }
+        }, args);
+        if (!rows.isEmpty())
+            targetJdbc.batchUpdate(insert, rows);
+    }
+
+    /**
+     * Метод для получения строки аккаунта на шарде текущей области.
+     * @param query Запрос строки аккаунта.
+     * @param accountId Идентификатор аккаунта.
+     * @return Колонки строки аккаунта.
+     */
+    private Map<String, Object> findAccount(String query, Long accountId) {
+        List<Map<String, Object>> accounts = jdbcTemplate.queryForList(query, accountId);
+        if (accounts.isEmpty())
+            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+        return accounts.getFirst();
+    }
+
+    /**
+     * Метод для проверки, что у аккаунта нет операций за месяцы, подлежащие переносу в архив
+     * (архивирование секции на исходном шарде во время переноса изменило бы уже скопированные операции).
+     * @param accountId Идентификатор аккаунта.
+     * @param horizon Первый месяц, операции которого не переносятся в архив (null - архив выключен).
+     */
+    private void checkArchived(Long accountId, YearMonth horizon) {
+        if (horizon != null && Boolean.TRUE.equals(jdbcTemplate.queryForObject(EXISTS_OPERATIONS_BEFORE,
+                Boolean.class, accountId, horizon.atDay(1).atStartOfDay())))
+            throw new ErrorResponse(HttpStatus.CONFLICT, ExceptionsMessage.ACCOUNT_MOVE_CONFLICT);
+    }
+
+    private static Object[] row(ResultSet resultSet, int rowNum) throws SQLException {
+        Object[] row = new Object[resultSet.getMetaData().getColumnCount()];
+        for (int column = 0; column < row.length; column++) {
+            row[column] = resultSet.getObject(column + 1);
+        }
+        return row;
+    }
+
+    private Connection connection(int shard) {
+        try {
+            return shardMap.dataSource(shard).getConnection();
+        } catch (SQLException e) {
+            throw new CannotGetJdbcConnectionException("Не удалось получить соединение шарда " + shard, e);
+        }
+    }
+
+    private static void setAutoCommit(Connection connection, boolean autoCommit) {
+        try {
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            throw new TransactionSystemException("Не удалось начать транзакцию переноса аккаунта", e);
+        }
+    }
+
+    private static void commit(Connection connection) {
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new TransactionSystemException("Не удалось зафиксировать перенос аккаунта", e);
+        }
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.warn("Не удалось откатить перенос аккаунта: {}", e.getMessage());
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Не удалось закрыть соединение шарда: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Сводка операций копии аккаунта.
+     * @param count Количество операций (вместе с архивом).
+     * @param lastDate Дата последней операции (null - операций нет).
+     * @param lastId Идентификатор последней операции (null - операций нет).
+     */
+    private record OperationsSummary(long count, LocalDateTime lastDate, Long lastId) {
+    }
+
+}
@@ -0,0 +1,555 @@
+package ru.farpost.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.farpost.archive.OperationArchive;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.dto.StatementDTO;
+import ru.farpost.event.OperationsConsolidatedEvent;
+import ru.farpost.event.OperationsRecordedEvent;
+import ru.farpost.model.BalanceSnapshot;
+import ru.farpost.model.Operation;
+import ru.farpost.repository.AccountRepository;
+import ru.farpost.repository.BalanceSnapshotRepository;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс (сервис) для ведения контрольных точек баланса {@link BalanceSnapshot} - баланса аккаунта на конец каждого дня.
+ * Контрольные точки позволяют получать баланс на дату, читая не более одной контрольной точки и операции одного дня.
+ */
+@Service
+public class BalanceSnapshotService {
+
+    /**
+     * Логгер сервиса.
+     */
+    private static final Logger log = LoggerFactory.getLogger(BalanceSnapshotService.class);
+
+    /**
+     * Условие "операция записи новее последней операции контрольной точки".
+     */
+    private static final String NEWER_OPERATION =
+            "(balance_snapshots.last_operation_date, balance_snapshots.last_operation_id) " +
+            "<= (EXCLUDED.last_operation_date, EXCLUDED.last_operation_id)";
+
+    /**
+     * Запрос добавления (обновления) контрольной точки с прибавлением дневных итогов.
+     * Более ранняя операция не перезаписывает баланс на конец дня, записанный более поздней.
+     */
+    private static final String UPSERT_SNAPSHOT =
+            "INSERT INTO balance_snapshots (account_id, day, closing_balance, last_operation_id, last_operation_date, " +
+            "deposits_total, deposits_count, withdrawals_total, withdrawals_count, min_balance, max_balance) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (account_id, day) DO UPDATE SET " +
+            "closing_balance = CASE WHEN " + NEWER_OPERATION +
+            " THEN EXCLUDED.closing_balance ELSE balance_snapshots.closing_balance END, " +
+            "last_operation_id = CASE WHEN " + NEWER_OPERATION +
+            " THEN EXCLUDED.last_operation_id ELSE balance_snapshots.last_operation_id END, " +
+            "last_operation_date = CASE WHEN " + NEWER_OPERATION +
+            " THEN EXCLUDED.last_operation_date ELSE balance_snapshots.last_operation_date END, " +
+            "deposits_total = balance_snapshots.deposits_total + EXCLUDED.deposits_total, " +
+            "deposits_count = balance_snapshots.deposits_count + EXCLUDED.deposits_count, " +
+            "withdrawals_total = balance_snapshots.withdrawals_total + EXCLUDED.withdrawals_total, " +
+            "withdrawals_count = balance_snapshots.withdrawals_count + EXCLUDED.withdrawals_count, " +
+            "min_balance = LEAST(balance_snapshots.min_balance, EXCLUDED.min_balance), " +
+            "max_balance = GREATEST(balance_snapshots.max_balance, EXCLUDED.max_balance)";
+
+    /**
+     * Подзапрос операций с изменением баланса (списание - отрицательное, см. {@link OperationTypes#signedAmount(long)}).
+     */
+    private static final String SIGNED_OPERATIONS =
+            "SELECT id, account_id, date, account_balance, CASE WHEN type = 2 THEN -amount ELSE amount END AS signed_amount " +
+            "FROM operations ";
+
+    /**
+     * Выражения дневных итогов по операциям подзапроса {@link #SIGNED_OPERATIONS}.
+     */
+    private static final String TOTALS =
+            "COALESCE(SUM(o.signed_amount) FILTER (WHERE o.signed_amount > 0), 0), " +
+            "COUNT(*) FILTER (WHERE o.signed_amount > 0), " +
+            "COALESCE(-SUM(o.signed_amount) FILTER (WHERE o.signed_amount < 0), 0), " +
+            "COUNT(*) FILTER (WHERE o.signed_amount < 0), " +
+            "MIN(o.account_balance), " +
+            "MAX(o.account_balance)";
+
+    /**
+     * Запрос заполнения контрольных точек по уже существующим операциям для диапазона аккаунтов.
+     * Дневные итоги пересчитываются полностью.
+     */
+    private static final String BACKFILL_SNAPSHOTS =
+            "INSERT INTO balance_snapshots (account_id, day, closing_balance, last_operation_id, last_operation_date, " +
+            "deposits_total, deposits_count, withdrawals_total, withdrawals_count, min_balance, max_balance) " +
+            "SELECT o.account_id, o.date::date, " +
+            "(array_agg(o.account_balance ORDER BY o.date DESC, o.id DESC))[1], " +
+            "(array_agg(o.id ORDER BY o.date DESC, o.id DESC))[1], " +
+            "MAX(o.date), " + TOTALS + " " +
+            "FROM (" + SIGNED_OPERATIONS + "WHERE account_id BETWEEN ? AND ? AND account_balance IS NOT NULL) o " +
+            "GROUP BY o.account_id, o.date::date " +
+            "ON CONFLICT (account_id, day) DO UPDATE SET " +
+            "closing_balance = EXCLUDED.closing_balance, " +
+            "last_operation_id = EXCLUDED.last_operation_id, " +
+            "last_operation_date = EXCLUDED.last_operation_date, " +
+            "deposits_total = EXCLUDED.deposits_total, " +
+            "deposits_count = EXCLUDED.deposits_count, " +
+            "withdrawals_total = EXCLUDED.withdrawals_total, " +
+            "withdrawals_count = EXCLUDED.withdrawals_count, " +
+            "min_balance = EXCLUDED.min_balance, " +
+            "max_balance = EXCLUDED.max_balance " +
+            "WHERE " + NEWER_OPERATION;
+
+    /**
+     * Запрос добавления недостающих контрольных точек аккаунта по операциям дней [С, По) перед их переносом в архив.
+     * Существующие контрольные точки (ведущиеся при записи операций) не изменяются.
+     */
+    private static final String CHECKPOINT_SNAPSHOTS =
+            "INSERT INTO balance_snapshots (account_id, day, closing_balance, last_operation_id, last_operation_date, " +
+            "deposits_total, deposits_count, withdrawals_total, withdrawals_count, min_balance, max_balance) " +
+            "SELECT o.account_id, o.date::date, " +
+            "(array_agg(o.account_balance ORDER BY o.date DESC, o.id DESC))[1], " +
+            "(array_agg(o.id ORDER BY o.date DESC, o.id DESC))[1], " +
+            "MAX(o.date), " + TOTALS + " " +
+            "FROM (" + SIGNED_OPERATIONS + "WHERE account_id = ? AND date >= ? AND date < ? AND account_balance IS NOT NULL) o " +
+            "GROUP BY o.account_id, o.date::date " +
+            "ON CONFLICT (account_id, day) DO NOTHING";
+
+    /**
+     * Запрос итогов за полные дни периода по контрольным точкам.
+     */
+    private static final String SELECT_DAYS_TOTALS =
+            "SELECT COALESCE(SUM(deposits_total), 0), COALESCE(SUM(deposits_count), 0), " +
+            "COALESCE(SUM(withdrawals_total), 0), COALESCE(SUM(withdrawals_count), 0), " +
+            "MIN(min_balance), MAX(max_balance) " +
+            "FROM balance_snapshots " +
+            "WHERE account_id = ? AND day >= ? AND day <= ?";
+
+    /**
+     * Запрос итогов по операциям неполных дней в начале [С, По) и в конце [С, По] периода.
+     */
+    private static final String SELECT_EDGE_TOTALS =
+            "SELECT " + TOTALS + " FROM (" +
+            SIGNED_OPERATIONS + "WHERE account_id = ? AND date >= ? AND date < ? " +
+            "UNION ALL " +
+            SIGNED_OPERATIONS + "WHERE account_id = ? AND date >= ? AND date <= ?) o";
+
+    /**
+     * Объект класса {@link BalanceSnapshotRepository}
+     */
+    private final BalanceSnapshotRepository balanceSnapshotRepository;
+
+    /**
+     * Объект класса {@link AccountRepository}
+     */
+    private final AccountRepository accountRepository;
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link OperationArchive}
+     */
+    private final OperationArchive operationArchive;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Признак заполнения контрольных точек по существующим операциям при запуске приложения.
+     */
+    private final boolean backfillOnStartup;
+
+    /**
+     * Количество аккаунтов, обрабатываемых одним запросом заполнения.
+     */
+    private final int backfillChunkSize;
+
+    /**
+     * Конструктор для создания объектов {@link BalanceSnapshotRepository}, {@link AccountRepository},
+     * {@link JdbcTemplate}, {@link OperationArchive} и {@link ShardMap} с использованием "@Autowired".
+     * @param balanceSnapshotRepository Ссылка на объект {@link BalanceSnapshotRepository}.
+     * @param accountRepository Ссылка на объект {@link AccountRepository}.
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param operationArchive Ссылка на объект {@link OperationArchive}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param backfillOnStartup Признак заполнения контрольных точек при запуске приложения.
+     * @param backfillChunkSize Количество аккаунтов, обрабатываемых одним запросом заполнения.
+     */
+    @Autowired
+    public BalanceSnapshotService(BalanceSnapshotRepository balanceSnapshotRepository,
+                                  AccountRepository accountRepository,
+                                  JdbcTemplate jdbcTemplate,
+                                  OperationArchive operationArchive,
+                                  ShardMap shardMap,
+                                  @Value("${app.snapshots.backfill-on-startup:false}") boolean backfillOnStartup,
+                                  @Value("${app.snapshots.backfill-chunk-size:1000}") int backfillChunkSize) {
+        this.balanceSnapshotRepository = balanceSnapshotRepository;
+        this.accountRepository = accountRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.operationArchive = operationArchive;
+        this.shardMap = shardMap;
+        this.backfillOnStartup = backfillOnStartup;
+        this.backfillChunkSize = backfillChunkSize;
+    }
+
+    /**
+     * Метод для обновления контрольных точек по сохраненным операциям.
+     * Выполняется в транзакции записи операций, для каждой пары (аккаунт, день) пишется только последняя операция.
+     * Неконсолидированные пополнения горячих аккаунтов учитываются при консолидации.
+     * @param event Событие {@link OperationsRecordedEvent}.
+     */
+    @EventListener
+    public void onOperationsRecorded(OperationsRecordedEvent event) {
+        updateSnapshots(event.operations());
+    }
+
+    /**
+     * Метод для обновления контрольных точек по консолидированным пополнениям горячего аккаунта.
+     * Выполняется в транзакции консолидации.
+     * @param event Событие {@link OperationsConsolidatedEvent}.
+     */
+    @EventListener
+    public void onOperationsConsolidated(OperationsConsolidatedEvent event) {
+        updateSnapshots(event.operations());
+    }
+
+    /**
+     * Метод для добавления (обновления) контрольных точек по операциям с определенным балансом после операции.
+     * @param operations Операции в порядке их осуществления.
+     */
+    private void updateSnapshots(List<Operation> operations) {
+
+        Map<BalanceSnapshot.Key, DayRollup> rollups = new LinkedHashMap<>();
+        for (Operation operation : operations) {
+            if (operation.getAccountBalance() == null)
+                continue;
+            rollups.computeIfAbsent(
+                    new BalanceSnapshot.Key(operation.getAccount().getId(), operation.getDate().toLocalDate()),
+                    key -> new DayRollup()).add(operation);
+        }
+
+        List<Object[]> rows = rollups.entrySet().stream()
+                .map(entry -> {
+                    DayRollup rollup = entry.getValue();
+                    return new Object[]{
+                            entry.getKey().getAccountId(),
+                            Date.valueOf(entry.getKey().getDay()),
+                            rollup.last.getAccountBalance(),
+                            rollup.last.getId(),
+                            Timestamp.valueOf(rollup.last.getDate()),
+                            rollup.depositsTotal,
+                            rollup.depositsCount,
+                            rollup.withdrawalsTotal,
+                            rollup.withdrawalsCount,
+                            rollup.minBalance,
+                            rollup.maxBalance
+                    };
+                })
+                .toList();
+        if (!rows.isEmpty())
+            jdbcTemplate.batchUpdate(UPSERT_SNAPSHOT, rows);
+
+    }
+
+    /**
+     * Метод для получения баланса аккаунта на указанную дату по контрольным точкам.
+     * Сначала ищется последняя операция дня до указанного момента (в таблице operations, затем в архиве),
+     * затем - контрольная точка предыдущего дня.
+     * @param accountId Идентификатор аккаунта.
+     * @param date Дата, на которую нужно получить баланс.
+     * @return Баланс аккаунта (в минимальных единицах) или null, если ни операции, ни контрольной точки не найдено.
+     */
+    public Long findBalanceAtDate(Long accountId, LocalDateTime date) {
+
+        LocalDateTime dayStart = date.toLocalDate().atStartOfDay();
+        Long balance = accountRepository.findBalanceWithinPeriod(accountId, dayStart, date);
+        if (balance == null) {
+            balance = lastArchivedBalance(operationArchive.findOperations(accountId, dayStart, date));
+        }
+        if (balance == null) {
+            balance = balanceSnapshotRepository.findClosingBalanceBefore(accountId, date.toLocalDate());
+        }
+        return balance;
+
+    }
+
+    /**
+     * Метод для получения баланса аккаунта непосредственно перед указанным моментом (без операций этого момента).
+     * @param accountId Идентификатор аккаунта.
+     * @param date Момент, баланс перед которым нужно получить.
+     * @return Баланс аккаунта (в минимальных единицах), 0 - если операций до указанного момента не было.
+     */
+    public long findBalanceBefore(Long accountId, LocalDateTime date) {
+
+        LocalDateTime dayStart = date.toLocalDate().atStartOfDay();
+        Long balance = accountRepository.findBalanceBefore(accountId, dayStart, date);
+        if (balance == null) {
+            balance = lastArchivedBalance(operationArchive.findOperations(accountId, dayStart, date).stream()
+                    .filter(operation -> operation.getDate().isBefore(date))
+                    .toList());
+        }
+        if (balance == null) {
+            balance = balanceSnapshotRepository.findClosingBalanceBefore(accountId, date.toLocalDate());
+        }
+        return balance == null ? 0L : balance;
+
+    }
+
+    /**
+     * Метод для построения выписки по аккаунту за период.
+     * Итоги полных дней периода берутся из дневных итогов контрольных точек, операции читаются только
+     * для неполных дней в начале и в конце периода (из таблицы operations и из архива), поэтому стоимость
+     * не зависит от количества операций периода.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @return Объект {@link StatementDTO}.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public StatementDTO buildStatement(Long accountId, LocalDateTime from, LocalDateTime to) {
+
+        LocalDate firstFullDay = from.toLocalTime().equals(LocalTime.MIDNIGHT) ? from.toLocalDate() : from.toLocalDate().plusDays(1);
+        LocalDate lastFullDay = to.toLocalDate().minusDays(1);
+
+        long openingBalance = findBalanceBefore(accountId, from);
+        Totals totals;
+        if (firstFullDay.isAfter(lastFullDay)) {
+            totals = jdbcTemplate.queryForObject(SELECT_EDGE_TOTALS, Totals.MAPPER,
+                    accountId, Timestamp.valueOf(from), Timestamp.valueOf(from),
+                    accountId, Timestamp.valueOf(from), Timestamp.valueOf(to))
+                    .plus(Totals.of(operationArchive.findOperations(accountId, from, to)));
+        } else {
+            Totals days = jdbcTemplate.queryForObject(SELECT_DAYS_TOTALS, Totals.MAPPER,
+                    accountId, Date.valueOf(firstFullDay), Date.valueOf(lastFullDay));
+            Totals edges = jdbcTemplate.queryForObject(SELECT_EDGE_TOTALS, Totals.MAPPER,
+                    accountId, Timestamp.valueOf(from), Timestamp.valueOf(firstFullDay.atStartOfDay()),
+                    accountId, Timestamp.valueOf(lastFullDay.plusDays(1).atStartOfDay()), Timestamp.valueOf(to));
+            LocalDateTime lastDayStart = lastFullDay.plusDays(1).atStartOfDay();
+            Totals archivedEdges = Totals.of(operationArchive.findOperations(accountId, from, firstFullDay.atStartOfDay()).stream()
+                    .filter(operation -> operation.getDate().isBefore(firstFullDay.atStartOfDay()))
+                    .toList())
+                    .plus(Totals.of(operationArchive.findOperations(accountId, lastDayStart, to)));
+            totals = days.plus(edges).plus(archivedEdges);
+        }
+
+        long closingBalance = openingBalance + totals.depositsTotal() - totals.withdrawalsTotal();
+        return new StatementDTO(
+                accountId,
+                from,
+                to,
+                MoneyUtils.toDecimal(openingBalance),
+                MoneyUtils.toDecimal(closingBalance),
+                MoneyUtils.toDecimal(totals.depositsTotal()),
+                totals.depositsCount(),
+                MoneyUtils.toDecimal(totals.withdrawalsTotal()),
+                totals.withdrawalsCount(),
+                MoneyUtils.toDecimal(totals.minBalance() == null ? openingBalance : Math.min(openingBalance, totals.minBalance())),
+                MoneyUtils.toDecimal(totals.maxBalance() == null ? openingBalance : Math.max(openingBalance, totals.maxBalance()))
+        );
+
+    }
+
+    /**
+     * Метод для записи недостающих контрольных точек аккаунта за дни, операции которых переносятся в архив
+     * (выполняется до удаления операций из таблицы operations, в той же транзакции).
+     * @param accountId Идентификатор аккаунта.
+     * @param from Первый день.
+     * @param to Последний день.
+     */
+    public void checkpoint(Long accountId, LocalDate from, LocalDate to) {
+        jdbcTemplate.update(CHECKPOINT_SNAPSHOTS, accountId,
+                Timestamp.valueOf(from.atStartOfDay()), Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+    }
+
+    /**
+     * Метод для удаления всех контрольных точек аккаунта.
+     * @param accountId Идентификатор аккаунта.
+     */
+    public void deleteSnapshots(Long accountId) {
+        balanceSnapshotRepository.deleteByAccountId(accountId);
+    }
+
+    /**
+     * Метод для заполнения контрольных точек по существующим операциям всех аккаунтов шарда текущей области.
+     * Аккаунты обрабатываются порциями по возрастанию идентификатора, каждая порция - отдельный запрос.
+     */
+    public void backfill() {
+
+        long processed = 0;
+        Long lastId = 0L;
+        while (true) {
+            List<Long> ids = jdbcTemplate.queryForList(
+                    "SELECT id FROM accounts WHERE id > ? ORDER BY id LIMIT ?", Long.class, lastId, backfillChunkSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            jdbcTemplate.update(BACKFILL_SNAPSHOTS, ids.getFirst(), ids.getLast());
+            lastId = ids.getLast();
+            processed += ids.size();
+        }
+        log.info("Заполнение контрольных точек баланса завершено, обработано аккаунтов: {}", processed);
+
+    }
+
+    /**
+     * Метод для запуска заполнения контрольных точек в фоновом потоке после запуска приложения
+     * (при включенной настройке app.snapshots.backfill-on-startup).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        if (backfillOnStartup) {
+            Thread thread = new Thread(() -> shardMap.forEachShard(this::backfill), "balance-snapshot-backfill");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Метод для получения баланса после последней операции архива.
+     * @param operations Операции архива, упорядоченные по дате и идентификатору.
+     * @return Баланс после последней операции (null - операций нет).
+     */
+    private static Long lastArchivedBalance(List<Operation> operations) {
+        return operations.isEmpty() ? null : operations.getLast().getAccountBalance();
+    }
+
+    /**
+     * Дневные итоги операций одного аккаунта за один день в пределах одного события записи операций.
+     */
+    private static final class DayRollup {
+
+        /**
+         * Последняя операция дня.
+         */
+        private Operation last;
+
+        /**
+         * Сумма зачислений.
+         */
+        private long depositsTotal;
+
+        /**
+         * Количество зачислений.
+         */
+        private int depositsCount;
+
+        /**
+         * Сумма списаний.
+         */
+        private long withdrawalsTotal;
+
+        /**
+         * Количество списаний.
+         */
+        private int withdrawalsCount;
+
+        /**
+         * Минимальный баланс после операций дня.
+         */
+        private long minBalance = Long.MAX_VALUE;
+
+        /**
+         * Максимальный баланс после операций дня.
+         */
+        private long maxBalance = Long.MIN_VALUE;
+
+        /**
+         * Метод для учета операции в итогах дня.
+         * @param operation Объект {@link Operation} (операции добавляются по порядку даты и идентификатора).
+         */
+        private void add(Operation operation) {
+            long signedAmount = operation.getType().signedAmount(operation.getAmount());
+            if (signedAmount > 0) {
+                depositsTotal += signedAmount;
+                depositsCount++;
+            } else {
+                withdrawalsTotal -= signedAmount;
+                withdrawalsCount++;
+            }
+            minBalance = Math.min(minBalance, operation.getAccountBalance());
+            maxBalance = Math.max(maxBalance, operation.getAccountBalance());
+            last = operation;
+        }
+
+    }
+
+    /**
+     * Итоги операций за часть периода выписки.
+     * @param depositsTotal Сумма зачислений.
+     * @param depositsCount Количество зачислений.
+     * @param withdrawalsTotal Сумма списаний.
+     * @param withdrawalsCount Количество списаний.
+     * @param minBalance Минимальный баланс после операций (null - операций нет).
+     * @param maxBalance Максимальный баланс после операций (null - операций нет).
+     */
+    private record Totals(long depositsTotal, long depositsCount, long withdrawalsTotal, long withdrawalsCount,
+                          Long minBalance, Long maxBalance) {
+
+        /**
+         * Преобразование строки результата запроса итогов (SELECT_DAYS_TOTALS, SELECT_EDGE_TOTALS) в итоги.
+         */
+        private static final RowMapper<Totals> MAPPER = (resultSet, rowNum) -> new Totals(
+                resultSet.getLong(1),
+                resultSet.getLong(2),
+                resultSet.getLong(3),
+                resultSet.getLong(4),
+                resultSet.getObject(5, Long.class),
+                resultSet.getObject(6, Long.class));
+
+        /**
+         * Метод для подсчета итогов операций.
+         * @param operations Список объектов {@link Operation}.
+         * @return Итоги операций.
+         */
+        private static Totals of(List<Operation> operations) {
+            DayRollup rollup = new DayRollup();
+            operations.forEach(rollup::add);
+            return operations.isEmpty()
+                    ? new Totals(0, 0, 0, 0, null, null)
+                    : new Totals(rollup.depositsTotal, rollup.depositsCount, rollup.withdrawalsTotal,
+                    rollup.withdrawalsCount, rollup.minBalance, rollup.maxBalance);
+        }
+
+        /**
+         * Метод для сложения итогов двух частей периода.
+         * @param other Итоги другой части периода.
+         * @return Итоги обеих частей.
+         */
+        private Totals plus(Totals other) {
+            return new Totals(
+                    depositsTotal + other.depositsTotal,
+                    depositsCount + other.depositsCount,
+                    withdrawalsTotal + other.withdrawalsTotal,
+                    withdrawalsCount + other.withdrawalsCount,
+                    minBalance == null || other.minBalance == null
+                            ? (minBalance != null ? minBalance : other.minBalance)
+                            : Long.valueOf(Math.min(minBalance, other.minBalance)),
+                    maxBalance == null || other.maxBalance == null
+                            ? (maxBalance != null ? maxBalance : other.maxBalance)
+                            : Long.valueOf(Math.max(maxBalance, other.maxBalance)));
+        }
+
+    }
+
+}
@@ -0,0 +1,371 @@
+package ru.farpost.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ReadRouting;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.event.OperationsConsolidatedEvent;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+import ru.farpost.repository.AccountRepository;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Класс (сервис) для ведения горячих аккаунтов - аккаунтов с большим потоком пополнений.
+ * <p>
+ * Баланс горячего аккаунта разбит на полосы (по аналогии с {@link java.util.concurrent.atomic.LongAdder}):
+ * пополнение прибавляется к случайной полосе (строке account_balance_stripes) и блокирует только ее, поэтому
+ * пополнения одного аккаунта выполняются параллельно в пределах количества полос. Текущий баланс - balance
+ * аккаунта плюс сумма полос. Операция пополнения сохраняется без баланса после операции.
+ * <p>
+ * Консолидация переносит сумму полос в balance аккаунта и проставляет баланс после операции неконсолидированным
+ * пополнениям в порядке их осуществления. Она выполняется перед списанием с горячего аккаунта (в его транзакции),
+ * перед получением баланса на дату и выписки, а также каждые app.hot-accounts.consolidation-interval.
+ */
+@Service
+public class HotAccountService {
+
+    private static final Logger log = LoggerFactory.getLogger(HotAccountService.class);
+
+    /**
+     * Запрос пополнения полосы баланса (аккаунт не удален, полоса не переполняется).
+     */
+    private static final String DEPOSIT_STRIPE =
+            "UPDATE account_balance_stripes SET pending = pending + ? " +
+            "WHERE account_id = ? AND stripe = ? AND pending <= ? " +
+            "AND EXISTS (SELECT 1 FROM accounts WHERE id = ? AND deleted_at IS NULL)";
+
+    /**
+     * Запрос баланса и количества полос аккаунта с блокировкой строки аккаунта до конца транзакции.
+     * Блокировка FOR NO KEY UPDATE не конфликтует с проверкой внешнего ключа при вставке операций
+     * пополнений, уже заблокировавших свою полосу (иначе консолидация и пополнение ожидают друг друга).
+     */
+    private static final String LOCK_ACCOUNT =
+            "SELECT balance, hot_stripes FROM accounts WHERE id = ? AND deleted_at IS NULL FOR NO KEY UPDATE";
+
+    /**
+     * Запрос суммы полос с блокировкой всех полос аккаунта до конца транзакции: запрос дожидается фиксации
+     * начатых пополнений, а следующие пополнения ожидают фиксации консолидации.
+     */
+    private static final String LOCK_STRIPES =
+            "SELECT COALESCE(SUM(pending), 0) FROM " +
+            "(SELECT pending FROM account_balance_stripes WHERE account_id = ? FOR UPDATE) s";
+
+    private static final String RESET_STRIPES =
+            "UPDATE account_balance_stripes SET pending = 0 WHERE account_id = ? AND pending <> 0";
+
+    /**
+     * Запрос проставления баланса после операции неконсолидированным операциям в порядке (date, id).
+     */
+    private static final String CONSOLIDATE_OPERATIONS =
+            "UPDATE operations o SET account_balance = p.account_balance " +
+            "FROM (SELECT id, date, ? + SUM(amount) OVER (ORDER BY date, id) AS account_balance " +
+            "FROM operations WHERE account_id = ? AND account_balance IS NULL) p " +
+            "WHERE o.account_id = ? AND o.id = p.id AND o.date = p.date AND o.account_balance IS NULL " +
+            "RETURNING o.id, o.date, o.amount, o.type, o.account_balance, o.linked_operation_id";
+
+    private static final String UPDATE_BALANCE = "UPDATE accounts SET balance = ? WHERE id = ?";
+
+    /**
+     * Запрос текущего баланса аккаунта одним запросом (баланс и полосы читаются в одном снимке данных,
+     * поэтому параллельная консолидация не изменяет результат).
+     */
+    private static final String SELECT_CURRENT_BALANCE =
+            "SELECT a.balance + COALESCE((SELECT SUM(s.pending) FROM account_balance_stripes s " +
+            "WHERE s.account_id = a.id), 0) FROM accounts a WHERE a.id = ?";
+
+    private static final String SELECT_HOT_STRIPES =
+            "SELECT hot_stripes FROM accounts WHERE id = ? AND deleted_at IS NULL";
+
+    private static final String SELECT_HOT_ACCOUNTS =
+            "SELECT id, hot_stripes FROM accounts WHERE hot_stripes > 0 AND deleted_at IS NULL";
+
+    private static final String DELETE_STRIPES = "DELETE FROM account_balance_stripes WHERE account_id = ?";
+
+    private static final String INSERT_STRIPES =
+            "INSERT INTO account_balance_stripes (account_id, stripe) SELECT ?, generate_series(0, ? - 1)";
+
+    private static final String UPDATE_HOT_STRIPES = "UPDATE accounts SET hot_stripes = ? WHERE id = ?";
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link AccountRepository}
+     */
+    private final AccountRepository accountRepository;
+
+    /**
+     * Объект класса {@link ApplicationEventPublisher}
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Объект класса {@link ReadRouting}
+     */
+    private final ReadRouting readRouting;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Признак доступности горячих аккаунтов (недоступны в режиме журнала операций).
+     */
+    private final boolean enabled;
+
+    /**
+     * Максимальное количество полос баланса аккаунта.
+     */
+    private final int maxStripes;
+
+    /**
+     * Количество полос горячих аккаунтов по идентификатору. Обновляется при изменении полос и при каждой
+     * консолидации по расписанию; используется как подсказка - условия запросов изменения баланса проверяют
+     * количество полос в БД.
+     */
+    private final Map<Long, Integer> hotAccounts = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор для создания объектов {@link JdbcTemplate}, {@link TransactionTemplate}, {@link AccountRepository},
+     * {@link ApplicationEventPublisher}, {@link ReadRouting} и {@link ShardMap} с использованием "@Autowired".
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param transactionTemplate Ссылка на объект {@link TransactionTemplate}.
+     * @param accountRepository Ссылка на объект {@link AccountRepository}.
+     * @param eventPublisher Ссылка на объект {@link ApplicationEventPublisher}.
+     * @param readRouting Ссылка на объект {@link ReadRouting}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param ledgerEnabled Признак режима журнала операций.
+     * @param maxStripes Максимальное количество полос баланса аккаунта.
+     */
+    @Autowired
+    public HotAccountService(JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             AccountRepository accountRepository,
+                             ApplicationEventPublisher eventPublisher,
+                             ReadRouting readRouting,
+                             ShardMap shardMap,
+                             @Value("${app.ledger.enabled:false}") boolean ledgerEnabled,
+                             @Value("${app.hot-accounts.max-stripes:64}") int maxStripes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.accountRepository = accountRepository;
+        this.eventPublisher = eventPublisher;
+        this.readRouting = readRouting;
+        this.shardMap = shardMap;
+        this.enabled = !ledgerEnabled;
+        this.maxStripes = maxStripes;
+    }
+
+    /**
+     * Метод для получения количества полос баланса аккаунта по подсказке (без запроса к БД).
+     * @param accountId Идентификатор аккаунта.
+     * @return Количество полос (0 - аккаунт не горячий).
+     */
+    public int stripes(Long accountId) {
+        return hotAccounts.getOrDefault(accountId, 0);
+    }
+
+    /**
+     * Метод для обновления подсказки количества полос аккаунта по БД.
+     * @param accountId Идентификатор аккаунта.
+     * @return true, если аккаунт горячий.
+     */
+    public boolean refresh(Long accountId) {
+        if (!enabled)
+            return false;
+        List<Integer> stripes = jdbcTemplate.queryForList(SELECT_HOT_STRIPES, Integer.class, accountId);
+        remember(accountId, stripes.isEmpty() ? 0 : stripes.getFirst());
+        return stripes(accountId) > 0;
+    }
+
+    /**
+     * Метод для пополнения случайной полосы баланса горячего аккаунта в рамках текущей транзакции
+     * (блокируется только строка полосы).
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма пополнения в минимальных единицах.
+     * @return true, если полоса пополнена; false, если аккаунт не горячий (по подсказке или в БД), не найден
+     * или полоса переполняется.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean depositStriped(Long accountId, long amount) {
+        int stripes = stripes(accountId);
+        if (stripes == 0)
+            return false;
+        int stripe = ThreadLocalRandom.current().nextInt(stripes);
+        return jdbcTemplate.update(DEPOSIT_STRIPE, amount, accountId, stripe, Long.MAX_VALUE - amount, accountId) == 1;
+    }
+
+    /**
+     * Метод для получения текущего баланса горячего аккаунта: balance аккаунта плюс сумма полос баланса.
+     * @param accountId Идентификатор аккаунта.
+     * @return Баланс в минимальных единицах или null, если аккаунт не найден.
+     */
+    public Long currentBalance(Long accountId) {
+        List<Long> balance = jdbcTemplate.queryForList(SELECT_CURRENT_BALANCE, Long.class, accountId);
+        return balance.isEmpty() ? null : balance.getFirst();
+    }
+
+    /**
+     * Метод для консолидации полос баланса горячего аккаунта в рамках текущей транзакции.
+     * Строка аккаунта и все его полосы блокируются до конца транзакции, поэтому до ее фиксации новые
+     * пополнения полос ожидают, а изменения баланса аккаунта после консолидации следуют за всеми
+     * консолидированными пополнениями.
+     * @param accountId Идентификатор аккаунта.
+     * @return Баланс аккаунта после консолидации или null, если аккаунт не найден или не горячий.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Long consolidate(Long accountId) {
+
+        if (!enabled)
+            return null;
+        List<long[]> accounts = jdbcTemplate.query(LOCK_ACCOUNT,
+                (resultSet, rowNum) -> new long[]{resultSet.getLong(1), resultSet.getInt(2)}, accountId);
+        if (accounts.isEmpty() || accounts.getFirst()[1] == 0)
+            return null;
+        long balance = accounts.getFirst()[0];
+        long pending = jdbcTemplate.queryForObject(LOCK_STRIPES, Long.class, accountId);
+        if (pending == 0)
+            return balance;
+
+        jdbcTemplate.update(RESET_STRIPES, accountId);
+        Account account = accountRepository.getReferenceById(accountId);
+        RowMapper<Operation> mapper = (resultSet, rowNum) -> {
+            Operation operation = new Operation(resultSet.getLong("amount"), resultSet.getLong("account_balance"),
+                    OperationTypes.fromCode(resultSet.getShort("type")));
+            operation.setId(resultSet.getLong("id"));
+            operation.setDate(resultSet.getTimestamp("date").toLocalDateTime());
+            operation.setAccount(account);
+            operation.setLinkedOperationId(resultSet.getObject("linked_operation_id", Long.class));
+            return operation;
+        };
+        List<Operation> operations = new ArrayList<>(
+                jdbcTemplate.query(CONSOLIDATE_OPERATIONS, mapper, balance, accountId, accountId));
+        operations.sort(Comparator.comparing(Operation::getDate).thenComparing(Operation::getId));
+
+        long consolidated = operations.stream().mapToLong(Operation::getAmount).sum();
+        if (consolidated != pending)
+            log.warn("Сумма полос аккаунта {} ({}) не совпадает с суммой консолидированных операций ({})",
+                    accountId, pending, consolidated);
+
+        long newBalance = MoneyUtils.add(balance, pending);
+        jdbcTemplate.update(UPDATE_BALANCE, newBalance, accountId);
+        if (!operations.isEmpty())
+            eventPublisher.publishEvent(new OperationsConsolidatedEvent(operations));
+        readRouting.recordWrite(accountId);
+        return newBalance;
+
+    }
+
+    /**
+     * Метод для консолидации полос аккаунта в отдельной транзакции, если аккаунт горячий (по подсказке).
+     * Вызывается перед чтением баланса на дату и выписки, чтобы они учитывали все пополнения.
+     * @param accountId Идентификатор аккаунта.
+     */
+    public void consolidateIfHot(Long accountId) {
+        if (stripes(accountId) > 0)
+            transactionTemplate.executeWithoutResult(status -> consolidate(accountId));
+    }
+
+    /**
+     * Метод для изменения количества полос баланса аккаунта в рамках текущей транзакции.
+     * Полосы горячего аккаунта предварительно консолидируются; 0 полос - аккаунт перестает быть горячим.
+     * @param accountId Идентификатор аккаунта.
+     * @param stripes Количество полос (от 0 до app.hot-accounts.max-stripes).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void changeStripes(Long accountId, int stripes) {
+
+        if (!enabled)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.HOT_ACCOUNTS_UNAVAILABLE);
+        if (stripes < 0 || stripes > maxStripes)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_HOT_STRIPES);
+        if (consolidate(accountId) == null && jdbcTemplate.queryForList(LOCK_ACCOUNT, accountId).isEmpty())
+            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+
+        jdbcTemplate.update(DELETE_STRIPES, accountId);
+        if (stripes > 0)
+            jdbcTemplate.update(INSERT_STRIPES, accountId, stripes);
+        jdbcTemplate.update(UPDATE_HOT_STRIPES, stripes, accountId);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                remember(accountId, stripes);
+            }
+        });
+
+    }
+
+    /**
+     * Метод для периодической консолидации полос всех горячих аккаунтов всех шардов (каждый аккаунт - отдельная
+     * транзакция). Заодно обновляет подсказки количества полос, измененные другими экземплярами приложения.
+     */
+    @Scheduled(fixedDelayString = "${app.hot-accounts.consolidation-interval:1s}")
+    public void consolidateAll() {
+
+        if (!enabled)
+            return;
+        Map<Long, Integer> loaded = new HashMap<>();
+        shardMap.forEachShard(() -> {
+            Map<Long, Integer> shardAccounts = new HashMap<>();
+            jdbcTemplate.query(SELECT_HOT_ACCOUNTS, resultSet -> {
+                shardAccounts.put(resultSet.getLong(1), resultSet.getInt(2));
+            });
+            loaded.putAll(shardAccounts);
+
+            for (Long accountId : shardAccounts.keySet()) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> consolidate(accountId));
+                } catch (DataAccessException e) {
+                    log.warn("Не удалось консолидировать полосы баланса аккаунта {}: {}",
+                            accountId, e.getMostSpecificCause().getMessage());
+                }
+            }
+        });
+        hotAccounts.keySet().retainAll(loaded.keySet());
+        hotAccounts.putAll(loaded);
+
+    }
+
+    private void remember(Long accountId, int stripes) {
+        if (stripes > 0)
+            hotAccounts.put(accountId, stripes);
+        else
+            hotAccounts.remove(accountId);
+    }
+
+}
@@ -0,0 +1,174 @@
+package ru.farpost.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.dto.OperationDTO;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Класс (сервис) для хранения ключей идемпотентности операций (заголовок Idempotency-Key).
+ * <p>
+ * Ключи хранятся в таблице idempotency_keys (уникальный ключ, идентификатор операции), перед ней -
+ * ограниченный по размеру и времени жизни кэш результатов, поэтому повтор запроса обычно обходится
+ * поиском в кэше без обращения к БД и полосам движка.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    /**
+     * Максимальная длина ключа идемпотентности.
+     */
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Кэш результатов операций по ключу идемпотентности.
+     */
+    private final Cache<String, OperationDTO> cache;
+
+    /**
+     * Время хранения ключей в БД.
+     */
+    private final Duration retention;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Конструктор для создания кэша ключей и регистрации его метрик.
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param meterRegistry Реестр метрик.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param maxSize Максимальное количество ключей в кэше.
+     * @param ttl Время жизни ключа в кэше.
+     * @param retention Время хранения ключей в БД.
+     */
+    @Autowired
+    public IdempotencyService(JdbcTemplate jdbcTemplate,
+                              MeterRegistry meterRegistry,
+                              ShardMap shardMap,
+                              @Value("${app.idempotency.cache.max-size:100000}") long maxSize,
+                              @Value("${app.idempotency.cache.ttl:10m}") Duration ttl,
+                              @Value("${app.idempotency.retention:24h}") Duration retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.retention = retention;
+        this.shardMap = shardMap;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "idempotency");
+    }
+
+    /**
+     * Метод для проверки ключа идемпотентности.
+     * @param key Ключ идемпотентности.
+     */
+    public void validateKey(String key) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_IDEMPOTENCY_KEY);
+    }
+
+    /**
+     * Метод для получения результата операции из кэша.
+     * @param key Ключ идемпотентности.
+     * @return Объект {@link OperationDTO} или null, если ключа нет в кэше.
+     */
+    public OperationDTO findCached(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Метод для сохранения результата операции в кэше (после фиксации операции).
+     * @param key Ключ идемпотентности.
+     * @param operation Объект {@link OperationDTO}.
+     */
+    public void remember(String key, OperationDTO operation) {
+        cache.put(key, operation);
+    }
+
+    /**
+     * Метод для получения идентификатора операции, созданной по ключу.
+     * @param key Ключ идемпотентности.
+     * @return Идентификатор операции или null, если ключа нет в БД.
+     */
+    public Long findOperationId(String key) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT operation_id FROM idempotency_keys WHERE key = ?", Long.class, key);
+        return ids.isEmpty() ? null : ids.getFirst();
+    }
+
+    /**
+     * Метод для сохранения ключа в рамках транзакции операции.
+     * Если ключ уже сохранен конкурирующей транзакцией, метод дожидается ее завершения.
+     * @param key Ключ идемпотентности.
+     * @param operationId Идентификатор операции.
+     * @return true, если ключ сохранен, false - если ключ уже существует.
+     */
+    public boolean store(String key, Long operationId) {
+        return jdbcTemplate.update(
+                "INSERT INTO idempotency_keys (key, operation_id, created_at) VALUES (?, ?, ?) ON CONFLICT (key) DO NOTHING",
+                key, operationId, Timestamp.valueOf(LocalDateTime.now())) > 0;
+    }
+
+    /**
+     * Метод для проверки, что повторный запрос совпадает с запросом, по которому была создана операция.
+     * @param operation Объект {@link OperationDTO} ранее созданной операции.
+     * @param accountId Идентификатор аккаунта повторного запроса.
+     * @param amount Сумма повторного запроса.
+     * @param type Тип операции повторного запроса.
+     * @return Объект {@link OperationDTO} ранее созданной операции.
+     */
+    public OperationDTO replay(OperationDTO operation, Long accountId, BigDecimal amount, OperationTypes type) {
+        if (!Objects.equals(operation.getAccountId(), accountId)
+                || operation.getType() != type
+                || amount == null
+                || operation.getAmount().compareTo(amount) != 0)
+            throw new ErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY, ExceptionsMessage.IDEMPOTENCY_KEY_REUSED);
+        return operation;
+    }
+
+    /**
+     * Метод для удаления ключей, срок хранения которых истек (на каждом шарде).
+     */
+    @Scheduled(fixedDelayString = "${app.idempotency.purge-interval:1h}")
+    public void purgeExpired() {
+        Timestamp expiredBefore = Timestamp.valueOf(LocalDateTime.now().minus(retention));
+        shardMap.forEachShard(() -> {
+            int deleted = jdbcTemplate.update("DELETE FROM idempotency_keys WHERE created_at < ?", expiredBefore);
+            if (deleted > 0)
+                log.info("Удалено устаревших ключей идемпотентности: {}", deleted);
+        });
+    }
+
+}
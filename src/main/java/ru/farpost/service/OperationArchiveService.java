@@ -0,0 +1,229 @@
+package ru.farpost.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.archive.OperationArchive;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс (сервис) для переноса операций закрытых месяцев старше app.archive.after-months в архив
+ * {@link OperationArchive}.
+ * <p>
+ * Секции месяцев обрабатываются по возрастанию, каждая - порциями по app.archive.batch-size операций
+ * в порядке (account_id, date, id). Порция переносится одной короткой транзакцией: сначала для дней ее операций
+ * записываются недостающие контрольные точки баланса ({@link BalanceSnapshotService#checkpoint}), затем
+ * операции каждого аккаунта порции сжимаются в порцию архива и удаляются из секции. Блокируются только строки
+ * переносимых операций, поэтому перенос не мешает записи новых операций и может быть прерван в любой момент.
+ * Опустевшая секция отсоединяется и удаляется ({@link OperationPartitionService#dropPartition(String)}).
+ * Секции каждого шарда переносятся в архив этого же шарда.
+ */
+@Service
+public class OperationArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(OperationArchiveService.class);
+
+    /**
+     * Запрос очередной порции операций секции (секция подставляется в запрос).
+     */
+    private static final String SELECT_BATCH =
+            "SELECT id, account_id, amount, type, date, account_balance, linked_operation_id FROM %s " +
+            "WHERE account_balance IS NOT NULL ORDER BY account_id, date, id LIMIT ?";
+
+    /**
+     * Запрос удаления перенесенных операций аккаунта из секции.
+     */
+    private static final String DELETE_ARCHIVED =
+            "DELETE FROM %s WHERE account_id = ? AND account_balance IS NOT NULL AND (date, id) <= (?, ?)";
+
+    /**
+     * Запрос проверки наличия операций в секции.
+     */
+    private static final String SELECT_ANY = "SELECT EXISTS (SELECT 1 FROM %s)";
+
+    /**
+     * Преобразование строки запроса {@link #SELECT_BATCH} в объект {@link Operation}.
+     */
+    private static final RowMapper<Operation> OPERATION_MAPPER = (resultSet, rowNum) -> {
+        Account account = new Account();
+        account.setId(resultSet.getLong("account_id"));
+        Operation operation = new Operation(resultSet.getLong("amount"), resultSet.getLong("account_balance"),
+                OperationTypes.fromCode(resultSet.getShort("type")));
+        operation.setId(resultSet.getLong("id"));
+        operation.setDate(resultSet.getTimestamp("date").toLocalDateTime());
+        operation.setAccount(account);
+        operation.setLinkedOperationId(resultSet.getObject("linked_operation_id", Long.class));
+        return operation;
+    };
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link OperationArchive}
+     */
+    private final OperationArchive operationArchive;
+
+    /**
+     * Объект класса {@link BalanceSnapshotService}
+     */
+    private final BalanceSnapshotService balanceSnapshotService;
+
+    /**
+     * Объект класса {@link OperationPartitionService}
+     */
+    private final OperationPartitionService operationPartitionService;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Возраст операций в месяцах, после которого они переносятся в архив (0 - перенос выключен).
+     */
+    private final int afterMonths;
+
+    /**
+     * Количество операций, переносимых одной транзакцией.
+     */
+    private final int batchSize;
+
+    /**
+     * Конструктор для создания объектов сервиса с использованием "@Autowired".
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param transactionManager Менеджер транзакций.
+     * @param operationArchive Ссылка на объект {@link OperationArchive}.
+     * @param balanceSnapshotService Ссылка на объект {@link BalanceSnapshotService}.
+     * @param operationPartitionService Ссылка на объект {@link OperationPartitionService}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param afterMonths Возраст операций в месяцах, после которого они переносятся в архив (0 - перенос выключен).
+     * @param batchSize Количество операций, переносимых одной транзакцией.
+     */
+    @Autowired
+    public OperationArchiveService(JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager,
+                                   OperationArchive operationArchive,
+                                   BalanceSnapshotService balanceSnapshotService,
+                                   OperationPartitionService operationPartitionService,
+                                   ShardMap shardMap,
+                                   @Value("${app.archive.after-months:18}") int afterMonths,
+                                   @Value("${app.archive.batch-size:10000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.operationArchive = operationArchive;
+        this.balanceSnapshotService = balanceSnapshotService;
+        this.operationPartitionService = operationPartitionService;
+        this.shardMap = shardMap;
+        this.afterMonths = afterMonths;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Метод для периодического переноса в архив операций закрытых месяцев старше app.archive.after-months
+     * (на каждом шарде).
+     */
+    @Scheduled(fixedDelayString = "${app.archive.interval:1h}", initialDelayString = "${app.archive.initial-delay:5m}")
+    public void archiveClosedPeriods() {
+        if (afterMonths <= 0)
+            return;
+        shardMap.forEachShard(() -> {
+            for (String partition : operationPartitionService.findPartitionsBefore(YearMonth.now().minusMonths(afterMonths))) {
+                try {
+                    archivePartition(partition);
+                } catch (DataAccessException e) {
+                    log.warn("Не удалось перенести в архив операции секции {}: {}",
+                            partition, e.getMostSpecificCause().getMessage());
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Метод для получения первого месяца, операции которого не переносятся в архив.
+     * @return Месяц или null, если перенос в архив выключен.
+     */
+    public YearMonth archiveHorizon() {
+        return afterMonths > 0 ? YearMonth.now().minusMonths(afterMonths) : null;
+    }
+
+    /**
+     * Метод для переноса в архив всех операций секции шарда текущей области и удаления опустевшей секции.
+     * @param partition Имя секции (из {@link OperationPartitionService#findPartitionsBefore(YearMonth)}).
+     */
+    public void archivePartition(String partition) {
+
+        long startedAt = System.nanoTime();
+        long archived = 0;
+        int moved;
+        do {
+            moved = transactionTemplate.execute(status -> archiveBatch(partition));
+            archived += moved;
+        } while (moved == batchSize);
+
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(SELECT_ANY.formatted(partition), Boolean.class))) {
+            log.warn("В секции {} остались неконсолидированные операции, секция не удалена", partition);
+        } else {
+            operationPartitionService.dropPartition(partition);
+        }
+        if (archived > 0)
+            log.info("Перенесено в архив операций секции {}: {}, за {} мс",
+                    partition, archived, (System.nanoTime() - startedAt) / 1_000_000);
+
+    }
+
+    /**
+     * Метод для переноса в архив очередной порции операций секции (в транзакции вызывающего метода).
+     * @param partition Имя секции.
+     * @return Количество перенесенных операций.
+     */
+    private int archiveBatch(String partition) {
+
+        List<Operation> operations = jdbcTemplate.query(SELECT_BATCH.formatted(partition), OPERATION_MAPPER, batchSize);
+        Map<Long, List<Operation>> byAccount = new LinkedHashMap<>();
+        for (Operation operation : operations) {
+            byAccount.computeIfAbsent(operation.getAccount().getId(), key -> new ArrayList<>()).add(operation);
+        }
+
+        byAccount.forEach((accountId, accountOperations) -> {
+            Operation first = accountOperations.getFirst();
+            Operation last = accountOperations.getLast();
+            balanceSnapshotService.checkpoint(accountId, first.getDate().toLocalDate(), last.getDate().toLocalDate());
+            operationArchive.append(accountId, accountOperations);
+            int deleted = jdbcTemplate.update(DELETE_ARCHIVED.formatted(partition),
+                    accountId, Timestamp.valueOf(last.getDate()), last.getId());
+            if (deleted != accountOperations.size())
+                throw new IllegalStateException("Операции аккаунта " + accountId + " в секции " + partition +
+                        " изменились во время переноса в архив");
+        });
+        return operations.size();
+
+    }
+
+}
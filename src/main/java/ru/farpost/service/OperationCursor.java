@@ -0,0 +1,45 @@
+package ru.farpost.service;
+
+import org.springframework.http.HttpStatus;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Курсор keyset-пагинации операций - пара (date, id) последней операции страницы.
+ * Передается клиенту в виде непрозрачной строки (URL-safe Base64).
+ * @param date Дата операции.
+ * @param id Идентификатор операции.
+ */
+record OperationCursor(LocalDateTime date, Long id) {
+
+    /**
+     * Метод для преобразования курсора в строку.
+     * @return Строковое представление курсора.
+     */
+    String encode() {
+        String raw = date + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Метод для восстановления курсора из строки.
+     * @param cursor Строковое представление курсора.
+     * @return Объект {@link OperationCursor}.
+     */
+    static OperationCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            return new OperationCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_CURSOR);
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package ru.farpost.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.farpost.datasource.ShardMap;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Класс (сервис) для обслуживания секций таблицы operations, секционированной по дате (секция - календарный месяц).
+ * <p>
+ * Секции создаются заранее на app.partitions.months-ahead месяцев вперед (секции по умолчанию нет, поэтому
+ * операция с датой вне существующих секций не может быть сохранена). При включенном сроке хранения
+ * (app.partitions.retention-months) устаревшие секции отсоединяются без блокировки записи
+ * (DETACH PARTITION ... CONCURRENTLY) и удаляются целиком, без построчного удаления операций.
+ * Секции создаются и удаляются на каждом шарде; остальные методы работают с шардом текущей области.
+ */
+@Service
+public class OperationPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(OperationPartitionService.class);
+
+    /**
+     * Формат имени секции (operations_YYYY_MM).
+     */
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'operations_'yyyy_MM");
+
+    /**
+     * Шаблон для разбора имени секции.
+     */
+    private static final Pattern PARTITION_PATTERN = Pattern.compile("operations_(\\d{4})_(\\d{2})");
+
+    /**
+     * Запрос получения имен секций таблицы operations.
+     */
+    private static final String SELECT_PARTITIONS =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = 'operations'::regclass ORDER BY c.relname";
+
+    /**
+     * Объект класса {@link JdbcTemplate}
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Количество месяцев вперед, на которые создаются секции.
+     */
+    private final int monthsAhead;
+
+    /**
+     * Срок хранения операций в месяцах (0 - операции хранятся бессрочно).
+     */
+    private final int retentionMonths;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Конструктор для создания объектов {@link JdbcTemplate} и {@link ShardMap} с использованием "@Autowired".
+     * @param jdbcTemplate Ссылка на объект {@link JdbcTemplate}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param monthsAhead Количество месяцев вперед, на которые создаются секции.
+     * @param retentionMonths Срок хранения операций в месяцах (0 - бессрочно).
+     */
+    @Autowired
+    public OperationPartitionService(JdbcTemplate jdbcTemplate,
+                                     ShardMap shardMap,
+                                     @Value("${app.partitions.months-ahead:3}") int monthsAhead,
+                                     @Value("${app.partitions.retention-months:0}") int retentionMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardMap = shardMap;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Метод для создания недостающих секций при запуске приложения (до приема операций).
+     */
+    @PostConstruct
+    public void createUpcomingPartitions() {
+        YearMonth current = YearMonth.now();
+        shardMap.forEachShard(() -> createPartitions(current, current.plusMonths(monthsAhead)));
+    }
+
+    /**
+     * Метод для периодического обслуживания секций: создание секций вперед и удаление устаревших.
+     */
+    @Scheduled(fixedDelayString = "${app.partitions.maintenance-interval:6h}",
+            initialDelayString = "${app.partitions.maintenance-interval:6h}")
+    public void maintain() {
+        createUpcomingPartitions();
+        if (retentionMonths > 0)
+            shardMap.forEachShard(() -> dropPartitionsBefore(YearMonth.now().minusMonths(retentionMonths)));
+    }
+
+    /**
+     * Метод для создания секций за все месяцы указанного периода (существующие секции пропускаются).
+     * @param from Первый месяц периода.
+     * @param to Последний месяц периода.
+     */
+    public void createPartitions(YearMonth from, YearMonth to) {
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            LocalDate start = month.atDay(1);
+            try {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + start.format(PARTITION_NAME) +
+                        " PARTITION OF operations FOR VALUES FROM ('" + start + "') TO ('" + start.plusMonths(1) + "')");
+            } catch (DataAccessException e) {
+                log.warn("Не удалось создать секцию операций за {}: {}", month, e.getMostSpecificCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Метод для отсоединения и удаления секций операций за месяцы до указанного.
+     * @param month Первый месяц, секция которого сохраняется.
+     */
+    public void dropPartitionsBefore(YearMonth month) {
+        for (String partition : findPartitionsBefore(month)) {
+            dropPartition(partition);
+        }
+    }
+
+    /**
+     * Метод для отсоединения секции без блокировки записи (DETACH PARTITION ... CONCURRENTLY) и ее удаления.
+     * @param partition Имя секции.
+     * @return Удалена ли секция.
+     */
+    public boolean dropPartition(String partition) {
+        try {
+            jdbcTemplate.execute("ALTER TABLE operations DETACH PARTITION " + partition + " CONCURRENTLY");
+            jdbcTemplate.execute("DROP TABLE " + partition);
+            log.info("Удалена секция операций {}", partition);
+            return true;
+        } catch (DataAccessException e) {
+            log.warn("Не удалось удалить секцию операций {}: {}", partition, e.getMostSpecificCause().getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Метод для получения имен секций операций за месяцы до указанного.
+     * @param month Месяц, секции до которого нужно получить.
+     * @return Список имен секций по возрастанию месяца.
+     */
+    public List<String> findPartitionsBefore(YearMonth month) {
+        return jdbcTemplate.queryForList(SELECT_PARTITIONS, String.class)
+                .stream()
+                .filter(partition -> {
+                    Matcher matcher = PARTITION_PATTERN.matcher(partition);
+                    return matcher.matches() && YearMonth.of(Integer.parseInt(matcher.group(1)),
+                            Integer.parseInt(matcher.group(2))).isBefore(month);
+                })
+                .toList();
+    }
+
+}
@@ -1,20 +1,48 @@
 package ru.farpost.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.admission.OperationAdmission;
+import ru.farpost.archive.OperationArchive;
 import ru.farpost.components.OperationTypes;
+import ru.farpost.dto.BatchOperationRequestDTO;
+import ru.farpost.dto.BatchOperationResultDTO;
 import ru.farpost.dto.OperationDTO;
+import ru.farpost.dto.OperationPageDTO;
+import ru.farpost.dto.TransferDTO;
+import ru.farpost.datasource.ReadRouting;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.engine.OperationEngine;
+import ru.farpost.event.OperationsRecordedEvent;
+import ru.farpost.ledger.OperationLedger;
+import ru.farpost.metrics.OperationMetrics;
 import ru.farpost.model.Account;
 import ru.farpost.model.Operation;
 import ru.farpost.repository.AccountRepository;
 import ru.farpost.repository.OperationRepository;
 import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
 import ru.farpost.components.ExceptionsMessage;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -34,14 +62,130 @@ public class OperationService {
     private final AccountService accountService;
 
     /**
-     * Конструктор для создания объектов {@link AccountService} и {@link OperationRepository} с использованием "@Autowired".
+     * Объект класса {@link OperationEngine}
+     */
+    private final OperationEngine operationEngine;
+
+    /**
+     * Объект класса {@link TransactionTemplate}
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Объект класса {@link ApplicationEventPublisher}
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Объект класса {@link OperationMetrics}
+     */
+    private final OperationMetrics operationMetrics;
+
+    /**
+     * Объект класса {@link IdempotencyService}
+     */
+    private final IdempotencyService idempotencyService;
+
+    /**
+     * Объект класса {@link OperationLedger} (null, если режим журнала операций выключен)
+     */
+    private final OperationLedger operationLedger;
+
+    /**
+     * Объект класса {@link ReadRouting}
+     */
+    private final ReadRouting readRouting;
+
+    /**
+     * Объект класса {@link OperationAdmission}
+     */
+    private final OperationAdmission operationAdmission;
+
+    /**
+     * Объект класса {@link HotAccountService}
+     */
+    private final HotAccountService hotAccountService;
+
+    /**
+     * Объект класса {@link OperationArchive}
+     */
+    private final OperationArchive operationArchive;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Максимальное количество операций в одном пакете.
+     */
+    private final int batchMaxSize;
+
+    /**
+     * Количество операций пакета, применяемых в одной транзакции.
+     */
+    private final int batchChunkSize;
+
+    /**
+     * Максимальный размер страницы операций.
+     */
+    private final int pageMaxLimit;
+
+    /**
+     * Конструктор для создания объектов {@link AccountService}, {@link OperationRepository},
+     * {@link OperationEngine}, {@link TransactionTemplate}, {@link ApplicationEventPublisher}, {@link OperationMetrics},
+     * {@link IdempotencyService}, {@link OperationLedger}, {@link ReadRouting}, {@link OperationAdmission},
+     * {@link HotAccountService}, {@link OperationArchive} и {@link ShardMap} с использованием "@Autowired".
      * @param accountService Ссылка на объект {@link AccountService}.
      * @param operationRepository Ссылка на объект {@link OperationRepository}.
+     * @param operationEngine Ссылка на объект {@link OperationEngine}.
+     * @param transactionTemplate Ссылка на объект {@link TransactionTemplate}.
+     * @param eventPublisher Ссылка на объект {@link ApplicationEventPublisher}.
+     * @param operationMetrics Ссылка на объект {@link OperationMetrics}.
+     * @param idempotencyService Ссылка на объект {@link IdempotencyService}.
+     * @param operationLedger Ссылка на объект {@link OperationLedger} (если включен режим журнала операций).
+     * @param readRouting Ссылка на объект {@link ReadRouting}.
+     * @param operationAdmission Ссылка на объект {@link OperationAdmission}.
+     * @param hotAccountService Ссылка на объект {@link HotAccountService}.
+     * @param operationArchive Ссылка на объект {@link OperationArchive}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param batchMaxSize Максимальное количество операций в одном пакете.
+     * @param batchChunkSize Количество операций пакета, применяемых в одной транзакции.
+     * @param pageMaxLimit Максимальный размер страницы операций.
      */
     @Autowired
-    public OperationService(AccountService accountService, OperationRepository operationRepository) {
+    public OperationService(AccountService accountService,
+                            OperationRepository operationRepository,
+                            OperationEngine operationEngine,
+                            TransactionTemplate transactionTemplate,
+                            ApplicationEventPublisher eventPublisher,
+                            OperationMetrics operationMetrics,
+                            IdempotencyService idempotencyService,
+                            Optional<OperationLedger> operationLedger,
+                            ReadRouting readRouting,
+                            OperationAdmission operationAdmission,
+                            HotAccountService hotAccountService,
+                            OperationArchive operationArchive,
+                            ShardMap shardMap,
+                            @Value("${app.batch.max-size:10000}") int batchMaxSize,
+                            @Value("${app.batch.chunk-size:500}") int batchChunkSize,
+                            @Value("${app.pagination.max-limit:1000}") int pageMaxLimit) {
         this.operationRepository = operationRepository;
         this.accountService = accountService;
+        this.operationEngine = operationEngine;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.operationMetrics = operationMetrics;
+        this.idempotencyService = idempotencyService;
+        this.operationLedger = operationLedger.orElse(null);
+        this.readRouting = readRouting;
+        this.operationAdmission = operationAdmission;
+        this.hotAccountService = hotAccountService;
+        this.operationArchive = operationArchive;
+        this.shardMap = shardMap;
+        this.batchMaxSize = batchMaxSize;
+        this.batchChunkSize = batchChunkSize;
+        this.pageMaxLimit = pageMaxLimit;
     }
 
     /**
@@ -52,63 +196,619 @@ public class OperationService {
     public OperationDTO convertToDTO(Operation operation) {
         return new OperationDTO(
                 operation.getId(),
-                operation.getAmount(),
+                MoneyUtils.toDecimal(operation.getAmount()),
                 operation.getType(),
                 operation.getDescription(),
                 operation.getDate(),
                 operation.getAccount().getId(),
-                operation.getAccountBalance()
+                MoneyUtils.toDecimal(operation.getAccountBalance()),
+                operation.getLinkedOperationId()
         );
     }
 
     /**
      * Метод для осуществления операции (пополнение, списание) на аккаунте.
+     * Операция выполняется в полосе аккаунта движка {@link OperationEngine} в отдельной транзакции,
+     * поэтому конкурирующие операции над одним аккаунтом не теряют обновлений баланса.
+     * В режиме журнала операций операция записывается в {@link OperationLedger}, и результат возвращается
+     * после сброса записи журнала на диск. Пополнение горячего аккаунта ({@link HotAccountService}) выполняется
+     * без полосы движка, в потоке запроса. Транзакция операции выполняется на шарде аккаунта ({@link ShardMap}).
+     * Перед выполнением операция проходит ограничитель интенсивности {@link OperationAdmission}.
      * @param accountId Идентификатор аккаунта.
      * @param amount Сумма операции.
      * @param type Тип операции (DEPOSIT, WITHDRAW).
      * @return Объект {@link OperationDTO} который был конвертирован из объекта {@link Operation}.
      */
     public OperationDTO processOperation(Long accountId, BigDecimal amount, OperationTypes type) {
+        admit(accountId);
+        return executeOperation(accountId, amount, type);
+    }
+
+    /**
+     * Метод для прохождения операцией аккаунта ограничителя интенсивности {@link OperationAdmission}
+     * (отказ учитывается в метрике отклоненных операций).
+     * @param accountId Идентификатор аккаунта.
+     */
+    private void admit(Long accountId) {
+        try {
+            operationAdmission.admit(accountId, hotAccountService.stripes(accountId));
+        } catch (ErrorResponse e) {
+            operationMetrics.rejected(ExceptionsMessage.TOO_MANY_REQUESTS);
+            throw e;
+        }
+    }
+
+    /**
+     * Метод для прохождения переводом ограничителя интенсивности {@link OperationAdmission} обоих аккаунтов
+     * (при отказе резервирование аккаунта отправителя отменяется, отказ учитывается в метрике отклоненных операций).
+     * @param fromAccountId Идентификатор аккаунта отправителя.
+     * @param toAccountId Идентификатор аккаунта получателя.
+     */
+    private void admitTransfer(Long fromAccountId, Long toAccountId) {
+        try {
+            operationAdmission.admitTransfer(fromAccountId, hotAccountService.stripes(fromAccountId),
+                    toAccountId, hotAccountService.stripes(toAccountId));
+        } catch (ErrorResponse e) {
+            operationMetrics.rejected(ExceptionsMessage.TOO_MANY_REQUESTS);
+            throw e;
+        }
+    }
+
+    /**
+     * Метод для прохождения ограничителя интенсивности аккаунтом пакета: пакет проходит ограничитель
+     * один раз для каждого своего аккаунта, как одна операция.
+     * @param accountId Идентификатор аккаунта.
+     * @param admission Результаты аккаунтов пакета, уже прошедших ограничитель (null - аккаунт допущен).
+     * @return Объект {@link ErrorResponse} отказа или null, если операции аккаунта допущены.
+     */
+    private ErrorResponse admitBatch(Long accountId, Map<Long, ErrorResponse> admission) {
+        if (!admission.containsKey(accountId)) {
+            try {
+                admit(accountId);
+                admission.put(accountId, null);
+            } catch (ErrorResponse e) {
+                admission.put(accountId, e);
+            }
+        }
+        return admission.get(accountId);
+    }
+
+    /**
+     * Метод для выполнения допущенной операции в полосе аккаунта или через журнал операций.
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма операции.
+     * @param type Тип операции (DEPOSIT, WITHDRAW).
+     * @return Объект {@link OperationDTO} который был конвертирован из объекта {@link Operation}.
+     */
+    private OperationDTO executeOperation(Long accountId, BigDecimal amount, OperationTypes type) {
+        if (operationLedger != null) {
+            CompletableFuture<Operation> durable = operationEngine.execute(accountId, () ->
+                    operationLedger.append(prepareOperation(operationLedger.findAccount(accountId), amount, type)));
+            return convertToDTO(operationLedger.await(durable));
+        }
+        TransactionCallback<OperationDTO> operation = status -> applyOperation(accountId, amount, type);
+        if (isStripedDeposit(accountId, type))
+            return shardMap.inShard(accountId, () -> transactionTemplate.execute(operation));
+        return operationEngine.execute(accountId, () ->
+                shardMap.inShard(accountId, () -> transactionTemplate.execute(operation)));
+    }
+
+    /**
+     * Метод для проверки, выполняется ли операция пополнением полосы баланса горячего аккаунта.
+     * Такие пополнения не конкурируют за строку аккаунта и выполняются без полосы движка.
+     * @param accountId Идентификатор аккаунта.
+     * @param type Тип операции.
+     * @return true, если операция - пополнение горячего аккаунта (по подсказке {@link HotAccountService}).
+     */
+    private boolean isStripedDeposit(Long accountId, OperationTypes type) {
+        return type == OperationTypes.DEPOSIT && hotAccountService.stripes(accountId) > 0;
+    }
+
+    /**
+     * Метод для идемпотентного осуществления операции (заголовок Idempotency-Key).
+     * Повторный запрос с тем же ключом возвращает ранее созданную операцию без повторного изменения баланса,
+     * запрос с тем же ключом, но другими параметрами, отклоняется. Ключ проверяется и сохраняется в полосе аккаунта
+     * в одной транзакции с операцией, поэтому конкурирующие повторы не создают дубликатов.
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма операции.
+     * @param type Тип операции (DEPOSIT, WITHDRAW).
+     * @param idempotencyKey Ключ идемпотентности (null - операция без ключа).
+     * @return Объект {@link OperationDTO} созданной или ранее созданной по ключу операции.
+     */
+    public OperationDTO processOperation(Long accountId, BigDecimal amount, OperationTypes type, String idempotencyKey) {
+
+        if (idempotencyKey == null) {
+            admit(accountId);
+            return executeOperation(accountId, amount, type);
+        }
+        idempotencyService.validateKey(idempotencyKey);
+
+        OperationDTO cached = idempotencyService.findCached(idempotencyKey);
+        if (cached != null)
+            return idempotencyService.replay(cached, accountId, amount, type);
+        admit(accountId);
+
+        OperationDTO operation;
+        if (operationLedger != null) {
+            CompletableFuture<Operation> durable = operationEngine.execute(accountId, () ->
+                    operationLedger.append(idempotencyKey,
+                            () -> findStoredOperation(idempotencyKey),
+                            () -> prepareOperation(operationLedger.findAccount(accountId), amount, type)));
+            operation = convertToDTO(operationLedger.await(durable));
+        } else {
+            TransactionCallback<OperationDTO> idempotent = status -> {
+                Operation stored = findStoredOperation(idempotencyKey);
+                if (stored != null)
+                    return convertToDTO(stored);
+                OperationDTO created = applyOperation(accountId, amount, type);
+                if (!idempotencyService.store(idempotencyKey, created.getId())) {
+                    status.setRollbackOnly();
+                    return convertToDTO(findStoredOperation(idempotencyKey));
+                }
+                return created;
+            };
+            operation = isStripedDeposit(accountId, type)
+                    ? shardMap.inShard(accountId, () -> transactionTemplate.execute(idempotent))
+                    : operationEngine.execute(accountId, () ->
+                            shardMap.inShard(accountId, () -> transactionTemplate.execute(idempotent)));
+        }
+
+        idempotencyService.replay(operation, accountId, amount, type);
+        idempotencyService.remember(idempotencyKey, operation);
+        return operation;
+
+    }
+
+    /**
+     * Метод для получения операции, ранее созданной по ключу идемпотентности.
+     * Если операция по ключу выполнялась, но больше не существует (перенесена в архив или удалена вместе
+     * с аккаунтом), запрос отклоняется: повторное выполнение операции изменило бы баланс второй раз.
+     * @param idempotencyKey Ключ идемпотентности.
+     * @return Объект {@link Operation} или null, если по ключу операция не создавалась.
+     */
+    private Operation findStoredOperation(String idempotencyKey) {
+        Long operationId = idempotencyService.findOperationId(idempotencyKey);
+        if (operationId == null)
+            return null;
+        return operationRepository.findById(operationId)
+                .orElseThrow(() -> new ErrorResponse(HttpStatus.CONFLICT, ExceptionsMessage.IDEMPOTENCY_OPERATION_GONE));
+    }
+
+    /**
+     * Метод для применения операции к аккаунту в рамках текущей транзакции.
+     * Баланс изменяется одним условным запросом UPDATE ... RETURNING без предварительного чтения аккаунта,
+     * операция сохраняется в той же транзакции. Пополнение горячего аккаунта сохраняется без баланса после операции.
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма операции.
+     * @param type Тип операции (DEPOSIT, WITHDRAW).
+     * @return Объект {@link OperationDTO} который был конвертирован из объекта {@link Operation}.
+     */
+    private OperationDTO applyOperation(Long accountId, BigDecimal amount, OperationTypes type) {
+
+        long minorAmount = toMinorAmount(amount, type);
+        Long balance = switch (type) {
+            case OperationTypes.DEPOSIT -> deposit(accountId, minorAmount);
+            case OperationTypes.WITHDRAW -> withdraw(accountId, minorAmount);
+            default -> throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.UNSUPPORTED_TYPE_OPERATION);
+        };
+
+        Operation operation = new Operation(minorAmount, balance, type);
+        operation.setAccount(accountService.getAccountReference(accountId));
+        operationRepository.save(operation);
+        eventPublisher.publishEvent(new OperationsRecordedEvent(List.of(operation)));
+
+        return convertToDTO(operation);
+
+    }
+
+    /**
+     * Метод для пополнения баланса аккаунта в рамках текущей транзакции.
+     * Пополнение горячего аккаунта прибавляется к одной из его полос баланса. Если подсказка
+     * {@link HotAccountService} устарела, количество полос аккаунта перечитывается из БД.
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма пополнения в минимальных единицах.
+     * @return Баланс аккаунта после пополнения или null для пополнения горячего аккаунта.
+     */
+    private Long deposit(Long accountId, long amount) {
+        if (hotAccountService.depositStriped(accountId, amount))
+            return null;
+        Long balance = accountService.depositBalance(accountId, amount);
+        if (balance == null) {
+            if (hotAccountService.refresh(accountId) && hotAccountService.depositStriped(accountId, amount))
+                return null;
+            throw balanceRejected(accountId, ExceptionsMessage.BALANCE_OVERFLOW);
+        }
+        return balance;
+    }
 
-        Account account = accountService.findAccountById(accountId, Account.class);
+    /**
+     * Метод для списания с баланса аккаунта в рамках текущей транзакции.
+     * Перед списанием с горячего аккаунта его полосы баланса консолидируются в этой же транзакции.
+     * @param accountId Идентификатор аккаунта.
+     * @param amount Сумма списания в минимальных единицах.
+     * @return Баланс аккаунта после списания.
+     */
+    private long withdraw(Long accountId, long amount) {
+        Long balance = accountService.withdrawBalance(accountId, amount);
+        if (balance == null && hotAccountService.consolidate(accountId) != null)
+            balance = accountService.withdrawConsolidatedBalance(accountId, amount);
+        if (balance == null)
+            throw balanceRejected(accountId, ExceptionsMessage.INSUFFICIENT_FUNDS);
+        return balance;
+    }
 
-        switch (type){
-            case OperationTypes.DEPOSIT -> account.setBalance(account.getBalance().add(amount));
+    /**
+     * Метод для определения причины, по которой условный запрос изменения баланса не изменил ни одной строки.
+     * @param accountId Идентификатор аккаунта.
+     * @param reason Причина отказа, если аккаунт существует.
+     * @return Исключение {@link ErrorResponse}.
+     */
+    private ErrorResponse balanceRejected(Long accountId, ExceptionsMessage reason) {
+        if (!accountService.existsAccountById(accountId))
+            return new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+        operationMetrics.rejected(reason);
+        return new ErrorResponse(HttpStatus.BAD_REQUEST, reason);
+    }
+
+    /**
+     * Метод для проверки типа и перевода суммы операции в минимальные единицы.
+     * @param amount Сумма операции.
+     * @param type Тип операции.
+     * @return Сумма операции в минимальных единицах.
+     */
+    private long toMinorAmount(BigDecimal amount, OperationTypes type) {
+        if (type == null)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.UNSUPPORTED_TYPE_OPERATION);
+        long minorAmount = MoneyUtils.toMinorUnits(amount);
+        if (minorAmount <= 0)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_AMOUNT);
+        return minorAmount;
+    }
+
+    /**
+     * Метод для изменения баланса аккаунта и создания (без сохранения) соответствующей операции.
+     * Сумма переводится в минимальные единицы, баланс изменяется с проверкой переполнения.
+     * @param account Объект {@link Account}.
+     * @param amount Сумма операции.
+     * @param type Тип операции (DEPOSIT, WITHDRAW).
+     * @return Созданный объект {@link Operation}.
+     */
+    private Operation createOperation(Account account, BigDecimal amount, OperationTypes type) {
+        Operation operation = prepareOperation(account, amount, type);
+        account.setBalance(operation.getAccountBalance());
+        return operation;
+    }
+
+    /**
+     * Метод для создания (без сохранения) операции без изменения баланса аккаунта. Используется журналом
+     * {@link OperationLedger} напрямую: журнал изменяет баланс проекции аккаунта только после приема операции.
+     * @param account Объект {@link Account}.
+     * @param amount Сумма операции.
+     * @param type Тип операции (DEPOSIT, WITHDRAW).
+     * @return Созданный объект {@link Operation} с балансом аккаунта после операции.
+     */
+    private Operation prepareOperation(Account account, BigDecimal amount, OperationTypes type) {
+
+        long minorAmount = toMinorAmount(amount, type);
+
+        long balance = switch (type) {
+            case OperationTypes.DEPOSIT -> MoneyUtils.add(account.getBalance(), minorAmount);
             case OperationTypes.WITHDRAW -> {
-                if (account.getBalance().compareTo(amount) < 0)
+                if (account.getBalance() < minorAmount) {
+                    operationMetrics.rejected(ExceptionsMessage.INSUFFICIENT_FUNDS);
                     throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INSUFFICIENT_FUNDS);
-                else
-                    account.setBalance(account.getBalance().subtract(amount));
+                }
+                yield MoneyUtils.subtract(account.getBalance(), minorAmount);
             }
             default -> throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.UNSUPPORTED_TYPE_OPERATION);
+        };
+
+        Operation operation = new Operation(minorAmount, balance, type);
+        operation.setAccount(account);
+        return operation;
+
+    }
+
+    /**
+     * Метод для перевода средств между аккаунтами.
+     * Списание и зачисление выполняются в одной транзакции и сохраняются парой связанных операций (TRANSFER):
+     * списание - с отрицательной суммой, зачисление - с положительной. Балансы изменяются условными запросами
+     * UPDATE ... RETURNING в порядке возрастания идентификатора аккаунта (запрос блокирует строку до конца транзакции),
+     * поэтому встречные переводы не попадают во взаимную блокировку. Перевод выполняется одной транзакцией
+     * на шарде аккаунтов, перевод между аккаунтами разных шардов отклоняется. Оба аккаунта проходят ограничитель
+     * интенсивности {@link OperationAdmission}.
+     * @param fromAccountId Идентификатор аккаунта отправителя.
+     * @param toAccountId Идентификатор аккаунта получателя.
+     * @param amount Сумма перевода.
+     * @return Объект {@link TransferDTO} с операциями списания и зачисления.
+     */
+    public TransferDTO processTransfer(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+
+        if (operationLedger != null)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.TRANSFER_UNAVAILABLE);
+        if (fromAccountId.equals(toAccountId))
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_TRANSFER);
+        long minorAmount = toMinorAmount(amount, OperationTypes.TRANSFER);
+        if (shardMap.shardOf(fromAccountId) != shardMap.shardOf(toAccountId))
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.CROSS_SHARD_TRANSFER);
+        admitTransfer(fromAccountId, toAccountId);
+
+        return shardMap.inShard(fromAccountId, () -> transactionTemplate.execute(status -> {
+
+            long fromBalance;
+            Long toBalance;
+            if (fromAccountId < toAccountId) {
+                fromBalance = withdraw(fromAccountId, minorAmount);
+                toBalance = deposit(toAccountId, minorAmount);
+            } else {
+                toBalance = deposit(toAccountId, minorAmount);
+                fromBalance = withdraw(fromAccountId, minorAmount);
+            }
+
+            Operation debit = new Operation(-minorAmount, fromBalance, OperationTypes.TRANSFER);
+            debit.setAccount(accountService.getAccountReference(fromAccountId));
+            operationRepository.save(debit);
+            Operation credit = new Operation(minorAmount, toBalance, OperationTypes.TRANSFER);
+            credit.setAccount(accountService.getAccountReference(toAccountId));
+            credit.setLinkedOperationId(debit.getId());
+            operationRepository.save(credit);
+            debit.setLinkedOperationId(credit.getId());
+
+            eventPublisher.publishEvent(new OperationsRecordedEvent(List.of(debit, credit)));
+            return new TransferDTO(convertToDTO(debit), convertToDTO(credit));
+
+        }));
+
+    }
+
+    /**
+     * Метод для пакетного осуществления операций над множеством аккаунтов.
+     * Операции распределяются по полосам движка {@link OperationEngine}, внутри полосы применяются
+     * порциями, каждая порция - одна транзакция с пакетной (JDBC batch) вставкой операций на шарде ее аккаунтов
+     * (операции полосы предварительно группируются по шардам). Ошибка отдельной операции не отменяет
+     * остальные операции пакета. Каждый аккаунт пакета проходит ограничитель интенсивности {@link OperationAdmission}
+     * один раз, операции отклоненного аккаунта получают результат с ошибкой 429.
+     * @param operations Список операций.
+     * @return Список результатов в порядке переданных операций.
+     */
+    public List<BatchOperationResultDTO> processBatch(List<BatchOperationRequestDTO> operations) {
+
+        if (operations.size() > batchMaxSize)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.BATCH_TOO_LARGE);
+
+        Map<Integer, List<Integer>> indexesByLane = new HashMap<>();
+        Map<Long, ErrorResponse> admission = new HashMap<>();
+        BatchOperationResultDTO[] results = new BatchOperationResultDTO[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            BatchOperationRequestDTO request = operations.get(i);
+            if (request.getAccountId() == null) {
+                results[i] = BatchOperationResultDTO.failed(i,
+                        new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND));
+            } else {
+                ErrorResponse rejection = admitBatch(request.getAccountId(), admission);
+                if (rejection != null)
+                    results[i] = BatchOperationResultDTO.failed(i, rejection);
+                else
+                    indexesByLane.computeIfAbsent(operationEngine.laneOf(request.getAccountId()),
+                            lane -> new ArrayList<>()).add(i);
+            }
         }
 
-        String operationDescription = String.format("%s на сумму: %s", type.getDescription(), amount);
-        Operation operation = new Operation(amount, account.getBalance(), type, operationDescription);
+        Map<Integer, Future<Void>> futures = new HashMap<>();
+        indexesByLane.forEach((lane, indexes) -> {
+            try {
+                futures.put(lane, operationEngine.submit(lane, () -> {
+                    groupByShard(operations, indexes, results).forEach((shard, shardIndexes) ->
+                            shardMap.runOnShard(shard, () -> {
+                                for (int from = 0; from < shardIndexes.size(); from += batchChunkSize) {
+                                    List<Integer> chunk = shardIndexes.subList(from,
+                                            Math.min(from + batchChunkSize, shardIndexes.size()));
+                                    if (operationLedger != null)
+                                        appendBatchChunk(operations, chunk, results);
+                                    else
+                                        applyBatchChunk(operations, chunk, results);
+                                }
+                            }));
+                    return null;
+                }));
+            } catch (ErrorResponse e) {
+                indexes.forEach(index -> results[index] = BatchOperationResultDTO.failed(index, e));
+            }
+        });
 
-        operation.setAccount(account);
-        operationRepository.save(operation);
+        futures.forEach((lane, future) -> {
+            try {
+                operationEngine.await(future);
+            } catch (ErrorResponse e) {
+                indexesByLane.get(lane).stream()
+                        .filter(index -> results[index] == null)
+                        .forEach(index -> results[index] = BatchOperationResultDTO.failed(index, e));
+            }
+        });
 
-        account.getOperationsList().add(operation);
-        accountService.updateAccountBalance(account);
+        return Arrays.asList(results);
 
-        return convertToDTO(operation);
+    }
+
+    /**
+     * Метод для группировки операций пакета по шардам их аккаунтов (с сохранением порядка операций).
+     * Операциям несуществующих аккаунтов записывается результат с ошибкой.
+     * @param operations Список всех операций пакета.
+     * @param indexes Индексы группируемых операций.
+     * @param results Массив результатов пакета.
+     * @return Индексы операций по номеру шарда.
+     */
+    private Map<Integer, List<Integer>> groupByShard(List<BatchOperationRequestDTO> operations,
+                                                     List<Integer> indexes,
+                                                     BatchOperationResultDTO[] results) {
+        Map<Integer, List<Integer>> indexesByShard = new TreeMap<>();
+        for (Integer index : indexes) {
+            try {
+                indexesByShard.computeIfAbsent(shardMap.shardOf(operations.get(index).getAccountId()),
+                        shard -> new ArrayList<>()).add(index);
+            } catch (ErrorResponse e) {
+                results[index] = BatchOperationResultDTO.failed(index, e);
+            }
+        }
+        return indexesByShard;
+    }
+
+    /**
+     * Метод для применения порции пакетных операций в одной транзакции.
+     * Полосы баланса горячих аккаунтов порции консолидируются до блокировки аккаунтов (блокировка FOR UPDATE
+     * конфликтует с пополнениями полос), а аккаунты, ставшие горячими по данным БД, - после нее.
+     * @param operations Список всех операций пакета.
+     * @param chunk Индексы операций порции.
+     * @param results Массив результатов пакета.
+     */
+    private void applyBatchChunk(List<BatchOperationRequestDTO> operations,
+                                 List<Integer> chunk,
+                                 BatchOperationResultDTO[] results) {
+
+        Map<Integer, Operation> created = new LinkedHashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Set<Long> accountIds = chunk.stream()
+                        .map(index -> operations.get(index).getAccountId())
+                        .collect(Collectors.toSet());
+                accountIds.stream()
+                        .filter(accountId -> hotAccountService.stripes(accountId) > 0)
+                        .sorted()
+                        .forEach(hotAccountService::consolidate);
+                Map<Long, Account> accounts = accountService.lockAccountsByIds(accountIds);
+                accounts.values().stream()
+                        .filter(account -> account.getHotStripes() > 0)
+                        .forEach(account -> account.setBalance(hotAccountService.consolidate(account.getId())));
+
+                for (Integer index : chunk) {
+                    BatchOperationRequestDTO request = operations.get(index);
+                    Account account = accounts.get(request.getAccountId());
+                    try {
+                        if (account == null)
+                            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+                        created.put(index, createOperation(account, request.getAmount(), request.getType()));
+                    } catch (ErrorResponse e) {
+                        results[index] = BatchOperationResultDTO.failed(index, e);
+                    }
+                }
+
+                operationRepository.saveAll(created.values());
+                if (!created.isEmpty())
+                    eventPublisher.publishEvent(new OperationsRecordedEvent(List.copyOf(created.values())));
+            });
+        } catch (RuntimeException e) {
+            ErrorResponse error = new ErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR, ExceptionsMessage.BATCH_CHUNK_FAILED);
+            created.keySet().forEach(index -> results[index] = BatchOperationResultDTO.failed(index, error));
+            return;
+        }
+
+        created.forEach((index, operation) ->
+                results[index] = BatchOperationResultDTO.succeeded(index, convertToDTO(operation)));
+
+    }
+
+    /**
+     * Метод для записи порции пакетных операций в журнал операций {@link OperationLedger}
+     * с ожиданием сброса записей порции на диск.
+     * @param operations Список всех операций пакета.
+     * @param chunk Индексы операций порции.
+     * @param results Массив результатов пакета.
+     */
+    private void appendBatchChunk(List<BatchOperationRequestDTO> operations,
+                                  List<Integer> chunk,
+                                  BatchOperationResultDTO[] results) {
+
+        Map<Integer, CompletableFuture<Operation>> accepted = new LinkedHashMap<>();
+        for (Integer index : chunk) {
+            BatchOperationRequestDTO request = operations.get(index);
+            try {
+                Account account = operationLedger.findAccount(request.getAccountId());
+                accepted.put(index, operationLedger.append(prepareOperation(account, request.getAmount(), request.getType())));
+            } catch (ErrorResponse e) {
+                results[index] = BatchOperationResultDTO.failed(index, e);
+            }
+        }
+
+        accepted.forEach((index, durable) -> {
+            try {
+                results[index] = BatchOperationResultDTO.succeeded(index, convertToDTO(operationLedger.await(durable)));
+            } catch (ErrorResponse e) {
+                results[index] = BatchOperationResultDTO.failed(index, e);
+            }
+        });
+
+    }
+
+    /**
+     * Метод для получения страницы операций аккаунта за определенный период (keyset-пагинация по паре (date, id)).
+     * Страница собирается из операций таблицы operations и архива {@link OperationArchive}. Архив читается вторым,
+     * поэтому операции, перенесенные в архив между двумя запросами, не теряются (повторы отбрасываются).
+     * Архив читается с порции, содержащей курсор, и только до набора страницы.
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода для поиска операций (С).
+     * @param to Дата конца периода для поиска операций (По).
+     * @param limit Максимальное количество операций на странице.
+     * @param cursor Курсор, полученный с предыдущей страницей (null - первая страница).
+     * @return Объект {@link OperationPageDTO} со списком операций и курсором следующей страницы.
+     */
+    public OperationPageDTO getOperationsPage(Long accountId, LocalDateTime from, LocalDateTime to,
+                                              int limit, String cursor) {
+
+        if (limit <= 0 || limit > pageMaxLimit)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_PAGE_LIMIT);
+
+        OperationCursor after = cursor == null ? new OperationCursor(from, Long.MIN_VALUE) : OperationCursor.decode(cursor);
+        List<Operation> operations = shardMap.inShard(accountId, () -> readRouting.onReplica(accountId, () -> {
+            Account account = accountService.findAccountById(accountId, Account.class);
+            List<Operation> recent = operationRepository.findPageAfter(
+                    account.getId(), from, to, after.date(), after.id(), Limit.of(limit + 1));
+            List<Operation> archived = after.date().isBefore(from)
+                    ? operationArchive.findPageAfter(account.getId(), from, Long.MIN_VALUE, to, limit + 1)
+                    : operationArchive.findPageAfter(account.getId(), after.date(), after.id(), to, limit + 1);
+            return mergeTiers(archived, recent).stream().limit(limit + 1).toList();
+        }));
+
+        String nextCursor = null;
+        if (operations.size() > limit) {
+            operations = operations.subList(0, limit);
+            Operation last = operations.getLast();
+            nextCursor = new OperationCursor(last.getDate(), last.getId()).encode();
+        }
+        return new OperationPageDTO(operations.stream().map(this::convertToDTO).toList(), nextCursor);
 
     }
 
     /**
      * Метод для получения операций (пополнений, списаний) аккаунта за определенный период.
+     * Операции читаются из таблицы operations и из архива {@link OperationArchive}.
      * @param accountId Идентификатор аккаунта.
      * @param from Дата начала периода для поиска операций (С).
      * @param to Дата конца периода для поиска операций (По).
      * @return Список операций аккаунта.
      */
     public List<OperationDTO> getOperationsByAccountIdAndDateBetween(Long accountId, LocalDateTime from, LocalDateTime to) {
-        Account account = accountService.findAccountById(accountId, Account.class);
-        return operationRepository
-                .findByAccountIdAndDateBetween(account.getId(), from, to)
-                .stream()
-                .map(this::convertToDTO).collect(Collectors.toList());
+        return shardMap.inShard(accountId, () -> readRouting.onReplica(accountId, () -> {
+            Account account = accountService.findAccountById(accountId, Account.class);
+            List<Operation> recent = operationRepository.findByAccountIdAndDateBetween(account.getId(), from, to);
+            List<Operation> archived = operationArchive.findOperations(account.getId(), from, to);
+            return mergeTiers(archived, recent).stream().map(this::convertToDTO).collect(Collectors.toList());
+        }));
+    }
+
+    /**
+     * Метод для объединения операций архива и таблицы operations, прочитанных в таком порядке: сначала
+     * таблица operations, затем архив. Операция, перенесенная в архив между запросами, попадает в оба списка.
+     * @param archived Операции архива в порядке (date, id).
+     * @param recent Операции таблицы operations.
+     * @return Список операций архива, за которыми следуют остальные операции таблицы operations.
+     */
+    private static List<Operation> mergeTiers(List<Operation> archived, List<Operation> recent) {
+        if (archived.isEmpty())
+            return recent;
+        Set<Long> archivedIds = archived.stream().map(Operation::getId).collect(Collectors.toSet());
+        List<Operation> operations = new ArrayList<>(archived);
+        recent.stream().filter(operation -> !archivedIds.contains(operation.getId())).forEach(operations::add);
+        return operations;
     }
 
 }
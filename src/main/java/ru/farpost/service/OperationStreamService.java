@@ -0,0 +1,330 @@
+package ru.farpost.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.farpost.archive.OperationArchive;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ReadRouting;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.dto.OperationDTO;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Класс (сервис) для потоковой выгрузки операций аккаунта в формате NDJSON (одна JSON-запись на строку).
+ * Операции читаются курсором JDBC с фиксированным размером выборки и сразу пишутся в ответ,
+ * поэтому потребление памяти не зависит от размера периода.
+ * <p>
+ * Выгрузка истории операций в CSV выполняется командой COPY ... TO STDOUT: строки формирует PostgreSQL,
+ * приложение только сжимает поток в gzip и передает его в ответ.
+ */
+@Service
+public class OperationStreamService {
+
+    /**
+     * Запрос операций аккаунта за период в порядке (date, id).
+     */
+    private static final String SELECT_OPERATIONS =
+            "SELECT id, amount, type, date, account_id, account_balance, linked_operation_id FROM operations " +
+            "WHERE account_id = ? AND date >= ? AND date <= ? " +
+            "ORDER BY date, id";
+
+    /**
+     * Формат даты в условиях запроса выгрузки (COPY не принимает параметры запроса).
+     */
+    private static final DateTimeFormatter EXPORT_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+
+    /**
+     * Формат даты операции архива в выгрузке (как у PostgreSQL: дробная часть секунд до микросекунд
+     * без конечных нулей).
+     */
+    private static final DateTimeFormatter EXPORT_TIMESTAMP = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 6, true)
+            .toFormatter();
+
+    /**
+     * Заголовок CSV выгрузки.
+     */
+    private static final byte[] EXPORT_HEADER =
+            "id,account_id,type,amount,account_balance,date,linked_operation_id\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Размер буфера сжатия выгрузки.
+     */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Выражение названия типа операции по коду.
+     */
+    private static final String TYPE_NAME = Arrays.stream(OperationTypes.values())
+            .map(type -> "WHEN " + type.getCode() + " THEN '" + type.name() + "'")
+            .collect(Collectors.joining(" ", "CASE type ", " END"));
+
+    /**
+     * Объект класса {@link AccountService}
+     */
+    private final AccountService accountService;
+
+    /**
+     * Объект класса {@link JdbcTemplate} с фиксированным размером выборки курсора.
+     */
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    /**
+     * Объект класса {@link TransactionTemplate} для транзакций только на чтение
+     * (курсор PostgreSQL работает только внутри транзакции).
+     */
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    /**
+     * Объект класса {@link ObjectMapper}
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Объект класса {@link ReadRouting}
+     */
+    private final ReadRouting readRouting;
+
+    /**
+     * Объект класса {@link OperationArchive}
+     */
+    private final OperationArchive operationArchive;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Конструктор для создания объектов сервиса с использованием "@Autowired".
+     * @param accountService Ссылка на объект {@link AccountService}.
+     * @param dataSource Источник соединений с БД.
+     * @param transactionManager Менеджер транзакций.
+     * @param objectMapper Ссылка на объект {@link ObjectMapper}.
+     * @param readRouting Ссылка на объект {@link ReadRouting}.
+     * @param operationArchive Ссылка на объект {@link OperationArchive}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param fetchSize Количество строк, получаемых из БД за одно обращение курсора.
+     */
+    @Autowired
+    public OperationStreamService(AccountService accountService,
+                                  DataSource dataSource,
+                                  PlatformTransactionManager transactionManager,
+                                  ObjectMapper objectMapper,
+                                  ReadRouting readRouting,
+                                  OperationArchive operationArchive,
+                                  ShardMap shardMap,
+                                  @Value("${app.stream.fetch-size:500}") int fetchSize) {
+        this.accountService = accountService;
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.readOnlyTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.objectMapper = objectMapper;
+        this.readRouting = readRouting;
+        this.operationArchive = operationArchive;
+        this.shardMap = shardMap;
+    }
+
+    /**
+     * Метод для проверки существования аккаунта перед началом выгрузки
+     * (после начала записи ответа вернуть код ошибки уже нельзя).
+     * @param accountId Идентификатор аккаунта.
+     */
+    public void checkAccountExists(Long accountId) {
+        accountService.findAccountById(accountId, Account.class);
+    }
+
+    /**
+     * Метод для потоковой записи операций аккаунта за период в формате NDJSON.
+     * Сначала записываются операции архива {@link OperationArchive}, затем - операции таблицы operations
+     * (оба уровня читаются в одной транзакции REPEATABLE READ, то есть из одного снимка данных).
+     * @param accountId Идентификатор аккаунта.
+     * @param from Дата начала периода для поиска операций (С).
+     * @param to Дата конца периода для поиска операций (По).
+     * @param out Поток, в который пишутся операции.
+     */
+    public void streamOperations(Long accountId, LocalDateTime from, LocalDateTime to, OutputStream out) throws IOException {
+
+        ObjectWriter writer = objectMapper.writer();
+        shardMap.runInShard(accountId, () -> readRouting.runOnReplica(accountId, () ->
+                readOnlyTransactionTemplate.executeWithoutResult(status -> {
+                    operationArchive.forEachOperation(accountId, from, to, operation -> {
+                        try {
+                            out.write(writer.writeValueAsBytes(new OperationDTO(
+                                    operation.getId(),
+                                    MoneyUtils.toDecimal(operation.getAmount()),
+                                    operation.getType(),
+                                    operation.getDescription(),
+                                    operation.getDate(),
+                                    accountId,
+                                    MoneyUtils.toDecimal(operation.getAccountBalance()),
+                                    operation.getLinkedOperationId())));
+                            out.write('\n');
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    streamingJdbcTemplate.query(SELECT_OPERATIONS, resultSet -> {
+                        long amount = resultSet.getLong("amount");
+                        OperationTypes type = OperationTypes.fromCode(resultSet.getShort("type"));
+                        OperationDTO operation = new OperationDTO(
+                                resultSet.getLong("id"),
+                                MoneyUtils.toDecimal(amount),
+                                type,
+                                type.describe(amount),
+                                resultSet.getTimestamp("date").toLocalDateTime(),
+                                resultSet.getLong("account_id"),
+                                MoneyUtils.toDecimal(resultSet.getObject("account_balance", Long.class)),
+                                resultSet.getObject("linked_operation_id", Long.class));
+                        try {
+                            out.write(writer.writeValueAsBytes(operation));
+                            out.write('\n');
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, accountId, Timestamp.valueOf(from), Timestamp.valueOf(to));
+                })));
+        out.flush();
+
+    }
+
+    /**
+     * Метод для проверки параметров выгрузки истории операций перед началом записи ответа.
+     * @param accountId Идентификатор аккаунта (null - операции всех аккаунтов).
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     */
+    public void checkExportFilter(Long accountId, LocalDateTime from, LocalDateTime to) {
+        if (from.isAfter(to))
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_PERIOD);
+        if (accountId != null)
+            checkAccountExists(accountId);
+    }
+
+    /**
+     * Метод для выгрузки истории операций за период в CSV, сжатый gzip.
+     * Сначала выгружаются операции архива {@link OperationArchive} (строки формируются приложением в формате COPY),
+     * затем - операции таблицы operations командой COPY; оба уровня читаются в одной транзакции REPEATABLE READ.
+     * Операции всех аккаунтов при включенном шардировании выгружаются по шардам по очереди (архив - по аккаунтам,
+     * затем operations - в порядке (date, id) внутри шарда), заголовок CSV записывается один раз.
+     * @param accountId Идентификатор аккаунта (null - операции всех аккаунтов).
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @param out Поток, в который пишется сжатый CSV.
+     */
+    public void exportOperations(Long accountId, LocalDateTime from, LocalDateTime to, OutputStream out) throws IOException {
+
+        String query = "SELECT id, account_id, " + TYPE_NAME + " AS type, " +
+                "(amount / 100.0)::NUMERIC(20, 2) AS amount, " +
+                "(account_balance / 100.0)::NUMERIC(20, 2) AS account_balance, " +
+                "date, linked_operation_id FROM operations " +
+                "WHERE date >= '" + from.format(EXPORT_DATE) + "' AND date <= '" + to.format(EXPORT_DATE) + "'" +
+                (accountId != null ? " AND account_id = " + accountId : "") +
+                " ORDER BY date, id";
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+        gzip.write(EXPORT_HEADER);
+        if (accountId != null) {
+            shardMap.runInShard(accountId, () -> readRouting.runOnReplica(accountId, () ->
+                    exportShard(accountId, from, to, query, gzip)));
+        } else {
+            shardMap.forEachShard(() -> readRouting.runOnReplica(null, () -> exportShard(null, from, to, query, gzip)));
+        }
+        gzip.finish();
+        out.flush();
+
+    }
+
+    /**
+     * Метод для выгрузки операций архива и таблицы operations текущего шарда в одной транзакции REPEATABLE READ.
+     * @param accountId Идентификатор аккаунта (null - операции всех аккаунтов).
+     * @param from Дата начала периода (С).
+     * @param to Дата конца периода (По).
+     * @param query Запрос операций таблицы operations.
+     * @param out Поток, в который пишется CSV.
+     */
+    private void exportShard(Long accountId, LocalDateTime from, LocalDateTime to, String query, OutputStream out) {
+        readOnlyTransactionTemplate.executeWithoutResult(status -> {
+            Consumer<Operation> archived = operation -> {
+                try {
+                    out.write(toCsv(operation));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            if (accountId != null)
+                operationArchive.forEachOperation(accountId, from, to, archived);
+            else
+                operationArchive.forEachOperation(from, to, archived);
+            copyOut(query, out);
+        });
+    }
+
+    /**
+     * Метод для формирования строки CSV операции в том же виде, что и COPY для запроса выгрузки.
+     * @param operation Объект {@link Operation}.
+     * @return Строка CSV (с переводом строки) в UTF-8.
+     */
+    private static byte[] toCsv(Operation operation) {
+        StringBuilder row = new StringBuilder(128)
+                .append(operation.getId()).append(',')
+                .append(operation.getAccount().getId()).append(',')
+                .append(operation.getType().name()).append(',')
+                .append(MoneyUtils.toDecimal(operation.getAmount()).toPlainString()).append(',')
+                .append(operation.getAccountBalance() != null
+                        ? MoneyUtils.toDecimal(operation.getAccountBalance()).toPlainString() : "").append(',')
+                .append(EXPORT_TIMESTAMP.format(operation.getDate())).append(',');
+        if (operation.getLinkedOperationId() != null)
+            row.append(operation.getLinkedOperationId());
+        return row.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Метод для выгрузки результата запроса в CSV (без заголовка) командой COPY ... TO STDOUT.
+     * @param query Запрос.
+     * @param out Поток, в который пишется CSV.
+     */
+    private void copyOut(String query, OutputStream out) {
+        streamingJdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return connection.unwrap(PGConnection.class).getCopyAPI()
+                        .copyOut("COPY (" + query + ") TO STDOUT WITH (FORMAT csv)", out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,406 @@
+package ru.farpost.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.farpost.archive.OperationArchive;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.datasource.ShardRouting;
+import ru.farpost.dto.BalanceEventDTO;
+import ru.farpost.dto.OperationDTO;
+import ru.farpost.event.AccountDeletedEvent;
+import ru.farpost.event.OperationsConsolidatedEvent;
+import ru.farpost.event.OperationsRecordedEvent;
+import ru.farpost.model.Operation;
+import ru.farpost.repository.OperationRepository;
+import ru.farpost.service.AccountService;
+import ru.farpost.service.OperationService;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Класс (хаб) для рассылки изменений баланса аккаунтов подписчикам потоков Server-Sent Events.
+ * <p>
+ * После фиксации транзакции с операциями событие каждой операции помещается в буферы подписчиков
+ * ее аккаунта (подписчиков одного аккаунта может быть много). Буфер подписчика ограничен
+ * app.balance-stream.buffer-size событиями, переполнение обрабатывается согласно
+ * app.balance-stream.slow-consumer-policy ({@link SlowConsumerPolicy}).
+ * <p>
+ * Каждое событие операции имеет идентификатор (id операции). Клиент, переподключившийся с заголовком
+ * Last-Event-ID, сначала получает из БД операции, выполненные после этой операции (если их нет или больше
+ * app.balance-stream.replay-limit - текущий баланс), а затем события в реальном времени. Порядок операций
+ * определяется парой (date, id): идентификатор пополнения горячего аккаунта присваивается при сохранении,
+ * позже даты операции, а операции аккаунта, перенесенного на другой шард, получают идентификаторы
+ * из диапазона нового шарда, поэтому идентификаторы операций аккаунта не возрастают вместе с датой.
+ */
+@Component
+public class BalanceStreamHub {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceStreamHub.class);
+
+    /**
+     * Подписки по идентификатору аккаунта.
+     */
+    private final Map<Long, Set<BalanceSubscription>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Количество открытых подписок.
+     */
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    /**
+     * Фабрика виртуальных потоков отправки событий подписок.
+     */
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("balance-stream-", 0).factory();
+
+    /**
+     * Объект класса {@link AccountService}
+     */
+    private final AccountService accountService;
+
+    /**
+     * Объект класса {@link OperationService}
+     */
+    private final OperationService operationService;
+
+    /**
+     * Объект класса {@link OperationRepository}
+     */
+    private final OperationRepository operationRepository;
+
+    /**
+     * Объект класса {@link OperationArchive}
+     */
+    private final OperationArchive operationArchive;
+
+    /**
+     * Объект класса {@link ShardMap}
+     */
+    private final ShardMap shardMap;
+
+    /**
+     * Количество переполнений буферов подписчиков по способу обработки.
+     */
+    private final Map<SlowConsumerPolicy, Counter> overflows = new EnumMap<>(SlowConsumerPolicy.class);
+
+    /**
+     * Максимальное количество событий, ожидающих отправки подписчику.
+     */
+    private final int bufferSize;
+
+    /**
+     * Способ обработки переполнения буфера подписчика.
+     */
+    private final SlowConsumerPolicy policy;
+
+    /**
+     * Максимальное количество операций, отправляемых из БД при переподключении.
+     */
+    private final int replayLimit;
+
+    /**
+     * Максимальное количество открытых подписок.
+     */
+    private final int maxSubscribers;
+
+    /**
+     * Интервал отправки комментария при отсутствии событий.
+     */
+    private final Duration heartbeatInterval;
+
+    /**
+     * Время жизни подписки (после него клиент переподключается).
+     */
+    private final Duration timeout;
+
+    /**
+     * Конструктор для создания хаба и регистрации его метрик с использованием "@Autowired".
+     * @param accountService Ссылка на объект {@link AccountService}.
+     * @param operationService Ссылка на объект {@link OperationService}.
+     * @param operationRepository Ссылка на объект {@link OperationRepository}.
+     * @param operationArchive Ссылка на объект {@link OperationArchive}.
+     * @param shardMap Ссылка на объект {@link ShardMap}.
+     * @param meterRegistry Реестр метрик.
+     * @param bufferSize Максимальное количество событий, ожидающих отправки подписчику.
+     * @param policy Способ обработки переполнения буфера подписчика.
+     * @param replayLimit Максимальное количество операций, отправляемых из БД при переподключении.
+     * @param maxSubscribers Максимальное количество открытых подписок.
+     * @param heartbeatInterval Интервал отправки комментария при отсутствии событий.
+     * @param timeout Время жизни подписки (после него клиент переподключается).
+     */
+    @Autowired
+    public BalanceStreamHub(AccountService accountService,
+                            OperationService operationService,
+                            OperationRepository operationRepository,
+                            OperationArchive operationArchive,
+                            ShardMap shardMap,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.balance-stream.buffer-size:1024}") int bufferSize,
+                            @Value("${app.balance-stream.slow-consumer-policy:DROP}") SlowConsumerPolicy policy,
+                            @Value("${app.balance-stream.replay-limit:1000}") int replayLimit,
+                            @Value("${app.balance-stream.max-subscribers:10000}") int maxSubscribers,
+                            @Value("${app.balance-stream.heartbeat-interval:15s}") Duration heartbeatInterval,
+                            @Value("${app.balance-stream.timeout:30m}") Duration timeout) {
+        this.accountService = accountService;
+        this.operationService = operationService;
+        this.operationRepository = operationRepository;
+        this.operationArchive = operationArchive;
+        this.shardMap = shardMap;
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.replayLimit = replayLimit;
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatInterval = heartbeatInterval;
+        this.timeout = timeout;
+        Gauge.builder("balance.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Количество открытых подписок на поток баланса")
+                .register(meterRegistry);
+        for (SlowConsumerPolicy value : SlowConsumerPolicy.values()) {
+            overflows.put(value, Counter.builder("balance.stream.overflows")
+                    .description("Количество переполнений буферов подписчиков потока баланса")
+                    .tag("policy", value.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Метод для подписки на изменения баланса аккаунта.
+     * @param accountId Идентификатор аккаунта.
+     * @param lastEventId Идентификатор последней полученной операции (null - начать с текущего баланса).
+     * @return Объект {@link SseEmitter} потока событий.
+     */
+    public SseEmitter subscribe(Long accountId, Long lastEventId) {
+
+        if (!accountService.existsAccountById(accountId))
+            throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.TOO_MANY_SUBSCRIBERS);
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        BalanceSubscription subscription = new BalanceSubscription(accountId, emitter, bufferSize, policy);
+        subscriptions.compute(accountId, (key, set) -> {
+            Set<BalanceSubscription> result = set != null ? set : ConcurrentHashMap.newKeySet();
+            result.add(subscription);
+            return result;
+        });
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(error -> subscription.close());
+
+        Thread thread = threadFactory.newThread(() -> deliver(subscription, lastEventId));
+        subscription.setThread(thread);
+        thread.start();
+        return emitter;
+
+    }
+
+    /**
+     * Метод для рассылки операций подписчикам их аккаунтов после фиксации транзакции
+     * (или сразу, если операции сохранены вне транзакции).
+     * @param event Событие {@link OperationsRecordedEvent}.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOperationsRecorded(OperationsRecordedEvent event) {
+        publish(event.operations());
+    }
+
+    /**
+     * Метод для рассылки консолидированных пополнений горячего аккаунта после фиксации транзакции консолидации.
+     * @param event Событие {@link OperationsConsolidatedEvent}.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOperationsConsolidated(OperationsConsolidatedEvent event) {
+        publish(event.operations());
+    }
+
+    /**
+     * Метод для рассылки операций подписчикам их аккаунтов. Неконсолидированные пополнения горячих аккаунтов
+     * (без баланса после операции) рассылаются после консолидации.
+     * @param operations Операции в порядке их осуществления.
+     */
+    private void publish(List<Operation> operations) {
+        if (subscriptions.isEmpty())
+            return;
+        for (Operation operation : operations) {
+            if (operation.getAccountBalance() == null)
+                continue;
+            Set<BalanceSubscription> accountSubscriptions = subscriptions.get(operation.getAccount().getId());
+            if (accountSubscriptions == null)
+                continue;
+            BalanceEventDTO balanceEvent = toEvent(operation);
+            for (BalanceSubscription subscription : accountSubscriptions) {
+                if (!subscription.offer(balanceEvent))
+                    overflows.get(subscription.getPolicy()).increment();
+            }
+        }
+    }
+
+    /**
+     * Метод для закрытия подписок аккаунта после фиксации транзакции удаления аккаунта.
+     * @param event Событие {@link AccountDeletedEvent}.
+     */
+    @TransactionalEventListener
+    public void onAccountDeleted(AccountDeletedEvent event) {
+        Set<BalanceSubscription> accountSubscriptions = subscriptions.get(event.accountId());
+        if (accountSubscriptions != null)
+            accountSubscriptions.forEach(BalanceSubscription::close);
+    }
+
+    /**
+     * Метод для закрытия всех подписок при остановке приложения.
+     */
+    @PreDestroy
+    public void closeAll() {
+        subscriptions.values().forEach(set -> set.forEach(BalanceSubscription::close));
+    }
+
+    /**
+     * Метод отправки событий подписки (выполняется виртуальным потоком подписки до ее закрытия).
+     * @param subscription Подписка.
+     * @param lastEventId Идентификатор последней полученной клиентом операции (null - нет).
+     */
+    private void deliver(BalanceSubscription subscription, Long lastEventId) {
+        SseEmitter emitter = subscription.getEmitter();
+        try {
+            Position lastSent;
+            ShardRouting.ShardScope shard = shardMap.scope(subscription.getAccountId());
+            try {
+                lastSent = lastEventId != null ? replay(subscription, lastEventId) : null;
+                if (lastSent == null)
+                    lastSent = sendBalance(subscription);
+            } finally {
+                shard.close();
+            }
+            while (!subscription.isClosed()) {
+                BalanceEventDTO event = subscription.poll(heartbeatInterval);
+                if (event == null) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    continue;
+                }
+                Position position = new Position(event.getOperation().getDate(), event.getOperation().getId());
+                if (!position.isAfter(lastSent))
+                    continue;
+                send(emitter, event);
+                lastSent = position;
+            }
+        } catch (InterruptedException e) {
+            // подписка закрыта
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Подписка на баланс аккаунта {} прервана: {}", subscription.getAccountId(), e.getMessage());
+        } catch (DataAccessException e) {
+            log.warn("Не удалось получить операции аккаунта {} для подписки: {}",
+                    subscription.getAccountId(), e.getMostSpecificCause().getMessage());
+        } finally {
+            subscription.close();
+            subscriptions.computeIfPresent(subscription.getAccountId(), (key, set) -> {
+                set.remove(subscription);
+                return set.isEmpty() ? null : set;
+            });
+            subscriberCount.decrementAndGet();
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Метод для отправки операций аккаунта, выполненных после последней полученной клиентом операции.
+     * @param subscription Подписка.
+     * @param lastEventId Идентификатор последней полученной клиентом операции.
+     * @return Позиция последней отправленной операции или null, если новых операций нет (или операция
+     * не найдена) либо их больше app.balance-stream.replay-limit (клиенту отправляется текущий баланс).
+     */
+    private Position replay(BalanceSubscription subscription, Long lastEventId) throws IOException {
+        List<Operation> operations =
+                operationRepository.findAfterOperation(subscription.getAccountId(), lastEventId, replayLimit + 1);
+        if (operations.isEmpty() || operations.size() > replayLimit)
+            return null;
+        for (Operation operation : operations) {
+            send(subscription.getEmitter(), toEvent(operation));
+        }
+        return new Position(operations.getLast().getDate(), operations.getLast().getId());
+    }
+
+    /**
+     * Метод для отправки текущего баланса (по последней операции аккаунта с определенным балансом после операции,
+     * если операций в таблице operations нет - по последней операции архива).
+     * @param subscription Подписка.
+     * @return Позиция последней операции аккаунта ({@link Position#START} - операций нет).
+     */
+    private Position sendBalance(BalanceSubscription subscription) throws IOException {
+        List<Operation> last = operationRepository.findByAccountIdAndAccountBalanceNotNullOrderByDateDescIdDesc(
+                subscription.getAccountId(), Limit.of(1));
+        if (last.isEmpty()) {
+            Operation archived = operationArchive.findLastOperation(subscription.getAccountId(), LocalDateTime.now());
+            last = archived == null ? List.of() : List.of(archived);
+        }
+        SseEmitter.SseEventBuilder event = SseEmitter.event().name("balance");
+        if (last.isEmpty()) {
+            subscription.getEmitter().send(event.data(
+                    new BalanceEventDTO(subscription.getAccountId(), BigDecimal.ZERO.setScale(2), null),
+                    MediaType.APPLICATION_JSON));
+            return Position.START;
+        }
+        OperationDTO operation = operationService.convertToDTO(last.getFirst());
+        subscription.getEmitter().send(event.id(String.valueOf(operation.getId())).data(
+                new BalanceEventDTO(subscription.getAccountId(), operation.getAccountBalance(), null),
+                MediaType.APPLICATION_JSON));
+        return new Position(operation.getDate(), operation.getId());
+    }
+
+    private static void send(SseEmitter emitter, BalanceEventDTO event) throws IOException {
+        emitter.send(SseEmitter.event()
+                .id(String.valueOf(event.getOperation().getId()))
+                .name("operation")
+                .data(event, MediaType.APPLICATION_JSON));
+    }
+
+    private BalanceEventDTO toEvent(Operation operation) {
+        OperationDTO dto = operationService.convertToDTO(operation);
+        return new BalanceEventDTO(dto.getAccountId(), dto.getAccountBalance(), dto);
+    }
+
+    /**
+     * Позиция операции в истории аккаунта - пара (date, id).
+     * @param date Дата операции.
+     * @param id Идентификатор операции.
+     */
+    private record Position(LocalDateTime date, long id) {
+
+        /**
+         * Позиция перед всеми операциями.
+         */
+        private static final Position START = new Position(LocalDateTime.MIN, Long.MIN_VALUE);
+
+        private boolean isAfter(Position other) {
+            int byDate = date.compareTo(other.date);
+            return byDate > 0 || byDate == 0 && id > other.id;
+        }
+
+    }
+
+}
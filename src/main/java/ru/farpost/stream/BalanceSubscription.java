@@ -0,0 +1,111 @@
+package ru.farpost.stream;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.farpost.dto.BalanceEventDTO;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Класс подписки на поток изменений баланса аккаунта.
+ * События помещаются в ограниченный буфер потоком, зафиксировавшим операцию, и отправляются клиенту
+ * отдельным виртуальным потоком подписки, поэтому медленный клиент не задерживает запись операций.
+ */
+class BalanceSubscription {
+
+    private final Long accountId;
+
+    private final SseEmitter emitter;
+
+    /**
+     * Буфер событий, ожидающих отправки клиенту.
+     */
+    private final BlockingQueue<BalanceEventDTO> buffer;
+
+    private final SlowConsumerPolicy policy;
+
+    /**
+     * Поток отправки событий подписки.
+     */
+    private volatile Thread thread;
+
+    private volatile boolean closed;
+
+    /**
+     * Конструктор для создания подписки.
+     * @param accountId Идентификатор аккаунта.
+     * @param emitter Поток событий ответа.
+     * @param bufferSize Максимальное количество событий, ожидающих отправки.
+     * @param policy Способ обработки переполнения буфера.
+     */
+    BalanceSubscription(Long accountId, SseEmitter emitter, int bufferSize, SlowConsumerPolicy policy) {
+        this.accountId = accountId;
+        this.emitter = emitter;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.policy = policy;
+    }
+
+    /**
+     * Метод для помещения события в буфер подписки.
+     * @param event Событие.
+     * @return false, если буфер переполнен (событие обработано согласно {@link SlowConsumerPolicy}).
+     */
+    boolean offer(BalanceEventDTO event) {
+        if (closed || buffer.offer(event))
+            return true;
+        if (policy == SlowConsumerPolicy.COALESCE) {
+            buffer.clear();
+            buffer.offer(event);
+        } else {
+            close();
+        }
+        return false;
+    }
+
+    /**
+     * Метод для получения следующего события из буфера.
+     * @param timeout Время ожидания события.
+     * @return Событие или null, если за время ожидания событий не было.
+     */
+    BalanceEventDTO poll(Duration timeout) throws InterruptedException {
+        return buffer.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Метод для закрытия подписки: поток отправки завершается и закрывает ответ.
+     * @return true, если подписка закрыта этим вызовом.
+     */
+    synchronized boolean close() {
+        if (closed)
+            return false;
+        closed = true;
+        if (thread != null)
+            thread.interrupt();
+        return true;
+    }
+
+    synchronized void setThread(Thread thread) {
+        this.thread = thread;
+        if (closed)
+            thread.interrupt();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    Long getAccountId() {
+        return accountId;
+    }
+
+    SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+}
@@ -0,0 +1,20 @@
+package ru.farpost.stream;
+
+/**
+ * Перечисление способов обработки переполнения буфера медленного подписчика потока баланса.
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * Подписчик отключается. Операции не теряются: клиент переподключается с заголовком Last-Event-ID
+     * и получает пропущенные операции из БД.
+     */
+    DROP,
+
+    /**
+     * Буфер заменяется последним событием: подписчик получает актуальный баланс,
+     * промежуточные операции пропускаются.
+     */
+    COALESCE
+
+}
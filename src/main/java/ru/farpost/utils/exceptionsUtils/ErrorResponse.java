@@ -4,6 +4,8 @@ import lombok.Getter;
 import org.springframework.http.HttpStatus;
 import ru.farpost.components.ExceptionsMessage;
 
+import java.time.Duration;
+
 /**
  * Класс для создания исключений которые могут происходить во время работы API.
  */
@@ -15,6 +17,11 @@ public class ErrorResponse extends RuntimeException {
      */
     private final int code;
 
+    /**
+     * Время, через которое запрос можно повторить (заголовок Retry-After), или null.
+     */
+    private final Duration retryAfter;
+
     /**
      * Конструктор для осуществления выбрасывания (throw) исключений
      * @param code Код исключения.
@@ -23,5 +30,19 @@ public class ErrorResponse extends RuntimeException {
     public ErrorResponse(HttpStatus code, ExceptionsMessage message) {
         super(message.getMessage());
         this.code = code.value();
+        this.retryAfter = null;
+    }
+
+    /**
+     * Конструктор для исключений отказа из-за перегрузки, после которых запрос можно повторить.
+     * Стек вызовов не заполняется: такие отказы частые и ожидаемые, их создание должно быть дешевым.
+     * @param code Код исключения.
+     * @param message Сообщение исключения.
+     * @param retryAfter Время, через которое запрос можно повторить.
+     */
+    public ErrorResponse(HttpStatus code, ExceptionsMessage message, Duration retryAfter) {
+        super(message.getMessage(), null, false, false);
+        this.code = code.value();
+        this.retryAfter = retryAfter;
     }
 }
@@ -1,25 +1,58 @@
 package ru.farpost.utils.exceptionsUtils;
 
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import ru.farpost.components.ExceptionsMessage;
 import ru.farpost.dto.ExceptionDTO;
 
+import java.time.Duration;
+
 /**
  * Класс для глобального отлавливания исключений которые могут быть выброшены во время работы API.
  */
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
+    /**
+     * Время, через которое можно повторить запрос, не получивший соединения с БД.
+     */
+    private static final Duration DATABASE_RETRY_AFTER = Duration.ofSeconds(1);
+
     /**
      * Метод осуществляющий JSON ответ с кодом и сообщением исключения.
+     * Код исключения возвращается и как HTTP-статус ответа, поэтому балансировщики и клиенты различают
+     * ошибки без разбора тела; для отказов из-за перегрузки добавляется заголовок Retry-After.
+     * Тип ответа задается явно, поэтому ошибка возвращается в JSON и на запросы потоков событий
+     * (Accept: text/event-stream).
      * @param e Исключение выброшенное во время работы API.
      * @return JSON ответ с кодом и сообщением исключения.
      */
     @ExceptionHandler(ErrorResponse.class)
     public ResponseEntity<ExceptionDTO> handleException(ErrorResponse e) {
         ExceptionDTO errorResponse = new ExceptionDTO(e.getCode(), e.getMessage());
-        return ResponseEntity.ok(errorResponse);
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(e.getCode()).contentType(MediaType.APPLICATION_JSON);
+        if (e.getRetryAfter() != null)
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()));
+        return response.body(errorResponse);
+    }
+
+    /**
+     * Метод для ответа 503 с заголовком Retry-After на запрос, не получивший соединения с БД: истекло ожидание
+     * соединения из пула (в том числе при перегрузке) или БД недоступна. Без него такие запросы завершались
+     * ответом 500, и клиенты и балансировщики не отличали перегрузку от ошибки в приложении.
+     * @param e Исключение получения соединения (начала транзакции JPA/TransactionTemplate или запроса JdbcTemplate).
+     * @return JSON ответ с кодом 503.
+     */
+    @ExceptionHandler({CannotCreateTransactionException.class, DataAccessResourceFailureException.class})
+    public ResponseEntity<ExceptionDTO> handleDatabaseUnavailable(Exception e) {
+        return handleException(new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ExceptionsMessage.DATABASE_UNAVAILABLE,
+                DATABASE_RETRY_AFTER));
     }
 
 }
@@ -0,0 +1,19 @@
+package ru.farpost.utils.moneyUtils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Класс для записи в JSON суммы в минимальных единицах в виде десятичного числа (1050 -> 10.50).
+ */
+public class MinorUnitsSerializer extends JsonSerializer<Long> {
+
+    @Override
+    public void serialize(Long value, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+        generator.writeNumber(MoneyUtils.toDecimal(value));
+    }
+
+}
@@ -0,0 +1,87 @@
+package ru.farpost.utils.moneyUtils;
+
+import org.springframework.http.HttpStatus;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Класс для работы с денежными суммами в минимальных единицах (копейках), хранящимися в long.
+ * Суммы принимаются и отдаются API в виде {@link BigDecimal} с двумя знаками после запятой,
+ * арифметика выполняется над long с проверкой переполнения.
+ */
+public final class MoneyUtils {
+
+    /**
+     * Количество знаков после запятой (минимальная единица - копейка).
+     */
+    public static final int SCALE = 2;
+
+    private MoneyUtils() {
+    }
+
+    /**
+     * Метод для перевода суммы в минимальные единицы.
+     * @param amount Сумма.
+     * @return Сумма в минимальных единицах.
+     * @throws ErrorResponse Если сумма не указана, содержит дробные копейки или не помещается в long.
+     */
+    public static long toMinorUnits(BigDecimal amount) {
+        if (amount == null)
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_AMOUNT);
+        try {
+            return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.INVALID_AMOUNT);
+        }
+    }
+
+    /**
+     * Метод для перевода суммы из минимальных единиц.
+     * @param amount Сумма в минимальных единицах.
+     * @return Сумма с двумя знаками после запятой.
+     */
+    public static BigDecimal toDecimal(long amount) {
+        return BigDecimal.valueOf(amount, SCALE);
+    }
+
+    /**
+     * Метод для перевода необязательной суммы из минимальных единиц.
+     * @param amount Сумма в минимальных единицах (null - сумма не определена).
+     * @return Сумма с двумя знаками после запятой или null.
+     */
+    public static BigDecimal toDecimal(Long amount) {
+        return amount == null ? null : toDecimal(amount.longValue());
+    }
+
+    /**
+     * Метод для сложения сумм с проверкой переполнения.
+     * @param balance Баланс в минимальных единицах.
+     * @param amount Сумма в минимальных единицах.
+     * @return Сумма баланса и суммы.
+     */
+    public static long add(long balance, long amount) {
+        try {
+            return Math.addExact(balance, amount);
+        } catch (ArithmeticException e) {
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.BALANCE_OVERFLOW);
+        }
+    }
+
+    /**
+     * Метод для вычитания сумм с проверкой переполнения.
+     * @param balance Баланс в минимальных единицах.
+     * @param amount Сумма в минимальных единицах.
+     * @return Разность баланса и суммы.
+     */
+    public static long subtract(long balance, long amount) {
+        try {
+            return Math.subtractExact(balance, amount);
+        } catch (ArithmeticException e) {
+            throw new ErrorResponse(HttpStatus.BAD_REQUEST, ExceptionsMessage.BALANCE_OVERFLOW);
+        }
+    }
+
+}
@@ -0,0 +1,6 @@
+-- Пометка удаленного аккаунта: при фоновом удалении аккаунт сразу становится недоступным,
+-- а его операции удаляются порциями (AccountPurgeService), после чего удаляется и строка аккаунта.
+ALTER TABLE accounts
+    ADD COLUMN IF NOT EXISTS deleted_at TIMESTAMP(6);
+
+CREATE INDEX IF NOT EXISTS idx_accounts_deleted_at ON accounts (deleted_at) WHERE deleted_at IS NOT NULL;
@@ -0,0 +1,19 @@
+-- Горячие аккаунты: пополнения аккаунта с hot_stripes > 0 прибавляются к одной из его полос
+-- (account_balance_stripes) вместо строки аккаунта. Баланс аккаунта - balance плюс сумма полос.
+-- Операции таких пополнений сохраняются без баланса после операции (account_balance IS NULL),
+-- баланс проставляется при консолидации полос (HotAccountService).
+ALTER TABLE accounts
+    ADD COLUMN IF NOT EXISTS hot_stripes INTEGER NOT NULL DEFAULT 0;
+
+CREATE TABLE IF NOT EXISTS account_balance_stripes
+(
+    account_id BIGINT  NOT NULL REFERENCES accounts (id) ON DELETE CASCADE,
+    stripe     INTEGER NOT NULL,
+    pending    BIGINT  NOT NULL DEFAULT 0,
+    PRIMARY KEY (account_id, stripe)
+);
+
+ALTER TABLE operations
+    ALTER COLUMN account_balance DROP NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_operations_pending ON operations (account_id, date, id) WHERE account_balance IS NULL;
@@ -0,0 +1,18 @@
+-- Архив операций (холодный уровень): операции закрытых месяцев старше app.archive.after-months переносятся
+-- из operations порциями. Порция - операции одного аккаунта в порядке (date, id), сжатые по колонкам
+-- (OperationArchiveCodec). Сжатие выполняет приложение, поэтому data хранится без сжатия TOAST.
+CREATE TABLE IF NOT EXISTS operations_archive
+(
+    account_id       BIGINT       NOT NULL REFERENCES accounts (id) ON DELETE CASCADE,
+    first_date       TIMESTAMP(6) NOT NULL,
+    first_id         BIGINT       NOT NULL,
+    last_date        TIMESTAMP(6) NOT NULL,
+    last_id          BIGINT       NOT NULL,
+    operations_count INTEGER      NOT NULL,
+    closing_balance  BIGINT       NOT NULL,
+    data             BYTEA        NOT NULL,
+    PRIMARY KEY (account_id, first_date, first_id)
+);
+
+ALTER TABLE operations_archive
+    ALTER COLUMN data SET STORAGE EXTERNAL;
@@ -0,0 +1,21 @@
+-- Шардирование аккаунтов: шард аккаунта определяется по старшим битам идентификатора (id >> 48 - домашний шард),
+-- поэтому последовательности шарда N выдают идентификаторы из диапазона [N * 2^48, (N + 1) * 2^48).
+-- Номер шарда подставляется при миграции (spring.flyway.placeholders.shard, для остальных шардов -
+-- ShardDataSourceConfiguration). На шарде 0 (и без шардирования) последовательности не изменяются.
+DO
+$$
+    BEGIN
+        IF ${shard} > 0 THEN
+            PERFORM setval('accounts_seq', GREATEST((SELECT last_value FROM accounts_seq), ${shard}::BIGINT << 48));
+            PERFORM setval('operations_seq', GREATEST((SELECT last_value FROM operations_seq), ${shard}::BIGINT << 48));
+        END IF;
+    END
+$$;
+
+-- Справочник перенесенных аккаунтов: ведется на домашнем шарде аккаунта, запись есть только у аккаунтов,
+-- перенесенных с домашнего шарда на другой (AccountShardMoveService).
+CREATE TABLE IF NOT EXISTS account_relocations
+(
+    account_id BIGINT  PRIMARY KEY,
+    shard      INTEGER NOT NULL
+);
@@ -0,0 +1,20 @@
+-- Исходная схема, ранее создаваемая Hibernate (ddl-auto=update).
+-- Для существующих БД выражения ничего не меняют.
+CREATE TABLE IF NOT EXISTS accounts
+(
+    id         BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    balance    NUMERIC(38, 2) NOT NULL,
+    created_at TIMESTAMP(6)   NOT NULL,
+    username   VARCHAR(100)   NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS operations
+(
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    account_balance NUMERIC(38, 2) NOT NULL,
+    amount          NUMERIC(38, 2) NOT NULL,
+    date            TIMESTAMP(6)   NOT NULL,
+    description     VARCHAR(255)   NOT NULL,
+    type            SMALLINT       NOT NULL CHECK (type BETWEEN 0 AND 1),
+    account_id      BIGINT REFERENCES accounts (id)
+);
@@ -0,0 +1,10 @@
+-- Перевод генерации идентификаторов с IDENTITY на последовательности с шагом 50 (pooled),
+-- что позволяет Hibernate отправлять вставки пакетами (JDBC batch).
+CREATE SEQUENCE IF NOT EXISTS accounts_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS operations_seq START WITH 1 INCREMENT BY 50;
+
+SELECT setval('accounts_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM accounts));
+SELECT setval('operations_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM operations));
+
+ALTER TABLE accounts ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE operations ALTER COLUMN id DROP IDENTITY IF EXISTS;
@@ -0,0 +1,13 @@
+-- Индекс для поиска операций аккаунта по дате (баланс на дату, операции за период).
+CREATE INDEX IF NOT EXISTS idx_operations_account_date ON operations (account_id, date);
+
+-- Контрольные точки баланса: баланс аккаунта на конец каждого дня, в котором были операции.
+CREATE TABLE IF NOT EXISTS balance_snapshots
+(
+    account_id          BIGINT         NOT NULL REFERENCES accounts (id),
+    day                 DATE           NOT NULL,
+    closing_balance     NUMERIC(38, 2) NOT NULL,
+    last_operation_id   BIGINT         NOT NULL,
+    last_operation_date TIMESTAMP(6)   NOT NULL,
+    PRIMARY KEY (account_id, day)
+);
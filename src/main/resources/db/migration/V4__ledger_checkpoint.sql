@@ -0,0 +1,11 @@
+-- Контрольная точка журнала операций (режим app.ledger.enabled): номер последней записи журнала,
+-- примененной к таблицам operations и accounts. Обновляется в одной транзакции с применением записей.
+CREATE TABLE IF NOT EXISTS ledger_checkpoint
+(
+    id          SMALLINT PRIMARY KEY,
+    applied_lsn BIGINT NOT NULL
+);
+
+INSERT INTO ledger_checkpoint (id, applied_lsn)
+VALUES (1, 0)
+ON CONFLICT (id) DO NOTHING;
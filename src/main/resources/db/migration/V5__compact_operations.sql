@@ -0,0 +1,18 @@
+-- Компактное хранение сумм и операций:
+-- суммы и балансы - BIGINT в минимальных единицах (копейках) вместо NUMERIC,
+-- тип операции - постоянный код (DEPOSIT = 1, WITHDRAW = 2) вместо порядкового номера константы,
+-- описание операции не хранится и строится при чтении по типу и сумме.
+ALTER TABLE operations
+    DROP CONSTRAINT IF EXISTS operations_type_check;
+
+ALTER TABLE operations
+    ALTER COLUMN amount TYPE BIGINT USING (amount * 100)::BIGINT,
+    ALTER COLUMN account_balance TYPE BIGINT USING (account_balance * 100)::BIGINT,
+    ALTER COLUMN type TYPE SMALLINT USING (type + 1),
+    DROP COLUMN IF EXISTS description;
+
+ALTER TABLE accounts
+    ALTER COLUMN balance TYPE BIGINT USING (balance * 100)::BIGINT;
+
+ALTER TABLE balance_snapshots
+    ALTER COLUMN closing_balance TYPE BIGINT USING (closing_balance * 100)::BIGINT;
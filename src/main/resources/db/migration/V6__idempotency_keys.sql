@@ -0,0 +1,10 @@
+-- Ключи идемпотентности операций (заголовок Idempotency-Key): ключ и идентификатор созданной по нему операции.
+-- Записи старше app.idempotency.retention периодически удаляются.
+CREATE TABLE IF NOT EXISTS idempotency_keys
+(
+    key          VARCHAR(255) PRIMARY KEY,
+    operation_id BIGINT       NOT NULL,
+    created_at   TIMESTAMP(6) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created_at ON idempotency_keys (created_at);
@@ -0,0 +1,4 @@
+-- Переводы между аккаунтами (TRANSFER = 3): перевод сохраняется парой операций - списание (отрицательная сумма)
+-- и зачисление, каждая операция пары ссылается на другую.
+ALTER TABLE operations
+    ADD COLUMN IF NOT EXISTS linked_operation_id BIGINT;
@@ -0,0 +1,46 @@
+-- Секционирование таблицы операций по дате: одна секция (operations_YYYY_MM) на календарный месяц.
+-- Операции переносятся в секционированную таблицу, секции создаются с месяца самой ранней операции
+-- и на три месяца вперед; следующие секции создает OperationPartitionService.
+-- Первичный ключ секционированной таблицы обязан включать ключ секционирования, поэтому он - (id, date).
+ALTER TABLE operations RENAME TO operations_unpartitioned;
+
+CREATE TABLE operations
+(
+    id                  BIGINT       NOT NULL,
+    account_balance     BIGINT       NOT NULL,
+    amount              BIGINT       NOT NULL,
+    date                TIMESTAMP(6) NOT NULL,
+    type                SMALLINT     NOT NULL,
+    account_id          BIGINT,
+    linked_operation_id BIGINT
+) PARTITION BY RANGE (date);
+
+DO
+$$
+    DECLARE
+        month     DATE := date_trunc('month', LEAST(now(), (SELECT MIN(date) FROM operations_unpartitioned)));
+        last_month DATE := GREATEST(date_trunc('month', now()) + INTERVAL '3 months',
+                                    date_trunc('month', (SELECT MAX(date) FROM operations_unpartitioned)));
+    BEGIN
+        WHILE month <= last_month
+            LOOP
+                EXECUTE format('CREATE TABLE %I PARTITION OF operations FOR VALUES FROM (%L) TO (%L)',
+                               'operations_' || to_char(month, 'YYYY_MM'), month, month + INTERVAL '1 month');
+                month := month + INTERVAL '1 month';
+            END LOOP;
+    END
+$$;
+
+INSERT INTO operations (id, account_balance, amount, date, type, account_id, linked_operation_id)
+SELECT id, account_balance, amount, date, type, account_id, linked_operation_id
+FROM operations_unpartitioned;
+
+DROP TABLE operations_unpartitioned;
+
+ALTER TABLE operations
+    ADD PRIMARY KEY (id, date),
+    ADD FOREIGN KEY (account_id) REFERENCES accounts (id);
+
+CREATE INDEX idx_operations_account_date ON operations (account_id, date);
+
+ANALYZE operations;
@@ -0,0 +1,50 @@
+-- Дневные итоги операций в контрольных точках баланса (для выписки за период):
+-- суммы и количество зачислений и списаний, минимальный и максимальный баланс за день.
+-- Списание по переводу (отрицательная сумма) учитывается как списание, зачисление по переводу - как зачисление.
+ALTER TABLE balance_snapshots
+    ADD COLUMN IF NOT EXISTS deposits_total    BIGINT  NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS deposits_count    INTEGER NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS withdrawals_total BIGINT  NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS withdrawals_count INTEGER NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS min_balance       BIGINT,
+    ADD COLUMN IF NOT EXISTS max_balance       BIGINT;
+
+INSERT INTO balance_snapshots (account_id, day, closing_balance, last_operation_id, last_operation_date,
+                               deposits_total, deposits_count, withdrawals_total, withdrawals_count,
+                               min_balance, max_balance)
+SELECT o.account_id,
+       o.date::date,
+       (array_agg(o.account_balance ORDER BY o.date DESC, o.id DESC))[1],
+       (array_agg(o.id ORDER BY o.date DESC, o.id DESC))[1],
+       MAX(o.date),
+       COALESCE(SUM(o.signed_amount) FILTER (WHERE o.signed_amount > 0), 0),
+       COUNT(*) FILTER (WHERE o.signed_amount > 0),
+       COALESCE(-SUM(o.signed_amount) FILTER (WHERE o.signed_amount < 0), 0),
+       COUNT(*) FILTER (WHERE o.signed_amount < 0),
+       MIN(o.account_balance),
+       MAX(o.account_balance)
+FROM (SELECT id, account_id, date, account_balance,
+             CASE WHEN type = 2 THEN -amount ELSE amount END AS signed_amount
+      FROM operations
+      WHERE account_id IS NOT NULL) o
+GROUP BY o.account_id, o.date::date
+ON CONFLICT (account_id, day) DO UPDATE SET
+    closing_balance = EXCLUDED.closing_balance,
+    last_operation_id = EXCLUDED.last_operation_id,
+    last_operation_date = EXCLUDED.last_operation_date,
+    deposits_total = EXCLUDED.deposits_total,
+    deposits_count = EXCLUDED.deposits_count,
+    withdrawals_total = EXCLUDED.withdrawals_total,
+    withdrawals_count = EXCLUDED.withdrawals_count,
+    min_balance = EXCLUDED.min_balance,
+    max_balance = EXCLUDED.max_balance;
+
+-- Дни, операции которых уже удалены (срок хранения секций), - по балансу на конец дня.
+UPDATE balance_snapshots
+SET min_balance = closing_balance,
+    max_balance = closing_balance
+WHERE min_balance IS NULL;
+
+ALTER TABLE balance_snapshots
+    ALTER COLUMN min_balance SET NOT NULL,
+    ALTER COLUMN max_balance SET NOT NULL;
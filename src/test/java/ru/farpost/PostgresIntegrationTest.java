@@ -0,0 +1,60 @@
+package ru.farpost;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Базовый класс интеграционных тестов: контекст приложения (без веб-сервера) на встроенном PostgreSQL 17,
+ * схема которого создается миграциями Flyway приложения. Экземпляр PostgreSQL один на все тесты JVM.
+ * Ограничитель интенсивности выключен: тесты нагружают один аккаунт сильнее лимита по умолчанию.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "app.admission.enabled=false")
+public abstract class PostgresIntegrationTest {
+
+    /**
+     * Основная БД тестов.
+     */
+    protected static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> jdbcUrl(POSTGRES));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+    }
+
+    /**
+     * Метод для запуска экземпляра встроенного PostgreSQL, останавливаемого при завершении JVM.
+     * @return Объект {@link EmbeddedPostgres}.
+     */
+    protected static EmbeddedPostgres startPostgres() {
+        try {
+            EmbeddedPostgres postgres = EmbeddedPostgres.builder().start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    postgres.close();
+                } catch (IOException ignored) {
+                    // процесс PostgreSQL завершается вместе с JVM
+                }
+            }));
+            return postgres;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Метод для получения адреса JDBC базы postgres экземпляра.
+     * @param postgres Объект {@link EmbeddedPostgres}.
+     * @return Адрес JDBC.
+     */
+    protected static String jdbcUrl(EmbeddedPostgres postgres) {
+        return postgres.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true";
+    }
+
+}
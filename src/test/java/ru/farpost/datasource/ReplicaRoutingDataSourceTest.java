@@ -0,0 +1,144 @@
+package ru.farpost.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Тесты маршрутизации чтения {@link ReplicaRoutingDataSource} и {@link ReadRouting} на двух экземплярах
+ * встроенного PostgreSQL: основной БД и реплике. Экземпляр, обслуживший запрос, определяется по его порту.
+ */
+class ReplicaRoutingDataSourceTest {
+
+    private static final long ACCOUNT_ID = 1L;
+
+    private static final long OTHER_ACCOUNT_ID = 2L;
+
+    private static final Duration READ_YOUR_WRITES_WINDOW = Duration.ofMillis(500);
+
+    private static EmbeddedPostgres primary;
+
+    private EmbeddedPostgres replica;
+
+    private HikariDataSource primaryPool;
+
+    private HikariDataSource replicaPool;
+
+    private ReadRouting readRouting;
+
+    private ReplicaRoutingDataSource dataSource;
+
+    @BeforeAll
+    static void startPrimary() throws IOException {
+        primary = EmbeddedPostgres.builder().start();
+    }
+
+    @AfterAll
+    static void stopPrimary() throws IOException {
+        primary.close();
+    }
+
+    @BeforeEach
+    void startReplica() throws IOException {
+        replica = EmbeddedPostgres.builder().start();
+        primaryPool = pool("primary", primary.getJdbcUrl("postgres", "postgres"));
+        replicaPool = pool("replica-0", replica.getJdbcUrl("postgres", "postgres"));
+        readRouting = new ReadRouting(true, READ_YOUR_WRITES_WINDOW, 1000);
+        dataSource = new ReplicaRoutingDataSource(primaryPool, List.of(replicaPool), readRouting,
+                Duration.ofSeconds(5), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void stopReplica() throws IOException {
+        dataSource.close();
+        primaryPool.close();
+        replica.close();
+    }
+
+    /**
+     * Чтение аккаунта идет с реплики, а в течение окна read-your-writes после изменения аккаунта - из основной БД.
+     * Окно не затрагивает чтение других аккаунтов и запросы вне областей чтения.
+     */
+    @Test
+    void recentlyWrittenAccountIsReadFromPrimary() throws InterruptedException {
+        assertEquals(replica.getPort(), readPort(ACCOUNT_ID));
+        assertEquals(primary.getPort(), port());
+
+        readRouting.recordWrite(ACCOUNT_ID);
+        assertEquals(primary.getPort(), readPort(ACCOUNT_ID));
+        assertEquals(replica.getPort(), readPort(OTHER_ACCOUNT_ID));
+        assertEquals(primary.getPort(), readRouting.onReplica(OTHER_ACCOUNT_ID,
+                () -> readRouting.onPrimary(this::port)));
+
+        Thread.sleep(READ_YOUR_WRITES_WINDOW.multipliedBy(2).toMillis());
+        assertEquals(replica.getPort(), readPort(ACCOUNT_ID));
+    }
+
+    /**
+     * Остановленная реплика отмечается недоступной проверкой состояния, и чтение идет в основную БД.
+     */
+    @Test
+    void stoppedReplicaFallsBackToPrimary() throws IOException {
+        assertEquals(replica.getPort(), readPort(ACCOUNT_ID));
+
+        replica.close();
+        dataSource.checkReplicas();
+        assertEquals(primary.getPort(), readPort(ACCOUNT_ID));
+        assertEquals(primary.getPort(), readPort(null));
+    }
+
+    /**
+     * Реплика, соединение с которой не удалось получить при чтении, отмечается недоступной без ожидания
+     * проверки состояния: чтение сразу идет в основную БД.
+     */
+    @Test
+    void unreachableReplicaFallsBackToPrimary() throws IOException {
+        HikariDataSource unreachable = pool("replica-1", "jdbc:postgresql://localhost:" + freePort() + "/postgres");
+        try (ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryPool, List.of(unreachable),
+                readRouting, Duration.ofSeconds(5), new SimpleMeterRegistry())) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(routing);
+            assertEquals(primary.getPort(), readRouting.onReplica(ACCOUNT_ID,
+                    () -> jdbcTemplate.queryForObject("SHOW port", Integer.class)));
+        }
+    }
+
+    private int readPort(Long accountId) {
+        return readRouting.onReplica(accountId, this::port);
+    }
+
+    private int port() {
+        return new JdbcTemplate(dataSource).queryForObject("SHOW port", Integer.class);
+    }
+
+    private static HikariDataSource pool(String name, String url) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(url);
+        pool.setUsername("postgres");
+        pool.setPassword("postgres");
+        pool.setMaximumPoolSize(2);
+        pool.setConnectionTimeout(250);
+        pool.setInitializationFailTimeout(-1);
+        return pool;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package ru.farpost.ledger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.model.Account;
+import ru.farpost.model.Operation;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тесты журнала операций {@link OperationLedger} без БД: применение записей к БД заблокировано,
+ * поэтому очереди журнала (емкостью в одну операцию) заполняются после нескольких операций.
+ */
+class OperationLedgerTest {
+
+    private static final long ACCOUNT_ID = 1L;
+
+    private static final long INITIAL_BALANCE = 1000L;
+
+    @TempDir
+    Path directory;
+
+    private final CountDownLatch applyReleased = new CountDownLatch(1);
+
+    private OperationLedger ledger;
+
+    @BeforeEach
+    void startLedger() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT applied_lsn"), eq(Long.class))).thenReturn(0L);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT nextval"), eq(Long.class))).thenReturn(50L, 100L, 150L);
+        when(jdbcTemplate.queryForList(startsWith("SELECT balance"), eq(Long.class), eq(ACCOUNT_ID)))
+                .thenReturn(List.of(INITIAL_BALANCE));
+
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        doAnswer(invocation -> {
+            applyReleased.await();
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+
+        ledger = new OperationLedger(jdbcTemplate, transactionTemplate, mock(ApplicationEventPublisher.class),
+                new SimpleMeterRegistry(), directory, DataSize.ofMegabytes(1), Duration.ofMillis(1), 1, 1, 1);
+        ledger.start();
+    }
+
+    @AfterEach
+    void stopLedger() {
+        applyReleased.countDown();
+        ledger.stop();
+    }
+
+    /**
+     * Операция, отклоненная из-за переполнения очереди записи, не должна изменять баланс проекции аккаунта,
+     * а принятая - должна.
+     */
+    @Test
+    void rejectedOperationDoesNotChangeProjection() {
+        Account account = ledger.findAccount(ACCOUNT_ID);
+        assertOverflowKeepsProjection(account, () -> ledger.append(deposit(account, 100)));
+    }
+
+    /**
+     * То же для операции с ключом идемпотентности: ключ отклоненной операции освобождается.
+     */
+    @Test
+    void rejectedIdempotentOperationDoesNotChangeProjection() {
+        Account account = ledger.findAccount(ACCOUNT_ID);
+        AtomicInteger keys = new AtomicInteger();
+        CompletableFuture<Operation> accepted = assertOverflowKeepsProjection(account,
+                () -> ledger.append("key-" + keys.incrementAndGet(), () -> null, () -> deposit(account, 100)));
+
+        applyReleased.countDown();
+        ledger.await(accepted);
+        long balance = account.getBalance();
+        Operation operation = ledger.await(
+                ledger.append("key-" + keys.get(), () -> null, () -> deposit(account, 100)));
+        assertEquals(balance + 100, operation.getAccountBalance());
+        assertEquals(balance + 100, account.getBalance());
+    }
+
+    /**
+     * Баланс аккаунта без принятых операций читается из БД (null), а после приема операции - из проекции,
+     * хотя применение записей к БД еще не выполнено.
+     */
+    @Test
+    void balanceIncludesOperationsNotAppliedToDatabase() {
+        assertNull(ledger.findBalance(ACCOUNT_ID));
+        Account account = ledger.findAccount(ACCOUNT_ID);
+        ledger.await(ledger.append(deposit(account, 100)));
+        assertEquals(INITIAL_BALANCE + 100, ledger.findBalance(ACCOUNT_ID));
+    }
+
+    /**
+     * Метод для приема операций до переполнения очереди записи с проверкой баланса проекции после каждой операции.
+     * @param account Проекция аккаунта.
+     * @param append Прием операции на 100 минимальных единиц.
+     * @return Объект {@link CompletableFuture} последней принятой операции.
+     */
+    private CompletableFuture<Operation> assertOverflowKeepsProjection(Account account,
+                                                                       Supplier<CompletableFuture<Operation>> append) {
+        CompletableFuture<Operation> accepted = null;
+        for (int i = 0; i < 100; i++) {
+            long balance = account.getBalance();
+            try {
+                accepted = append.get();
+                assertEquals(balance + 100, account.getBalance());
+            } catch (ErrorResponse e) {
+                assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getCode());
+                assertEquals(ExceptionsMessage.OPERATION_QUEUE_OVERFLOW.getMessage(), e.getMessage());
+                assertEquals(balance, account.getBalance());
+                assertEquals(balance, ledger.findAccount(ACCOUNT_ID).getBalance());
+                return accepted;
+            }
+        }
+        return fail("Очередь записи журнала не переполнилась");
+    }
+
+    private static Operation deposit(Account account, long amount) {
+        Operation operation = new Operation(amount, account.getBalance() + amount, OperationTypes.DEPOSIT);
+        operation.setAccount(account);
+        return operation;
+    }
+
+}
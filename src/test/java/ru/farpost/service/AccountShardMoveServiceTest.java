@@ -0,0 +1,241 @@
+package ru.farpost.service;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import ru.farpost.PostgresIntegrationTest;
+import ru.farpost.components.ExceptionsMessage;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.datasource.ShardMap;
+import ru.farpost.datasource.ShardRouting;
+import ru.farpost.datasource.ShardRoutingDataSource;
+import ru.farpost.utils.exceptionsUtils.ErrorResponse;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Тесты переноса аккаунтов между шардами {@link AccountShardMoveService} на двух экземплярах встроенного
+ * PostgreSQL (шард 0 - основная БД, шард 1 - второй экземпляр). Фоновые удаление аккаунтов и проверка копий
+ * отложены, чтобы тесты управляли ими сами.
+ */
+@TestPropertySource(properties = {
+        "app.shards.enabled=true",
+        "app.accounts.purge-interval=1h",
+        "app.shards.check-interval=1h"
+})
+class AccountShardMoveServiceTest extends PostgresIntegrationTest {
+
+    private static final EmbeddedPostgres SHARD_ONE = startPostgres();
+
+    private static final int DEPOSIT_THREADS = 4;
+
+    private static final long DEPOSIT = 100;
+
+    @DynamicPropertySource
+    static void shards(DynamicPropertyRegistry registry) {
+        registry.add("app.shards.urls", () -> jdbcUrl(SHARD_ONE));
+    }
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private OperationService operationService;
+
+    @Autowired
+    private AccountShardMoveService accountShardMoveService;
+
+    @Autowired
+    private ShardMap shardMap;
+
+    @Autowired
+    private ShardRouting shardRouting;
+
+    @Autowired
+    private ShardRoutingDataSource shardRoutingDataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Перенос аккаунта во время непрерывных пополнений: пополнения, ожидавшие блокировки аккаунта, повторяются
+     * на новом шарде, поэтому на целевом шарде оказываются все подтвержденные операции, а баланс равен их сумме.
+     */
+    @Test
+    void moveKeepsConcurrentDeposits() throws Exception {
+        Long accountId = accountService.createAccount("move-under-load").getId();
+        int source = accountShardMoveService.findShard(accountId);
+        int target = 1 - source;
+
+        AtomicBoolean moved = new AtomicBoolean();
+        AtomicInteger deposits = new AtomicInteger();
+        Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(DEPOSIT_THREADS);
+        try {
+            List<Future<?>> depositors = new ArrayList<>();
+            for (int thread = 0; thread < DEPOSIT_THREADS; thread++) {
+                depositors.add(executor.submit(() -> {
+                    for (int afterMove = 0; afterMove < 20; ) {
+                        try {
+                            operationService.processOperation(accountId, BigDecimal.valueOf(DEPOSIT, 2),
+                                    OperationTypes.DEPOSIT);
+                            deposits.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            failures.add(e);
+                        }
+                        if (moved.get())
+                            afterMove++;
+                    }
+                }));
+            }
+            while (deposits.get() < 200) {
+                Thread.sleep(10);
+            }
+            assertEquals(source, moveWithRetries(accountId, target));
+            moved.set(true);
+            for (Future<?> depositor : depositors) {
+                depositor.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(failures.isEmpty(), () -> "Пополнения завершились ошибкой: " + failures);
+        assertEquals(target, shardMap.shardOf(accountId));
+        JdbcTemplate targetJdbc = shardJdbc(target);
+        assertEquals(deposits.get(), targetJdbc.queryForObject(
+                "SELECT COUNT(*) FROM operations WHERE account_id = ?", Integer.class, accountId));
+        assertEquals(DEPOSIT * deposits.get(), targetJdbc.queryForObject(
+                "SELECT balance FROM accounts WHERE id = ? AND deleted_at IS NULL", Long.class, accountId));
+        assertNotNull(deletedAt(source, accountId));
+    }
+
+    /**
+     * Экземпляр приложения с устаревшим расположением аккаунта в кэше (аккаунт перенесен другим экземпляром)
+     * не находит аккаунт на прежнем шарде, перечитывает расположение из справочника и повторяет действие
+     * на новом шарде.
+     */
+    @Test
+    void staleLocationIsRetriedOnNewShard() {
+        Long accountId = accountService.createAccount("stale-location").getId();
+        operationService.processOperation(accountId, BigDecimal.valueOf(DEPOSIT, 2), OperationTypes.DEPOSIT);
+        int source = accountShardMoveService.findShard(accountId);
+
+        ShardMap otherInstance = new ShardMap(shardRouting, Optional.of(shardRoutingDataSource), List.of(),
+                Duration.ofMinutes(10), 1000);
+        assertEquals(source, otherInstance.shardOf(accountId));
+        accountShardMoveService.moveAccount(accountId, 1 - source);
+
+        AtomicInteger attempts = new AtomicInteger();
+        Long balance = otherInstance.inShard(accountId, () -> {
+            attempts.incrementAndGet();
+            List<Long> balances = jdbcTemplate.queryForList(
+                    "SELECT balance FROM accounts WHERE id = ? AND deleted_at IS NULL", Long.class, accountId);
+            if (balances.isEmpty())
+                throw new ErrorResponse(HttpStatus.NOT_FOUND, ExceptionsMessage.ACCOUNT_NOT_FOUND);
+            return balances.getFirst();
+        });
+        assertEquals(DEPOSIT, balance);
+        assertEquals(2, attempts.get());
+        assertEquals(1 - source, otherInstance.shardOf(accountId));
+    }
+
+    /**
+     * Копия аккаунта, оставшаяся неудаленной после сбоя переноса, помечается удаленной проверкой копий,
+     * если ее операции совпадают с копией на шарде из справочника.
+     */
+    @Test
+    void matchingStaleCopyIsRemoved() {
+        Long accountId = accountService.createAccount("matching-copy").getId();
+        operationService.processOperation(accountId, BigDecimal.valueOf(DEPOSIT, 2), OperationTypes.DEPOSIT);
+        int source = accountShardMoveService.findShard(accountId);
+        accountShardMoveService.moveAccount(accountId, 1 - source);
+        restoreCopy(source, accountId);
+
+        accountShardMoveService.removeStaleCopies();
+
+        assertNotNull(deletedAt(source, accountId));
+        assertNull(deletedAt(1 - source, accountId));
+    }
+
+    /**
+     * Копия аккаунта, в которую после переноса записана операция (экземпляр с устаревшим кэшем расположения),
+     * не удаляется проверкой копий: подтвержденная операция не теряется.
+     */
+    @Test
+    void divergedStaleCopyIsKept() {
+        Long accountId = accountService.createAccount("diverged-copy").getId();
+        operationService.processOperation(accountId, BigDecimal.valueOf(DEPOSIT, 2), OperationTypes.DEPOSIT);
+        int source = accountShardMoveService.findShard(accountId);
+        accountShardMoveService.moveAccount(accountId, 1 - source);
+        restoreCopy(source, accountId);
+        JdbcTemplate sourceJdbc = shardJdbc(source);
+        sourceJdbc.update("INSERT INTO operations (id, date, account_id, amount, type, account_balance) " +
+                        "VALUES (nextval('operations_seq'), now(), ?, ?, ?, ?)",
+                accountId, DEPOSIT, OperationTypes.DEPOSIT.getCode(), 2 * DEPOSIT);
+        sourceJdbc.update("UPDATE accounts SET balance = ? WHERE id = ?", 2 * DEPOSIT, accountId);
+
+        accountShardMoveService.removeStaleCopies();
+
+        assertNull(deletedAt(source, accountId));
+        assertNull(deletedAt(1 - source, accountId));
+    }
+
+    /**
+     * Метод для переноса аккаунта с повтором при отказе 409 (при досылке не совпало количество операций).
+     * @param accountId Идентификатор аккаунта.
+     * @param shard Номер целевого шарда.
+     * @return Номер шарда, на котором аккаунт хранился до переноса.
+     */
+    private int moveWithRetries(Long accountId, int shard) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return accountShardMoveService.moveAccount(accountId, shard);
+            } catch (ErrorResponse e) {
+                if (e.getCode() != HttpStatus.CONFLICT.value() || attempt == 5)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Метод для восстановления исходной копии перенесенного аккаунта, как после сбоя между фиксацией целевого
+     * шарда и пометкой исходной строки удаленной.
+     * @param shard Номер шарда копии.
+     * @param accountId Идентификатор аккаунта.
+     */
+    private void restoreCopy(int shard, Long accountId) {
+        assertEquals(1, shardJdbc(shard).update("UPDATE accounts SET deleted_at = NULL WHERE id = ?", accountId));
+    }
+
+    private Object deletedAt(int shard, Long accountId) {
+        return shardJdbc(shard).queryForObject("SELECT deleted_at FROM accounts WHERE id = ?", Object.class, accountId);
+    }
+
+    private JdbcTemplate shardJdbc(int shard) {
+        return new JdbcTemplate(shardMap.dataSource(shard));
+    }
+
+}
@@ -0,0 +1,95 @@
+package ru.farpost.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.farpost.PostgresIntegrationTest;
+import ru.farpost.components.OperationTypes;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Тесты полос баланса горячего аккаунта {@link HotAccountService} на PostgreSQL из нескольких потоков.
+ */
+class HotAccountConsolidationTest extends PostgresIntegrationTest {
+
+    private static final int STRIPES = 8;
+
+    private static final int THREADS = 8;
+
+    private static final int DEPOSITS_PER_THREAD = 200;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private OperationService operationService;
+
+    @Autowired
+    private HotAccountService hotAccountService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Параллельные пополнения полос (вместе с фоновой консолидацией) и последующая консолидация должны дать
+     * точную сумму пополнений, а балансы после операций, проставленные консолидацией, - идти в порядке
+     * (date, id): баланс каждой операции равен балансу предыдущей плюс ее сумма.
+     */
+    @Test
+    void consolidationGivesExactTotalInOperationOrder() throws Exception {
+        Long accountId = accountService.createAccount("hot-account").getId();
+        accountService.updateHotStripes(accountId, STRIPES);
+
+        LongAdder total = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> deposits = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                deposits.add(executor.submit(() -> {
+                    for (int i = 0; i < DEPOSITS_PER_THREAD; i++) {
+                        long amount = ThreadLocalRandom.current().nextLong(1, 10_000);
+                        operationService.processOperation(accountId, BigDecimal.valueOf(amount, 2),
+                                OperationTypes.DEPOSIT);
+                        total.add(amount);
+                    }
+                }));
+            }
+            for (Future<?> deposit : deposits) {
+                deposit.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        hotAccountService.consolidateIfHot(accountId);
+
+        assertEquals(total.sum(), jdbcTemplate.queryForObject(
+                "SELECT balance FROM accounts WHERE id = ?", Long.class, accountId));
+        assertEquals(total.sum(), hotAccountService.currentBalance(accountId));
+
+        List<long[]> operations = jdbcTemplate.query(
+                "SELECT amount, account_balance FROM operations WHERE account_id = ? ORDER BY date, id",
+                (resultSet, rowNum) -> {
+                    assertNotNull(resultSet.getObject("account_balance"), "Операция не консолидирована");
+                    return new long[]{resultSet.getLong("amount"), resultSet.getLong("account_balance")};
+                }, accountId);
+        assertEquals(THREADS * DEPOSITS_PER_THREAD, operations.size());
+        long balance = 0;
+        for (long[] operation : operations) {
+            balance += operation[0];
+            assertEquals(balance, operation[1]);
+        }
+    }
+
+}
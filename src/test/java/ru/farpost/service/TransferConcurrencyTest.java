@@ -0,0 +1,86 @@
+package ru.farpost.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.farpost.PostgresIntegrationTest;
+import ru.farpost.components.OperationTypes;
+import ru.farpost.utils.moneyUtils.MoneyUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Тесты переводов {@link OperationService#processTransfer} на PostgreSQL из нескольких потоков.
+ */
+class TransferConcurrencyTest extends PostgresIntegrationTest {
+
+    private static final int THREADS = 8;
+
+    private static final int TRANSFERS_PER_THREAD = 100;
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private OperationService operationService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Встречные переводы между двумя аккаунтами не должны попадать во взаимную блокировку (PostgreSQL прервал бы
+     * одну из транзакций с ошибкой deadlock detected): балансы блокируются в порядке идентификаторов аккаунтов.
+     * Все переводы выполняются, суммарный баланс сохраняется, у каждого перевода есть пара операций.
+     */
+    @Test
+    void opposingTransfersDoNotDeadlock() throws Exception {
+        Long first = accountService.createAccount("transfer-first").getId();
+        Long second = accountService.createAccount("transfer-second").getId();
+        operationService.processOperation(first, INITIAL_BALANCE, OperationTypes.DEPOSIT);
+        operationService.processOperation(second, INITIAL_BALANCE, OperationTypes.DEPOSIT);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> transfers = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                Long from = thread % 2 == 0 ? first : second;
+                Long to = thread % 2 == 0 ? second : first;
+                transfers.add(executor.submit(() -> {
+                    for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                        operationService.processTransfer(from, to, BigDecimal.ONE);
+                    }
+                }));
+            }
+            for (Future<?> transfer : transfers) {
+                transfer.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(MoneyUtils.toMinorUnits(INITIAL_BALANCE), balance(first));
+        assertEquals(MoneyUtils.toMinorUnits(INITIAL_BALANCE), balance(second));
+        assertEquals(THREADS * TRANSFERS_PER_THREAD, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM operations WHERE account_id IN (?, ?) AND type = ?", Integer.class,
+                first, second, OperationTypes.TRANSFER.getCode()) / 2);
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM operations d JOIN operations c ON c.id = d.linked_operation_id " +
+                "WHERE d.account_id = ? AND d.type = ? AND c.linked_operation_id <> d.id",
+                Integer.class, first, OperationTypes.TRANSFER.getCode()));
+    }
+
+    private long balance(Long accountId) {
+        return jdbcTemplate.queryForObject("SELECT balance FROM accounts WHERE id = ?", Long.class, accountId);
+    }
+
+}